@@ -0,0 +1,85 @@
+/* Copyright 2008 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.oauth.consumer;
+
+import com.veriplace.oauth.message.ParameterSet;
+import com.veriplace.oauth.message.Request;
+import com.veriplace.oauth.message.Response;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+
+/**
+ * Stand-in for the oauth-client 1.2 class of the same name, so that the
+ * benchmark runs on Java 9 and later.
+ * <p>
+ * The original constructor creates a {@link URLDecoder}, whose constructor
+ * is no longer public, so every {@link Consumer} fails with an
+ * IllegalAccessError.  The decoder is only ever used through its static
+ * methods, so this copy leaves it unset and is otherwise the same.  It is
+ * put ahead of the jar on the benchmark's classpath only; the webapp itself
+ * is unchanged.
+ */
+public abstract class Client {
+
+   private static final Log logger = LogFactory.getLog(Client.class);
+
+   protected URLDecoder decoder;
+   protected boolean useHttpAuthorization = false;
+
+   public abstract Response getResponse(Request request)
+      throws IOException;
+
+   public boolean getUseHttpAuthorization() {
+      return useHttpAuthorization;
+   }
+
+   public void setUseHttpAuthorization(boolean useHttpAuthorization) {
+      this.useHttpAuthorization = useHttpAuthorization;
+   }
+
+   public void setParameters(ParameterSet parameters,
+                             String body) {
+      for (String pair : body.split(String.valueOf('&'))) {
+         String[] parts = pair.split(String.valueOf('='));
+         if (parts.length > 2) {
+            logger.warn("Decoded parameter contains more than one '=': " + pair);
+            continue;
+         }
+         try {
+            String name = URLDecoder.decode(parts[0], "UTF-8");
+            String value = (parts.length > 1) ? URLDecoder.decode(parts[1], "UTF-8") : null;
+            parameters.put(name, value);
+         }
+         catch (UnsupportedEncodingException e) {
+            logger.warn("Unsupported encoding: " + e);
+         }
+      }
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
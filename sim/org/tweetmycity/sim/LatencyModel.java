@@ -0,0 +1,148 @@
+/* Copyright 2008 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tweetmycity.sim;
+
+import java.util.Random;
+
+/**
+ * A distribution of response delays, in milliseconds.
+ * <p>
+ * Models are written as strings so they can be given on the command line:
+ * <ul>
+ * <li>"none" - no delay</li>
+ * <li>"fixed:MS" - always MS</li>
+ * <li>"uniform:MIN,MAX" - evenly spread between MIN and MAX</li>
+ * <li>"exp:MEAN" - exponential with the given mean</li>
+ * <li>"lognormal:MEDIAN,SIGMA" - log-normal with the given median; a SIGMA
+ *   around 0.5 to 1 gives the long tail typical of remote services</li>
+ * </ul>
+ */
+public class LatencyModel {
+
+   public static final LatencyModel NONE = new LatencyModel("none", 0, 0, 0);
+
+   private static final int FIXED = 0;
+   private static final int UNIFORM = 1;
+   private static final int EXPONENTIAL = 2;
+   private static final int LOGNORMAL = 3;
+
+   private final String spec;
+   private final int kind;
+   private final double a;
+   private final double b;
+
+   private LatencyModel(String spec, int kind, double a, double b) {
+      this.spec = spec;
+      this.kind = kind;
+      this.a = a;
+      this.b = b;
+   }
+
+   /**
+    * Parse a model from its string form.
+    * @throws IllegalArgumentException if the string is not a valid model
+    */
+   public static LatencyModel parse(String spec) {
+      String s = spec.trim();
+      if (s.equals("none") || s.length() == 0) {
+         return NONE;
+      }
+      int colon = s.indexOf(':');
+      if (colon < 0) {
+         throw new IllegalArgumentException("Invalid latency model: " + spec);
+      }
+      String name = s.substring(0, colon);
+      String[] args = s.substring(colon + 1).split(",");
+      try {
+         if (name.equals("fixed") && args.length == 1) {
+            return new LatencyModel(s, FIXED, nonNegative(args[0], spec), 0);
+         }
+         if (name.equals("uniform") && args.length == 2) {
+            double min = nonNegative(args[0], spec);
+            double max = nonNegative(args[1], spec);
+            if (max < min) {
+               throw new IllegalArgumentException("Invalid latency model: " + spec);
+            }
+            return new LatencyModel(s, UNIFORM, min, max);
+         }
+         if (name.equals("exp") && args.length == 1) {
+            return new LatencyModel(s, EXPONENTIAL, nonNegative(args[0], spec), 0);
+         }
+         if (name.equals("lognormal") && args.length == 2) {
+            return new LatencyModel(s, LOGNORMAL, nonNegative(args[0], spec),
+                                    nonNegative(args[1], spec));
+         }
+      }
+      catch (NumberFormatException e) {
+         throw new IllegalArgumentException("Invalid latency model: " + spec);
+      }
+      throw new IllegalArgumentException("Invalid latency model: " + spec);
+   }
+
+   /**
+    * Draw one delay, in milliseconds.
+    */
+   public long sample(Random random) {
+      double ms;
+      switch (kind) {
+      case UNIFORM:
+         ms = a + (b - a) * random.nextDouble();
+         break;
+      case EXPONENTIAL:
+         ms = -a * Math.log(1.0 - random.nextDouble());
+         break;
+      case LOGNORMAL:
+         ms = a * Math.exp(b * random.nextGaussian());
+         break;
+      default:
+         ms = a;
+      }
+      return Math.round(ms);
+   }
+
+   /**
+    * Sleep for one delay drawn from this model.
+    */
+   public void delay(Random random)
+      throws InterruptedException {
+      long ms = sample(random);
+      if (ms > 0) {
+         Thread.sleep(ms);
+      }
+   }
+
+   @Override
+   public String toString() {
+      return spec;
+   }
+
+   private static double nonNegative(String value, String spec) {
+      double d = Double.parseDouble(value.trim());
+      if (d < 0 || Double.isNaN(d)) {
+         throw new IllegalArgumentException("Invalid latency model: " + spec);
+      }
+      return d;
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
@@ -0,0 +1,134 @@
+/* Copyright 2008 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tweetmycity.sim;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Synthetic movement of simulated users between cities.
+ * <p>
+ * Each user starts in a city chosen from their ID, and every time they are
+ * located they move to another city with the given probability.  The trace
+ * for a user depends only on the seed and their ID, so two runs with the
+ * same settings see the same movements.
+ */
+public class MobilityModel {
+
+   /**
+    * A city a user can be in.
+    */
+   public static final class City {
+      public final String name;
+      public final String state;
+      public final double latitude;
+      public final double longitude;
+
+      City(String name, String state, double latitude, double longitude) {
+         this.name = name;
+         this.state = state;
+         this.latitude = latitude;
+         this.longitude = longitude;
+      }
+   }
+
+   private static final City[] CITIES = {
+      new City("San Francisco", "CA", 37.7749, -122.4194),
+      new City("Emeryville", "CA", 37.8313, -122.2852),
+      new City("Oakland", "CA", 37.8044, -122.2712),
+      new City("San Jose", "CA", 37.3382, -121.8863),
+      new City("Los Angeles", "CA", 34.0522, -118.2437),
+      new City("Seattle", "WA", 47.6062, -122.3321),
+      new City("Portland", "OR", 45.5152, -122.6784),
+      new City("Denver", "CO", 39.7392, -104.9903),
+      new City("Chicago", "IL", 41.8781, -87.6298),
+      new City("New York", "NY", 40.7128, -74.0060),
+      new City("Boston", "MA", 42.3601, -71.0589),
+      new City("Austin", "TX", 30.2672, -97.7431)
+   };
+
+   private final long seed;
+   private final double moveProbability;
+   private final ConcurrentMap<Long,Trace> traces = new ConcurrentHashMap<Long,Trace>();
+
+   /**
+    * @param seed  seed for all traces
+    * @param moveProbability  chance, from 0 to 1, that a user has changed city
+    *   since they were last located
+    */
+   public MobilityModel(long seed, double moveProbability) {
+      if (moveProbability < 0 || moveProbability > 1) {
+         throw new IllegalArgumentException("moveProbability must be between 0 and 1");
+      }
+      this.seed = seed;
+      this.moveProbability = moveProbability;
+   }
+
+   /**
+    * Returns the city a user is in now, advancing their trace by one step.
+    */
+   public City next(long userId) {
+      Trace trace = traces.get(userId);
+      if (trace == null) {
+         Trace created = new Trace(new Random(seed ^ (userId * 0x9E3779B97F4A7C15L)));
+         trace = traces.putIfAbsent(userId, created);
+         if (trace == null) {
+            trace = created;
+         }
+      }
+      return CITIES[trace.next(moveProbability)];
+   }
+
+   /**
+    * Returns the number of cities users move between.
+    */
+   public int getCityCount() {
+      return CITIES.length;
+   }
+
+   public double getMoveProbability() {
+      return moveProbability;
+   }
+
+   private static final class Trace {
+      private final Random random;
+      private int city = -1;
+
+      Trace(Random random) {
+         this.random = random;
+      }
+
+      synchronized int next(double moveProbability) {
+         if (city < 0) {
+            city = random.nextInt(CITIES.length);
+         }
+         else if (random.nextDouble() < moveProbability) {
+            city = (city + 1 + random.nextInt(CITIES.length - 1)) % CITIES.length;
+         }
+         return city;
+      }
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
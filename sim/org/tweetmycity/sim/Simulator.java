@@ -0,0 +1,502 @@
+/* Copyright 2008 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tweetmycity.sim;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An embeddable stand-in for the Veriplace and Twitter APIs, for measuring
+ * TweetMyCity without live accounts.
+ * <p>
+ * The simulator serves the Veriplace endpoints under {@link #getVeriplaceUrl()}:
+ * <ul>
+ * <li>/api/requestToken, /api/userAuthorization and /api/accessToken; user
+ *   authorization always behaves as an "immediate" request, redirecting
+ *   straight back to the callback unless permission is denied</li>
+ * <li>/api/1.0/users/{id}/locations, answering with a city from a
+ *   {@link MobilityModel}</li>
+ * <li>/api/1.0/users, for user discovery</li>
+ * <li>/api/1.0/permissions</li>
+ * </ul>
+ * and the Twitter endpoints used by twitter4j under {@link #getTwitterUrl()}:
+ * account/verify_credentials.xml and statuses/update.xml.
+ * <p>
+ * Signatures are not checked.  Each service has its own {@link LatencyModel}
+ * and error rate; a failed call answers with the configured error status.
+ * All settings may be changed while the simulator is running.
+ */
+public class Simulator {
+
+   private static final Log logger = LogFactory.getLog(Simulator.class);
+
+   private static final Pattern LOCATIONS_PATH = Pattern.compile("/api/1\\.0/users/(\\d+)/locations/?");
+   private static final Pattern AUTH_PARAM = Pattern.compile("(\\w+)=\"([^\"]*)\"");
+
+   private final HttpServer server;
+   private final ExecutorService executor;
+   private final Random random;
+   private final AtomicLong sequence = new AtomicLong();
+   private final ConcurrentMap<String,AtomicLong> requestCounts = new ConcurrentHashMap<String,AtomicLong>();
+   private final ConcurrentMap<String,String> callbacks = new ConcurrentHashMap<String,String>();
+
+   private volatile MobilityModel mobility;
+   private volatile LatencyModel veriplaceLatency = LatencyModel.NONE;
+   private volatile LatencyModel twitterLatency = LatencyModel.NONE;
+   private volatile double veriplaceErrorRate;
+   private volatile double twitterErrorRate;
+   private volatile int veriplaceErrorCode = 503;
+   private volatile int twitterErrorCode = 503;
+   private volatile double denyRate;
+   private volatile double positionFailureRate;
+
+   /**
+    * Create a simulator listening on the given port, or on any free port if zero.
+    * Call {@link #start()} to begin serving.
+    */
+   public Simulator(int port, long seed)
+      throws IOException {
+      this.random = new Random(seed);
+      this.mobility = new MobilityModel(seed, 0.5);
+      server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+      executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicLong count = new AtomicLong();
+            public Thread newThread(Runnable r) {
+               Thread thread = new Thread(r, "simulator-" + count.incrementAndGet());
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+      server.setExecutor(executor);
+      server.createContext("/api/", new Handler() {
+            void handle(HttpExchange exchange, Map<String,String> params)
+               throws IOException, InterruptedException {
+               handleVeriplace(exchange, params);
+            }
+         });
+      server.createContext("/twitter/", new Handler() {
+            void handle(HttpExchange exchange, Map<String,String> params)
+               throws IOException, InterruptedException {
+               handleTwitter(exchange, params);
+            }
+         });
+   }
+
+   public void start() {
+      server.start();
+      logger.info("Simulator listening on " + getBaseUrl());
+   }
+
+   public void stop() {
+      server.stop(0);
+      executor.shutdownNow();
+   }
+
+   /**
+    * Returns the base URL of the simulator, e.g. "http://127.0.0.1:8080".
+    */
+   public String getBaseUrl() {
+      return "http://127.0.0.1:" + server.getAddress().getPort();
+   }
+
+   /**
+    * Returns the URL to use as "veriplace.url".
+    */
+   public String getVeriplaceUrl() {
+      return getBaseUrl();
+   }
+
+   /**
+    * Returns the URL to give twitter4j as its base URL.
+    */
+   public String getTwitterUrl() {
+      return getBaseUrl() + "/twitter/";
+   }
+
+   public void setMobilityModel(MobilityModel mobility) {
+      this.mobility = mobility;
+   }
+
+   public void setVeriplaceLatency(LatencyModel latency) {
+      this.veriplaceLatency = latency;
+   }
+
+   public void setTwitterLatency(LatencyModel latency) {
+      this.twitterLatency = latency;
+   }
+
+   /**
+    * Set the fraction of Veriplace calls that fail, and the HTTP status they fail with.
+    */
+   public void setVeriplaceErrors(double rate, int code) {
+      this.veriplaceErrorRate = rate;
+      this.veriplaceErrorCode = code;
+   }
+
+   /**
+    * Set the fraction of Twitter calls that fail, and the HTTP status they fail with.
+    */
+   public void setTwitterErrors(double rate, int code) {
+      this.twitterErrorRate = rate;
+      this.twitterErrorCode = code;
+   }
+
+   /**
+    * Set the fraction of user authorizations that are refused.
+    */
+   public void setDenyRate(double rate) {
+      this.denyRate = rate;
+   }
+
+   /**
+    * Set the fraction of location requests that return a position error.
+    */
+   public void setPositionFailureRate(double rate) {
+      this.positionFailureRate = rate;
+   }
+
+   /**
+    * Returns the number of requests served for each endpoint, by path.
+    */
+   public Map<String,Long> getRequestCounts() {
+      Map<String,Long> counts = new TreeMap<String,Long>();
+      for (Map.Entry<String,AtomicLong> e : requestCounts.entrySet()) {
+         counts.put(e.getKey(), e.getValue().get());
+      }
+      return counts;
+   }
+
+   /**
+    * Returns the number of statuses posted to Twitter.
+    */
+   public long getTweetCount() {
+      AtomicLong count = requestCounts.get("/twitter/statuses/update.xml");
+      return (count == null) ? 0 : count.get();
+   }
+
+   ////////////
+
+   private void handleVeriplace(HttpExchange exchange, Map<String,String> params)
+      throws IOException, InterruptedException {
+
+      String path = exchange.getRequestURI().getPath();
+      veriplaceLatency.delay(random);
+      if (chance(veriplaceErrorRate)) {
+         send(exchange, veriplaceErrorCode, "text/plain", "Simulated failure");
+         return;
+      }
+
+      if (path.equals("/api/requestToken")) {
+         String token = "rt" + sequence.incrementAndGet();
+         String callback = params.get("oauth_callback");
+         if (callback != null) {
+            callbacks.put(token, callback);
+         }
+         send(exchange, 200, "application/x-www-form-urlencoded",
+              "oauth_token=" + token + "&oauth_token_secret=rs" + token.substring(2) +
+              "&oauth_callback_confirmed=true");
+      }
+      else if (path.equals("/api/userAuthorization")) {
+         String token = params.get("oauth_token");
+         String callback = (token == null) ? null : callbacks.remove(token);
+         if (callback == null) {
+            callback = params.get("oauth_callback");
+         }
+         if (token == null || callback == null || chance(denyRate)) {
+            send(exchange, 200, "text/html", "<html><body>Permission required</body></html>");
+            return;
+         }
+         String location = callback + (callback.indexOf('?') < 0 ? "?" : "&") +
+            "oauth_token=" + token + "&oauth_verifier=v" + token.substring(2);
+         exchange.getResponseHeaders().set("Location", location);
+         send(exchange, 302, "text/plain", "");
+      }
+      else if (path.equals("/api/accessToken")) {
+         String token = params.get("oauth_token");
+         if (token == null || ! token.startsWith("rt")) {
+            send(exchange, 401, "text/plain", "Invalid request token");
+            return;
+         }
+         String id = token.substring(2);
+         send(exchange, 200, "application/x-www-form-urlencoded",
+              "oauth_token=at" + id + "&oauth_token_secret=as" + id);
+      }
+      else if (path.equals("/api/1.0/users") || path.equals("/api/1.0/users/")) {
+         send(exchange, 200, "text/xml",
+              "<user id=\"" + (1000 + sequence.incrementAndGet()) + "\"/>");
+      }
+      else if (path.equals("/api/1.0/permissions") || path.equals("/api/1.0/permissions/")) {
+         send(exchange, 200, "text/xml", "<permissions/>");
+      }
+      else {
+         Matcher m = LOCATIONS_PATH.matcher(path);
+         if (m.matches()) {
+            sendLocation(exchange, Long.parseLong(m.group(1)));
+         }
+         else {
+            send(exchange, 404, "text/plain", "Not found");
+         }
+      }
+   }
+
+   private void sendLocation(HttpExchange exchange, long userId)
+      throws IOException {
+      long id = sequence.incrementAndGet();
+      Date now = new Date();
+      StringBuilder doc = new StringBuilder();
+      doc.append("<location id=\"").append(id).append("\">")
+         .append("<created>").append(iso(now)).append("</created>")
+         .append("<expires>").append(iso(new Date(now.getTime() + 3600000L))).append("</expires>");
+      if (chance(positionFailureRate)) {
+         doc.append("<positionError><code>2</code><message>Simulated position failure</message>")
+            .append("</positionError>");
+      }
+      else {
+         MobilityModel.City city = mobility.next(userId);
+         doc.append("<position>")
+            .append("<longitude>").append(city.longitude).append("</longitude>")
+            .append("<latitude>").append(city.latitude).append("</latitude>")
+            .append("<accuracy>1000.0</accuracy>")
+            .append("<street></street><neighborhood></neighborhood>")
+            .append("<city>").append(city.name).append("</city>")
+            .append("<state>").append(city.state).append("</state>")
+            .append("<postal></postal><countryCode>US</countryCode>")
+            .append("</position>");
+      }
+      doc.append("</location>");
+      send(exchange, 200, "text/xml", doc.toString());
+   }
+
+   private void handleTwitter(HttpExchange exchange, Map<String,String> params)
+      throws IOException, InterruptedException {
+
+      String path = exchange.getRequestURI().getPath();
+      twitterLatency.delay(random);
+      if (chance(twitterErrorRate)) {
+         send(exchange, twitterErrorCode, "text/xml",
+              "<hash><error>Simulated failure</error></hash>");
+         return;
+      }
+      String token = params.get("oauth_token");
+      long userId = 1;
+      if (token != null) {
+         userId = Math.abs((long) token.hashCode()) + 1;
+      }
+      if (path.equals("/twitter/account/verify_credentials.xml")) {
+         send(exchange, 200, "text/xml", userXml(userId));
+      }
+      else if (path.equals("/twitter/statuses/update.xml")) {
+         String text = params.get("status");
+         send(exchange, 200, "text/xml",
+              "<status>" +
+              "<created_at>" + twitterDate(new Date()) + "</created_at>" +
+              "<id>" + sequence.incrementAndGet() + "</id>" +
+              "<text>" + escape(text == null ? "" : text) + "</text>" +
+              "<source>web</source>" +
+              "<truncated>false</truncated>" +
+              "<in_reply_to_status_id></in_reply_to_status_id>" +
+              "<in_reply_to_user_id></in_reply_to_user_id>" +
+              "<favorited>false</favorited>" +
+              "<in_reply_to_screen_name></in_reply_to_screen_name>" +
+              userXml(userId) +
+              "</status>");
+      }
+      else {
+         send(exchange, 404, "text/xml", "<hash><error>Not found</error></hash>");
+      }
+   }
+
+   private String userXml(long userId) {
+      return
+         "<user>" +
+         "<id>" + userId + "</id>" +
+         "<name>Sim User " + userId + "</name>" +
+         "<screen_name>sim" + userId + "</screen_name>" +
+         "<location></location>" +
+         "<description></description>" +
+         "<profile_image_url>http://127.0.0.1/image.png</profile_image_url>" +
+         "<url></url>" +
+         "<protected>false</protected>" +
+         "<followers_count>0</followers_count>" +
+         "<profile_background_color>ffffff</profile_background_color>" +
+         "<profile_text_color>000000</profile_text_color>" +
+         "<profile_link_color>0000ff</profile_link_color>" +
+         "<profile_sidebar_fill_color>ffffff</profile_sidebar_fill_color>" +
+         "<profile_sidebar_border_color>ffffff</profile_sidebar_border_color>" +
+         "<friends_count>0</friends_count>" +
+         "<created_at>" + twitterDate(new Date(0)) + "</created_at>" +
+         "<favourites_count>0</favourites_count>" +
+         "<utc_offset>0</utc_offset>" +
+         "<time_zone>UTC</time_zone>" +
+         "<profile_background_image_url>http://127.0.0.1/bg.png</profile_background_image_url>" +
+         "<profile_background_tile>false</profile_background_tile>" +
+         "<following>false</following>" +
+         "<notifications>false</notifications>" +
+         "<statuses_count>0</statuses_count>" +
+         "</user>";
+   }
+
+   private boolean chance(double rate) {
+      return rate > 0 && random.nextDouble() < rate;
+   }
+
+   private void send(HttpExchange exchange, int code, String contentType, String body)
+      throws IOException {
+      byte[] bytes = body.getBytes("UTF-8");
+      exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=UTF-8");
+      exchange.sendResponseHeaders(code, bytes.length == 0 ? -1 : bytes.length);
+      if (bytes.length > 0) {
+         OutputStream out = exchange.getResponseBody();
+         out.write(bytes);
+         out.close();
+      }
+   }
+
+   private static String iso(Date date) {
+      SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+      format.setTimeZone(TimeZone.getTimeZone("UTC"));
+      return format.format(date);
+   }
+
+   private static String twitterDate(Date date) {
+      SimpleDateFormat format = new SimpleDateFormat("EEE MMM dd HH:mm:ss z yyyy", Locale.US);
+      format.setTimeZone(TimeZone.getTimeZone("UTC"));
+      return format.format(date);
+   }
+
+   private static String escape(String s) {
+      return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+   }
+
+   /**
+    * Collect the query string, form body and OAuth Authorization header
+    * parameters of a request into one map.
+    */
+   private static Map<String,String> parameters(HttpExchange exchange)
+      throws IOException {
+      Map<String,String> params = new HashMap<String,String>();
+      parseForm(exchange.getRequestURI().getRawQuery(), params);
+
+      InputStream in = exchange.getRequestBody();
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      byte[] buf = new byte[4096];
+      int n;
+      while ((n = in.read(buf)) > 0) {
+         body.write(buf, 0, n);
+      }
+      in.close();
+      parseForm(body.toString("UTF-8"), params);
+
+      String auth = exchange.getRequestHeaders().getFirst("Authorization");
+      if (auth != null && auth.startsWith("OAuth ")) {
+         Matcher m = AUTH_PARAM.matcher(auth);
+         while (m.find()) {
+            params.put(m.group(1), decode(m.group(2)));
+         }
+      }
+      return params;
+   }
+
+   private static void parseForm(String form, Map<String,String> params)
+      throws UnsupportedEncodingException {
+      if (form == null || form.length() == 0) {
+         return;
+      }
+      for (String pair : form.split("&")) {
+         int eq = pair.indexOf('=');
+         if (eq > 0) {
+            params.put(decode(pair.substring(0, eq)), decode(pair.substring(eq + 1)));
+         }
+      }
+   }
+
+   private static String decode(String s)
+      throws UnsupportedEncodingException {
+      return URLDecoder.decode(s, "UTF-8");
+   }
+
+   private abstract class Handler
+      implements HttpHandler {
+
+      abstract void handle(HttpExchange exchange, Map<String,String> params)
+         throws IOException, InterruptedException;
+
+      public void handle(HttpExchange exchange)
+         throws IOException {
+         String path = exchange.getRequestURI().getPath();
+         String key = LOCATIONS_PATH.matcher(path).matches() ? "/api/1.0/users/{id}/locations" : path;
+         AtomicLong count = requestCounts.get(key);
+         if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = requestCounts.putIfAbsent(key, created);
+            if (count == null) {
+               count = created;
+            }
+         }
+         count.incrementAndGet();
+         try {
+            handle(exchange, parameters(exchange));
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         catch (RuntimeException e) {
+            logger.warn("Simulator failed on " + path, e);
+            send(exchange, 500, "text/plain", String.valueOf(e));
+         }
+         finally {
+            exchange.close();
+         }
+      }
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
@@ -0,0 +1,381 @@
+/* Copyright 2008 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tweetmycity.sim;
+
+import org.tweetmycity.ClientRegistry;
+import org.tweetmycity.HashRing;
+import org.tweetmycity.SubscriberUpdater;
+import org.tweetmycity.TmcUser;
+import org.tweetmycity.Tweet;
+import org.tweetmycity.UpdateTracer;
+import org.tweetmycity.UserStore;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs full subscriber update sweeps against a {@link Simulator} and reports
+ * throughput and per-user latency.
+ * <p>
+ * Usage: <pre>SweepBenchmark [--option value]...</pre>
+ * <ul>
+ * <li>--users N - number of synthetic subscribers (1000)</li>
+ * <li>--sweeps N - number of sweeps to run; the first is reported separately
+ *   as warm-up when there is more than one (3)</li>
+ * <li>--threads N - number of subscribers updated at once on each node (1, as in
+ *   the servlet)</li>
+ * <li>--nodes N - number of nodes sharing the sweep; subscribers are split among
+ *   them as a {@link org.tweetmycity.Cluster} would split them, and every node's
+ *   slice is swept at once (1)</li>
+ * <li>--veriplace-latency MODEL, --twitter-latency MODEL - see {@link LatencyModel}
+ *   ("lognormal:40,0.5" and "lognormal:80,0.7")</li>
+ * <li>--veriplace-error-rate R, --twitter-error-rate R - fraction of failed calls (0)</li>
+ * <li>--deny-rate R - fraction of refused authorizations (0)</li>
+ * <li>--position-failure-rate R - fraction of failed position fixes (0)</li>
+ * <li>--move-probability P - chance a user changed city between sweeps (0.3)</li>
+ * <li>--seed N - random seed (1)</li>
+ * <li>--trace-file FILE - append a trace of every update to FILE, as JSON lines</li>
+ * <li>--update-timeout MS - time allowed for each subscriber update; 0 for
+ *   no limit (60000)</li>
+ * </ul>
+ * Subscribers are kept in a temporary directory, which is removed afterwards.
+ */
+public class SweepBenchmark {
+
+   private int users = 1000;
+   private int sweeps = 3;
+   private int threads = 1;
+   private int nodes = 1;
+   private String veriplaceLatency = "lognormal:40,0.5";
+   private String twitterLatency = "lognormal:80,0.7";
+   private double veriplaceErrorRate = 0;
+   private double twitterErrorRate = 0;
+   private double denyRate = 0;
+   private double positionFailureRate = 0;
+   private double moveProbability = 0.3;
+   private long seed = 1;
+   private File traceFile;
+   private long updateTimeout = SubscriberUpdater.DEFAULT_UPDATE_TIMEOUT;
+
+   public static void main(String[] args)
+      throws Exception {
+      SweepBenchmark benchmark = new SweepBenchmark();
+      try {
+         benchmark.parseArguments(args);
+      }
+      catch (IllegalArgumentException e) {
+         System.err.println(e.getMessage());
+         System.exit(2);
+      }
+      benchmark.run();
+   }
+
+   void parseArguments(String[] args) {
+      for (int i = 0; i < args.length; i++) {
+         String name = args[i];
+         if (i + 1 >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + name);
+         }
+         String value = args[++i];
+         try {
+            if (name.equals("--users")) {
+               users = Integer.parseInt(value);
+            }
+            else if (name.equals("--sweeps")) {
+               sweeps = Integer.parseInt(value);
+            }
+            else if (name.equals("--threads")) {
+               threads = Integer.parseInt(value);
+            }
+            else if (name.equals("--nodes")) {
+               nodes = Integer.parseInt(value);
+            }
+            else if (name.equals("--veriplace-latency")) {
+               LatencyModel.parse(value);
+               veriplaceLatency = value;
+            }
+            else if (name.equals("--twitter-latency")) {
+               LatencyModel.parse(value);
+               twitterLatency = value;
+            }
+            else if (name.equals("--veriplace-error-rate")) {
+               veriplaceErrorRate = Double.parseDouble(value);
+            }
+            else if (name.equals("--twitter-error-rate")) {
+               twitterErrorRate = Double.parseDouble(value);
+            }
+            else if (name.equals("--deny-rate")) {
+               denyRate = Double.parseDouble(value);
+            }
+            else if (name.equals("--position-failure-rate")) {
+               positionFailureRate = Double.parseDouble(value);
+            }
+            else if (name.equals("--move-probability")) {
+               moveProbability = Double.parseDouble(value);
+            }
+            else if (name.equals("--seed")) {
+               seed = Long.parseLong(value);
+            }
+            else if (name.equals("--trace-file")) {
+               traceFile = new File(value);
+            }
+            else if (name.equals("--update-timeout")) {
+               updateTimeout = Long.parseLong(value);
+            }
+            else {
+               throw new IllegalArgumentException("Unknown option: " + name);
+            }
+         }
+         catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+         }
+      }
+      if (users <= 0 || sweeps <= 0 || threads <= 0 || nodes <= 0) {
+         throw new IllegalArgumentException("--users, --sweeps, --threads and --nodes must be positive");
+      }
+   }
+
+   void run()
+      throws Exception {
+      File dir = createTempDir();
+      Simulator simulator = new Simulator(0, seed);
+      ClientRegistry registry = null;
+      UpdateTracer tracer = null;
+      SubscriberUpdater updater = null;
+      try {
+         simulator.setVeriplaceLatency(LatencyModel.parse(veriplaceLatency));
+         simulator.setTwitterLatency(LatencyModel.parse(twitterLatency));
+         simulator.setVeriplaceErrors(veriplaceErrorRate, 503);
+         simulator.setTwitterErrors(twitterErrorRate, 503);
+         simulator.setDenyRate(denyRate);
+         simulator.setPositionFailureRate(positionFailureRate);
+         simulator.setMobilityModel(new MobilityModel(seed, moveProbability));
+         simulator.start();
+
+         System.setProperty(UserStore.DIRECTORY_PROPERTY, dir.getPath());
+         System.setProperty(Tweet.BASE_URL_PROPERTY, simulator.getTwitterUrl());
+
+         UserStore store = new UserStore();
+         for (int i = 0; i < users; i++) {
+            long id = 100000 + i;
+            store.addUser(id, "tt" + id, "ts" + id, "phone");
+         }
+
+         registry = new ClientRegistry(writeProperties(dir, simulator));
+         if (traceFile != null) {
+            tracer = new UpdateTracer(UpdateTracer.DEFAULT_BUFFER_SIZE, traceFile, 1.0);
+         }
+         updater = new SubscriberUpdater(registry, tracer);
+         updater.setUpdateTimeout(updateTimeout);
+
+         System.out.println("users=" + users + " nodes=" + nodes + " threads=" + threads +
+                            " veriplace=" + veriplaceLatency + " twitter=" + twitterLatency +
+                            " veriplace-errors=" + veriplaceErrorRate +
+                            " twitter-errors=" + twitterErrorRate +
+                            " deny=" + denyRate + " move=" + moveProbability);
+         for (int sweep = 1; sweep <= sweeps; sweep++) {
+            long tweetsBefore = simulator.getTweetCount();
+            Result result = sweep(updater, store.getUsers());
+            String label = (sweeps > 1 && sweep == 1) ? "warm-up" : "sweep " + sweep;
+            System.out.println(label + ": " + result +
+                               " tweets=" + (simulator.getTweetCount() - tweetsBefore));
+         }
+         for (Map.Entry<String,Long> e : simulator.getRequestCounts().entrySet()) {
+            System.out.println("  " + e.getKey() + " " + e.getValue());
+         }
+      }
+      finally {
+         if (updater != null) {
+            updater.close();
+         }
+         if (tracer != null) {
+            tracer.close();
+         }
+         if (registry != null) {
+            registry.close();
+         }
+         simulator.stop();
+         delete(dir);
+      }
+   }
+
+   /**
+    * Update every subscriber once, timing each one.  Each node's slice is
+    * worked through by its own threads.
+    */
+   Result sweep(final SubscriberUpdater updater, final List<TmcUser> subscribers)
+      throws InterruptedException {
+      final long[] latencies = new long[subscribers.size()];
+      final AtomicInteger failures = new AtomicInteger();
+      final AtomicReference<Throwable> fatal = new AtomicReference<Throwable>();
+
+      long start = System.nanoTime();
+      List<int[]> slices = getSlices(subscribers);
+      ExecutorService pool = Executors.newFixedThreadPool(threads * slices.size());
+      for (final int[] slice : slices) {
+         final AtomicInteger next = new AtomicInteger();
+         for (int t = 0; t < threads; t++) {
+            pool.execute(new Runnable() {
+                  public void run() {
+                     int n;
+                     while (fatal.get() == null && (n = next.getAndIncrement()) < slice.length) {
+                        int i = slice[n];
+                        long begin = System.nanoTime();
+                        try {
+                           updater.update(subscribers.get(i));
+                        }
+                        catch (RuntimeException e) {
+                           failures.incrementAndGet();
+                        }
+                        catch (Error e) {
+                           // Stop the whole sweep; its numbers would mean nothing
+                           fatal.compareAndSet(null, e);
+                           return;
+                        }
+                        latencies[i] = System.nanoTime() - begin;
+                     }
+                  }
+               });
+         }
+      }
+      pool.shutdown();
+      pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      if (fatal.get() != null) {
+         throw new IllegalStateException("Sweep failed", fatal.get());
+      }
+      return new Result(latencies, System.nanoTime() - start, failures.get());
+   }
+
+   /**
+    * Split the subscribers among the nodes by consistent hashing, as
+    * {@link org.tweetmycity.Cluster} does.
+    * @return for each node, the indexes of its subscribers
+    */
+   private List<int[]> getSlices(List<TmcUser> subscribers) {
+      List<String> names = new ArrayList<String>();
+      for (int n = 1; n <= nodes; n++) {
+         names.add("node-" + n);
+      }
+      HashRing ring = new HashRing(names);
+      List<int[]> slices = new ArrayList<int[]>();
+      for (String name : ring.getNodes()) {
+         int count = 0;
+         int[] slice = new int[subscribers.size()];
+         for (int i = 0; i < slice.length; i++) {
+            if (nodes == 1 || name.equals(ring.getNode(subscribers.get(i).getUserId()))) {
+               slice[count++] = i;
+            }
+         }
+         slices.add(Arrays.copyOf(slice, count));
+      }
+      return slices;
+   }
+
+   static final class Result {
+      final long[] latencies;
+      final long elapsed;
+      final int failures;
+
+      Result(long[] latencies, long elapsed, int failures) {
+         this.latencies = latencies.clone();
+         Arrays.sort(this.latencies);
+         this.elapsed = elapsed;
+         this.failures = failures;
+      }
+
+      double usersPerSecond() {
+         return latencies.length / (elapsed / 1e9);
+      }
+
+      /**
+       * Returns the given percentile of per-user latency, in milliseconds.
+       */
+      double percentile(double p) {
+         if (latencies.length == 0) {
+            return 0;
+         }
+         int index = (int) Math.ceil(p / 100.0 * latencies.length) - 1;
+         return latencies[Math.max(0, Math.min(index, latencies.length - 1))] / 1e6;
+      }
+
+      @Override
+      public String toString() {
+         return String.format("%.1f users/s p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms failures=%d",
+                              usersPerSecond(), percentile(50), percentile(90),
+                              percentile(99), percentile(100), failures);
+      }
+   }
+
+   private File writeProperties(File dir, Simulator simulator)
+      throws IOException {
+      Properties properties = new Properties();
+      properties.setProperty("consumer.key", "sim-consumer");
+      properties.setProperty("consumer.secret", "sim-secret");
+      properties.setProperty("veriplace.url", simulator.getVeriplaceUrl());
+      properties.setProperty("veriplace.https", "false");
+      properties.setProperty("applicationToken.value", "sim-app-token");
+      properties.setProperty("applicationToken.secret", "sim-app-secret");
+      File file = new File(dir, "tweetmycity.properties");
+      OutputStream out = new FileOutputStream(file);
+      try {
+         properties.store(out, "SweepBenchmark");
+      }
+      finally {
+         out.close();
+      }
+      return file;
+   }
+
+   private static File createTempDir()
+      throws IOException {
+      File dir = File.createTempFile("tmc-bench", "");
+      if (! dir.delete() || ! dir.mkdir()) {
+         throw new IOException("Could not create temporary directory " + dir);
+      }
+      return dir;
+   }
+
+   private static void delete(File file) {
+      File[] children = file.listFiles();
+      if (children != null) {
+         for (File child : children) {
+            delete(child);
+         }
+      }
+      file.delete();
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
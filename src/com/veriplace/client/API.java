@@ -15,6 +15,9 @@
 package com.veriplace.client;
 
 import com.veriplace.client.factory.DocumentFactory;
+import com.veriplace.client.metrics.Counter;
+import com.veriplace.client.metrics.Histogram;
+import com.veriplace.client.metrics.MetricsRegistry;
 
 import com.veriplace.oauth.message.RequestMethod;
 
@@ -26,8 +29,42 @@ public abstract class API {
    protected final Client client;
    protected final DocumentFactory documentFactory = new DocumentFactory();
 
+   protected static final MetricsRegistry metrics = MetricsRegistry.getDefault();
+
+   /**
+    * Parameter to specify no client-side timeout for requests.
+    */
+   public static final Integer NO_TIMEOUT = null;
+
+   // Recorded by Client.getProtectedResource, labelled with this API's class name
+   final Histogram requestTime;
+   final Counter requestsOk;
+   final Counter requestsFailed;
+   final Counter requestsIoFailed;
+   final Counter requestsRejected;
+
+   /**
+    * Time taken to decode this API's responses.
+    */
+   protected final Histogram parseTime;
+
    public API(Client client) {
       this.client = client;
+      String name = getClass().getSimpleName();
+      requestTime = metrics.histogram("veriplace_request_seconds",
+                                      "Time taken by Veriplace API requests", "api", name);
+      requestsOk = requestCounter(name, "ok");
+      requestsFailed = requestCounter(name, "error");
+      requestsIoFailed = requestCounter(name, "io_error");
+      requestsRejected = requestCounter(name, "rejected");
+      parseTime = metrics.histogram("veriplace_response_parse_seconds",
+                                    "Time taken to decode Veriplace API responses", "api", name);
+   }
+
+   private static Counter requestCounter(String api, String outcome) {
+      return metrics.counter("veriplace_requests_total",
+                             "Veriplace API requests, by outcome",
+                             "api", api, "outcome", outcome);
    }
 
    /**
@@ -51,8 +88,23 @@ public abstract class API {
    public String getRedirectURL(String callback,
                                 User user,
                                 boolean immediate) {
+      return getRedirectURL(callback,user,immediate,NO_TIMEOUT);
+   }
+
+   /**
+    * Get the URL to use for User redirection to get permission to obtain a User's location.
+    * @param callback the OAuth callback url
+    * @param user the user to be located
+    * @param immediate should responses return immediately if user interaction would be required?
+    * @param timeout timeout in milliseconds for fetching the request token, if any
+    * @return the OAuth redirection url 
+    */
+   public String getRedirectURL(String callback,
+                                User user,
+                                boolean immediate,
+                                Integer timeout) {
       String uri = getURI(user);
-      return client.getRedirectURL(callback, immediate, uri);
+      return client.getRedirectURL(callback, immediate, uri, timeout);
    }
 
    /**
@@ -17,6 +17,9 @@ package com.veriplace.client;
 import com.veriplace.client.store.TokenStore;
 import com.veriplace.client.store.FileTokenStore;
 import com.veriplace.client.factory.ClientFactory;
+import com.veriplace.client.util.CircuitBreaker;
+import com.veriplace.client.util.RemoteCall;
+import com.veriplace.client.util.TimeoutHttpClient;
 
 import com.veriplace.oauth.OAuthException;
 import com.veriplace.oauth.consumer.Consumer;
@@ -33,6 +36,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import java.security.NoSuchAlgorithmException;
 
@@ -97,6 +101,7 @@ public class Client {
    private final Token applicationToken;
    private final String callbackServerName;
    private final Integer callbackServerPort;
+   private volatile CircuitBreaker circuitBreaker = new CircuitBreaker("veriplace");
    
    private final UserDiscoveryAPI userDiscoveryApi;
    private final GetLocationAPI getLocationApi;
@@ -243,6 +248,7 @@ public class Client {
                                    consumerSecret,
                                    serviceProvider,
                                    revision);
+      this.consumer.setClient(new TimeoutHttpClient());
 
       this.applicationToken = applicationToken;
 
@@ -336,17 +342,30 @@ public class Client {
 
       String verifier = request.getParameter(Parameter.Verifier.getKey());
 
+      CircuitBreaker breaker = circuitBreaker;
+      if (! breaker.allowRequest()) {
+         logger.info("Veriplace unavailable, not exchanging request token: " + token);
+         return null;
+      }
+
       Token ret = null;
+      RemoteCall call = RemoteCall.begin(RemoteCall.VERIPLACE, RemoteCall.ACCESS_TOKEN);
+      int status = RemoteCall.NO_STATUS;
       try {
          // exchange for access token
          ret = consumer.getAccessToken(requestToken,verifier);
+         status = HttpServletResponse.SC_OK;
       } catch (OAuthException e) {
+         status = RemoteCall.statusOf(e);
          logger.info("No access token was available for: " + token);
          logger.debug(e,e);
          return null;
       } catch (IOException e) {
          logger.info(e,e);
          return null;
+      } finally {
+         call.end(status, RemoteCall.UNKNOWN_BYTES);
+         record(breaker, status);
       }
 
       requestTokenStore.remove(requestToken);
@@ -364,6 +383,21 @@ public class Client {
    protected String getRedirectURL(String callback,
                                    boolean immediate,
                                    String uri) {
+      return getRedirectURL(callback, immediate, uri, API.NO_TIMEOUT);
+   }
+
+   /**
+    * Utility method for constructing a Veriplace redirect URL for OAuth user authorization.
+    * <p>
+    * @param callback the OAuth callback
+    * @param immediate should responses return immediately if user interaction would be required?
+    * @param uri the resource for which authorization is requested (e.g. location)
+    * @param timeout timeout in milliseconds for fetching the request token, if any
+    */
+   protected String getRedirectURL(String callback,
+                                   boolean immediate,
+                                   String uri,
+                                   Integer timeout) {
 
       ParameterSet parameters = new ParameterSet();
 
@@ -378,21 +412,44 @@ public class Client {
          parameters.put("immediate","true");
       }
 
+      CircuitBreaker breaker = circuitBreaker;
+      if (! breaker.allowRequest()) {
+         logger.info("Veriplace unavailable, not requesting a request token");
+         return null;
+      }
+
+      RemoteCall call = RemoteCall.begin(RemoteCall.VERIPLACE, RemoteCall.REQUEST_TOKEN);
+      int status = RemoteCall.NO_STATUS;
+      Integer previousTimeout = TimeoutHttpClient.setTimeout(timeout);
+      boolean ended = false;
       try {
          Token requestToken = 
             consumer.getRevision() == Revision.Core1_0 ?
             consumer.getRequestToken() :
             consumer.getRequestToken(callback);
+         status = HttpServletResponse.SC_OK;
+         call.end(status, RemoteCall.UNKNOWN_BYTES);
+         ended = true;
 
          requestTokenStore.add(requestToken);
 
          return consumer.getUserAuthorizationUrl(parameters,requestToken);
       } catch (OAuthException e) {
+         if (! ended) {
+            status = RemoteCall.statusOf(e);
+         }
          logger.info(e,e);
          return null;
       } catch (IOException e) {
          logger.info(e,e);
          return null;
+      } finally {
+         TimeoutHttpClient.setTimeout(previousTimeout);
+         if (! ended) {
+            call.end(status, RemoteCall.UNKNOWN_BYTES);
+         }
+         // an unexpected exception leaves NO_STATUS, which counts as a failure
+         record(breaker, status);
       }
    }
 
@@ -403,6 +460,18 @@ public class Client {
                                            User user,
                                            ParameterSet parameters,
                                            Token accessToken) {
+      return getProtectedResource(api, user, parameters, accessToken, API.NO_TIMEOUT);
+   }
+
+   /**
+    * Utility method for retrieving the protected resource used by a particular API.
+    * @param timeout socket timeout in milliseconds, if any
+    */
+   protected Response getProtectedResource(API api,
+                                           User user,
+                                           ParameterSet parameters,
+                                           Token accessToken,
+                                           Integer timeout) {
 
       RequestMethod requestMethod = api.getRequestMethod();
 
@@ -414,20 +483,65 @@ public class Client {
          return null;
       }
 
+      CircuitBreaker breaker = circuitBreaker;
+      if (! breaker.allowRequest()) {
+         api.requestsRejected.increment();
+         logger.info("Veriplace unavailable, not requesting: " + url);
+         return null;
+      }
+
+      long start = System.nanoTime();
+      RemoteCall call = RemoteCall.begin(RemoteCall.VERIPLACE, url);
+      int status = RemoteCall.NO_STATUS;
+      long bytes = RemoteCall.UNKNOWN_BYTES;
+      Integer previousTimeout = TimeoutHttpClient.setTimeout(timeout);
       try {
-         return consumer.getProtectedResource(url,
-                                              requestMethod,
-                                              parameters,
-                                              accessToken,
-                                              SignatureMethod.HMAC_SHA1);
+         Response response = consumer.getProtectedResource(url,
+                                                           requestMethod,
+                                                           parameters,
+                                                           accessToken,
+                                                           SignatureMethod.HMAC_SHA1);
+         if (response != null) {
+            status = response.getCode();
+            if (response.getBytes() != null) {
+               bytes = response.getBytes().length;
+            }
+         }
+         if (response != null && response.isOk()) {
+            api.requestsOk.increment();
+         } else {
+            api.requestsFailed.increment();
+         }
+         return response;
       } catch (OAuthException e) {
+         status = RemoteCall.statusOf(e);
+         api.requestsFailed.increment();
          logger.info("Unable to obtain resource for access token: " + accessToken.getToken());
          logger.info(e.getMessage());
          logger.debug(e,e);
          return new Response(e.getCode(),e.getMessage(),null,null,null);
       } catch (IOException e) {
+         api.requestsIoFailed.increment();
          logger.info(e,e);
          return null;
+      } finally {
+         TimeoutHttpClient.setTimeout(previousTimeout);
+         api.requestTime.recordSince(start);
+         call.end(status, bytes);
+         record(breaker, status);
+      }
+   }
+
+   /**
+    * Count a call against the circuit breaker.  Only transport errors and
+    * server errors count as failures; other responses show that Veriplace
+    * is answering, even if the answer is no.
+    */
+   private static void record(CircuitBreaker breaker, int status) {
+      if (status == RemoteCall.NO_STATUS || status >= 500) {
+         breaker.recordFailure();
+      } else {
+         breaker.recordSuccess();
       }
    }
 
@@ -473,6 +587,21 @@ public class Client {
       return consumer;
    }
 
+   /**
+    * Returns the circuit breaker guarding calls to Veriplace.  While it is open,
+    * requests fail immediately as they would for a transport error.
+    */
+   public CircuitBreaker getCircuitBreaker() {
+      return circuitBreaker;
+   }
+
+   public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+      if (circuitBreaker == null) {
+         throw new IllegalArgumentException("circuitBreaker must not be null");
+      }
+      this.circuitBreaker = circuitBreaker;
+   }
+
    protected Token getApplicationToken() {
       return applicationToken;
    }
@@ -15,6 +15,7 @@
 package com.veriplace.client;
 
 import com.veriplace.client.factory.LocationFactory;
+import com.veriplace.client.metrics.Counter;
 
 import com.veriplace.oauth.OAuthException;
 import com.veriplace.oauth.consumer.Token;
@@ -75,6 +76,11 @@ public class GetLocationAPI
 
    protected final LocationFactory locationFactory = new LocationFactory();
 
+   private static final Counter LOCATED = resultCounter("located");
+   private static final Counter POSITION_FAILED = resultCounter("position_failure");
+   private static final Counter FORBIDDEN = resultCounter("forbidden");
+   private static final Counter FAILED = resultCounter("failed");
+
    public GetLocationAPI(Client client) {
       super(client);
    }
@@ -100,13 +106,28 @@ public class GetLocationAPI
    public Location getLocation(Token accessToken,
                                User user,
                                String mode) {
+      return getLocation(accessToken,user,mode,NO_TIMEOUT);
+   }
+
+   /**
+    * Get a user's location
+    * @param accessToken the access token permitting the user to be located
+    * @param user the user
+    * @param mode the location request mode; see {@link com.veriplace.client.LocationMode}
+    * @param timeout timeout in milliseconds, if any
+    * @return the user's location
+    */
+   public Location getLocation(Token accessToken,
+                               User user,
+                               String mode,
+                               Integer timeout) {
 
       ParameterSet parameters = new ParameterSet();
       if (mode != null) {
          parameters.put("mode",mode);
       }
 
-      return doGetLocation(parameters, accessToken, user);
+      return doGetLocation(parameters, accessToken, user, timeout);
    }
 
    ////////////
@@ -114,20 +135,38 @@ public class GetLocationAPI
    protected Location doGetLocation(ParameterSet parameters,
                                     Token accessToken,
                                     User user) {
+      return doGetLocation(parameters, accessToken, user, NO_TIMEOUT);
+   }
+
+   protected Location doGetLocation(ParameterSet parameters,
+                                    Token accessToken,
+                                    User user,
+                                    Integer timeout) {
 
       Response response = 
-         client.getProtectedResource(this,user,parameters,accessToken);
+         client.getProtectedResource(this,user,parameters,accessToken,timeout);
 
       if (response != null){
 
          if (response.isOk()) {
 
+            long start = System.nanoTime();
             Document document = documentFactory.getDocument(response.getBytes());
-            return locationFactory.getLocation(document);
+            Location location = locationFactory.getLocation(document);
+            parseTime.recordSince(start);
+            if (location == null) {
+               FAILED.increment();
+            } else if (location.getLongitude() == null || location.getLatitude() == null) {
+               POSITION_FAILED.increment();
+            } else {
+               LOCATED.increment();
+            }
+            return location;
          } else if (response.getCode() == HttpStatus.SC_FORBIDDEN) {
             /* 403 errors indicate a billing authorization problem.
              * Return a non-null Location object to pass this code up the stack.
              */
+            FORBIDDEN.increment();
             return new Location(null,
                                 new Date(),
                                 null,
@@ -136,9 +175,15 @@ public class GetLocationAPI
          }
       } 
 
+      FAILED.increment();
       return null;
    }
 
+   private static Counter resultCounter(String result) {
+      return metrics.counter("veriplace_get_location_total",
+                             "Get Location API calls, by result", "result", result);
+   }
+
    @Override
    protected String getURI(User user) {
       return
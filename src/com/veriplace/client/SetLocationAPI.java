@@ -15,6 +15,7 @@
 package com.veriplace.client;
 
 import com.veriplace.client.factory.LocationFactory;
+import com.veriplace.client.metrics.Counter;
 
 import com.veriplace.oauth.OAuthException;
 import com.veriplace.oauth.consumer.Token;
@@ -73,6 +74,9 @@ public class SetLocationAPI
 
    private static final Log logger = LogFactory.getLog(SetLocationAPI.class);
 
+   private static final Counter UPDATED = resultCounter("updated");
+   private static final Counter FAILED = resultCounter("failed");
+
    public static final String LOCATION_PATH = "/location";
 
    protected final LocationFactory locationFactory = new LocationFactory();
@@ -146,13 +150,23 @@ public class SetLocationAPI
 
       if (response != null &&
           response.isOk()) {
+         long start = System.nanoTime();
          Document document = documentFactory.getDocument(response.getBytes());
-         return locationFactory.getLocationUpdate(document);
+         Location location = locationFactory.getLocationUpdate(document);
+         parseTime.recordSince(start);
+         (location != null ? UPDATED : FAILED).increment();
+         return location;
       } else {
+         FAILED.increment();
          return null;
       }
    }
 
+   private static Counter resultCounter(String result) {
+      return metrics.counter("veriplace_set_location_total",
+                             "Set Location API calls, by result", "result", result);
+   }
+
    @Override
    protected String getURI(User user) {
       return
@@ -15,6 +15,7 @@
 package com.veriplace.client;
 
 import com.veriplace.client.factory.UserFactory;
+import com.veriplace.client.metrics.Counter;
 
 import com.veriplace.oauth.OAuthException;
 import com.veriplace.oauth.consumer.Token;
@@ -32,6 +33,9 @@ import java.net.MalformedURLException;
 import java.net.URL;
 
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Interface for obtaining user identity information from Veriplace.
@@ -64,20 +68,78 @@ import java.io.IOException;
  *   }
  * }
  * </pre>
+ * <p>
+ * Users found with {@link #getUser(Token)} are cached by access token for
+ * {@link #getUserCacheMaxAge() a few minutes}, so that reloading or going back
+ * to a callback page needs no second request.  A token that Veriplace answered
+ * without a user is cached as well, so it is not looked up again either.  Requests
+ * that got no answer at all are not cached.
  */
 public class UserDiscoveryAPI
    extends API {
 
    private static final Log logger = LogFactory.getLog(UserDiscoveryAPI.class);
 
+   private static final Counter FOUND = resultCounter("found");
+   private static final Counter NOT_FOUND = resultCounter("not_found");
+
    public static final String USER_DISCOVERY_PATH = "/api/1.0/users/";
 
+   private static final Counter CACHE_HIT = cacheCounter("hit");
+   private static final Counter CACHE_MISS = cacheCounter("miss");
+
+   /**
+    * Default time to keep a discovered user, in milliseconds. (5 minutes)
+    */
+   public static final long DEFAULT_USER_CACHE_MAX_AGE = 5 * 60 * 1000L;
+
+   /**
+    * Default maximum number of cached users. (1000)
+    */
+   public static final int DEFAULT_USER_CACHE_SIZE = 1000;
+
    protected final UserFactory userFactory = new UserFactory();
+
+   private final ConcurrentMap<String,CachedUser> userCache =
+      new ConcurrentHashMap<String,CachedUser>();
+   private volatile long userCacheMaxAge = DEFAULT_USER_CACHE_MAX_AGE;
+   private volatile int userCacheSize = DEFAULT_USER_CACHE_SIZE;
    
    public UserDiscoveryAPI(Client client) {
       super(client);
    }
 
+   public long getUserCacheMaxAge() {
+      return userCacheMaxAge;
+   }
+
+   /**
+    * Set how long a user found by access token is kept.
+    * @param userCacheMaxAge  time in milliseconds; zero or less disables the cache
+    */
+   public void setUserCacheMaxAge(long userCacheMaxAge) {
+      this.userCacheMaxAge = userCacheMaxAge;
+      if (userCacheMaxAge <= 0) {
+         userCache.clear();
+      }
+   }
+
+   public int getUserCacheSize() {
+      return userCacheSize;
+   }
+
+   /**
+    * Set the maximum number of users kept.  When the cache is full, expired
+    * entries are dropped, and if none have expired it is emptied.
+    * @param userCacheSize  number of users; zero or less disables the cache
+    */
+   public void setUserCacheSize(int userCacheSize) {
+      this.userCacheSize = userCacheSize;
+      if (userCacheSize <= 0) {
+         userCache.clear();
+      }
+   }
+
    /**
     * Find an enrolled user by supplying a known email address.
     * <p>
@@ -132,8 +194,34 @@ public class UserDiscoveryAPI
    public User getUser(Token accessToken) {
       
       ParameterSet parameters = new ParameterSet();
-      return doGetUser(parameters,
-                       accessToken);
+      if (accessToken == null || userCacheMaxAge <= 0 || userCacheSize <= 0) {
+         return doGetUser(parameters,
+                          accessToken);
+      }
+
+      long now = System.currentTimeMillis();
+      CachedUser cached = userCache.get(accessToken.getToken());
+      if (cached != null && cached.expires > now) {
+         CACHE_HIT.increment();
+         return cached.user;
+      }
+      CACHE_MISS.increment();
+
+      Response response = getUserResource(parameters,
+                                          accessToken);
+      User user = parseUser(response);
+      // A server error may not be the last word on this token; anything else is
+      if (response != null && response.getCode() < 500) {
+         cacheUser(accessToken.getToken(), user, now);
+      }
+      return user;
+   }
+
+   /**
+    * Forget any cached users.
+    */
+   public void clearUserCache() {
+      userCache.clear();
    }
 
    /////////////////////
@@ -144,18 +232,62 @@ public class UserDiscoveryAPI
    protected User doGetUser(ParameterSet parameters,
                             Token accessToken) {
                                
-      Response response = 
-         client.getProtectedResource(this,null,parameters,accessToken);
+      return parseUser(getUserResource(parameters,
+                                       accessToken));
+   }
 
+   /**
+    * Request the user resource.
+    * @return the response, or null if there was none
+    */
+   protected Response getUserResource(ParameterSet parameters,
+                                      Token accessToken) {
+      return client.getProtectedResource(this,null,parameters,accessToken);
+   }
+
+   /**
+    * Decode the user resource, if the request succeeded.
+    * @return the user or null if none
+    */
+   protected User parseUser(Response response) {
       if (response != null &&
           response.isOk()) {
+         long start = System.nanoTime();
          Document document = documentFactory.getDocument(response.getBytes());
-         return userFactory.getUser(document);
+         User user = userFactory.getUser(document);
+         parseTime.recordSince(start);
+         (user != null ? FOUND : NOT_FOUND).increment();
+         return user;
       } else {
+         NOT_FOUND.increment();
          return null;
       }
    }
 
+   private static Counter resultCounter(String result) {
+      return metrics.counter("veriplace_user_discovery_total",
+                             "User Discovery API calls, by result", "result", result);
+   }
+
+   private static Counter cacheCounter(String result) {
+      return metrics.counter("veriplace_user_cache_total",
+                             "User Discovery cache lookups, by result", "result", result);
+   }
+
+   private void cacheUser(String token, User user, long now) {
+      if (userCache.size() >= userCacheSize) {
+         for (Iterator<CachedUser> it = userCache.values().iterator(); it.hasNext();) {
+            if (it.next().expires <= now) {
+               it.remove();
+            }
+         }
+         if (userCache.size() >= userCacheSize) {
+            userCache.clear();
+         }
+      }
+      userCache.put(token, new CachedUser(user, now + userCacheMaxAge));
+   }
+
    @Override
    protected String getURI(User user) {
       return 
@@ -167,6 +299,19 @@ public class UserDiscoveryAPI
    protected RequestMethod getRequestMethod() {
       return RequestMethod.GET;
    }
+
+   /**
+    * A discovered user, or null for a token that identified no one.
+    */
+   private static final class CachedUser {
+      final User user;
+      final long expires;
+
+      CachedUser(User user, long expires) {
+         this.user = user;
+         this.expires = expires;
+      }
+   }
 }
 
 /*
@@ -15,12 +15,16 @@
 package com.veriplace.client.factory;
 
 import com.veriplace.client.Client;
+import com.veriplace.client.store.ExpiringTokenStore;
+import com.veriplace.client.store.FileTokenStore;
 import com.veriplace.client.store.TokenStore;
+import com.veriplace.client.util.CircuitBreaker;
 import com.veriplace.oauth.consumer.Token;
 import com.veriplace.oauth.message.Revision;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.io.File;
 import java.net.MalformedURLException;
 
 import java.security.NoSuchAlgorithmException;
@@ -82,6 +86,76 @@ public class ClientFactory {
     */
    public static final String VERIPLACE_HTTPS_PROPERTY = "veriplace.https";
 
+   /**
+    * The property key for the kind of store to keep request tokens in between the
+    * redirect to Veriplace and the callback: "veriplace.client.token-store.type"
+    * <p>
+    * The value may be {@link #TOKEN_STORE_TYPE_MEMORY} (the default), which uses an
+    * {@link ExpiringTokenStore}, or {@link #TOKEN_STORE_TYPE_FILE}, which uses a
+    * {@link FileTokenStore}.
+    */
+   public static final String TOKEN_STORE_TYPE_PROPERTY = "veriplace.client.token-store.type";
+
+   /**
+    * Value of {@link #TOKEN_STORE_TYPE_PROPERTY} for an {@link ExpiringTokenStore}: "memory"
+    */
+   public static final String TOKEN_STORE_TYPE_MEMORY = "memory";
+
+   /**
+    * Value of {@link #TOKEN_STORE_TYPE_PROPERTY} for a {@link FileTokenStore}: "file"
+    */
+   public static final String TOKEN_STORE_TYPE_FILE = "file";
+
+   /**
+    * The property key for the number of milliseconds to keep a request token in an
+    * {@link ExpiringTokenStore}: "veriplace.client.token-store.max-age"
+    */
+   public static final String TOKEN_STORE_MAX_AGE_PROPERTY = "veriplace.client.token-store.max-age";
+
+   /**
+    * The property key for the maximum number of request tokens in an
+    * {@link ExpiringTokenStore}: "veriplace.client.token-store.max-size"
+    */
+   public static final String TOKEN_STORE_MAX_SIZE_PROPERTY = "veriplace.client.token-store.max-size";
+
+   /**
+    * The property key for the file in which an {@link ExpiringTokenStore} keeps a durable
+    * copy of its tokens; if not set, tokens are only kept in memory:
+    * "veriplace.client.token-store.spill-file"
+    */
+   public static final String TOKEN_STORE_SPILL_FILE_PROPERTY = "veriplace.client.token-store.spill-file";
+
+   /**
+    * The property key for the directory in which a {@link FileTokenStore} keeps its
+    * tokens: "veriplace.client.token-store.directory"
+    */
+   public static final String TOKEN_STORE_DIRECTORY_PROPERTY = "veriplace.client.token-store.directory";
+
+   /**
+    * The property key for the length, in milliseconds, of the window over which the
+    * client's {@link CircuitBreaker} counts failed calls to Veriplace:
+    * "veriplace.client.circuit-breaker.window"
+    */
+   public static final String CIRCUIT_BREAKER_WINDOW_PROPERTY = "veriplace.client.circuit-breaker.window";
+
+   /**
+    * The property key for the number of calls in the window before the circuit breaker
+    * may open: "veriplace.client.circuit-breaker.minimum-calls"
+    */
+   public static final String CIRCUIT_BREAKER_MINIMUM_CALLS_PROPERTY = "veriplace.client.circuit-breaker.minimum-calls";
+
+   /**
+    * The property key for the fraction of failed calls, from 0 to 1, that opens the
+    * circuit breaker: "veriplace.client.circuit-breaker.failure-rate"
+    */
+   public static final String CIRCUIT_BREAKER_FAILURE_RATE_PROPERTY = "veriplace.client.circuit-breaker.failure-rate";
+
+   /**
+    * The property key for the number of milliseconds an open circuit breaker refuses
+    * calls before letting one through: "veriplace.client.circuit-breaker.open-time"
+    */
+   public static final String CIRCUIT_BREAKER_OPEN_TIME_PROPERTY = "veriplace.client.circuit-breaker.open-time";
+
    private static final Log logger = LogFactory.getLog(ClientFactory.class);
 
    /**
@@ -101,6 +175,15 @@ public class ClientFactory {
     * <li>{@link #CALLBACK_SERVER_NAME_PROPERTY}</li>
     * <li>{@link #CALLBACK_SERVER_PORT_PROPERTY}</li>
     * <li>{@link #VERIPLACE_HTTPS_PROPERTY}</li>
+    * <li>{@link #TOKEN_STORE_TYPE_PROPERTY}</li>
+    * <li>{@link #TOKEN_STORE_MAX_AGE_PROPERTY}</li>
+    * <li>{@link #TOKEN_STORE_MAX_SIZE_PROPERTY}</li>
+    * <li>{@link #TOKEN_STORE_SPILL_FILE_PROPERTY}</li>
+    * <li>{@link #TOKEN_STORE_DIRECTORY_PROPERTY}</li>
+    * <li>{@link #CIRCUIT_BREAKER_WINDOW_PROPERTY}</li>
+    * <li>{@link #CIRCUIT_BREAKER_MINIMUM_CALLS_PROPERTY}</li>
+    * <li>{@link #CIRCUIT_BREAKER_FAILURE_RATE_PROPERTY}</li>
+    * <li>{@link #CIRCUIT_BREAKER_OPEN_TIME_PROPERTY}</li>
     * </ul>
     */
    public Client getClient(Properties properties) 
@@ -110,6 +193,11 @@ public class ClientFactory {
       return getClient(properties,null);
    }
 
+   /**
+    * Create a new Client from a {@link Properties} object, using the given store for
+    * request tokens.  If the store is null, one is created with
+    * {@link #getRequestTokenStore(Properties)}.
+    */
    public Client getClient(Properties properties,
                            TokenStore requestTokenStore) 
       throws NoSuchAlgorithmException,
@@ -189,15 +277,147 @@ public class ClientFactory {
             serverPort = null;
          }
       }
-      return new Client(consumerKey,
-                        consumerSecret,
-                        revision,
-                        applicationToken,
-                        baseUrl,
-                        useHttps,
-                        serverName,
-                        serverPort,
-                        requestTokenStore);
+      if (requestTokenStore == null) {
+         requestTokenStore = getRequestTokenStore(properties);
+      }
+      Client client = new Client(consumerKey,
+                                 consumerSecret,
+                                 revision,
+                                 applicationToken,
+                                 baseUrl,
+                                 useHttps,
+                                 serverName,
+                                 serverPort,
+                                 requestTokenStore);
+      client.setCircuitBreaker(getCircuitBreaker(properties));
+      return client;
+   }
+
+   /**
+    * Create a circuit breaker for calls to Veriplace as described by
+    * {@link #CIRCUIT_BREAKER_FAILURE_RATE_PROPERTY} and the related properties.
+    * Invalid values are replaced by the defaults.
+    */
+   public CircuitBreaker getCircuitBreaker(Properties properties) {
+      long window = CircuitBreaker.DEFAULT_WINDOW;
+      String windowStr = properties.getProperty(CIRCUIT_BREAKER_WINDOW_PROPERTY);
+      if (windowStr != null && windowStr.trim().length() != 0) {
+         try {
+            window = Long.parseLong(windowStr.trim());
+         }
+         catch (NumberFormatException e) {
+            window = 0;
+         }
+         if (window < 1000) {
+            logger.warn("Invalid value found for optional property: " + CIRCUIT_BREAKER_WINDOW_PROPERTY);
+            window = CircuitBreaker.DEFAULT_WINDOW;
+         }
+      }
+      int minimumCalls = CircuitBreaker.DEFAULT_MINIMUM_CALLS;
+      String minimumCallsStr = properties.getProperty(CIRCUIT_BREAKER_MINIMUM_CALLS_PROPERTY);
+      if (minimumCallsStr != null && minimumCallsStr.trim().length() != 0) {
+         try {
+            minimumCalls = Integer.parseInt(minimumCallsStr.trim());
+         }
+         catch (NumberFormatException e) {
+            minimumCalls = 0;
+         }
+         if (minimumCalls <= 0) {
+            logger.warn("Invalid value found for optional property: " + CIRCUIT_BREAKER_MINIMUM_CALLS_PROPERTY);
+            minimumCalls = CircuitBreaker.DEFAULT_MINIMUM_CALLS;
+         }
+      }
+      double failureRate = CircuitBreaker.DEFAULT_FAILURE_RATE;
+      String failureRateStr = properties.getProperty(CIRCUIT_BREAKER_FAILURE_RATE_PROPERTY);
+      if (failureRateStr != null && failureRateStr.trim().length() != 0) {
+         try {
+            failureRate = Double.parseDouble(failureRateStr.trim());
+         }
+         catch (NumberFormatException e) {
+            failureRate = 0;
+         }
+         if (! (failureRate > 0 && failureRate <= 1)) {
+            logger.warn("Invalid value found for optional property: " + CIRCUIT_BREAKER_FAILURE_RATE_PROPERTY);
+            failureRate = CircuitBreaker.DEFAULT_FAILURE_RATE;
+         }
+      }
+      long openTime = CircuitBreaker.DEFAULT_OPEN_TIME;
+      String openTimeStr = properties.getProperty(CIRCUIT_BREAKER_OPEN_TIME_PROPERTY);
+      if (openTimeStr != null && openTimeStr.trim().length() != 0) {
+         try {
+            openTime = Long.parseLong(openTimeStr.trim());
+         }
+         catch (NumberFormatException e) {
+            openTime = 0;
+         }
+         if (openTime <= 0) {
+            logger.warn("Invalid value found for optional property: " + CIRCUIT_BREAKER_OPEN_TIME_PROPERTY);
+            openTime = CircuitBreaker.DEFAULT_OPEN_TIME;
+         }
+      }
+      return new CircuitBreaker("veriplace", window, minimumCalls, failureRate, openTime);
+   }
+
+   /**
+    * Create a request token store as described by {@link #TOKEN_STORE_TYPE_PROPERTY}
+    * and the related properties.
+    */
+   public TokenStore getRequestTokenStore(Properties properties)
+      throws IllegalArgumentException {
+
+      String type = properties.getProperty(TOKEN_STORE_TYPE_PROPERTY);
+      type = (type == null) ? "" : type.trim();
+
+      if (type.equals(TOKEN_STORE_TYPE_FILE)) {
+         String directory = properties.getProperty(TOKEN_STORE_DIRECTORY_PROPERTY);
+         if (directory == null || directory.trim().length() == 0) {
+            directory = System.getProperty("java.io.tmpdir");
+         }
+         return new FileTokenStore("requestToken", directory.trim());
+      }
+      if (type.length() != 0 && ! type.equals(TOKEN_STORE_TYPE_MEMORY)) {
+         String msg = "Invalid value found for optional property: " + TOKEN_STORE_TYPE_PROPERTY;
+         logger.warn(msg);
+         throw new IllegalArgumentException(msg);
+      }
+
+      long maxAge = ExpiringTokenStore.DEFAULT_MAX_AGE;
+      String maxAgeStr = properties.getProperty(TOKEN_STORE_MAX_AGE_PROPERTY);
+      if (maxAgeStr != null && maxAgeStr.trim().length() != 0) {
+         try {
+            maxAge = Long.parseLong(maxAgeStr.trim());
+         }
+         catch (NumberFormatException e) {
+            maxAge = 0;
+         }
+         if (maxAge <= 0) {
+            logger.warn("Invalid value found for optional property: " + TOKEN_STORE_MAX_AGE_PROPERTY);
+            maxAge = ExpiringTokenStore.DEFAULT_MAX_AGE;
+         }
+      }
+      int maxSize = ExpiringTokenStore.DEFAULT_MAX_SIZE;
+      String maxSizeStr = properties.getProperty(TOKEN_STORE_MAX_SIZE_PROPERTY);
+      if (maxSizeStr != null && maxSizeStr.trim().length() != 0) {
+         try {
+            maxSize = Integer.parseInt(maxSizeStr.trim());
+         }
+         catch (NumberFormatException e) {
+            maxSize = 0;
+         }
+         if (maxSize <= 0) {
+            logger.warn("Invalid value found for optional property: " + TOKEN_STORE_MAX_SIZE_PROPERTY);
+            maxSize = ExpiringTokenStore.DEFAULT_MAX_SIZE;
+         }
+      }
+      File spillFile = null;
+      String spillFileStr = properties.getProperty(TOKEN_STORE_SPILL_FILE_PROPERTY);
+      if (spillFileStr != null && spillFileStr.trim().length() != 0) {
+         spillFile = new File(spillFileStr.trim());
+      }
+      return new ExpiringTokenStore(maxAge,
+                                    maxSize,
+                                    ExpiringTokenStore.DEFAULT_SWEEP_INTERVAL,
+                                    spillFile);
    }
 }
 
@@ -0,0 +1,81 @@
+/* Copyright 2008-2009 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that can be incremented from many threads at once.
+ * <p>
+ * Updates are spread over several cells, chosen by thread, each on its own
+ * cache line, so that threads updating the same counter rarely contend.
+ * Reading the counter adds up the cells; it is exact once updates have stopped
+ * and otherwise may miss updates that are in progress.
+ */
+public final class Counter {
+
+   /**
+    * Number of cells; a power of two.
+    */
+   static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+
+   /**
+    * Distance between cells, in longs, so each sits on its own cache line.
+    */
+   private static final int PADDING = 8;
+
+   private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+   public void increment() {
+      cells.getAndIncrement(cell());
+   }
+
+   public void add(long amount) {
+      cells.getAndAdd(cell(), amount);
+   }
+
+   public long get() {
+      long total = 0;
+      for (int i = 0; i < STRIPES; i++) {
+         total += cells.get(i * PADDING);
+      }
+      return total;
+   }
+
+   private static int cell() {
+      long id = Thread.currentThread().getId();
+      // Mix the thread ID so that consecutive IDs land on different cells
+      int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+      return ((h >>> 16) & (STRIPES - 1)) * PADDING;
+   }
+
+   private static int stripes(int processors) {
+      int n = 1;
+      while (n < processors * 2 && n < 64) {
+         n <<= 1;
+      }
+      return n;
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
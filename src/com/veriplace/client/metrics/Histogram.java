@@ -0,0 +1,175 @@
+/* Copyright 2008-2009 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations, in nanoseconds.
+ * <p>
+ * Buckets are log-linear: each power of two is split into {@link #SUB_BUCKETS}
+ * equal buckets, so a recorded value is known to within 1/8th (12.5%) of
+ * itself, from 1ns up to about 18 minutes, in a fixed 2.4KB.  Longer durations
+ * are counted in the last bucket.  Recording is one atomic increment of the
+ * value's bucket plus one of a {@link Counter}, and takes no locks.
+ */
+public final class Histogram {
+
+   private static final int SUB_BUCKET_BITS = 3;
+
+   /**
+    * Number of buckets each power of two is divided into.
+    */
+   public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+   /**
+    * Largest value that is recorded exactly; about 18 minutes.
+    */
+   public static final long MAX_VALUE = (1L << 40) - 1;
+
+   static final int BUCKETS = index(MAX_VALUE) + 1;
+
+   private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+   private final Counter sum = new Counter();
+
+   /**
+    * Record one duration.
+    * @param nanos  the duration in nanoseconds; negative values count as zero
+    */
+   public void record(long nanos) {
+      long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+      counts.getAndIncrement(index(value));
+      sum.add(value);
+   }
+
+   /**
+    * Record the time elapsed since a value previously returned by
+    * {@link System#nanoTime()}.
+    */
+   public void recordSince(long startNanos) {
+      record(System.nanoTime() - startNanos);
+   }
+
+   /**
+    * Returns a copy of the current bucket counts.
+    */
+   public Snapshot snapshot() {
+      long[] copy = new long[BUCKETS];
+      for (int i = 0; i < BUCKETS; i++) {
+         copy[i] = counts.get(i);
+      }
+      return new Snapshot(copy, sum.get());
+   }
+
+   /**
+    * Returns the bucket for a value between 0 and {@link #MAX_VALUE}.
+    */
+   static int index(long value) {
+      if (value < SUB_BUCKETS) {
+         return (int) value;
+      }
+      int exponent = 63 - Long.numberOfLeadingZeros(value);
+      int shift = exponent - SUB_BUCKET_BITS;
+      int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+      return (shift + 1) * SUB_BUCKETS + sub;
+   }
+
+   /**
+    * Returns the smallest value that falls above a bucket.
+    */
+   static long upperBound(int index) {
+      if (index < SUB_BUCKETS) {
+         return index + 1;
+      }
+      int shift = index / SUB_BUCKETS - 1;
+      long sub = index % SUB_BUCKETS;
+      return (SUB_BUCKETS + sub + 1) << shift;
+   }
+
+   /**
+    * The state of a histogram at one moment.
+    */
+   public static final class Snapshot {
+      private final long[] counts;
+      private final long sum;
+      private final long count;
+
+      Snapshot(long[] counts, long sum) {
+         this.counts = counts;
+         this.sum = sum;
+         long total = 0;
+         for (long c : counts) {
+            total += c;
+         }
+         this.count = total;
+      }
+
+      /**
+       * Returns the number of values recorded.
+       */
+      public long getCount() {
+         return count;
+      }
+
+      /**
+       * Returns the sum of the values recorded, in nanoseconds.
+       */
+      public long getSum() {
+         return sum;
+      }
+
+      /**
+       * Returns the number of values recorded that were below the given value.
+       * This is exact when the value is a power of two.
+       */
+      public long getCountBelow(long value) {
+         long total = 0;
+         for (int i = 0; i < counts.length && upperBound(i) <= value; i++) {
+            total += counts[i];
+         }
+         return total;
+      }
+
+      /**
+       * Returns an upper bound for the given percentile of the values
+       * recorded, in nanoseconds, or 0 if there are none.
+       * @param percentile  from 0 to 100
+       */
+      public long getValueAtPercentile(double percentile) {
+         if (count == 0) {
+            return 0;
+         }
+         long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+         long seen = 0;
+         for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+               return upperBound(i) - 1;
+            }
+         }
+         return MAX_VALUE;
+      }
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
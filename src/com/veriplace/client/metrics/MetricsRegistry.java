@@ -0,0 +1,230 @@
+/* Copyright 2008-2009 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A set of named {@link Counter}s and {@link Histogram}s, which can be
+ * written out in the Prometheus text format.
+ * <p>
+ * Metrics are identified by a name and optional label pairs, e.g.
+ * <pre>
+ * Counter ok = registry.counter("veriplace_requests_total",
+ *                               "Veriplace API requests",
+ *                               "api", "GetLocationAPI", "outcome", "ok");
+ * </pre>
+ * Asking for the same name and labels again returns the same instance, so
+ * callers on hot paths should look their metrics up once and keep them.
+ * Lookups and updates take no locks.
+ */
+public class MetricsRegistry {
+
+   private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+   /**
+    * Powers of two, in nanoseconds, used as Prometheus histogram buckets:
+    * from 2^14 (16us) to 2^38 (about 4.6 minutes).
+    */
+   private static final int MIN_BUCKET_EXPONENT = 14;
+   private static final int MAX_BUCKET_EXPONENT = 38;
+
+   private final ConcurrentMap<String,Family> families =
+      new ConcurrentHashMap<String,Family>();
+
+   /**
+    * Returns the registry used by the Veriplace client and the applications
+    * built on it.
+    */
+   public static MetricsRegistry getDefault() {
+      return DEFAULT;
+   }
+
+   /**
+    * Get or create a counter.
+    * @param name  the metric name, which should end in "_total"
+    * @param help  a description of the metric
+    * @param labels  alternating label names and values
+    * @throws IllegalArgumentException if the name is already used by a
+    *   histogram, or the labels are not in pairs
+    */
+   public Counter counter(String name, String help, String... labels) {
+      return (Counter) family(name, help, Family.COUNTER).get(labels);
+   }
+
+   /**
+    * Get or create a histogram of durations.
+    * @param name  the metric name, which should end in "_seconds"
+    * @param help  a description of the metric
+    * @param labels  alternating label names and values
+    * @throws IllegalArgumentException if the name is already used by a
+    *   counter, or the labels are not in pairs
+    */
+   public Histogram histogram(String name, String help, String... labels) {
+      return (Histogram) family(name, help, Family.HISTOGRAM).get(labels);
+   }
+
+   /**
+    * Write every metric in the Prometheus text exposition format (version
+    * 0.0.4).  Histograms are written in seconds.
+    */
+   public void write(Writer out)
+      throws IOException {
+      StringBuilder buf = new StringBuilder(256);
+      for (Family family : new TreeMap<String,Family>(families).values()) {
+         buf.setLength(0);
+         buf.append("# HELP ").append(family.name).append(' ');
+         appendEscaped(buf, family.help, false);
+         buf.append('\n');
+         buf.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+         for (Map.Entry<String,Object> e : new TreeMap<String,Object>(family.children).entrySet()) {
+            if (e.getValue() instanceof Counter) {
+               appendSample(buf, family.name, e.getKey(), null,
+                            Long.toString(((Counter) e.getValue()).get()));
+            }
+            else {
+               appendHistogram(buf, family.name, e.getKey(),
+                               ((Histogram) e.getValue()).snapshot());
+            }
+         }
+         out.write(buf.toString());
+      }
+      out.flush();
+   }
+
+   private Family family(String name, String help, String type) {
+      Family family = families.get(name);
+      if (family == null) {
+         Family created = new Family(name, help, type);
+         family = families.putIfAbsent(name, created);
+         if (family == null) {
+            family = created;
+         }
+      }
+      if (! family.type.equals(type)) {
+         throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+      }
+      return family;
+   }
+
+   private static void appendHistogram(StringBuilder buf, String name, String labels,
+                                       Histogram.Snapshot snapshot) {
+      for (int e = MIN_BUCKET_EXPONENT; e <= MAX_BUCKET_EXPONENT; e++) {
+         long bound = 1L << e;
+         appendSample(buf, name + "_bucket", labels, Double.toString(bound / 1e9),
+                      Long.toString(snapshot.getCountBelow(bound)));
+      }
+      appendSample(buf, name + "_bucket", labels, "+Inf", Long.toString(snapshot.getCount()));
+      appendSample(buf, name + "_sum", labels, null, Double.toString(snapshot.getSum() / 1e9));
+      appendSample(buf, name + "_count", labels, null, Long.toString(snapshot.getCount()));
+   }
+
+   private static void appendSample(StringBuilder buf, String name, String labels,
+                                    String le, String value) {
+      buf.append(name);
+      if (labels.length() > 0 || le != null) {
+         buf.append('{').append(labels);
+         if (le != null) {
+            if (labels.length() > 0) {
+               buf.append(',');
+            }
+            buf.append("le=\"").append(le).append('"');
+         }
+         buf.append('}');
+      }
+      buf.append(' ').append(value).append('\n');
+   }
+
+   private static void appendEscaped(StringBuilder buf, String s, boolean quotes) {
+      for (int i = 0; i < s.length(); i++) {
+         char c = s.charAt(i);
+         if (c == '\\') {
+            buf.append("\\\\");
+         }
+         else if (c == '\n') {
+            buf.append("\\n");
+         }
+         else if (c == '"' && quotes) {
+            buf.append("\\\"");
+         }
+         else {
+            buf.append(c);
+         }
+      }
+   }
+
+   /**
+    * All the metrics with one name.
+    */
+   private static final class Family {
+      static final String COUNTER = "counter";
+      static final String HISTOGRAM = "histogram";
+
+      final String name;
+      final String help;
+      final String type;
+      final ConcurrentMap<String,Object> children = new ConcurrentHashMap<String,Object>();
+
+      Family(String name, String help, String type) {
+         this.name = name;
+         this.help = help;
+         this.type = type;
+      }
+
+      Object get(String[] labels) {
+         String key = labelKey(labels);
+         Object child = children.get(key);
+         if (child == null) {
+            Object created = COUNTER.equals(type) ? new Counter() : new Histogram();
+            child = children.putIfAbsent(key, created);
+            if (child == null) {
+               child = created;
+            }
+         }
+         return child;
+      }
+
+      private static String labelKey(String[] labels) {
+         if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+         }
+         StringBuilder buf = new StringBuilder();
+         for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+               buf.append(',');
+            }
+            buf.append(labels[i]).append("=\"");
+            appendEscaped(buf, labels[i + 1], true);
+            buf.append('"');
+         }
+         return buf.toString();
+      }
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
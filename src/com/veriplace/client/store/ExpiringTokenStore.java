@@ -0,0 +1,581 @@
+/* Copyright 2008-2009 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.store;
+
+import com.veriplace.oauth.consumer.Token;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory implementation of {@link TokenStore} whose tokens expire.
+ * <p>
+ * Request tokens are only needed between the redirect to Veriplace and the
+ * callback, but a user who abandons the authorization page never comes back
+ * to claim theirs.  This store forgets each token once it is older than
+ * {@link #getMaxAge() maxAge}, and holds at most {@link #getMaxSize() maxSize}
+ * tokens, dropping the ones closest to expiry first.  Every token is kept for
+ * the same time, so the tokens are also queued in order of expiry, and
+ * making room takes them from the head of the queue.  Expired tokens are
+ * removed lazily on lookup and by a background sweeper thread.
+ * <p>
+ * If a spill file is given, every change is also appended to that file, and
+ * the live tokens are read back from it on startup, so that pending
+ * authorizations survive a restart.  The file is rewritten with only the
+ * live tokens whenever it has grown well beyond them.  Each change to the
+ * tokens is made together with its record, so the file replays them in the
+ * order they happened.
+ * <p>
+ * Call {@link #close()} when the store is no longer needed, to stop the
+ * sweeper and release the spill file.
+ */
+public class ExpiringTokenStore
+   implements TokenStore {
+
+   private static final Log logger = LogFactory.getLog(ExpiringTokenStore.class);
+
+   /**
+    * Default time to keep a token, in milliseconds. (15 minutes)
+    */
+   public static final long DEFAULT_MAX_AGE = 15 * 60 * 1000L;
+
+   /**
+    * Default maximum number of tokens. (100000)
+    */
+   public static final int DEFAULT_MAX_SIZE = 100000;
+
+   /**
+    * Default interval between sweeps, in milliseconds. (1 minute)
+    */
+   public static final long DEFAULT_SWEEP_INTERVAL = 60 * 1000L;
+
+   private static final String UTF8 = "UTF-8";
+   private static final char ADD = 'A';
+   private static final char REMOVE = 'R';
+
+   private final ConcurrentMap<String,Entry> tokens = new ConcurrentHashMap<String,Entry>();
+   // in order of expiry; may still hold entries already removed from tokens
+   private final ConcurrentLinkedQueue<Entry> expiryOrder = new ConcurrentLinkedQueue<Entry>();
+   private final long maxAge;
+   private final int maxSize;
+   private final File spillFile;
+   private final ScheduledExecutorService sweeper;
+
+   private final AtomicLong hitCount = new AtomicLong();
+   private final AtomicLong missCount = new AtomicLong();
+   private final AtomicLong expiredCount = new AtomicLong();
+   private final AtomicLong evictedCount = new AtomicLong();
+
+   private Writer spillWriter;
+   private int spillRecords;
+
+   /**
+    * Create a new in-memory store using default values.
+    */
+   public ExpiringTokenStore() {
+      this(DEFAULT_MAX_AGE, DEFAULT_MAX_SIZE, DEFAULT_SWEEP_INTERVAL, null);
+   }
+
+   /**
+    * Create a new store.
+    * @param maxAge  time to keep each token, in milliseconds
+    * @param maxSize  maximum number of tokens to keep
+    * @param sweepInterval  milliseconds between background sweeps; zero or less
+    *   disables the sweeper, leaving expiry to lookups and {@link #sweep()}
+    * @param spillFile  file in which to keep a durable copy of the tokens, or null
+    *   to keep them only in memory
+    */
+   public ExpiringTokenStore(long maxAge,
+                             int maxSize,
+                             long sweepInterval,
+                             File spillFile) {
+      if (maxAge <= 0) {
+         throw new IllegalArgumentException("maxAge must be positive");
+      }
+      if (maxSize <= 0) {
+         throw new IllegalArgumentException("maxSize must be positive");
+      }
+      this.maxAge = maxAge;
+      this.maxSize = maxSize;
+      this.spillFile = spillFile;
+      if (spillFile != null) {
+         load();
+         compact();
+      }
+      if (sweepInterval > 0) {
+         sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+               public Thread newThread(Runnable r) {
+                  Thread thread = new Thread(r, "veriplace-token-sweeper");
+                  thread.setDaemon(true);
+                  return thread;
+               }
+            });
+         sweeper.scheduleWithFixedDelay(new Runnable() {
+               public void run() {
+                  try {
+                     sweep();
+                  }
+                  catch (RuntimeException e) {
+                     logger.warn("Token sweep failed", e);
+                  }
+               }
+            }, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+      }
+      else {
+         sweeper = null;
+      }
+   }
+
+   /**
+    * Get a token by value.
+    */
+   public Token get(String token) {
+      Entry entry = tokens.get(token);
+      if (entry == null) {
+         missCount.incrementAndGet();
+         return null;
+      }
+      if (entry.isExpired(System.currentTimeMillis())) {
+         if (removeEntry(entry)) {
+            expiredCount.incrementAndGet();
+         }
+         missCount.incrementAndGet();
+         return null;
+      }
+      hitCount.incrementAndGet();
+      return entry.token;
+   }
+
+   /**
+    * Add a token to this store.
+    */
+   public void add(Token token) {
+      long now = System.currentTimeMillis();
+      Entry entry = new Entry(token, now + maxAge);
+      if (spillFile == null) {
+         tokens.put(token.getToken(), entry);
+      }
+      else {
+         synchronized (this) {
+            tokens.put(token.getToken(), entry);
+            spill(ADD, token.getToken(), token.getTokenSecret(), entry.expires);
+         }
+      }
+      expiryOrder.add(entry);
+      trimExpiryOrder(now);
+      if (tokens.size() > maxSize) {
+         makeRoom(now);
+      }
+   }
+
+   /**
+    * Remove a token from this store.
+    */
+   public void remove(Token token) {
+      if (spillFile == null) {
+         tokens.remove(token.getToken());
+      }
+      else {
+         synchronized (this) {
+            if (tokens.remove(token.getToken()) != null) {
+               spill(REMOVE, token.getToken(), null, 0);
+            }
+         }
+      }
+   }
+
+   /**
+    * Remove all expired tokens.
+    * @return the number of tokens removed
+    */
+   public int sweep() {
+      long now = System.currentTimeMillis();
+      int removed = 0;
+      for (Iterator<Map.Entry<String,Entry>> it = tokens.entrySet().iterator(); it.hasNext(); ) {
+         Entry entry = it.next().getValue();
+         if (entry.isExpired(now) && removeEntry(entry)) {
+            removed++;
+         }
+      }
+      trimExpiryOrder(now);
+      if (removed > 0) {
+         expiredCount.addAndGet(removed);
+         logger.debug("Swept " + removed + " expired tokens");
+      }
+      if (spillFile != null) {
+         boolean shouldCompact;
+         synchronized (this) {
+            shouldCompact = spillRecords > 2 * tokens.size() + 1000;
+         }
+         if (shouldCompact) {
+            compact();
+         }
+      }
+      return removed;
+   }
+
+   /**
+    * Stop the sweeper and close the spill file.  Tokens already in the spill
+    * file will be loaded by the next store that uses it.
+    */
+   public void close() {
+      if (sweeper != null) {
+         sweeper.shutdownNow();
+      }
+      synchronized (this) {
+         closeSpillWriter();
+      }
+   }
+
+   /**
+    * Returns the number of tokens currently held, which may include some that
+    * have expired but not yet been swept.
+    */
+   public int size() {
+      return tokens.size();
+   }
+
+   /**
+    * Returns the time to keep each token, in milliseconds.
+    */
+   public long getMaxAge() {
+      return maxAge;
+   }
+
+   /**
+    * Returns the maximum number of tokens.
+    */
+   public int getMaxSize() {
+      return maxSize;
+   }
+
+   /**
+    * Returns the spill file, or null if tokens are only kept in memory.
+    */
+   public File getSpillFile() {
+      return spillFile;
+   }
+
+   /**
+    * Returns the number of lookups that found a live token.
+    */
+   public long getHitCount() {
+      return hitCount.get();
+   }
+
+   /**
+    * Returns the number of lookups that found no live token.
+    */
+   public long getMissCount() {
+      return missCount.get();
+   }
+
+   /**
+    * Returns the number of tokens that were removed because they expired.
+    */
+   public long getExpiredCount() {
+      return expiredCount.get();
+   }
+
+   /**
+    * Returns the number of tokens that were removed before they expired
+    * because the store was full.
+    */
+   public long getEvictedCount() {
+      return evictedCount.get();
+   }
+
+   /**
+    * Bring the store back under its size limit by dropping the tokens closest
+    * to expiry.  Expired tokens are already gone from the head of the queue.
+    */
+   private void makeRoom(long now) {
+      int evicted = 0;
+      synchronized (expiryOrder) {
+         while (tokens.size() > maxSize) {
+            Entry oldest = expiryOrder.poll();
+            if (oldest == null) {
+               break;
+            }
+            if (removeEntry(oldest)) {
+               if (oldest.isExpired(now)) {
+                  expiredCount.incrementAndGet();
+               }
+               else {
+                  evicted++;
+               }
+            }
+         }
+      }
+      if (evicted > 0) {
+         logger.warn("Token store is full; dropped " + evicted + " tokens (" +
+                     evictedCount.addAndGet(evicted) + " in all)");
+      }
+   }
+
+   /**
+    * Drop entries from the head of the expiry queue that have expired or are
+    * no longer in the store, so that the queue only holds recent tokens.
+    */
+   private void trimExpiryOrder(long now) {
+      synchronized (expiryOrder) {
+         Entry head;
+         while ((head = expiryOrder.peek()) != null) {
+            boolean current = (tokens.get(head.token.getToken()) == head);
+            if (current && ! head.isExpired(now)) {
+               return;
+            }
+            expiryOrder.poll();
+            if (current && removeEntry(head)) {
+               expiredCount.incrementAndGet();
+            }
+         }
+      }
+   }
+
+   /**
+    * Remove a token if it is still the given entry, recording the removal in
+    * the spill file.
+    * @return true if the entry was removed
+    */
+   private boolean removeEntry(Entry entry) {
+      String token = entry.token.getToken();
+      if (spillFile == null) {
+         return tokens.remove(token, entry);
+      }
+      synchronized (this) {
+         if (! tokens.remove(token, entry)) {
+            return false;
+         }
+         spill(REMOVE, token, null, 0);
+         return true;
+      }
+   }
+
+   /**
+    * Append one change to the spill file, if there is one.
+    */
+   private void spill(char op, String token, String secret, long expires) {
+      if (spillFile == null) {
+         return;
+      }
+      synchronized (this) {
+         try {
+            if (spillWriter == null) {
+               spillWriter = openSpillWriter(true);
+            }
+            writeRecord(spillWriter, op, token, secret, expires);
+            spillWriter.flush();
+            spillRecords++;
+         }
+         catch (IOException e) {
+            logger.warn("Could not write token spill file: " + spillFile, e);
+            closeSpillWriter();
+         }
+      }
+   }
+
+   /**
+    * Read the live tokens back from the spill file.
+    */
+   private void load() {
+      if (! spillFile.exists()) {
+         return;
+      }
+      long now = System.currentTimeMillis();
+      BufferedReader reader = null;
+      try {
+         reader = new BufferedReader(new InputStreamReader(new FileInputStream(spillFile), UTF8));
+         String line;
+         while ((line = reader.readLine()) != null) {
+            String[] fields = line.split("\t");
+            try {
+               if (fields.length == 4 && fields[0].charAt(0) == ADD) {
+                  long expires = Long.parseLong(fields[3]);
+                  String token = URLDecoder.decode(fields[1], UTF8);
+                  if (expires > now) {
+                     Token t = new Token(token, URLDecoder.decode(fields[2], UTF8));
+                     tokens.put(token, new Entry(t, expires));
+                  }
+                  else {
+                     tokens.remove(token);
+                  }
+               }
+               else if (fields.length == 2 && fields[0].charAt(0) == REMOVE) {
+                  tokens.remove(URLDecoder.decode(fields[1], UTF8));
+               }
+               else {
+                  logger.warn("Skipping malformed line in token spill file: " + spillFile);
+               }
+            }
+            catch (IllegalArgumentException e) {
+               logger.warn("Skipping malformed line in token spill file: " + spillFile);
+            }
+         }
+         List<Entry> entries = new ArrayList<Entry>(tokens.values());
+         Collections.sort(entries, new Comparator<Entry>() {
+               public int compare(Entry a, Entry b) {
+                  return (a.expires < b.expires) ? -1 : ((a.expires == b.expires) ? 0 : 1);
+               }
+            });
+         expiryOrder.addAll(entries);
+         logger.info("Loaded " + tokens.size() + " tokens from " + spillFile);
+      }
+      catch (IOException e) {
+         logger.warn("Could not read token spill file: " + spillFile, e);
+      }
+      finally {
+         if (reader != null) {
+            try {
+               reader.close();
+            }
+            catch (IOException e) {
+            }
+         }
+      }
+   }
+
+   /**
+    * Rewrite the spill file so it holds only the live tokens.
+    */
+   private synchronized void compact() {
+      File temp = new File(spillFile.getPath() + ".tmp");
+      Writer writer = null;
+      int records = 0;
+      try {
+         writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), UTF8));
+         long now = System.currentTimeMillis();
+         for (Entry entry : tokens.values()) {
+            if (! entry.isExpired(now)) {
+               writeRecord(writer, ADD, entry.token.getToken(), entry.token.getTokenSecret(),
+                           entry.expires);
+               records++;
+            }
+         }
+         writer.close();
+         writer = null;
+         closeSpillWriter();
+         if (! temp.renameTo(spillFile)) {
+            // Some platforms won't rename over an existing file
+            spillFile.delete();
+            if (! temp.renameTo(spillFile)) {
+               throw new IOException("Could not rename " + temp + " to " + spillFile);
+            }
+         }
+         spillRecords = records;
+      }
+      catch (IOException e) {
+         logger.warn("Could not compact token spill file: " + spillFile, e);
+         temp.delete();
+      }
+      finally {
+         if (writer != null) {
+            try {
+               writer.close();
+            }
+            catch (IOException e) {
+            }
+         }
+      }
+   }
+
+   private Writer openSpillWriter(boolean append)
+      throws IOException {
+      File dir = spillFile.getAbsoluteFile().getParentFile();
+      if (dir != null && ! dir.exists()) {
+         dir.mkdirs();
+      }
+      return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spillFile, append), UTF8));
+   }
+
+   private void closeSpillWriter() {
+      if (spillWriter != null) {
+         try {
+            spillWriter.close();
+         }
+         catch (IOException e) {
+            logger.warn(e);
+         }
+         spillWriter = null;
+      }
+   }
+
+   private static void writeRecord(Writer writer, char op, String token, String secret,
+                                   long expires)
+      throws UnsupportedEncodingException,
+             IOException {
+      writer.write(op);
+      writer.write('\t');
+      writer.write(URLEncoder.encode(token, UTF8));
+      if (op == ADD) {
+         writer.write('\t');
+         writer.write(URLEncoder.encode(secret == null ? "" : secret, UTF8));
+         writer.write('\t');
+         writer.write(Long.toString(expires));
+      }
+      writer.write('\n');
+   }
+
+   private static final class Entry {
+      final Token token;
+      final long expires;
+
+      Entry(Token token, long expires) {
+         this.token = token;
+         this.expires = expires;
+      }
+
+      boolean isExpired(long now) {
+         return now >= expires;
+      }
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
@@ -19,11 +19,13 @@ import com.veriplace.oauth.consumer.Token;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStreamReader;
 
 /**
  * A file based implemention of {@link TokenStore}
@@ -89,25 +91,21 @@ public class FileTokenStore
     */
    public synchronized Token get(String token) {
 
+      BufferedReader reader = null;
       try {
          File file = getFile(token);
-         FileInputStream fis = new FileInputStream(file);
+         reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
 
          logger.debug("Reading token from file: " + file.getPath());
          
-         StringBuilder secret = new StringBuilder();
-         
-         int c;
-         while ((c = fis.read()) != -1) {
-            if (c == '\n') {
-               break;
-            }
-            secret.append((char)c);
+         String secret = reader.readLine();
+         if (secret == null) {
+            secret = "";
          }
 
          logger.debug("Token secret was: " + secret);
 
-         return new Token(token,secret.toString());
+         return new Token(token,secret);
       } catch (FileNotFoundException e) {
          logger.debug(e);
 
@@ -116,6 +114,14 @@ public class FileTokenStore
          logger.warn(e);
 
          return null;
+      } finally {
+         if (reader != null) {
+            try {
+               reader.close();
+            } catch (IOException e) {
+               logger.warn(e);
+            }
+         }
       }
    }
 
@@ -131,8 +137,11 @@ public class FileTokenStore
 
          logger.debug("Writing token to file: " + file.getPath());
 
-         fos.write(token.getTokenSecret().getBytes());
-         fos.close();
+         try {
+            fos.write(token.getTokenSecret().getBytes());
+         } finally {
+            fos.close();
+         }
 
       } catch (IOException e) {
          logger.warn(e);
@@ -0,0 +1,301 @@
+/* Copyright 2008-2009 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.util;
+
+import com.veriplace.client.metrics.Counter;
+import com.veriplace.client.metrics.MetricsRegistry;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Stops calling a remote service that is failing, so that callers fail fast
+ * instead of each waiting out a timeout.
+ * <p>
+ * The breaker starts {@link State#CLOSED}, letting every call through and
+ * counting outcomes over a rolling window.  Once the window holds at least
+ * {@link #getMinimumCalls() minimumCalls} calls and the fraction that failed
+ * reaches {@link #getFailureRate() failureRate}, the breaker opens and refuses
+ * calls for {@link #getOpenTime() openTime} milliseconds.  It then lets a single
+ * probe call through ({@link State#HALF_OPEN}); success closes the breaker and
+ * failure opens it again.
+ * <p>
+ * Typical use:
+ * <pre>
+ * if (! breaker.allowRequest()) {
+ *    // fail fast, or try again after breaker.getRetryDelay()
+ * }
+ * try {
+ *    ...
+ *    breaker.recordSuccess();
+ * } catch (IOException e) {
+ *    breaker.recordFailure();
+ * }
+ * </pre>
+ * Every call let through by {@link #allowRequest()} must be followed by
+ * {@link #recordSuccess()} or {@link #recordFailure()}, or a half-open
+ * breaker will wait for its probe forever.
+ */
+public class CircuitBreaker {
+
+   private static final Log logger = LogFactory.getLog(CircuitBreaker.class);
+
+   private static final MetricsRegistry metrics = MetricsRegistry.getDefault();
+
+   public enum State {
+      CLOSED,
+      OPEN,
+      HALF_OPEN
+   }
+
+   /**
+    * Default length of the rolling window, in milliseconds. (10 seconds)
+    */
+   public static final long DEFAULT_WINDOW = 10 * 1000L;
+
+   /**
+    * Default number of calls in the window before the breaker may open. (20)
+    */
+   public static final int DEFAULT_MINIMUM_CALLS = 20;
+
+   /**
+    * Default fraction of failed calls that opens the breaker. (0.5)
+    */
+   public static final double DEFAULT_FAILURE_RATE = 0.5;
+
+   /**
+    * Default time to refuse calls once open, in milliseconds. (30 seconds)
+    */
+   public static final long DEFAULT_OPEN_TIME = 30 * 1000L;
+
+   private static final int BUCKETS = 10;
+
+   private final String name;
+   private final long window;
+   private final int minimumCalls;
+   private final double failureRate;
+   private final long openTime;
+
+   private final Counter opened;
+   private final Counter rejected;
+   private final long epoch = System.nanoTime();
+
+   // Outcomes per slice of the window, indexed by slice number modulo BUCKETS
+   private final long[] bucketSlice = new long[BUCKETS];
+   private final int[] bucketCalls = new int[BUCKETS];
+   private final int[] bucketFailures = new int[BUCKETS];
+
+   private State state = State.CLOSED;
+   private long openUntil;
+   private boolean probing;
+
+   /**
+    * Create a breaker with the default settings.
+    * @param name  the service guarded, used in logs and metrics
+    */
+   public CircuitBreaker(String name) {
+      this(name, DEFAULT_WINDOW, DEFAULT_MINIMUM_CALLS, DEFAULT_FAILURE_RATE, DEFAULT_OPEN_TIME);
+   }
+
+   /**
+    * @param name  the service guarded, used in logs and metrics
+    * @param window  length of the rolling window, in milliseconds
+    * @param minimumCalls  number of calls in the window before the breaker may open
+    * @param failureRate  fraction of failed calls, from 0 to 1, that opens the breaker
+    * @param openTime  time to refuse calls once open, in milliseconds
+    */
+   public CircuitBreaker(String name,
+                         long window,
+                         int minimumCalls,
+                         double failureRate,
+                         long openTime) {
+      if (window < BUCKETS || minimumCalls <= 0 || openTime <= 0 ||
+          ! (failureRate > 0 && failureRate <= 1)) {
+         throw new IllegalArgumentException("Invalid circuit breaker settings for " + name);
+      }
+      this.name = name;
+      this.window = window;
+      this.minimumCalls = minimumCalls;
+      this.failureRate = failureRate;
+      this.openTime = openTime;
+      opened = metrics.counter("veriplace_circuit_breaker_opened_total",
+                               "Times a circuit breaker opened", "breaker", name);
+      rejected = metrics.counter("veriplace_circuit_breaker_rejected_total",
+                                 "Calls refused by an open circuit breaker", "breaker", name);
+   }
+
+   /**
+    * Returns true if a call may be made now.  A half-open breaker lets one
+    * call through at a time.
+    */
+   public synchronized boolean allowRequest() {
+      switch (state) {
+      case CLOSED:
+         return true;
+      case OPEN:
+         if (now() < openUntil) {
+            break;
+         }
+         state = State.HALF_OPEN;
+         logger.info("Circuit breaker half-open: " + name);
+         // fall through
+      default:
+         if (! probing) {
+            probing = true;
+            return true;
+         }
+      }
+      rejected.increment();
+      return false;
+   }
+
+   /**
+    * Record a call that the service answered.
+    */
+   public synchronized void recordSuccess() {
+      if (state == State.HALF_OPEN) {
+         logger.info("Circuit breaker closed: " + name);
+         state = State.CLOSED;
+         probing = false;
+         reset();
+         return;
+      }
+      record(false);
+   }
+
+   /**
+    * Record a call that failed because of the service, e.g. a timeout or a
+    * server error.
+    */
+   public synchronized void recordFailure() {
+      if (state == State.HALF_OPEN) {
+         probing = false;
+         open();
+         return;
+      }
+      record(true);
+      if (state == State.CLOSED && shouldOpen()) {
+         open();
+      }
+   }
+
+   public synchronized State getState() {
+      if (state == State.OPEN && now() >= openUntil) {
+         return State.HALF_OPEN;
+      }
+      return state;
+   }
+
+   /**
+    * Returns the number of milliseconds until the breaker will let a call
+    * through, or 0 if it would now.
+    */
+   public synchronized long getRetryDelay() {
+      switch (state) {
+      case OPEN:
+         return Math.max(0, openUntil - now());
+      case HALF_OPEN:
+         return probing ? openTime : 0;
+      default:
+         return 0;
+      }
+   }
+
+   public String getName() {
+      return name;
+   }
+
+   public long getWindow() {
+      return window;
+   }
+
+   public int getMinimumCalls() {
+      return minimumCalls;
+   }
+
+   public double getFailureRate() {
+      return failureRate;
+   }
+
+   public long getOpenTime() {
+      return openTime;
+   }
+
+   @Override
+   public String toString() {
+      return "CircuitBreaker[" + name + " " + getState() + "]";
+   }
+
+   /**
+    * Returns the milliseconds since this breaker was created.  Uses a monotonic
+    * clock, so the breaker is not upset by changes to the system time.
+    */
+   protected long now() {
+      return (System.nanoTime() - epoch) / 1000000L;
+   }
+
+   private void open() {
+      state = State.OPEN;
+      openUntil = now() + openTime;
+      opened.increment();
+      reset();
+      logger.warn("Circuit breaker open for " + openTime + "ms: " + name);
+   }
+
+   private void record(boolean failure) {
+      long slice = now() / (window / BUCKETS);
+      int i = (int) (slice % BUCKETS);
+      if (bucketSlice[i] != slice) {
+         bucketSlice[i] = slice;
+         bucketCalls[i] = 0;
+         bucketFailures[i] = 0;
+      }
+      bucketCalls[i]++;
+      if (failure) {
+         bucketFailures[i]++;
+      }
+   }
+
+   private boolean shouldOpen() {
+      long oldest = now() / (window / BUCKETS) - BUCKETS;
+      int calls = 0;
+      int failures = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+         if (bucketSlice[i] > oldest) {
+            calls += bucketCalls[i];
+            failures += bucketFailures[i];
+         }
+      }
+      return calls >= minimumCalls && failures >= failureRate * calls;
+   }
+
+   private void reset() {
+      for (int i = 0; i < BUCKETS; i++) {
+         bucketSlice[i] = 0;
+         bucketCalls[i] = 0;
+         bucketFailures[i] = 0;
+      }
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
@@ -0,0 +1,67 @@
+/* Copyright 2008-2009 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event for one call to a remote service.  Events are
+ * created through {@link RemoteCall}, which avoids touching this class on
+ * JVMs without Flight Recorder.
+ */
+@Name("com.veriplace.RemoteCall")
+@Label("Remote Call")
+@Category({"Veriplace", "Remote Calls"})
+@Description("A call to Veriplace or another remote service")
+@StackTrace(false)
+public final class RemoteCallEvent
+   extends Event {
+
+   @Label("Service")
+   String service;
+
+   @Label("Endpoint")
+   @Description("Path or operation called, with numeric IDs replaced by {id}")
+   String endpoint;
+
+   @Label("User Hash")
+   @Description("Hash of the user ID, salted per JVM; 0 if there is no user")
+   long userHash;
+
+   @Label("Status")
+   @Description("HTTP status code, or -1 if the call failed without one")
+   int status;
+
+   @Label("Bytes")
+   @Description("Size of the response body, or -1 if unknown")
+   @DataAmount
+   long bytes;
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
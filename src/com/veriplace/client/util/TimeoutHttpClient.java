@@ -0,0 +1,105 @@
+/* Copyright 2008-2009 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.util;
+
+import com.veriplace.oauth.consumer.CommonsHttpClient;
+import com.veriplace.oauth.message.Request;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * An OAuth HTTP client whose connect and socket timeouts can be set for each call.
+ * <p>
+ * The OAuth {@link com.veriplace.oauth.consumer.Consumer} has no way to pass a
+ * timeout with a request, so the timeout is set for the calling thread
+ * instead, around the call:
+ * <pre>
+ * Integer previous = TimeoutHttpClient.setTimeout(timeout);
+ * try {
+ *    consumer.getAccessToken(requestToken, verifier);
+ * } finally {
+ *    TimeoutHttpClient.setTimeout(previous);
+ * }
+ * </pre>
+ * The timeout applies both to opening the connection and to each read.
+ * Unless a shared connection manager has been given with
+ * {@link #setHttpConnectionManager}, every call gets its own connection
+ * manager, which carries the connect timeout; a shared manager keeps its own
+ * connection timeout, since changing it would affect other threads.
+ * Requests made without a timeout use the client's default parameters.
+ */
+public class TimeoutHttpClient
+   extends CommonsHttpClient {
+
+   private static final ThreadLocal<Integer> timeout = new ThreadLocal<Integer>();
+
+   /**
+    * Set the connect and socket timeout for requests made by the calling thread.
+    * @param timeout  timeout in milliseconds, or null for none
+    * @return the previous timeout, to be restored when the call is done
+    */
+   public static Integer setTimeout(Integer timeout) {
+      Integer previous = TimeoutHttpClient.timeout.get();
+      if (timeout == null) {
+         TimeoutHttpClient.timeout.remove();
+      } else {
+         TimeoutHttpClient.timeout.set(timeout);
+      }
+      return previous;
+   }
+
+   /**
+    * Returns the timeout for requests made by the calling thread,
+    * or null if there is none.
+    */
+   public static Integer getTimeout() {
+      return timeout.get();
+   }
+
+   @Override
+   protected HttpClient getHttpClient() {
+      HttpClient client = super.getHttpClient();
+      Integer ms = timeout.get();
+      if (ms != null && getHttpConnectionManager() == null) {
+         client.getHttpConnectionManager().getParams()
+            .setConnectionTimeout(Math.max(1, ms.intValue()));
+      }
+      return client;
+   }
+
+   @Override
+   protected HttpMethod getHttpMethod(Request request)
+      throws UnsupportedEncodingException {
+      HttpMethod method = super.getHttpMethod(request);
+      Integer ms = timeout.get();
+      if (method != null && ms != null) {
+         method.getParams().setSoTimeout(Math.max(1, ms.intValue()));
+      }
+      return method;
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
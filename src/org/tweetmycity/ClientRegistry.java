@@ -0,0 +1,197 @@
+/* Copyright 2008 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tweetmycity;
+
+import com.veriplace.client.Client;
+import com.veriplace.client.factory.ClientFactory;
+import com.veriplace.client.store.ExpiringTokenStore;
+import com.veriplace.client.store.TokenStore;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.servlet.ServletContext;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Holds the one Veriplace {@link Client} shared by every servlet in the webapp
+ * and by the update thread.
+ * <p>
+ * The client is built from the properties file named by the
+ * "veriplace.properties-file" context parameter the first time it is asked
+ * for, and rebuilt if that file changes.  The request token store is created
+ * along with the first client and kept across reloads, so authorizations
+ * that are in progress survive a reload; changes to the
+ * veriplace.client.token-store.* properties take effect on restart.
+ * <p>
+ * {@link ClientRegistryListener} creates the registry when the webapp starts
+ * and closes it when the webapp stops.
+ */
+public class ClientRegistry {
+
+   private static final Log logger = LogFactory.getLog(ClientRegistry.class);
+
+   /**
+    * Context parameter naming the properties file.
+    */
+   public static final String PROPERTIES_FILE_PARAMETER = "veriplace.properties-file";
+
+   /**
+    * Servlet context attribute holding the registry.
+    */
+   public static final String ATTRIBUTE = ClientRegistry.class.getName();
+
+   /**
+    * Minimum time between checks of the properties file for changes, in milliseconds.
+    */
+   public static final long RELOAD_CHECK_INTERVAL = 5000L;
+
+   private final File propertiesFile;
+   private final ClientFactory factory = new ClientFactory();
+
+   private volatile Client client;
+   private volatile long nextCheck;
+   private long lastModified;
+   private TokenStore requestTokenStore;
+
+   /**
+    * Create a registry for the given properties file.  Nothing is read until
+    * {@link #getClient()} is first called.
+    */
+   public ClientRegistry(File propertiesFile) {
+      this.propertiesFile = propertiesFile;
+   }
+
+   /**
+    * Returns the registry for a webapp, creating it if the listener has not.
+    */
+   public static ClientRegistry getInstance(ServletContext context) {
+      synchronized (context) {
+         ClientRegistry registry = (ClientRegistry) context.getAttribute(ATTRIBUTE);
+         if (registry == null) {
+            String path = context.getInitParameter(PROPERTIES_FILE_PARAMETER);
+            if (path == null) {
+               throw new IllegalStateException("Missing context parameter: " +
+                                               PROPERTIES_FILE_PARAMETER);
+            }
+            registry = new ClientRegistry(new File(path));
+            context.setAttribute(ATTRIBUTE, registry);
+         }
+         return registry;
+      }
+   }
+
+   /**
+    * Returns the current client, building it on first use and rebuilding it
+    * if the properties file has changed.
+    * @throws IllegalStateException if no client could be built
+    */
+   public Client getClient() {
+      Client current = client;
+      if (current != null && System.currentTimeMillis() < nextCheck) {
+         return current;
+      }
+      return reload();
+   }
+
+   /**
+    * Returns the store holding request tokens between the redirect to
+    * Veriplace and the callback.
+    */
+   public TokenStore getRequestTokenStore() {
+      getClient();
+      synchronized (this) {
+         return requestTokenStore;
+      }
+   }
+
+   /**
+    * Returns the properties file.
+    */
+   public File getPropertiesFile() {
+      return propertiesFile;
+   }
+
+   /**
+    * Release the request token store.
+    */
+   public synchronized void close() {
+      if (requestTokenStore instanceof ExpiringTokenStore) {
+         ((ExpiringTokenStore) requestTokenStore).close();
+      }
+   }
+
+   private synchronized Client reload() {
+      long now = System.currentTimeMillis();
+      if (client != null && now < nextCheck) {
+         return client;
+      }
+      nextCheck = now + RELOAD_CHECK_INTERVAL;
+
+      long modified = propertiesFile.lastModified();
+      if (client != null && modified == lastModified) {
+         return client;
+      }
+      try {
+         Properties properties = load();
+         if (requestTokenStore == null) {
+            requestTokenStore = factory.getRequestTokenStore(properties);
+         }
+         client = factory.getClient(properties, requestTokenStore);
+         if (lastModified != 0) {
+            logger.info("Reloaded Veriplace client from " + propertiesFile);
+         }
+         lastModified = modified;
+      }
+      catch (Exception e) {
+         if (client == null) {
+            throw new IllegalStateException("Could not create Veriplace client from " +
+                                            propertiesFile, e);
+         }
+         // Keep using the old client, and don't try again until the file changes
+         logger.warn("Could not reload Veriplace client from " + propertiesFile, e);
+         lastModified = modified;
+      }
+      return client;
+   }
+
+   private Properties load()
+      throws IOException {
+      Properties properties = new Properties();
+      InputStream in = new FileInputStream(propertiesFile);
+      try {
+         properties.load(in);
+      }
+      finally {
+         in.close();
+      }
+      return properties;
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
@@ -0,0 +1,70 @@
+/* Copyright 2008 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tweetmycity;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Creates the webapp's {@link ClientRegistry} on startup and closes it on shutdown,
+ * along with the {@link UpdateTracer}.  Also joins the webapp's {@link Cluster}
+ * on startup, so that the other nodes count this one before its first sweep, and
+ * leaves it on shutdown, after releasing any {@link LeaseManager leases} held.
+ */
+public class ClientRegistryListener
+   implements ServletContextListener {
+
+   public void contextInitialized(ServletContextEvent event) {
+      ClientRegistry.getInstance(event.getServletContext());
+      Cluster.getInstance(event.getServletContext());
+   }
+
+   public void contextDestroyed(ServletContextEvent event) {
+      ServletContext context = event.getServletContext();
+      synchronized (context) {
+         ClientRegistry registry = (ClientRegistry) context.getAttribute(ClientRegistry.ATTRIBUTE);
+         if (registry != null) {
+            context.removeAttribute(ClientRegistry.ATTRIBUTE);
+            registry.close();
+         }
+         UpdateTracer tracer = (UpdateTracer) context.getAttribute(UpdateTracer.ATTRIBUTE);
+         if (tracer != null) {
+            context.removeAttribute(UpdateTracer.ATTRIBUTE);
+            tracer.close();
+         }
+         LeaseManager leases = (LeaseManager) context.getAttribute(LeaseManager.ATTRIBUTE);
+         if (leases != null) {
+            context.removeAttribute(LeaseManager.ATTRIBUTE);
+            leases.close();
+         }
+         Cluster cluster = (Cluster) context.getAttribute(Cluster.ATTRIBUTE);
+         if (cluster != null) {
+            context.removeAttribute(Cluster.ATTRIBUTE);
+            cluster.close();
+         }
+      }
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
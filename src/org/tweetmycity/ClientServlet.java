@@ -16,9 +16,6 @@ package org.tweetmycity;
 
 import com.veriplace.client.Client;
 import com.veriplace.client.User;
-import com.veriplace.client.factory.ClientFactory;
-import com.veriplace.client.store.TokenStore;
-import com.veriplace.client.store.FileTokenStore;
 
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -26,30 +23,27 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 
-import java.io.IOException;
-import java.io.FileInputStream;
-import java.net.MalformedURLException;
-import java.security.NoSuchAlgorithmException;
-import java.util.Properties;
-
 /**
  * Abstract servlet base class for obtaining Veriplace {@link Client} reference.
  */
 public abstract class ClientServlet
    extends HttpServlet {
 
-   protected Client client;
+   protected ClientRegistry registry;
 
    /**
-    * Initialize this servlet, pulling configuration parameters from the
-    * servlet config.
+    * Initialize this servlet, finding the webapp's shared {@link ClientRegistry}.
     */
    @Override
    public void init(ServletConfig config)
       throws ServletException {
 
-      /* Construct a Veriplace Client instance from a Properties file
-       * using ClientFactory.
+      super.init(config);
+
+      /* The Veriplace Client is built once per webapp by ClientRegistry,
+       * from the Properties file named by the "veriplace.properties-file"
+       * context parameter (as defined in web.xml), and rebuilt when that
+       * file changes.
        *
        * The specified Properties file must contain:
        *
@@ -65,43 +59,27 @@ public abstract class ClientServlet
        * If present, these properties specify the application-specified
        * access token that allows your application to perform user discovery 
        * by phone number, email, etc.
-       */
-      Properties properties = new Properties();
-
-      /* Look up the properties file path (as defined in web.xml).
-       */
-      String propertyFilePath = 
-         config.getServletContext().getInitParameter("veriplace.properties-file");
-
-      try {
-         properties.load(new FileInputStream(propertyFilePath));
-      } catch (IOException e) {
-         throw new ServletException(e);
-      }
-
-      /* The OAuth protocol requires that the request token secret 
-       * obtained before redirecting for user authorization be provided
-       * subsequently to obtain an access token. The TokenStore interface
-       * provides a mechanism for storing this state between requests.
        *
-       * This example uses a FileTokenStore, which stores request token 
-       * information on the file system, by default in "/tmp". Since this
-       * location will not work on all architectures, developers are expected
-       * to either reconfigure the FileTokenStore, use the MemoryTokenStore
-       * implementation, or provide their own implementation.
+       * The OAuth protocol requires that the request token secret 
+       * obtained before redirecting for user authorization be provided
+       * subsequently to obtain an access token. ClientFactory picks the
+       * TokenStore for this from the veriplace.client.token-store.*
+       * properties; by default it is an in-memory ExpiringTokenStore.
        */
-      TokenStore requestTokenStore = new FileTokenStore();
-
       try {
-         this.client = new ClientFactory().getClient(properties,
-                                                     requestTokenStore);
-      } catch (NoSuchAlgorithmException e) {
-         throw new ServletException(e);
-      } catch (MalformedURLException e) {
+         registry = ClientRegistry.getInstance(config.getServletContext());
+      } catch (IllegalStateException e) {
          throw new ServletException(e);
       }
    }
 
+   /**
+    * Returns the webapp's current Veriplace client.
+    */
+   protected Client getClient() {
+      return registry.getClient();
+   }
+
 
 
    /**
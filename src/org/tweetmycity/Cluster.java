@@ -0,0 +1,356 @@
+/* Copyright 2008 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tweetmycity;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.servlet.ServletContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The nodes that share the work of updating subscribers, and this node's
+ * slice of it.
+ * <p>
+ * Subscribers are assigned to nodes by consistent hashing of their user ids
+ * (see {@link HashRing}), so each node's sweep only covers its own slice, and
+ * when a node joins or leaves only the subscribers next to it on the ring move.
+ * The member list is read again at the start of every sweep.  It comes either
+ * from a fixed list, or from a directory shared by every node, where each
+ * member keeps a file fresh; a member whose file goes stale for
+ * {@link #EXPIRY_HEARTBEATS} heartbeats is taken to have left.  Members of a
+ * shared directory should keep their clocks in step.
+ * <p>
+ * The webapp's cluster is configured with context parameters:
+ * <ul>
+ * <li>tweetmycity.cluster.node - this node's name, made of letters, digits,
+ *   '.', '_' and '-' (the host name)</li>
+ * <li>tweetmycity.cluster.nodes - comma-separated names of every node (none)</li>
+ * <li>tweetmycity.cluster.directory - shared directory for membership (none)</li>
+ * <li>tweetmycity.cluster.heartbeat - milliseconds between heartbeats (10000)</li>
+ * </ul>
+ * With neither a list nor a directory, this node is the only member and
+ * updates every subscriber, and the cluster is not {@link #isConfigured()
+ * configured}: nodes that share only a lease directory then take turns
+ * sweeping everyone rather than each sweeping alone.
+ */
+public class Cluster {
+
+   private static final Log logger = LogFactory.getLog(Cluster.class);
+
+   /**
+    * Servlet context attribute holding the cluster.
+    */
+   public static final String ATTRIBUTE = Cluster.class.getName();
+
+   public static final String NODE_PARAMETER = "tweetmycity.cluster.node";
+   public static final String NODES_PARAMETER = "tweetmycity.cluster.nodes";
+   public static final String DIRECTORY_PARAMETER = "tweetmycity.cluster.directory";
+   public static final String HEARTBEAT_PARAMETER = "tweetmycity.cluster.heartbeat";
+
+   public static final long DEFAULT_HEARTBEAT = 10 * 1000L;
+
+   /**
+    * Number of missed heartbeats after which a member is taken to have left. (3)
+    */
+   public static final int EXPIRY_HEARTBEATS = 3;
+
+   /**
+    * Suffix of the member files in a shared directory.
+    */
+   public static final String MEMBER_SUFFIX = ".member";
+
+   private final String nodeId;
+   private final List<String> nodes;
+   private final File directory;
+   private final long heartbeat;
+   private final boolean configured;
+   private ScheduledExecutorService heartbeatThread;
+   private HashRing ring;
+
+   /**
+    * Create a cluster of this node alone, without configured membership.
+    * @param nodeId  this node's name
+    */
+   public Cluster(String nodeId) {
+      this(nodeId, Collections.singletonList(nodeId), false);
+   }
+
+   /**
+    * Create a cluster with a fixed list of members.
+    * @param nodeId  this node's name
+    * @param nodes  the names of every node, including this one
+    */
+   public Cluster(String nodeId, List<String> nodes) {
+      this(nodeId, nodes, true);
+   }
+
+   private Cluster(String nodeId, List<String> nodes, boolean configured) {
+      checkName(nodeId);
+      this.nodeId = nodeId;
+      this.nodes = new ArrayList<String>(nodes);
+      this.directory = null;
+      this.heartbeat = 0;
+      this.configured = configured;
+      if (! nodes.contains(nodeId)) {
+         logger.warn("Node " + nodeId + " is not in the cluster " + nodes +
+                     "; it will update no subscribers");
+      }
+   }
+
+   /**
+    * Create a cluster whose members are listed in a shared directory, and
+    * join it.  Call {@link #close()} to leave.
+    * @param nodeId  this node's name
+    * @param directory  the shared directory
+    * @param heartbeat  milliseconds between refreshes of this node's file
+    */
+   public Cluster(String nodeId, File directory, long heartbeat) {
+      checkName(nodeId);
+      if (heartbeat <= 0) {
+         throw new IllegalArgumentException("heartbeat must be positive");
+      }
+      this.nodeId = nodeId;
+      this.nodes = null;
+      this.directory = directory;
+      this.heartbeat = heartbeat;
+      this.configured = true;
+      if (! directory.isDirectory() && ! directory.mkdirs()) {
+         logger.error("Could not create cluster directory " + directory);
+      }
+      beat();
+      heartbeatThread = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+               Thread thread = new Thread(r, "tweetmycity-cluster-heartbeat");
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+      heartbeatThread.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+               beat();
+            }
+         }, heartbeat, heartbeat, TimeUnit.MILLISECONDS);
+      logger.info("Node " + nodeId + " joined cluster in " + directory);
+   }
+
+   /**
+    * Returns the cluster for a webapp, creating it if necessary.
+    */
+   public static Cluster getInstance(ServletContext context) {
+      synchronized (context) {
+         Cluster cluster = (Cluster) context.getAttribute(ATTRIBUTE);
+         if (cluster == null) {
+            cluster = create(context);
+            context.setAttribute(ATTRIBUTE, cluster);
+         }
+         return cluster;
+      }
+   }
+
+   private static Cluster create(ServletContext context) {
+      String nodeId = getParameter(context, NODE_PARAMETER);
+      if (nodeId == null) {
+         nodeId = getHostName();
+      }
+      String directory = getParameter(context, DIRECTORY_PARAMETER);
+      if (directory != null) {
+         long heartbeat = DEFAULT_HEARTBEAT;
+         String value = getParameter(context, HEARTBEAT_PARAMETER);
+         if (value != null) {
+            try {
+               heartbeat = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+               heartbeat = -1;
+            }
+            if (heartbeat <= 0) {
+               logger.warn("Invalid value found for optional property: " + HEARTBEAT_PARAMETER);
+               heartbeat = DEFAULT_HEARTBEAT;
+            }
+         }
+         return new Cluster(nodeId, new File(directory), heartbeat);
+      }
+      String nodes = getParameter(context, NODES_PARAMETER);
+      if (nodes != null) {
+         List<String> list = new ArrayList<String>();
+         for (String node : nodes.split(",")) {
+            if (node.trim().length() > 0) {
+               list.add(node.trim());
+            }
+         }
+         return new Cluster(nodeId, list);
+      }
+      return new Cluster(nodeId);
+   }
+
+   public String getNodeId() {
+      return nodeId;
+   }
+
+   /**
+    * Returns true if the members were given, as a list or a directory, and
+    * false for a node on its own.
+    */
+   public boolean isConfigured() {
+      return configured;
+   }
+
+   /**
+    * Returns the names of the current members, sorted.
+    */
+   public List<String> getMembers() {
+      return getRing().getNodes();
+   }
+
+   /**
+    * Returns the subscribers that this node should update, in the order given.
+    */
+   public List<TmcUser> getSlice(List<TmcUser> users) {
+      HashRing ring = getRing();
+      if (! ring.contains(nodeId)) {
+         logger.warn("Node " + nodeId + " is not a member of " + ring.getNodes() +
+                     "; updating no subscribers");
+         return Collections.emptyList();
+      }
+      if (ring.getNodes().size() == 1) {
+         return users;
+      }
+      List<TmcUser> slice = new ArrayList<TmcUser>();
+      for (TmcUser tmcUser : users) {
+         if (nodeId.equals(ring.getNode(tmcUser.getUserId()))) {
+            slice.add(tmcUser);
+         }
+      }
+      logger.info("Node " + nodeId + " has " + slice.size() + " of " + users.size() +
+                  " subscribers");
+      return slice;
+   }
+
+   /**
+    * Returns the ring for the current members, rebuilding it if they have
+    * changed since it was last asked for.
+    */
+   public synchronized HashRing getRing() {
+      List<String> members = new ArrayList<String>(
+         new TreeSet<String>((directory == null) ? nodes : readMembers()));
+      if (ring == null || ! ring.getNodes().equals(members)) {
+         HashRing previous = ring;
+         ring = new HashRing(members);
+         if (previous != null) {
+            logger.info("Cluster membership changed from " + previous.getNodes() +
+                        " to " + ring.getNodes());
+         }
+      }
+      return ring;
+   }
+
+   /**
+    * Leave the cluster: stop the heartbeat and remove this node's file, so
+    * the other members take over its slice at their next sweep.
+    */
+   public synchronized void close() {
+      if (heartbeatThread == null) {
+         return;
+      }
+      heartbeatThread.shutdownNow();
+      heartbeatThread = null;
+      if (! getMemberFile(nodeId).delete()) {
+         logger.warn("Could not remove " + getMemberFile(nodeId));
+      }
+      logger.info("Node " + nodeId + " left cluster in " + directory);
+   }
+
+   @Override
+   public String toString() {
+      return "Cluster[" + nodeId + " " + getMembers() + "]";
+   }
+
+   private void beat() {
+      File file = getMemberFile(nodeId);
+      try {
+         if (! file.exists() && ! file.createNewFile() && ! file.exists()) {
+            throw new IOException("Could not create " + file);
+         }
+         if (! file.setLastModified(System.currentTimeMillis())) {
+            throw new IOException("Could not touch " + file);
+         }
+      } catch (IOException e) {
+         logger.error("Cluster heartbeat failed", e);
+      }
+   }
+
+   private List<String> readMembers() {
+      long oldest = System.currentTimeMillis() - EXPIRY_HEARTBEATS * heartbeat;
+      List<String> members = new ArrayList<String>();
+      File[] files = directory.listFiles();
+      if (files == null) {
+         logger.error("Could not read cluster directory " + directory);
+         return members;
+      }
+      for (File file : files) {
+         String name = file.getName();
+         if (name.endsWith(MEMBER_SUFFIX) && file.lastModified() >= oldest) {
+            members.add(name.substring(0, name.length() - MEMBER_SUFFIX.length()));
+         }
+      }
+      return members;
+   }
+
+   private File getMemberFile(String node) {
+      return new File(directory, node + MEMBER_SUFFIX);
+   }
+
+   private static void checkName(String nodeId) {
+      if (nodeId == null || ! nodeId.matches("[A-Za-z0-9._-]+")) {
+         throw new IllegalArgumentException("Invalid node name: " + nodeId);
+      }
+   }
+
+   private static String getHostName() {
+      try {
+         return InetAddress.getLocalHost().getHostName();
+      } catch (UnknownHostException e) {
+         logger.warn("Could not find host name; set " + NODE_PARAMETER);
+         return "localhost";
+      }
+   }
+
+   private static String getParameter(ServletContext context, String name) {
+      String value = context.getInitParameter(name);
+      return (value == null || value.trim().length() == 0) ? null : value.trim();
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
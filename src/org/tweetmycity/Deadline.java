@@ -0,0 +1,100 @@
+/* Copyright 2008 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tweetmycity;
+
+import com.veriplace.client.API;
+
+/**
+ * A point in time by which some work must be done, passed down through the
+ * calls that make up the work so that each can limit its own timeout to the
+ * time that is left.
+ */
+public final class Deadline {
+
+   /**
+    * A deadline that never expires.
+    */
+   public static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+   private final long expiresAt;
+
+   private Deadline(long expiresAt) {
+      this.expiresAt = expiresAt;
+   }
+
+   /**
+    * Returns a deadline the given number of milliseconds from now, or
+    * {@link #NONE} if the number is not positive.
+    */
+   public static Deadline after(long millis) {
+      if (millis <= 0) {
+         return NONE;
+      }
+      return new Deadline(now() + millis);
+   }
+
+   /**
+    * Returns whichever of this deadline and another expires first.
+    */
+   public Deadline earlier(Deadline other) {
+      return (other.expiresAt < expiresAt) ? other : this;
+   }
+
+   public boolean isExpired() {
+      return this != NONE && now() >= expiresAt;
+   }
+
+   /**
+    * Returns the number of milliseconds left, 0 if expired, or
+    * {@link Long#MAX_VALUE} for {@link #NONE}.
+    */
+   public long remaining() {
+      if (this == NONE) {
+         return Long.MAX_VALUE;
+      }
+      return Math.max(0, expiresAt - now());
+   }
+
+   /**
+    * Returns the time left as a timeout for the Veriplace client, or
+    * {@link API#NO_TIMEOUT} for {@link #NONE}.  An expired deadline gives
+    * the shortest possible timeout rather than none.
+    */
+   public Integer getTimeout() {
+      if (this == NONE) {
+         return API.NO_TIMEOUT;
+      }
+      return Integer.valueOf((int) Math.max(1, Math.min(remaining(), Integer.MAX_VALUE)));
+   }
+
+   @Override
+   public String toString() {
+      return (this == NONE) ? "Deadline[none]" : "Deadline[" + remaining() + "ms]";
+   }
+
+   private static long now() {
+      return System.nanoTime() / 1000000L;
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
@@ -54,7 +54,7 @@ public class GetLocation
       if (user == null) {
          logger.info("GET GetLocation: no valid user");
          doDiscoverUser(request,response);
-      } else if (client.isCallback(request)) {
+      } else if (getClient().isCallback(request)) {
          logger.info("GET GetLocation: doCallback");
          doCallback(request,response,user);
       } else {
@@ -72,8 +72,8 @@ public class GetLocation
       throws ServletException,
              IOException {
 
-      String callback = client.prepareCallback(request) + request.getRequestURI();
-      String redirectUrl = client.getUserDiscoveryAPI().getRedirectURL(callback,null);
+      String callback = getClient().prepareCallback(request) + request.getRequestURI();
+      String redirectUrl = getClient().getUserDiscoveryAPI().getRedirectURL(callback,null);
       logger.info("redirect url = " + redirectUrl);
       response.sendRedirect(redirectUrl);
    }
@@ -107,10 +107,10 @@ public class GetLocation
              IOException {
 
       // retrieve the Access Token, if any
-      Token accessToken = client.getAccessToken(request);
+      Token accessToken = getClient().getAccessToken(request);
       if (accessToken != null) {
          // get user
-         Location location = client.getGetLocationAPI().getLocation(accessToken, user, "FREEDOM");
+         Location location = getClient().getGetLocationAPI().getLocation(accessToken, user, "FREEDOM");
 
          TmcUser tmc = (new UserStore()).get(user.getId());
 
@@ -272,12 +272,12 @@ public class GetLocation
 
          // construct callback url
          String callback = 
-            client.prepareCallback(request) + 
+            getClient().prepareCallback(request) + 
             request.getRequestURI() + 
             "?user=" + 
             user.getId();
          // construct the redirect URL for user authorization
-         String redirectUrl = client.getGetLocationAPI().getRedirectURL(callback,user);
+         String redirectUrl = getClient().getGetLocationAPI().getRedirectURL(callback,user);
          // redirect the User Agent
          response.sendRedirect(redirectUrl);
       }
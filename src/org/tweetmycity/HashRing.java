@@ -0,0 +1,132 @@
+/* Copyright 2008 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tweetmycity;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Assigns keys to nodes by consistent hashing.
+ * <p>
+ * Each node is placed at {@link #getReplicas() replicas} points on a ring of
+ * hash values, and a key belongs to the node at the first point at or after
+ * the key's own hash.  When a node joins or leaves, only the keys next to its
+ * points move; the rest stay where they were.  Hashes are MD5-based, so every
+ * JVM given the same nodes assigns keys the same way.
+ */
+public final class HashRing {
+
+   /**
+    * Default number of points on the ring for each node. (100)
+    */
+   public static final int DEFAULT_REPLICAS = 100;
+
+   private final List<String> nodes;
+   private final int replicas;
+   private final TreeMap<Long,String> ring = new TreeMap<Long,String>();
+
+   public HashRing(Collection<String> nodes) {
+      this(nodes, DEFAULT_REPLICAS);
+   }
+
+   /**
+    * @param nodes  the node names; duplicates are ignored
+    * @param replicas  number of points on the ring for each node
+    */
+   public HashRing(Collection<String> nodes, int replicas) {
+      if (replicas <= 0) {
+         throw new IllegalArgumentException("replicas must be positive");
+      }
+      this.nodes = Collections.unmodifiableList(new ArrayList<String>(new TreeSet<String>(nodes)));
+      this.replicas = replicas;
+      for (String node : this.nodes) {
+         for (int i = 0; i < replicas; i++) {
+            // On the rare collision, the lesser name wins, whatever the order given
+            Long point = hash(node + "#" + i);
+            if (! ring.containsKey(point)) {
+               ring.put(point, node);
+            }
+         }
+      }
+   }
+
+   /**
+    * Returns the node a key belongs to, or null if there are no nodes.
+    */
+   public String getNode(long key) {
+      if (ring.isEmpty()) {
+         return null;
+      }
+      SortedMap<Long,String> tail = ring.tailMap(hash(Long.toString(key)));
+      return tail.isEmpty() ? ring.get(ring.firstKey()) : tail.get(tail.firstKey());
+   }
+
+   /**
+    * Returns the nodes, sorted by name.
+    */
+   public List<String> getNodes() {
+      return nodes;
+   }
+
+   public boolean contains(String node) {
+      return nodes.contains(node);
+   }
+
+   public int getReplicas() {
+      return replicas;
+   }
+
+   @Override
+   public String toString() {
+      return "HashRing" + nodes;
+   }
+
+   /**
+    * Returns the first eight bytes of the MD5 digest of a string.
+    */
+   static long hash(String s) {
+      byte[] digest;
+      try {
+         digest = MessageDigest.getInstance("MD5").digest(s.getBytes("UTF-8"));
+      } catch (NoSuchAlgorithmException e) {
+         throw new IllegalStateException(e);
+      } catch (UnsupportedEncodingException e) {
+         throw new IllegalStateException(e);
+      }
+      long h = 0;
+      for (int i = 0; i < 8; i++) {
+         h = (h << 8) | (digest[i] & 0xff);
+      }
+      return h;
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
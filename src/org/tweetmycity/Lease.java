@@ -0,0 +1,111 @@
+/* Copyright 2008 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tweetmycity;
+
+/**
+ * The right to run one job, granted by a {@link LeaseManager} for a limited
+ * time and renewed by its heartbeat while held.
+ * <p>
+ * A job should check {@link #isValid()} before each step that has effects,
+ * and stop once it returns false: by then another runner may have taken over.
+ * A step may run past the lease's current validity, since the heartbeat keeps
+ * renewing it, so the check belongs just before the effect rather than at the
+ * start of a long step.  The subscriber sweep relies on this check, made
+ * before each subscriber and again just before each tweet and each save of a
+ * subscriber's city; it does not cap its update deadlines at the lease.
+ * Each grant of a job's lease has a larger {@link #getToken() fencing token}
+ * than the one before, so anything that records the tokens it has seen can
+ * refuse a runner that has been superseded.  {@link UserStore} does this for
+ * each subscriber, so a runner that stalled past the check above can neither
+ * tweet nor save over a subscriber a later runner has already saved.
+ */
+public final class Lease {
+
+   private final LeaseManager manager;
+   private final String job;
+   private final String owner;
+   private final long token;
+   private volatile long validUntil;
+   private volatile boolean released;
+
+   Lease(LeaseManager manager, String job, String owner, long token, long validUntil) {
+      this.manager = manager;
+      this.job = job;
+      this.owner = owner;
+      this.token = token;
+      this.validUntil = validUntil;
+   }
+
+   public String getJob() {
+      return job;
+   }
+
+   public String getOwner() {
+      return owner;
+   }
+
+   /**
+    * Returns the fencing token, which increases with each grant of this job's lease.
+    */
+   public long getToken() {
+      return token;
+   }
+
+   /**
+    * Returns true if the lease is still held: it has been neither released
+    * nor lost, and has been renewed recently enough that no one else can
+    * have been granted it.
+    */
+   public boolean isValid() {
+      return ! released && System.nanoTime() - validUntil < 0;
+   }
+
+   /**
+    * Give up the lease, so that another runner can be granted it at once.
+    */
+   public void release() {
+      if (! released) {
+         released = true;
+         manager.release(this);
+      }
+   }
+
+   boolean isReleased() {
+      return released;
+   }
+
+   void renewed(long validUntil) {
+      this.validUntil = validUntil;
+   }
+
+   void lost() {
+      validUntil = System.nanoTime();
+   }
+
+   @Override
+   public String toString() {
+      return "Lease[" + job + " #" + token + " " + owner + (isValid() ? "" : " invalid") + "]";
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
@@ -0,0 +1,450 @@
+/* Copyright 2008 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tweetmycity;
+
+import com.veriplace.client.metrics.Counter;
+import com.veriplace.client.metrics.MetricsRegistry;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.servlet.ServletContext;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Grants {@link Lease}s so that each kind of background job has at most one
+ * runner at a time, across overlapping triggers on one node and across nodes.
+ * <p>
+ * With a directory shared by every node, each job's lease is kept in a file
+ * there, "&lt;job&gt;.lease", holding its owner, fencing token and expiry
+ * time; it is only read and changed while holding an exclusive file lock on
+ * "&lt;job&gt;.lock".  Without a directory the leases are kept in memory, which
+ * only keeps runs on this node from overlapping.
+ * <p>
+ * A lease is granted for {@link #getDuration() duration} milliseconds and
+ * renewed by a heartbeat every third of that while held.  The holder treats
+ * it as lost two thirds of the way through the duration after its last
+ * renewal, leaving the last third as a margin for clock differences between
+ * nodes and for pauses.  A released lease can be granted again at once; one
+ * whose holder died is granted again once it expires.
+ * <p>
+ * The webapp's manager is configured with context parameters:
+ * <ul>
+ * <li>tweetmycity.lease.directory - shared directory for leases (the
+ *   tweetmycity.cluster.directory, if any)</li>
+ * <li>tweetmycity.lease.duration - lease duration in milliseconds (30000)</li>
+ * </ul>
+ * Owners are named by the node name of the webapp's {@link Cluster}.
+ */
+public class LeaseManager {
+
+   private static final Log logger = LogFactory.getLog(LeaseManager.class);
+
+   private static final MetricsRegistry metrics = MetricsRegistry.getDefault();
+
+   /**
+    * Servlet context attribute holding the lease manager.
+    */
+   public static final String ATTRIBUTE = LeaseManager.class.getName();
+
+   public static final String DIRECTORY_PARAMETER = "tweetmycity.lease.directory";
+   public static final String DURATION_PARAMETER = "tweetmycity.lease.duration";
+
+   public static final long DEFAULT_DURATION = 30 * 1000L;
+
+   public static final String LEASE_SUFFIX = ".lease";
+   public static final String LOCK_SUFFIX = ".lock";
+
+   /**
+    * A job run while holding its lease.
+    */
+   public interface Job {
+      /**
+       * @param lease  the lease, to be checked before each step with effects
+       */
+      void run(Lease lease);
+   }
+
+   private final String owner;
+   private final File directory;
+   private final long duration;
+
+   private final Map<String,Lease> held = new HashMap<String,Lease>();
+   private final Map<String,Record> local = new HashMap<String,Record>();
+   private ScheduledExecutorService heartbeat;
+
+   /**
+    * @param owner  name of this node, recorded with its leases
+    * @param directory  shared directory for leases, or null to keep them in memory
+    * @param duration  milliseconds a lease lasts without renewal
+    */
+   public LeaseManager(String owner, File directory, long duration) {
+      if (duration < 3) {
+         throw new IllegalArgumentException("duration is too short");
+      }
+      this.owner = owner;
+      this.directory = directory;
+      this.duration = duration;
+      if (directory != null && ! directory.isDirectory() && ! directory.mkdirs()) {
+         logger.error("Could not create lease directory " + directory);
+      }
+   }
+
+   /**
+    * Returns the lease manager for a webapp, creating it if necessary.
+    */
+   public static LeaseManager getInstance(ServletContext context) {
+      synchronized (context) {
+         LeaseManager manager = (LeaseManager) context.getAttribute(ATTRIBUTE);
+         if (manager == null) {
+            String path = getParameter(context, DIRECTORY_PARAMETER);
+            if (path == null) {
+               path = getParameter(context, Cluster.DIRECTORY_PARAMETER);
+            }
+            long duration = DEFAULT_DURATION;
+            String value = getParameter(context, DURATION_PARAMETER);
+            if (value != null) {
+               try {
+                  duration = Long.parseLong(value);
+               } catch (NumberFormatException e) {
+                  duration = -1;
+               }
+               if (duration < 3) {
+                  logger.warn("Invalid value found for optional property: " + DURATION_PARAMETER);
+                  duration = DEFAULT_DURATION;
+               }
+            }
+            manager = new LeaseManager(Cluster.getInstance(context).getNodeId(),
+                                       (path == null) ? null : new File(path), duration);
+            context.setAttribute(ATTRIBUTE, manager);
+         }
+         return manager;
+      }
+   }
+
+   /**
+    * Try to take a job's lease.
+    * @param job  the job's name, made of letters, digits, '.', '_' and '-'
+    * @return the lease, or null if someone else holds it, including another
+    *   run on this node, or it could not be read
+    */
+   public synchronized Lease tryAcquire(String job) {
+      if (job == null || ! job.matches("[A-Za-z0-9._-]+")) {
+         throw new IllegalArgumentException("Invalid job name: " + job);
+      }
+      if (held.containsKey(job)) {
+         busy(job, owner);
+         return null;
+      }
+      final long now = System.currentTimeMillis();
+      long start = System.nanoTime();
+      final Record[] current = new Record[1];
+      Record granted;
+      try {
+         granted = transact(job, new Update() {
+               public Record apply(Record record) {
+                  current[0] = record;
+                  if (record != null && record.expires > now) {
+                     return null;
+                  }
+                  return new Record(owner, (record == null) ? 1 : record.token + 1, now + duration);
+               }
+            });
+      } catch (IOException e) {
+         logger.error("Could not take lease for " + job, e);
+         return null;
+      }
+      if (granted == null) {
+         busy(job, current[0].owner);
+         return null;
+      }
+      Lease lease = new Lease(this, job, owner, granted.token, validUntil(start));
+      held.put(job, lease);
+      startHeartbeat();
+      counter("tweetmycity_lease_acquired_total", "Leases granted to this node", job).increment();
+      logger.info("Took lease " + lease);
+      return lease;
+   }
+
+   /**
+    * Run a job if its lease can be taken, releasing the lease afterwards.
+    * @return true if the job ran, false if someone else holds its lease
+    */
+   public boolean runExclusive(String job, Job task) {
+      Lease lease = tryAcquire(job);
+      if (lease == null) {
+         return false;
+      }
+      try {
+         task.run(lease);
+      } finally {
+         lease.release();
+      }
+      return true;
+   }
+
+   public String getOwner() {
+      return owner;
+   }
+
+   public File getDirectory() {
+      return directory;
+   }
+
+   public long getDuration() {
+      return duration;
+   }
+
+   /**
+    * Release every lease held and stop the heartbeat.
+    */
+   public synchronized void close() {
+      for (Lease lease : new ArrayList<Lease>(held.values())) {
+         lease.release();
+      }
+      if (heartbeat != null) {
+         heartbeat.shutdownNow();
+         heartbeat = null;
+      }
+   }
+
+   synchronized void release(final Lease lease) {
+      if (held.get(lease.getJob()) != lease) {
+         return;
+      }
+      held.remove(lease.getJob());
+      try {
+         transact(lease.getJob(), new Update() {
+               public Record apply(Record record) {
+                  if (record == null || record.token != lease.getToken()) {
+                     return null;
+                  }
+                  return new Record(record.owner, record.token, 0);
+               }
+            });
+         logger.info("Released lease " + lease);
+      } catch (IOException e) {
+         logger.error("Could not release lease " + lease + "; it will expire", e);
+      }
+   }
+
+   /**
+    * Renew every lease held, dropping those that someone else has taken.
+    */
+   private synchronized void renewAll() {
+      for (final Lease lease : new ArrayList<Lease>(held.values())) {
+         final long now = System.currentTimeMillis();
+         long start = System.nanoTime();
+         Record renewed;
+         try {
+            renewed = transact(lease.getJob(), new Update() {
+                  public Record apply(Record record) {
+                     if (record == null || record.token != lease.getToken()) {
+                        return null;
+                     }
+                     return new Record(owner, record.token, now + duration);
+                  }
+               });
+         } catch (IOException e) {
+            // Keep trying while the lease is still valid
+            logger.error("Could not renew lease " + lease, e);
+            continue;
+         }
+         if (renewed != null) {
+            lease.renewed(validUntil(start));
+         } else {
+            held.remove(lease.getJob());
+            lease.lost();
+            counter("tweetmycity_lease_lost_total", "Leases this node lost before releasing them",
+                    lease.getJob()).increment();
+            logger.warn("Lost lease " + lease);
+         }
+      }
+   }
+
+   private void startHeartbeat() {
+      if (heartbeat != null) {
+         return;
+      }
+      heartbeat = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+               Thread thread = new Thread(r, "tweetmycity-lease-heartbeat");
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+      heartbeat.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+               try {
+                  renewAll();
+               } catch (RuntimeException e) {
+                  logger.error("Lease heartbeat failed", e);
+               }
+            }
+         }, duration / 3, duration / 3, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * Returns when, on the monotonic clock, a lease written at the given time
+    * stops being valid for its holder.
+    */
+   private long validUntil(long start) {
+      return start + TimeUnit.MILLISECONDS.toNanos(duration - duration / 3);
+   }
+
+   private void busy(String job, String holder) {
+      counter("tweetmycity_lease_busy_total", "Attempts to take a lease someone else held",
+              job).increment();
+      logger.info("Lease for " + job + " is held by " + holder);
+   }
+
+   private static Counter counter(String name, String help, String job) {
+      return metrics.counter(name, help, "job", job);
+   }
+
+   private interface Update {
+      /**
+       * @param record  the current record, or null if there is none
+       * @return the record to write, or null to leave it as it is
+       */
+      Record apply(Record record);
+   }
+
+   /**
+    * Read a job's lease record and maybe replace it, while holding its lock.
+    * @return the record written, or null if none was
+    */
+   private Record transact(String job, Update update)
+      throws IOException {
+      if (directory == null) {
+         Record record = update.apply(local.get(job));
+         if (record != null) {
+            local.put(job, record);
+         }
+         return record;
+      }
+      RandomAccessFile lockFile = new RandomAccessFile(new File(directory, job + LOCK_SUFFIX), "rw");
+      try {
+         FileLock lock = lockFile.getChannel().lock();
+         try {
+            File file = new File(directory, job + LEASE_SUFFIX);
+            Record record = update.apply(read(file));
+            if (record != null) {
+               write(file, record);
+            }
+            return record;
+         } finally {
+            lock.release();
+         }
+      } finally {
+         lockFile.close();
+      }
+   }
+
+   private static Record read(File file)
+      throws IOException {
+      Properties properties = new Properties();
+      InputStream in;
+      try {
+         in = new FileInputStream(file);
+      } catch (FileNotFoundException e) {
+         return null;
+      }
+      try {
+         properties.load(in);
+      } finally {
+         in.close();
+      }
+      if (properties.getProperty("owner") == null) {
+         throw new IOException("Unreadable lease file " + file);
+      }
+      try {
+         return new Record(properties.getProperty("owner"),
+                           Long.parseLong(properties.getProperty("token")),
+                           Long.parseLong(properties.getProperty("expires")));
+      } catch (NumberFormatException e) {
+         throw new IOException("Unreadable lease file " + file);
+      }
+   }
+
+   /**
+    * Write a record to a new file and move it into place, so that readers
+    * never see it half written.
+    */
+   private static void write(File file, Record record)
+      throws IOException {
+      Properties properties = new Properties();
+      properties.setProperty("owner", record.owner);
+      properties.setProperty("token", Long.toString(record.token));
+      properties.setProperty("expires", Long.toString(record.expires));
+      File temp = new File(file.getPath() + ".tmp");
+      OutputStream out = new FileOutputStream(temp);
+      try {
+         properties.store(out, null);
+      } finally {
+         out.close();
+      }
+      if (! temp.renameTo(file)) {
+         // Some platforms will not rename over an existing file
+         if (! file.delete() || ! temp.renameTo(file)) {
+            throw new IOException("Could not write " + file);
+         }
+      }
+   }
+
+   private static String getParameter(ServletContext context, String name) {
+      String value = context.getInitParameter(name);
+      return (value == null || value.trim().length() == 0) ? null : value.trim();
+   }
+
+   private static final class Record {
+      final String owner;
+      final long token;
+      final long expires;
+
+      Record(String owner, long token, long expires) {
+         this.owner = owner;
+         this.token = token;
+         this.expires = expires;
+      }
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
@@ -0,0 +1,57 @@
+/* Copyright 2008 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tweetmycity;
+
+import com.veriplace.client.metrics.MetricsRegistry;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.ServletException;
+
+import java.io.IOException;
+
+/**
+ * Serves the application's metrics in the Prometheus text format.
+ * <p>
+ * This covers requests made by the Veriplace client, tweets, the subscriber
+ * store and subscriber update sweeps; see {@link MetricsRegistry}.
+ */
+public class Metrics
+   extends HttpServlet {
+
+   public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+   @Override
+   protected void doGet(HttpServletRequest request,
+                        HttpServletResponse response)
+      throws ServletException,
+             IOException {
+
+      response.setContentType(CONTENT_TYPE);
+      response.setHeader("Cache-Control", "no-cache");
+      MetricsRegistry.getDefault().write(response.getWriter());
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
@@ -0,0 +1,639 @@
+package org.tweetmycity;
+
+import com.veriplace.client.Location;
+import com.veriplace.client.User;
+import com.veriplace.client.Client;
+import com.veriplace.client.metrics.Counter;
+import com.veriplace.client.metrics.Histogram;
+import com.veriplace.client.metrics.MetricsRegistry;
+import com.veriplace.client.store.TokenStore;
+import com.veriplace.client.util.RemoteCall;
+import com.veriplace.client.util.TimeoutHttpClient;
+import com.veriplace.oauth.consumer.Token;
+import com.veriplace.oauth.OAuthException;
+
+import java.net.URL;
+import java.net.HttpURLConnection;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.http.HttpServletResponse;
+
+
+/**
+ * Locates each subscriber and tweets their city when it changes.
+ * <p>
+ * This is the work behind {@link UpdateSubscribers}, kept apart from the
+ * servlet so that it can be driven from elsewhere.
+ * <p>
+ * While the circuit breaker for Veriplace or Twitter is open, a sweep sets
+ * subscribers aside instead of calling a service that is known to be down,
+ * and a background thread updates them once the breaker lets calls through
+ * again.  Call {@link #close()} to stop that thread.  With a
+ * {@link LeaseManager}, those retries take the sweep's lease, so they never
+ * run alongside a sweep, and a subscriber stays set aside until its retried
+ * update has finished.
+ * <p>
+ * Each update has a deadline, {@link #getUpdateTimeout() updateTimeout} after
+ * it starts, which limits the timeouts of the Veriplace and Twitter calls it
+ * makes.  A sweep may also have a {@link #getSweepBudget() budget}; once that
+ * runs out, the remaining subscribers are skipped, and the next sweep starts
+ * with them.
+ * <p>
+ * When several nodes share the work, give the updater a {@link Cluster}; each
+ * sweep then covers only this node's slice of the subscribers.
+ */
+public class SubscriberUpdater {
+
+   private static final Log logger = LogFactory.getLog(SubscriberUpdater.class);
+
+   private static final MetricsRegistry metrics = MetricsRegistry.getDefault();
+   private static final Histogram SWEEP_TIME =
+      metrics.histogram("tweetmycity_sweep_seconds", "Time taken to update every subscriber");
+   private static final Histogram UPDATE_TIME =
+      metrics.histogram("tweetmycity_subscriber_update_seconds",
+                        "Time taken to locate one subscriber and tweet their city");
+   private static final Histogram LOCATE_TIME =
+      metrics.histogram("tweetmycity_locate_seconds",
+                        "Time taken to authorize and locate one subscriber");
+   private static final Counter TWEETED = updateCounter("tweeted");
+   private static final Counter NOT_TWEETED = updateCounter("not_tweeted");
+   private static final Counter NO_LOCATION = updateCounter("no_location");
+   private static final Counter DEFERRED = updateCounter("deferred");
+   private static final Counter SKIPPED = updateCounter("skipped");
+   private static final Counter TIMED_OUT = updateCounter("timed_out");
+   private static final Counter LEASE_LOST = updateCounter("lease_lost");
+
+   /**
+    * Default time allowed for one subscriber update, in milliseconds. (60 seconds)
+    */
+   public static final long DEFAULT_UPDATE_TIMEOUT = 60 * 1000L;
+
+   /**
+    * Job name of the sweep's lease. ("update")
+    */
+   public static final String UPDATE_JOB = "update";
+
+   protected final ClientRegistry registry;
+   protected final UpdateTracer tracer;
+
+   private final ConcurrentMap<Long,TmcUser> deferred = new ConcurrentHashMap<Long,TmcUser>();
+   private final AtomicBoolean retryScheduled = new AtomicBoolean();
+   private ScheduledExecutorService scheduler;
+   private final ConcurrentMap<Long,Boolean> skipped = new ConcurrentHashMap<Long,Boolean>();
+   private volatile long updateTimeout = DEFAULT_UPDATE_TIMEOUT;
+   private volatile long sweepBudget = 0;
+   private volatile Cluster cluster;
+   private volatile LeaseManager leases;
+
+   public SubscriberUpdater(ClientRegistry registry) {
+      this(registry, null);
+   }
+
+   /**
+    * @param registry  the registry holding the Veriplace client
+    * @param tracer  where to keep a trace of each update, or null for none
+    */
+   public SubscriberUpdater(ClientRegistry registry, UpdateTracer tracer) {
+      this.registry = registry;
+      this.tracer = tracer;
+   }
+
+   /**
+    * Update every subscriber, one after another, deferring those that
+    * cannot be updated while a circuit breaker is open.
+    */
+   public void updateAll() {
+      updateAll(null);
+   }
+
+   /**
+    * Update every subscriber while holding a lease.  The lease is checked
+    * before each subscriber, and again before each tweet and each save;
+    * once it is no longer valid, another runner may have taken over, so the
+    * rest are skipped.
+    * @param lease  the sweep's lease, or null if it has none
+    */
+   public void updateAll(Lease lease) {
+      long start = System.nanoTime();
+      boolean leaseLost = false;
+      Deadline sweep = Deadline.after(sweepBudget);
+      try {
+         List<TmcUser> users = (new UserStore()).getUsers();
+         Cluster cluster = this.cluster;
+         if (cluster != null) {
+            users = cluster.getSlice(users);
+         }
+         for (TmcUser tmcUser : getSweepOrder(users)) {
+            if (deferred.containsKey(tmcUser.getUserId())) {
+               // already waiting for a retry
+               continue;
+            }
+            if (lease != null && ! leaseLost && ! lease.isValid()) {
+               leaseLost = true;
+               logger.warn("Stopping sweep; no longer holding " + lease);
+            }
+            if (leaseLost || sweep.isExpired()) {
+               SKIPPED.increment();
+               skipped.put(tmcUser.getUserId(), Boolean.TRUE);
+               continue;
+            }
+            long delay = getRetryDelay();
+            if (delay > 0) {
+               DEFERRED.increment();
+               deferred.put(tmcUser.getUserId(), tmcUser);
+               scheduleRetry(delay);
+            } else {
+               update(tmcUser, Deadline.after(updateTimeout).earlier(sweep), lease);
+            }
+         }
+      } finally {
+         SWEEP_TIME.recordSince(start);
+         if (! skipped.isEmpty()) {
+            logger.warn((leaseLost ? "Lease lost" : "Sweep budget of " + sweepBudget + "ms ran out") +
+                        "; " + skipped.size() + " subscribers left for the next sweep");
+         }
+      }
+   }
+
+   /**
+    * Returns the subscribers in the order to update them: those the last sweep
+    * ran out of time for first, then the rest.
+    */
+   private List<TmcUser> getSweepOrder(List<TmcUser> users) {
+      if (skipped.isEmpty()) {
+         return users;
+      }
+      List<TmcUser> ordered = new ArrayList<TmcUser>(users.size());
+      for (TmcUser tmcUser : users) {
+         if (skipped.containsKey(tmcUser.getUserId())) {
+            ordered.add(tmcUser);
+         }
+      }
+      for (TmcUser tmcUser : users) {
+         if (! skipped.containsKey(tmcUser.getUserId())) {
+            ordered.add(tmcUser);
+         }
+      }
+      skipped.clear();
+      return ordered;
+   }
+
+   /**
+    * Returns the time allowed for one subscriber update, in milliseconds.
+    */
+   public long getUpdateTimeout() {
+      return updateTimeout;
+   }
+
+   /**
+    * @param updateTimeout  time allowed for one subscriber update, in
+    *   milliseconds, or 0 for no limit
+    */
+   public void setUpdateTimeout(long updateTimeout) {
+      this.updateTimeout = updateTimeout;
+   }
+
+   /**
+    * Returns the time allowed for a whole sweep, in milliseconds, or 0 if there
+    * is no limit.
+    */
+   public long getSweepBudget() {
+      return sweepBudget;
+   }
+
+   /**
+    * @param sweepBudget  time allowed for a whole sweep, in milliseconds, or 0
+    *   for no limit
+    */
+   public void setSweepBudget(long sweepBudget) {
+      this.sweepBudget = sweepBudget;
+   }
+
+   /**
+    * Returns the cluster whose slice of the subscribers this updater sweeps,
+    * or null if it sweeps them all.
+    */
+   public Cluster getCluster() {
+      return cluster;
+   }
+
+   /**
+    * @param cluster  the cluster whose slice of the subscribers to sweep, or
+    *   null to sweep them all
+    */
+   public void setCluster(Cluster cluster) {
+      this.cluster = cluster;
+   }
+
+   /**
+    * Returns the lease manager whose sweep lease the retries of deferred
+    * subscribers take, or null if they take none.
+    */
+   public LeaseManager getLeaseManager() {
+      return leases;
+   }
+
+   /**
+    * @param leases  the lease manager whose sweep lease the retries of
+    *   deferred subscribers should take, or null for none
+    */
+   public void setLeaseManager(LeaseManager leases) {
+      this.leases = leases;
+   }
+
+   /**
+    * Returns the name of the sweep's lease, "update.&lt;node&gt;", or "update"
+    * without a configured cluster.  In a cluster each node sweeps only its own
+    * slice, so each node has its own lease; the name depends only on the node,
+    * never on the current members, so that every sweep on a node contends for
+    * the same lease.  Without one, every node sweeps every subscriber, so they
+    * all share one lease.
+    */
+   public String getLeaseName() {
+      Cluster cluster = this.cluster;
+      return (cluster == null || ! cluster.isConfigured()) ?
+         UPDATE_JOB : UPDATE_JOB + "." + cluster.getNodeId();
+   }
+
+   /**
+    * Returns the number of subscribers waiting for a circuit breaker to close.
+    */
+   public int getDeferredCount() {
+      return deferred.size();
+   }
+
+   /**
+    * Stop the thread that retries deferred subscribers.  Subscribers still
+    * waiting are left for the next sweep.
+    */
+   public synchronized void close() {
+      if (scheduler != null) {
+         scheduler.shutdownNow();
+         scheduler = null;
+      }
+      deferred.clear();
+   }
+
+   /**
+    * Returns the number of milliseconds until both Veriplace and Twitter may
+    * be called again, or 0 if they may be now.
+    */
+   protected long getRetryDelay() {
+      long delay = Tweet.getCircuitBreaker().getRetryDelay();
+      try {
+         delay = Math.max(delay, registry.getClient().getCircuitBreaker().getRetryDelay());
+      } catch (IllegalStateException e) {
+         // no client; getLocation() will report it
+      }
+      return delay;
+   }
+
+   private synchronized void scheduleRetry(long delay) {
+      if (! retryScheduled.compareAndSet(false, true)) {
+         return;
+      }
+      if (scheduler == null) {
+         scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+               public Thread newThread(Runnable r) {
+                  Thread thread = new Thread(r, "tweetmycity-deferred-updates");
+                  thread.setDaemon(true);
+                  return thread;
+               }
+            });
+      }
+      logger.info("Deferring " + deferred.size() + " subscriber updates for " + delay + "ms");
+      scheduler.schedule(new Runnable() {
+            public void run() {
+               retryDeferred();
+            }
+         }, delay, TimeUnit.MILLISECONDS);
+   }
+
+   private void retryDeferred() {
+      retryScheduled.set(false);
+      long delay = getRetryDelay();
+      if (delay > 0) {
+         scheduleRetry(delay);
+         return;
+      }
+      LeaseManager leases = this.leases;
+      if (leases == null) {
+         retryDeferred(null);
+      } else if (! leases.runExclusive(getLeaseName(), new LeaseManager.Job() {
+            public void run(Lease lease) {
+               retryDeferred(lease);
+            }
+         })) {
+         // a sweep is running; it leaves deferred subscribers to us
+         scheduleRetry(leases.getDuration());
+      }
+   }
+
+   /**
+    * Update the deferred subscribers that are still in this node's slice,
+    * removing each one only once its update has finished.
+    */
+   private void retryDeferred(Lease lease) {
+      List<TmcUser> users = new ArrayList<TmcUser>(deferred.values());
+      Cluster cluster = this.cluster;
+      if (cluster != null) {
+         // those that have moved to another node are its to update now
+         List<TmcUser> slice = cluster.getSlice(users);
+         Set<TmcUser> moved = new HashSet<TmcUser>(users);
+         moved.removeAll(slice);
+         for (TmcUser tmcUser : moved) {
+            deferred.remove(tmcUser.getUserId(), tmcUser);
+         }
+         users = slice;
+      }
+      for (TmcUser tmcUser : users) {
+         long delay = getRetryDelay();
+         if (delay > 0) {
+            scheduleRetry(delay);
+            return;
+         }
+         if (lease != null && ! lease.isValid()) {
+            logger.warn("Stopping deferred updates; no longer holding " + lease);
+            scheduleRetry(leases.getDuration());
+            return;
+         }
+         try {
+            update(tmcUser, Deadline.after(updateTimeout), lease);
+         } catch (RuntimeException e) {
+            logger.error("Deferred update failed for " + tmcUser, e);
+         } finally {
+            deferred.remove(tmcUser.getUserId(), tmcUser);
+         }
+      }
+   }
+
+   /**
+    * Update one subscriber, within the {@link #getUpdateTimeout() update timeout}.
+    * @return the status that was tweeted, or null if none was
+    */
+   public String update(TmcUser tmcUser) {
+      return update(tmcUser, Deadline.after(updateTimeout));
+   }
+
+   /**
+    * Update one subscriber.
+    * @param deadline  when to give up
+    * @return the status that was tweeted, or null if none was
+    */
+   public String update(TmcUser tmcUser, Deadline deadline) {
+      return update(tmcUser, deadline, null);
+   }
+
+   /**
+    * Update one subscriber while holding a lease, which is checked just
+    * before tweeting and before saving the subscriber's new city.
+    * @param deadline  when to give up
+    * @param lease  the lease of the sweep making this update, or null
+    * @return the status that was tweeted, or null if none was
+    */
+   public String update(TmcUser tmcUser, Deadline deadline, Lease lease) {
+      UpdateTrace trace = (tracer != null) ? tracer.start(tmcUser.getUserId()) : UpdateTrace.NONE;
+      String outcome = "failed";
+      long start = System.nanoTime();
+      try {
+         Location location = getLocation(tmcUser, trace, deadline);
+         LOCATE_TIME.recordSince(start);
+         if (location == null && deadline.isExpired()) {
+            TIMED_OUT.increment();
+            outcome = "timed-out";
+            return null;
+         }
+         if (location == null) {
+            NO_LOCATION.increment();
+            outcome = "no-location";
+         }
+         String status = Tweet.tryTweet(tmcUser, location, trace, deadline, lease);
+         if (status != null) {
+            TWEETED.increment();
+            outcome = "tweeted";
+         } else if (location != null && lease != null && ! lease.isValid()) {
+            LEASE_LOST.increment();
+            outcome = "lease-lost";
+         } else if (location != null && deadline.isExpired()) {
+            TIMED_OUT.increment();
+            outcome = "timed-out";
+         } else if (location != null) {
+            NOT_TWEETED.increment();
+            outcome = "not-tweeted";
+         }
+         return status;
+      } finally {
+         UPDATE_TIME.recordSince(start);
+         if (tracer != null) {
+            trace.finish(outcome);
+            tracer.record(trace);
+         }
+      }
+   }
+
+   private static Counter updateCounter(String result) {
+      return metrics.counter("tweetmycity_subscriber_updates_total",
+                             "Subscriber updates, by result", "result", result);
+   }
+
+   protected Location getLocation(TmcUser tmcUser) {
+      return getLocation(tmcUser, UpdateTrace.NONE);
+   }
+
+   protected Location getLocation(TmcUser tmcUser, UpdateTrace trace) {
+      return getLocation(tmcUser, trace, Deadline.NONE);
+   }
+
+   /**
+    * Authorize and locate one subscriber, recording each stage in a trace.
+    * Each call to Veriplace is limited to the time left before the deadline.
+    */
+   protected Location getLocation(TmcUser tmcUser, UpdateTrace trace, Deadline deadline) {
+      logger.info("getting location for " + tmcUser);
+
+      // This callback is required by the OAuth standard, but is unused
+      String callback = "http://veriplace.com";
+
+      // The shared client is configured with the special "Application Token"
+      // required to issue User Discovery *queries*; the request token we get
+      // below is kept in its request token store.
+      Client client;
+      TokenStore tokenStore;
+      try {
+         client = registry.getClient();
+         tokenStore = registry.getRequestTokenStore();
+      } catch (IllegalStateException e) {
+         logger.error(e);
+         return null;
+      }
+
+      User user = new User(tmcUser.getUserId());
+
+      int code = -1;
+      HttpURLConnection connection = null;
+      try {
+         // Veriplace's implementation of OAuth User Authorization supports an "immediate" flag
+         // If true, Veriplace will grant an Access Token is permission is already granted
+         // and will bypass all UI, performing the callback immediately
+         boolean immediate = true;
+         trace.begin(UpdateTrace.REQUEST_TOKEN);
+         String redirectUrl = client.getGetLocationAPI().getRedirectURL(callback,user,immediate,
+                                                                        deadline.getTimeout());
+         trace.end(redirectUrl != null ? "ok" : "failed");
+         URL authorizationUrl = new URL(redirectUrl);
+
+         // GET this URL, but do not follow redirects
+         trace.begin(UpdateTrace.AUTHORIZE);
+         if (deadline.isExpired()) {
+            trace.end("timed-out");
+            logger.info("Deadline passed before authorizing " + tmcUser);
+            return null;
+         }
+         RemoteCall call = RemoteCall.begin(RemoteCall.VERIPLACE, authorizationUrl);
+         try {
+            connection = (HttpURLConnection)authorizationUrl.openConnection();
+            connection.setInstanceFollowRedirects(false);
+            Integer timeout = deadline.getTimeout();
+            if (timeout != null) {
+               connection.setConnectTimeout(timeout);
+               connection.setReadTimeout(timeout);
+            }
+            code = connection.getResponseCode();
+         } finally {
+            call.end(code, connection == null || code < 0 ?
+                     RemoteCall.UNKNOWN_BYTES : connection.getContentLength());
+         }
+         trace.end(code == 302 ? "ok" : "http-" + code);
+         logger.info("response code: " + code);
+      } catch (IOException ioe) {
+         trace.end("error");
+         logger.error(ioe);
+         return null;
+      }
+
+      if (code == 302) {
+         // The User Authorization URL sent a redirect, extract the callback URL
+         String location_header = connection.getHeaderField("Location");
+         logger.debug("location:" + location_header);
+
+         // The callback URL contains the oauth_token and oauth_verifier values (as of Rev A)
+         String oauth_token = location_header.split("oauth_token=")[1].split("&")[0];
+         String oauth_verifier = location_header.split("oauth_verifier=")[1].split("&")[0];
+         logger.debug("callback oauth_token: " + oauth_token);
+         logger.debug("callback oauth_verifier: " + oauth_verifier);
+
+
+         // Retrieve the request token from storage
+         trace.begin(UpdateTrace.ACCESS_TOKEN);
+         Token requestToken = tokenStore.get(oauth_token);
+         if (requestToken == null) {
+            trace.end("expired");
+            logger.warn("Request token expired before callback: " + oauth_token);
+            return null;
+         }
+         logger.debug("requestToken: " + requestToken.getToken());
+
+         RemoteCall call = RemoteCall.begin(RemoteCall.VERIPLACE, RemoteCall.ACCESS_TOKEN,
+                                            tmcUser.getUserId());
+         try {
+            // Attempt to get an access token
+            Token accessToken;
+            Integer previousTimeout = TimeoutHttpClient.setTimeout(deadline.getTimeout());
+            try {
+               accessToken = client.getConsumer().getAccessToken(requestToken,oauth_verifier);
+               call.end(HttpServletResponse.SC_OK, RemoteCall.UNKNOWN_BYTES);
+            } catch (OAuthException e) {
+               call.end(RemoteCall.statusOf(e), RemoteCall.UNKNOWN_BYTES);
+               throw e;
+            } catch (IOException e) {
+               call.end(RemoteCall.NO_STATUS, RemoteCall.UNKNOWN_BYTES);
+               throw e;
+            } finally {
+               TimeoutHttpClient.setTimeout(previousTimeout);
+            }
+            trace.end("ok");
+            logger.debug("accessToken: " + accessToken.getToken());
+
+            // We got an access token, now make a location request
+            // If our application was provisioned for it, we can try cached location by setting the mode
+            String mode = null;//"cached";
+            trace.begin(UpdateTrace.LOCATE);
+            if (deadline.isExpired()) {
+               trace.end("timed-out");
+               logger.info("Deadline passed before locating " + tmcUser);
+               return null;
+            }
+            Location location =
+               client.getGetLocationAPI().getLocation(accessToken,user,mode,deadline.getTimeout());
+
+            if (location == null) {
+               // If we didn't get back a location object, it means we encountered a rare
+               // race condition where the access token was revoked between when we retrieved it
+               // and when the location request was issued
+               trace.end("failed");
+               logger.info("Could not obtain location");
+               return null;
+            }
+
+            // We got location, but was it successful?
+            if (location.getLongitude() != null &&
+                location.getLatitude() != null) {
+               // Yes!
+               trace.end("ok");
+               logger.info(location.getLatitude() + " " + location.getLongitude());
+               logger.info("user is in "+ location.getCity() + ", " + location.getState());
+               return location;
+            } else {
+               // Sadly, no...
+               trace.end("no-position");
+               logger.info("have a location, but, no longlat: " + location.getMessage());
+               return null;
+            }
+         } catch (OAuthException e) {
+            // An exception here means an Access Token wasn't available
+            // Try granting permission directly for your application in the Privacy Manager
+            // There should now be a permission request visible in the sidebar
+            trace.end("denied");
+            logger.info(e);
+            logger.info("user has revoked our location permission -- remove them.");
+            (new UserStore()).remove(tmcUser);
+            return null;
+         } catch (IOException ioe) {
+            // from Token accessToken = client.getConsumer().getAccessToken(requestToken,oauth_verifier);
+            trace.end("error");
+            logger.error(ioe);
+            return null;
+         } finally {
+            tokenStore.remove(requestToken);
+         }
+      } else {
+         logger.warn("Unexpected http response code: " + code);
+         return null;
+      }
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
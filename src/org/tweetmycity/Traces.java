@@ -0,0 +1,114 @@
+/* Copyright 2008 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tweetmycity;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Serves the traces of recent subscriber updates as JSON lines, newest first.
+ * <p>
+ * Parameters:
+ * <ul>
+ * <li>limit - maximum number of traces, from 1 to the size of the trace
+ *   buffer (100)</li>
+ * <li>user - only traces for this subscriber</li>
+ * <li>min-ms - only updates that took at least this long</li>
+ * </ul>
+ */
+public class Traces
+   extends HttpServlet {
+
+   public static final int DEFAULT_LIMIT = 100;
+
+   protected UpdateTracer tracer;
+
+   @Override
+   public void init(ServletConfig config)
+      throws ServletException {
+      super.init(config);
+      tracer = UpdateTracer.getInstance(config.getServletContext());
+   }
+
+   @Override
+   protected void doGet(HttpServletRequest request,
+                        HttpServletResponse response)
+      throws ServletException,
+             IOException {
+
+      int limit;
+      Long user;
+      long minNanos;
+      try {
+         // Clamped to the buffer, before narrowing, so that any number is accepted
+         long requested = getLong(request, "limit", (long) DEFAULT_LIMIT);
+         limit = (int) Math.max(1L, Math.min(requested, (long) tracer.getBufferSize()));
+         user = getLong(request, "user", null);
+         minNanos = getLong(request, "min-ms", 0L) * 1000000L;
+      } catch (NumberFormatException e) {
+         response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+         return;
+      }
+
+      response.setContentType("application/x-ndjson; charset=utf-8");
+      response.setHeader("Cache-Control", "no-cache");
+      PrintWriter out = response.getWriter();
+      int written = 0;
+      // Filtered requests look through the whole buffer
+      int scan = (user == null && minNanos == 0) ? limit : tracer.getBufferSize();
+      for (UpdateTrace trace : tracer.getRecent(scan)) {
+         if (written >= limit) {
+            break;
+         }
+         if (user != null && trace.getUserId() != user.longValue()) {
+            continue;
+         }
+         if (trace.getDuration() < minNanos) {
+            continue;
+         }
+         out.println(trace.toJson());
+         written++;
+      }
+      out.flush();
+   }
+
+   private static Long getLong(HttpServletRequest request, String name, Long defaultValue) {
+      String value = request.getParameter(name);
+      if (value == null || value.length() == 0) {
+         return defaultValue;
+      }
+      try {
+         return Long.valueOf(value.trim());
+      } catch (NumberFormatException e) {
+         throw new NumberFormatException("Invalid value for " + name + ": " + value);
+      }
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
@@ -4,6 +4,11 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.veriplace.client.Location;
+import com.veriplace.client.metrics.Counter;
+import com.veriplace.client.metrics.Histogram;
+import com.veriplace.client.metrics.MetricsRegistry;
+import com.veriplace.client.util.CircuitBreaker;
+import com.veriplace.client.util.RemoteCall;
 
 import twitter4j.Twitter;
 import twitter4j.TwitterException;
@@ -12,6 +17,8 @@ import twitter4j.User;
 import twitter4j.http.RequestToken;
 import twitter4j.http.AccessToken;
 
+import javax.servlet.http.HttpServletResponse;
+
 
 public class Tweet {
 
@@ -23,17 +30,92 @@ public class Tweet {
 
    private static final int MAX_RETRY_COUNT = 10;
 
+   private static final MetricsRegistry metrics = MetricsRegistry.getDefault();
+   private static final Histogram TWEET_TIME =
+      metrics.histogram("tweetmycity_tweet_seconds",
+                        "Time taken to tweet a city, including retries");
+   private static final Counter TWEETED = tweetCounter("ok");
+   private static final Counter UNAUTHORIZED = tweetCounter("unauthorized");
+   private static final Counter FAILED = tweetCounter("failed");
+   private static final Counter DEFERRED = tweetCounter("deferred");
+   private static final Counter TIMED_OUT = tweetCounter("timed_out");
+   private static final Counter RETRIES =
+      metrics.counter("tweetmycity_tweet_retries_total", "Tweets retried after a timeout");
+
+   /**
+    * System property overriding the Twitter API base URL, e.g. to point at a
+    * local simulator: "tweetmycity.twitter.base-url"
+    */
+   public static final String BASE_URL_PROPERTY = "tweetmycity.twitter.base-url";
+
+   // Twitter endpoints, as reported in remote call events
+   private static final String REQUEST_TOKEN = "oauth/request_token";
+   private static final String ACCESS_TOKEN = "oauth/access_token";
+   private static final String VERIFY_CREDENTIALS = "account/verify_credentials";
+   private static final String UPDATE_STATUS = "statuses/update";
+
+   private static final CircuitBreaker circuitBreaker = new CircuitBreaker("twitter");
+
+
+   /**
+    * Create a Twitter instance for this application.
+    */
+   static Twitter newTwitter() {
+      return newTwitter(Deadline.NONE);
+   }
+
 
-   public static String startOAuth() {
+   /**
+    * Create a Twitter instance for this application, whose connect and read
+    * timeouts are limited to the time left before a deadline.
+    */
+   static Twitter newTwitter(Deadline deadline) {
       Twitter twitter = new Twitter();
+      Integer timeout = deadline.getTimeout();
+      if (timeout != null) {
+         twitter.setHttpConnectionTimeout(timeout);
+         twitter.setHttpReadTimeout(timeout);
+      }
       twitter.setSource("TweetMyCity.org");
       twitter.setOAuthConsumer(consumer_key, consumer_secret);
+      String baseUrl = System.getProperty(BASE_URL_PROPERTY);
+      if (baseUrl != null) {
+         twitter.setBaseURL(baseUrl);
+      }
+      return twitter;
+   }
+
+
+   /**
+    * Returns the circuit breaker guarding calls to Twitter.  While it is open,
+    * {@link #tweet} gives up at once, leaving the subscriber's last city as it
+    * was so that the next update tries again.
+    */
+   public static CircuitBreaker getCircuitBreaker() {
+      return circuitBreaker;
+   }
+
+
+   /**
+    * Returns the HTTP status carried by a Twitter error, or {@link RemoteCall#NO_STATUS}.
+    */
+   static int statusOf(TwitterException te) {
+      int code = te.getStatusCode();
+      return (code > 0) ? code : RemoteCall.NO_STATUS;
+   }
+
+
+   public static String startOAuth() {
+      Twitter twitter = newTwitter();
 
       //RequestToken requestToken = null;
+      RemoteCall call = RemoteCall.begin(RemoteCall.TWITTER, REQUEST_TOKEN);
       try {
          requestToken = twitter.getOAuthRequestToken();
+         call.end(HttpServletResponse.SC_OK, RemoteCall.UNKNOWN_BYTES);
          logger.debug("requestToken = " + requestToken);
       }  catch (TwitterException te) {
+         call.end(statusOf(te), RemoteCall.UNKNOWN_BYTES);
          logger.error(te);
       }
 
@@ -46,17 +128,18 @@ public class Tweet {
 
 
    public static AccessToken finishOAuth() {
-      Twitter twitter = new Twitter();
-      twitter.setSource("TweetMyCity.org");
-      twitter.setOAuthConsumer(consumer_key, consumer_secret);
+      Twitter twitter = newTwitter();
 
       logger.debug("requestToken = " + requestToken);
       AccessToken accessToken = null;
       int retry = 0;
       while (accessToken == null && retry < 12) {
+         RemoteCall call = RemoteCall.begin(RemoteCall.TWITTER, ACCESS_TOKEN);
          try{
             accessToken = requestToken.getAccessToken();
+            call.end(HttpServletResponse.SC_OK, RemoteCall.UNKNOWN_BYTES);
          } catch (TwitterException te) {
+            call.end(statusOf(te), RemoteCall.UNKNOWN_BYTES);
             if(401 == te.getStatusCode()){
                logger.error("Unable to get the access token.");
             } else {
@@ -67,13 +150,18 @@ public class Tweet {
          retry++;
       }
 
+      RemoteCall call = RemoteCall.NONE;
       try {
          logger.info("accessToken = " + accessToken);
          twitter.setOAuthAccessToken(accessToken);
-         logger.info("creds = " + twitter.verifyCredentials());
+         call = RemoteCall.begin(RemoteCall.TWITTER, VERIFY_CREDENTIALS);
+         User twitterUser = twitter.verifyCredentials();
+         call.end(HttpServletResponse.SC_OK, RemoteCall.UNKNOWN_BYTES);
+         logger.info("creds = " + twitterUser);
          //Status status = twitter.updateStatus("update using oauth credentials");
          //logger.info("Successfully updated the status to [" + status.getText() + "].");
       }  catch (TwitterException te) {
+         call.end(statusOf(te), RemoteCall.UNKNOWN_BYTES);
          te.printStackTrace();
          logger.error(te);
       }
@@ -84,15 +172,16 @@ public class Tweet {
 
 
    public static void updateStatusViaOAuth(long vpuserid, String statusMsg) {
-      Twitter twitter = new Twitter();
-      twitter.setSource("TweetMyCity.org");
-      twitter.setOAuthConsumer(consumer_key, consumer_secret);
+      Twitter twitter = newTwitter();
       AccessToken accessToken = (new UserStore()).get(vpuserid).getAccessToken();
       twitter.setOAuthAccessToken(accessToken);
+      RemoteCall call = RemoteCall.begin(RemoteCall.TWITTER, UPDATE_STATUS, vpuserid);
       try {
          Status status = twitter.updateStatus(statusMsg);
+         call.end(HttpServletResponse.SC_OK, RemoteCall.UNKNOWN_BYTES);
          logger.info("Successfully updated the status to [" + status.getText() + "].");
       }  catch (TwitterException te) {
+         call.end(statusOf(te), RemoteCall.UNKNOWN_BYTES);
          logger.error(te);
       }
    }
@@ -101,26 +190,77 @@ public class Tweet {
 
 
    public static String tryTweet(TmcUser tmc, Location location) {
+      return tryTweet(tmc, location, UpdateTrace.NONE);
+   }
+
+
+   public static String tryTweet(TmcUser tmc, Location location, UpdateTrace trace) {
+      return tryTweet(tmc, location, trace, Deadline.NONE);
+   }
+
+
+   public static String tryTweet(TmcUser tmc, Location location, UpdateTrace trace,
+                                 Deadline deadline) {
+      return tryTweet(tmc, location, trace, deadline, null);
+   }
+
+
+   /**
+    * Tweet the subscriber's city if it has changed, recording the compare,
+    * tweet and persist stages in a trace.  Gives up on the tweet once the
+    * deadline has passed.  With a lease, the tweet and persist stages only
+    * start while it is still valid, and only if no later holder of the
+    * lease has saved this subscriber (see {@link UserStore}).
+    * @param lease  the lease of the sweep making this update, or null
+    */
+   public static String tryTweet(TmcUser tmc, Location location, UpdateTrace trace,
+                                 Deadline deadline, Lease lease) {
       if (!GetLocation.empty(location)) {
+         trace.begin(UpdateTrace.COMPARE);
          String cityState = location.getCity() + ", " + location.getState();
          if (!cityState.equals(tmc.getLastCityState())) {
+            trace.end("changed");
 
             // not same as last time
             logger.info("tweeting the location, it's not the same as last time: " + cityState);
 
             // tweet the city
-            String stat = tweet(tmc, location);
+            trace.begin(UpdateTrace.TWEET);
+            UserStore store = new UserStore();
+            if (lease != null &&
+                (! lease.isValid() || store.isSuperseded(tmc.getUserId(), lease))) {
+               trace.end("lease-lost");
+               logger.warn("Not tweeting for " + tmc + "; no longer holding " + lease);
+               return null;
+            }
+            String stat = tweet(tmc, location, deadline);
+            trace.end(stat != null ? "ok" : "failed");
             
             if (stat != null) {
                // ... and update and save new location
+               trace.begin(UpdateTrace.PERSIST);
+               if (lease != null && ! lease.isValid()) {
+                  // the new holder may already have saved a newer city
+                  trace.end("lease-lost");
+                  logger.warn("Not saving " + cityState + " for " + tmc +
+                              "; no longer holding " + lease);
+                  return stat;
+               }
                tmc.updateLastCity(cityState);
-               (new UserStore()).update(tmc);
+               if (! store.update(tmc, lease)) {
+                  trace.end("lease-lost");
+                  logger.warn("Not saving " + cityState + " for " + tmc +
+                              "; a later holder of " + lease + " already has");
+                  return stat;
+               }
+               trace.end("ok");
             } else {
                logger.info("could not tweet, not updating last location: " + cityState);
             }
 
             return stat;
          } else {
+            trace.end("unchanged");
             logger.info("not tweeting the location, it's the same as last time: " + cityState);
          }
       } else {
@@ -131,50 +271,111 @@ public class Tweet {
 
 
    public static String tweet(TmcUser tmc, Location location) {
-      return tweet(tmc, location, 0);
+      return tweet(tmc, location, Deadline.NONE);
+   }
+
+
+   public static String tweet(TmcUser tmc, Location location, Deadline deadline) {
+      long start = System.nanoTime();
+      try {
+         return tweet(tmc, location, 0, deadline);
+      } finally {
+         TWEET_TIME.recordSince(start);
+      }
    }
 
 
    public static String tweet(TmcUser tmc, Location location, int retryCount) {
+      return tweet(tmc, location, retryCount, Deadline.NONE);
+   }
 
-      Twitter twitter = new Twitter();
-      twitter.setOAuthConsumer(consumer_key, consumer_secret);
+
+   public static String tweet(TmcUser tmc, Location location, int retryCount,
+                              Deadline deadline) {
+
+      if (deadline.isExpired()) {
+         logger.info("Deadline passed, not tweeting for " + tmc);
+         TIMED_OUT.increment();
+         return null;
+      }
+      if (! circuitBreaker.allowRequest()) {
+         logger.info("Twitter unavailable, not tweeting for " + tmc);
+         DEFERRED.increment();
+         return null;
+      }
+
+      Twitter twitter = newTwitter(deadline);
       twitter.setOAuthAccessToken(tmc.getAccessToken());
-      twitter.setSource("TweetMyCity.org");
 
       String stat = "" //"TweetMyCity.org: " / "@tweet_my_city: "
          + tmc.getDeviceDescription()
          + " is now in "
          + location.getCity() + ", " + location.getState();
+      RemoteCall call = RemoteCall.NONE;
+      // Anything but an answer from Twitter, including an unexpected
+      // exception, counts against it
+      boolean failed = true;
+      boolean retry = false;
       try {
+         call = RemoteCall.begin(RemoteCall.TWITTER, VERIFY_CREDENTIALS, tmc.getUserId());
          User twitterUser = twitter.verifyCredentials();
+         call.end(HttpServletResponse.SC_OK, RemoteCall.UNKNOWN_BYTES);
          logger.info("creds = " + twitterUser);
 
+         call = RemoteCall.begin(RemoteCall.TWITTER, UPDATE_STATUS, tmc.getUserId());
          Status status = twitter.updateStatus(stat);
+         call.end(HttpServletResponse.SC_OK, RemoteCall.UNKNOWN_BYTES);
+         failed = false;
          logger.info("Successfully updated the status to [" + status.getText() + "].");
+         TWEETED.increment();
       } catch (twitter4j.TwitterException te) {
+         call.end(statusOf(te), RemoteCall.UNKNOWN_BYTES);
          String msg = te.getMessage();
          int code = te.getStatusCode();
+         // Timeouts, server errors and errors without a response count against
+         // Twitter; anything else means it answered
+         failed = (code <= 0 || code == 408 || code >= 500);
          logger.info("Got twitter exception: " + code + ": " + msg);
          if (code == 401) {
             // have no user credentials, delete the user
             logger.info("got a 401: remove user " + tmc);
             (new UserStore()).remove(tmc);
+            UNAUTHORIZED.increment();
+            return null;
          }
          if (code == 408) {
             if (retryCount < MAX_RETRY_COUNT) {
                logger.info("retrying");
-               return tweet(tmc, location, ++retryCount);
+               RETRIES.increment();
+               retry = true;
             } else {
                logger.warn("exceeded max retry count tweeting.  giving up.");
             }
          }
-         // if exceedeed retry or got non-408 error, didn't update successfully
-         return null;
+         if (! retry) {
+            FAILED.increment();
+            // if exceedeed retry or got non-408 error, didn't update successfully
+            return null;
+         }
+      } finally {
+         if (failed) {
+            circuitBreaker.recordFailure();
+         } else {
+            circuitBreaker.recordSuccess();
+         }
+      }
+      if (retry) {
+         // retried only now, so the retry sees the breaker after this failure
+         return tweet(tmc, location, ++retryCount, deadline);
       }
      return stat;
    }
 
+   private static Counter tweetCounter(String result) {
+      return metrics.counter("tweetmycity_tweets_total", "Tweets sent, by result",
+                             "result", result);
+   }
+
 
 
 }
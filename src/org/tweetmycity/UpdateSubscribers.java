@@ -1,23 +1,12 @@
 
 package org.tweetmycity;
 
-import com.veriplace.client.Location;
-import com.veriplace.client.User;
-import com.veriplace.client.Client;
-import com.veriplace.client.store.TokenStore;
-import com.veriplace.client.store.MemoryTokenStore;
-import com.veriplace.oauth.consumer.Token;
-import com.veriplace.oauth.OAuthException;
-import com.veriplace.oauth.message.Revision;
-
-import java.net.URL;
-import java.net.HttpURLConnection;
-
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 
 import java.io.IOException;
@@ -34,12 +23,72 @@ import twitter4j.Status;
 
 /**
  * tweet all our subscribers' cities.
+ * <p>
+ * A sweep only starts if its lease can be taken from the webapp's
+ * {@link LeaseManager}, so overlapping requests, on this node or another,
+ * do not sweep the same subscribers twice at once.
  */
 public class UpdateSubscribers
    extends ClientServlet {
 
    private static final Log logger = LogFactory.getLog(UpdateSubscribers.class);
 
+   /**
+    * Context parameter for the time allowed for one subscriber update, in
+    * milliseconds; 0 for no limit: "tweetmycity.update.timeout"
+    */
+   public static final String UPDATE_TIMEOUT_PARAMETER = "tweetmycity.update.timeout";
+
+   /**
+    * Context parameter for the time allowed for a whole sweep, in milliseconds;
+    * 0, the default, for no limit: "tweetmycity.sweep.budget"
+    */
+   public static final String SWEEP_BUDGET_PARAMETER = "tweetmycity.sweep.budget";
+
+   /**
+    * Job name of the sweep's lease; see {@link SubscriberUpdater#getLeaseName()}.
+    */
+   public static final String UPDATE_JOB = SubscriberUpdater.UPDATE_JOB;
+
+   protected SubscriberUpdater updater;
+   protected LeaseManager leases;
+
+   @Override
+   public void init(ServletConfig config)
+      throws ServletException {
+      super.init(config);
+      updater = new SubscriberUpdater(registry, UpdateTracer.getInstance(getServletContext()));
+      updater.setUpdateTimeout(getMillisParameter(UPDATE_TIMEOUT_PARAMETER,
+                                                  SubscriberUpdater.DEFAULT_UPDATE_TIMEOUT));
+      updater.setSweepBudget(getMillisParameter(SWEEP_BUDGET_PARAMETER, 0));
+      updater.setCluster(Cluster.getInstance(getServletContext()));
+      leases = LeaseManager.getInstance(getServletContext());
+      updater.setLeaseManager(leases);
+   }
+
+   private long getMillisParameter(String name, long defaultValue) {
+      String value = getServletContext().getInitParameter(name);
+      if (value == null || value.trim().length() == 0) {
+         return defaultValue;
+      }
+      try {
+         long millis = Long.parseLong(value.trim());
+         if (millis >= 0) {
+            return millis;
+         }
+      } catch (NumberFormatException e) {
+         // fall through
+      }
+      logger.warn("Invalid value found for optional property: " + name);
+      return defaultValue;
+   }
+
+   @Override
+   public void destroy() {
+      updater.close();
+      super.destroy();
+   }
+
    @Override
    protected void doGet(HttpServletRequest request,
                         HttpServletResponse response)
@@ -76,6 +125,13 @@ public class UpdateSubscribers
          buf.append(tmcUser + "\n");
       }
 
+      Lease lease = leases.tryAcquire(updater.getLeaseName());
+      if (lease == null) {
+         buf.append(doText ? "\n" : "</pre><p>");
+         buf.append("An update is already running; not starting another.");
+         buf.append(doText ? "\n" : "</p><pre>");
+      }
+
       if (doText) {
          buf.append("\n");
       } else {
@@ -86,150 +142,35 @@ public class UpdateSubscribers
          buf.append("</html>");
       }
 
-      startUpdateThread();
+      if (lease != null) {
+         startUpdateThread(lease);
+      }
 
       response.getOutputStream().write(buf.toString().getBytes());
    }
 
 
-   protected void updateAll() {
-      for (TmcUser tmcUser : (new UserStore()).getUsers()) {
-         Location location = getLocation(tmcUser);
-         String status = Tweet.tryTweet(tmcUser, location);
-      }
+   protected void updateAll(Lease lease) {
+      updater.updateAll(lease);
    }
 
 
-   protected void startUpdateThread() {
+   /**
+    * Sweep on a new thread, releasing the lease when done.
+    */
+   protected void startUpdateThread(final Lease lease) {
       new Thread(new Runnable() { public void run() { 
-         logger.info("starting update thread");
-         updateAll(); 
-         logger.info("finished update thread");
-      } } ).start();
-   }
-
-   protected Location getLocation(TmcUser tmcUser) {
-      logger.info("getting location for " + tmcUser);
-
-      // This callback is required by the OAuth standard, but is unused
-      String callback = "http://veriplace.com";
-
-      // We require the special "Application Token" to issue User Discovery *queries*
-      // For your application, you can find this value in the Developer Portal
-      Token applicationToken = new Token("DHgu0Ky1zUS8llHxMXt0",
-                                         "nJs2pAxco6wmsOASgmOV");
-
-      // We'll need to use our own token store below.
-      TokenStore tokenStore = new MemoryTokenStore();
-
-      Client client = null;
-      try {
-         // Create the Veriplace client
-         client = new Client("RfhjzYkyYxOL6lrWgrOe",
-                             "pHVlIQP1ofd3kpDbe9BV",
-                             Revision.Core1_0RevA,
-                             applicationToken,
-                             "http://veriplace.com",
-                             tokenStore);
-      } catch (java.security.NoSuchAlgorithmException nsae) {
-         logger.error(nsae);
-         return null;
-      } catch (java.net.MalformedURLException mue) {
-         logger.error(mue);
-         return null;
-      }
-
-      User user = new User(tmcUser.getUserId());
-
-      int code = -1;
-      HttpURLConnection connection = null;
-      try {
-         // Veriplace's implementation of OAuth User Authorization supports an "immediate" flag
-         // If true, Veriplace will grant an Access Token is permission is already granted
-         // and will bypass all UI, performing the callback immediately
-         boolean immediate = true;
-         URL authorizationUrl = 
-            new URL(client.getGetLocationAPI().getRedirectURL(callback,user,immediate));
-
-         // GET this URL, but do not follow redirects
-         connection = (HttpURLConnection)authorizationUrl.openConnection();
-         connection.setInstanceFollowRedirects(false);
-         code = connection.getResponseCode();
-         logger.info("response code: " + code);
-      } catch (IOException ioe) {
-         logger.error(ioe);
-         return null;
-      }
-
-      if (code == 302) {
-         // The User Authorization URL sent a redirect, extract the callback URL
-         String location_header = connection.getHeaderField("Location");
-         logger.debug("location:" + location_header);
-
-         // The callback URL contains the oauth_token and oauth_verifier values (as of Rev A)
-         String oauth_token = location_header.split("oauth_token=")[1].split("&")[0];
-         String oauth_verifier = location_header.split("oauth_verifier=")[1].split("&")[0];
-         logger.debug("callback oauth_token: " + oauth_token);
-         logger.debug("callback oauth_verifier: " + oauth_verifier);
-
-
-         // Retrieve the request token from storage
-         Token requestToken = tokenStore.get(oauth_token);
-         logger.debug("requestToken: " + requestToken.getToken());
-
+         logger.info("starting update thread, " + lease);
          try {
-            // Attempt to get an access token
-            Token accessToken = client.getConsumer().getAccessToken(requestToken,oauth_verifier);
-            logger.debug("accessToken: " + accessToken.getToken());
-
-            // We got an access token, now make a location request
-            // If our application was provisioned for it, we can try cached location by setting the mode
-            String mode = null;//"cached";
-            Location location = client.getGetLocationAPI().getLocation(accessToken,user,mode);
-
-            if (location == null) {
-               // If we didn't get back a location object, it means we encountered a rare
-               // race condition where the access token was revoked between when we retrieved it
-               // and when the location request was issued
-               logger.info("Could not obtain location");
-               return null;
-            }
-
-            // We got location, but was it successful?
-            if (location.getLongitude() != null &&
-                location.getLatitude() != null) {
-               // Yes!
-               logger.info(location.getLatitude() + " " + location.getLongitude());
-               logger.info("user is in "+ location.getCity() + ", " + location.getState());
-               return location;
-            } else {
-               // Sadly, no...
-               logger.info("have a location, but, no longlat: " + location.getMessage());
-               return null;
-            }
-         } catch (OAuthException e) {
-            // An exception here means an Access Token wasn't available
-            // Try granting permission directly for your application in the Privacy Manager
-            // There should now be a permission request visible in the sidebar
-            logger.info(e);
-            logger.info("user has revoked our location permission -- remove them.");
-            (new UserStore()).remove(tmcUser);
-            return null;
-         } catch (IOException ioe) {
-            // from Token accessToken = client.getConsumer().getAccessToken(requestToken,oauth_verifier);
-            logger.error(ioe);
-            return null;
+            updateAll(lease); 
          } finally {
-            tokenStore.remove(requestToken);
+            lease.release();
          }
-      } else {
-         logger.warn("Unexpected http response code: " + code);
-         return null;
-      }
+         logger.info("finished update thread");
+      } } ).start();
    }
 
 
-
 }
 
 /*
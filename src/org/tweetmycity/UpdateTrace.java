@@ -0,0 +1,201 @@
+/* Copyright 2008 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tweetmycity;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * A record of one subscriber update, split into stages.
+ * <p>
+ * The stages of an update run one after another: {@link #begin(String)}
+ * starts a stage and {@link #end(String)} records how it turned out.  Times
+ * are nanoseconds from the start of the update.  A trace is written to by the
+ * one thread doing the update, and only read once {@link #finish(String)}
+ * has been called.
+ * <p>
+ * {@link #NONE} ignores everything, so code can record stages whether or not
+ * tracing is enabled.
+ */
+public class UpdateTrace {
+
+   public static final String REQUEST_TOKEN = "request-token";
+   public static final String AUTHORIZE = "authorize";
+   public static final String ACCESS_TOKEN = "access-token";
+   public static final String LOCATE = "locate";
+   public static final String COMPARE = "compare";
+   public static final String TWEET = "tweet";
+   public static final String PERSIST = "persist";
+
+   /**
+    * A trace that records nothing.
+    */
+   public static final UpdateTrace NONE = new UpdateTrace(0) {
+         @Override
+         public void begin(String stage) {
+         }
+
+         @Override
+         public void end(String outcome) {
+         }
+
+         @Override
+         public void finish(String outcome) {
+         }
+      };
+
+   private static final int MAX_STAGES = 8;
+
+   private final long userId;
+   private final long startMillis;
+   private final long startNanos;
+   private final String[] stages = new String[MAX_STAGES];
+   private final long[] stageStarts = new long[MAX_STAGES];
+   private final long[] stageEnds = new long[MAX_STAGES];
+   private final String[] stageOutcomes = new String[MAX_STAGES];
+   private int stageCount;
+   private boolean open;
+   private long duration = -1;
+   private String outcome;
+
+   public UpdateTrace(long userId) {
+      this.userId = userId;
+      this.startMillis = System.currentTimeMillis();
+      this.startNanos = System.nanoTime();
+   }
+
+   /**
+    * Start a stage, ending the current one as "abandoned" if there is one.
+    */
+   public void begin(String stage) {
+      if (open) {
+         end("abandoned");
+      }
+      if (stageCount == MAX_STAGES) {
+         return;
+      }
+      stages[stageCount] = stage;
+      stageStarts[stageCount] = System.nanoTime() - startNanos;
+      open = true;
+   }
+
+   /**
+    * End the current stage.
+    * @param outcome  how the stage turned out, e.g. "ok"
+    */
+   public void end(String outcome) {
+      if (! open) {
+         return;
+      }
+      stageEnds[stageCount] = System.nanoTime() - startNanos;
+      stageOutcomes[stageCount] = outcome;
+      stageCount++;
+      open = false;
+   }
+
+   /**
+    * End the update, and any stage still in progress.
+    * @param outcome  how the update turned out, e.g. "tweeted"
+    */
+   public void finish(String outcome) {
+      if (open) {
+         end("abandoned");
+      }
+      this.duration = System.nanoTime() - startNanos;
+      this.outcome = outcome;
+   }
+
+   public long getUserId() {
+      return userId;
+   }
+
+   /**
+    * Returns the time taken by the whole update, in nanoseconds, or -1 if it
+    * has not finished.
+    */
+   public long getDuration() {
+      return duration;
+   }
+
+   public String getOutcome() {
+      return outcome;
+   }
+
+   /**
+    * Returns this trace as a single line of JSON.
+    */
+   public String toJson() {
+      StringBuilder buf = new StringBuilder(128 + stageCount * 96);
+      SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+      format.setTimeZone(TimeZone.getTimeZone("UTC"));
+      buf.append("{\"user\":").append(userId);
+      buf.append(",\"start\":\"").append(format.format(new Date(startMillis))).append('"');
+      buf.append(",\"durationNanos\":").append(duration);
+      buf.append(",\"outcome\":");
+      appendString(buf, outcome);
+      buf.append(",\"stages\":[");
+      for (int i = 0; i < stageCount; i++) {
+         if (i > 0) {
+            buf.append(',');
+         }
+         buf.append("{\"stage\":");
+         appendString(buf, stages[i]);
+         buf.append(",\"startNanos\":").append(stageStarts[i]);
+         buf.append(",\"endNanos\":").append(stageEnds[i]);
+         buf.append(",\"outcome\":");
+         appendString(buf, stageOutcomes[i]);
+         buf.append('}');
+      }
+      buf.append("]}");
+      return buf.toString();
+   }
+
+   @Override
+   public String toString() {
+      return toJson();
+   }
+
+   private static void appendString(StringBuilder buf, String s) {
+      if (s == null) {
+         buf.append("null");
+         return;
+      }
+      buf.append('"');
+      for (int i = 0; i < s.length(); i++) {
+         char c = s.charAt(i);
+         if (c == '"' || c == '\\') {
+            buf.append('\\').append(c);
+         }
+         else if (c < 0x20) {
+            buf.append(String.format("\\u%04x", (int) c));
+         }
+         else {
+            buf.append(c);
+         }
+      }
+      buf.append('"');
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
@@ -0,0 +1,214 @@
+/* Copyright 2008 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tweetmycity;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.servlet.ServletContext;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the traces of recent subscriber updates.
+ * <p>
+ * The most recent traces are kept in memory, in a fixed-size ring, and served
+ * by {@link Traces}.  Optionally a sample of them is also appended to a file,
+ * one JSON object per line, for offline analysis.  The webapp's tracer is
+ * configured with context parameters:
+ * <ul>
+ * <li>tweetmycity.trace.buffer-size - number of traces kept in memory (1000)</li>
+ * <li>tweetmycity.trace.file - file to append sampled traces to (none)</li>
+ * <li>tweetmycity.trace.sample-rate - fraction of traces written to the file (0.01)</li>
+ * </ul>
+ */
+public class UpdateTracer {
+
+   private static final Log logger = LogFactory.getLog(UpdateTracer.class);
+
+   /**
+    * Servlet context attribute holding the tracer.
+    */
+   public static final String ATTRIBUTE = UpdateTracer.class.getName();
+
+   public static final String BUFFER_SIZE_PARAMETER = "tweetmycity.trace.buffer-size";
+   public static final String FILE_PARAMETER = "tweetmycity.trace.file";
+   public static final String SAMPLE_RATE_PARAMETER = "tweetmycity.trace.sample-rate";
+
+   public static final int DEFAULT_BUFFER_SIZE = 1000;
+   public static final double DEFAULT_SAMPLE_RATE = 0.01;
+
+   private final AtomicReferenceArray<UpdateTrace> buffer;
+   private final AtomicLong next = new AtomicLong();
+   private final File file;
+   private final double sampleRate;
+   private final Random random = new Random();
+   private Writer writer;
+   private boolean closed;
+
+   /**
+    * @param bufferSize  number of traces kept in memory
+    * @param file  file to append sampled traces to, or null for none
+    * @param sampleRate  fraction of traces written to the file, from 0 to 1
+    */
+   public UpdateTracer(int bufferSize, File file, double sampleRate) {
+      if (bufferSize <= 0) {
+         throw new IllegalArgumentException("bufferSize must be positive");
+      }
+      this.buffer = new AtomicReferenceArray<UpdateTrace>(bufferSize);
+      this.file = file;
+      this.sampleRate = sampleRate;
+   }
+
+   /**
+    * Returns the tracer for a webapp, creating it if necessary.
+    */
+   public static UpdateTracer getInstance(ServletContext context) {
+      synchronized (context) {
+         UpdateTracer tracer = (UpdateTracer) context.getAttribute(ATTRIBUTE);
+         if (tracer == null) {
+            int bufferSize = DEFAULT_BUFFER_SIZE;
+            String value = context.getInitParameter(BUFFER_SIZE_PARAMETER);
+            if (value != null) {
+               try {
+                  bufferSize = Integer.parseInt(value.trim());
+               } catch (NumberFormatException e) {
+                  bufferSize = -1;
+               }
+               if (bufferSize <= 0) {
+                  logger.warn("Invalid value found for optional property: " + BUFFER_SIZE_PARAMETER);
+                  bufferSize = DEFAULT_BUFFER_SIZE;
+               }
+            }
+            double sampleRate = DEFAULT_SAMPLE_RATE;
+            value = context.getInitParameter(SAMPLE_RATE_PARAMETER);
+            if (value != null) {
+               try {
+                  sampleRate = Double.parseDouble(value.trim());
+               } catch (NumberFormatException e) {
+                  sampleRate = -1;
+               }
+               if (! (sampleRate >= 0 && sampleRate <= 1)) {
+                  logger.warn("Invalid value found for optional property: " + SAMPLE_RATE_PARAMETER);
+                  sampleRate = DEFAULT_SAMPLE_RATE;
+               }
+            }
+            String path = context.getInitParameter(FILE_PARAMETER);
+            File file = (path == null || path.trim().length() == 0) ? null : new File(path.trim());
+            tracer = new UpdateTracer(bufferSize, file, sampleRate);
+            context.setAttribute(ATTRIBUTE, tracer);
+         }
+         return tracer;
+      }
+   }
+
+   /**
+    * Start tracing an update.
+    */
+   public UpdateTrace start(long userId) {
+      return new UpdateTrace(userId);
+   }
+
+   /**
+    * Keep a finished trace, and write it to the file if it is sampled.
+    */
+   public void record(UpdateTrace trace) {
+      long sequence = next.getAndIncrement();
+      buffer.set((int) (sequence % buffer.length()), trace);
+      if (file != null && sampleRate > 0 && random.nextDouble() < sampleRate) {
+         write(trace);
+      }
+   }
+
+   /**
+    * Returns up to the given number of recent traces, newest first.
+    */
+   public List<UpdateTrace> getRecent(int max) {
+      long end = next.get();
+      long start = Math.max(0, end - Math.min(max, buffer.length()));
+      List<UpdateTrace> recent = new ArrayList<UpdateTrace>((int) (end - start));
+      for (long i = end - 1; i >= start; i--) {
+         UpdateTrace trace = buffer.get((int) (i % buffer.length()));
+         if (trace != null) {
+            recent.add(trace);
+         }
+      }
+      return recent;
+   }
+
+   public int getBufferSize() {
+      return buffer.length();
+   }
+
+   public File getFile() {
+      return file;
+   }
+
+   public double getSampleRate() {
+      return sampleRate;
+   }
+
+   /**
+    * Close the trace file, if any.  Traces are still kept in memory.
+    */
+   public synchronized void close() {
+      closed = true;
+      if (writer != null) {
+         try {
+            writer.close();
+         } catch (IOException e) {
+            logger.warn(e);
+         }
+         writer = null;
+      }
+   }
+
+   private synchronized void write(UpdateTrace trace) {
+      if (closed) {
+         return;
+      }
+      try {
+         if (writer == null) {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+         }
+         writer.write(trace.toJson());
+         writer.write('\n');
+         writer.flush();
+      } catch (IOException e) {
+         logger.warn("Could not write trace to " + file + "; no more traces will be written", e);
+         close();
+      }
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
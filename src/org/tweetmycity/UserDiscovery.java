@@ -40,7 +40,7 @@ public class UserDiscovery
       throws ServletException,
              IOException {
 
-      if (client.isCallback(request)) {
+      if (getClient().isCallback(request)) {
          doCallback(request,response);
       } else {
          doForm(request,response);
@@ -151,10 +151,10 @@ public class UserDiscovery
              IOException {
 
       // retrieve the Access Token, if any
-      Token accessToken = client.getAccessToken(request);
+      Token accessToken = getClient().getAccessToken(request);
       if (accessToken != null) {
          // get user
-         User user = client.getUserDiscoveryAPI().getUser(accessToken);
+         User user = getClient().getUserDiscoveryAPI().getUser(accessToken);
 
          if (user != null) {
             // we have some text below for this case, but, don't really need it.
@@ -268,10 +268,10 @@ public class UserDiscovery
 
       // construct callback url
       String callback = 
-         client.prepareCallback(request) + 
+         getClient().prepareCallback(request) + 
          request.getRequestURI();
       // construct the redirect URL for user authorization
-      String redirectUrl = client.getUserDiscoveryAPI().getRedirectURL(callback,null);
+      String redirectUrl = getClient().getUserDiscoveryAPI().getRedirectURL(callback,null);
 
       // redirect the User Agent
       response.sendRedirect(redirectUrl);
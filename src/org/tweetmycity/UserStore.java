@@ -14,6 +14,9 @@
  */
 package org.tweetmycity;
 
+import com.veriplace.client.metrics.Histogram;
+import com.veriplace.client.metrics.MetricsRegistry;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -22,21 +25,42 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Properties;
 
 
 /** store user data to the filesystem
+ * <p>
+ * Updates made under a {@link Lease} are fenced: the highest fencing token
+ * seen for each job is kept with the subscriber, in "&lt;id&gt;.fence", and an
+ * update carrying a lower token for the same job is refused, since the runner
+ * that made it has been superseded.  The check and the write are not atomic
+ * across nodes, so this closes the gap left by {@link Lease#isValid()} for a
+ * runner that stalled for a long time, not for two that write at the same
+ * instant.
  */
 public class UserStore {
 
    private static final Log logger = LogFactory.getLog(UserStore.class);
 
+   private static final Histogram GET_TIME = operationTime("get");
+   private static final Histogram ADD_TIME = operationTime("add");
+   private static final Histogram REMOVE_TIME = operationTime("remove");
+   private static final Histogram LIST_TIME = operationTime("list");
+
    /**
     * Default directory
     */
    public static final String DEFAULT_DIRECTORY = "/opt/wm/data/tweetmycity";
 
+   /**
+    * System property overriding the default directory: "tweetmycity.data-dir"
+    */
+   public static final String DIRECTORY_PROPERTY = "tweetmycity.data-dir";
+
    /**
     * Default file base
     */
@@ -64,7 +88,7 @@ public class UserStore {
     * @param fileBase the file base for storing tokens
     */
    public UserStore(String fileBase) {
-      this(fileBase,DEFAULT_DIRECTORY);
+      this(fileBase,System.getProperty(DIRECTORY_PROPERTY,DEFAULT_DIRECTORY));
    }
 
    /**
@@ -82,7 +106,7 @@ public class UserStore {
     * Get a user by userId.
     */
    public synchronized TmcUser get(long userId) {
-
+      long start = System.nanoTime();
       try {
          File file = getFile(userId + ".ttok");
          FileInputStream fis = new FileInputStream(file);
@@ -160,6 +184,8 @@ public class UserStore {
          logger.warn(e);
 
          return null;
+      } finally {
+         GET_TIME.recordSince(start);
       }
    }
 
@@ -167,7 +193,7 @@ public class UserStore {
     * Add a user to this store.
     */
    public synchronized void add(TmcUser tmcUser) {
-
+      long start = System.nanoTime();
       try {
          File file = getFile(tmcUser.getUserId() + ".ttok");
          FileOutputStream fos = new FileOutputStream(file);
@@ -195,6 +221,8 @@ public class UserStore {
 
       } catch (IOException e) {
          logger.warn(e);
+      } finally {
+         ADD_TIME.recordSince(start);
       }
    }
 
@@ -217,30 +245,69 @@ public class UserStore {
    }
 
 
+   /**
+    * Update user information in this store on behalf of a lease holder,
+    * unless a later holder of the same job's lease has already done so.
+    * @param lease  the lease of the runner making the update, or null
+    * @return false if the update was refused because the lease has been
+    *   superseded
+    */
+   public synchronized boolean update(TmcUser tmcUser, Lease lease) {
+      if (lease != null) {
+         Properties fence = readFence(tmcUser.getUserId());
+         if (isSuperseded(fence, lease)) {
+            return false;
+         }
+         fence.setProperty(lease.getJob(), Long.toString(lease.getToken()));
+         writeFence(tmcUser.getUserId(), fence);
+      }
+      add(tmcUser);
+      return true;
+   }
+
+
+   /**
+    * Returns true if a later holder of the lease's job has already updated
+    * this subscriber.
+    */
+   public synchronized boolean isSuperseded(long userId, Lease lease) {
+      return isSuperseded(readFence(userId), lease);
+   }
+
+
 
    /**
     * Remove a user from this store.
     */
    public synchronized void remove(TmcUser tmcUser) {
+      long start = System.nanoTime();
+      try {
+         File file = getFile(tmcUser.getUserId() + ".ttok");
+         if (file.exists()) {
+            file.delete();
+         }
 
-      File file = getFile(tmcUser.getUserId() + ".ttok");
-      if (file.exists()) {
-         file.delete();
-      }
+         file = getFile(tmcUser.getUserId() + ".ttoksec");
+         if (file.exists()) {
+            file.delete();
+         }
 
-      file = getFile(tmcUser.getUserId() + ".ttoksec");
-      if (file.exists()) {
-         file.delete();
-      }
+         file = getFile(tmcUser.getUserId() + ".dev");
+         if (file.exists()) {
+            file.delete();
+         }
 
-      file = getFile(tmcUser.getUserId() + ".dev");
-      if (file.exists()) {
-         file.delete();
-      }
+         file = getFile(tmcUser.getUserId() + ".lastloc");
+         if (file.exists()) {
+            file.delete();
+         }
 
-      file = getFile(tmcUser.getUserId() + ".lastloc");
-      if (file.exists()) {
-         file.delete();
+         file = getFile(tmcUser.getUserId() + ".fence");
+         if (file.exists()) {
+            file.delete();
+         }
+      } finally {
+         REMOVE_TIME.recordSince(start);
       }
    }
 
@@ -249,31 +316,87 @@ public class UserStore {
     * Get all users.
     */
    public synchronized List<TmcUser> getUsers() {
-      List<TmcUser> ret = new ArrayList<TmcUser>();
+      long start = System.nanoTime();
+      try {
+         List<TmcUser> ret = new ArrayList<TmcUser>();
+
+         // dir listing
+         File dir = new File(directory);
+         dir.mkdirs();
+         File userdir = new File(directory);
+         //logger.debug("usersdir '" + userdir + "'");
+
+         for (String file : userdir.list()) {
+            String[] split = file.split("\\.");
+            //logger.debug("file '" + file + "'");
+
+            //tmcuser.8219567698096403872.tid
+            if (split.length == 3 && split[2].equals("ttok")) {
+               try {
+                  long vpId = Long.parseLong(split[1]);
+                  TmcUser u = get(vpId);
+                  ret.add(u);               
+               } catch (NumberFormatException nfe) {
+                  logger.error("error parsing file '" + file + "'");
+               }
+            }
+         }
 
-      // dir listing
-      File dir = new File(directory);
-      dir.mkdirs();
-      File userdir = new File(directory);
-      //logger.debug("usersdir '" + userdir + "'");
+         return ret;
+      } finally {
+         LIST_TIME.recordSince(start);
+      }
+   }
 
-      for (String file : userdir.list()) {
-         String[] split = file.split("\\.");
-         //logger.debug("file '" + file + "'");
 
-         //tmcuser.8219567698096403872.tid
-         if (split.length == 3 && split[2].equals("ttok")) {
+   private static boolean isSuperseded(Properties fence, Lease lease) {
+      String seen = fence.getProperty(lease.getJob());
+      try {
+         return seen != null && Long.parseLong(seen) > lease.getToken();
+      } catch (NumberFormatException e) {
+         return false;
+      }
+   }
+
+
+   private Properties readFence(long userId) {
+      Properties fence = new Properties();
+      File file = getFile(userId + ".fence");
+      if (file.exists()) {
+         try {
+            InputStream in = new FileInputStream(file);
             try {
-               long vpId = Long.parseLong(split[1]);
-               TmcUser u = get(vpId);
-               ret.add(u);               
-            } catch (NumberFormatException nfe) {
-               logger.error("error parsing file '" + file + "'");
+               fence.load(in);
+            } finally {
+               in.close();
             }
+         } catch (IOException e) {
+            logger.warn(e);
+         }
+      }
+      return fence;
+   }
+
+
+   private void writeFence(long userId, Properties fence) {
+      try {
+         OutputStream out = new FileOutputStream(getFile(userId + ".fence"));
+         try {
+            fence.store(out, null);
+         } finally {
+            out.close();
          }
+      } catch (IOException e) {
+         logger.warn(e);
       }
+   }
+
 
-      return ret;
+   private static Histogram operationTime(String operation) {
+      return MetricsRegistry.getDefault()
+         .histogram("tweetmycity_user_store_seconds",
+                    "Time taken by subscriber store operations; list includes reading each subscriber",
+                    "operation", operation);
    }
 
 
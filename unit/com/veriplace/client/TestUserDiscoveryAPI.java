@@ -0,0 +1,140 @@
+/* Copyright 2008-2009 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.veriplace.oauth.consumer.Token;
+import com.veriplace.oauth.message.ParameterSet;
+import com.veriplace.oauth.message.Response;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the user cache in {@link com.veriplace.client.UserDiscoveryAPI}.
+ */
+public class TestUserDiscoveryAPI {
+
+   private static final Token TOKEN = new Token("token", "secret");
+
+   @Test
+   public void testUserIsCached() {
+      TestAPI api = new TestAPI(ok("<user id=\"42\"/>"));
+      assertEquals(42L, api.getUser(TOKEN).getId());
+      assertEquals(42L, api.getUser(TOKEN).getId());
+      assertEquals(1, api.calls);
+
+      api.getUser(new Token("other", "secret"));
+      assertEquals(2, api.calls);
+   }
+
+   @Test
+   public void testNotFoundIsCached() {
+      TestAPI api = new TestAPI(new Response(404, "Not Found", new ParameterSet(), null, null));
+      assertNull(api.getUser(TOKEN));
+      assertNull(api.getUser(TOKEN));
+      assertEquals(1, api.calls);
+
+      // an answer without a user is as final as a 404
+      api = new TestAPI(ok("<error/>"));
+      assertNull(api.getUser(TOKEN));
+      assertNull(api.getUser(TOKEN));
+      assertEquals(1, api.calls);
+   }
+
+   @Test
+   public void testFailureIsNotCached() {
+      TestAPI api = new TestAPI(null);
+      assertNull(api.getUser(TOKEN));
+      assertNull(api.getUser(TOKEN));
+      assertEquals(2, api.calls);
+
+      api = new TestAPI(new Response(503, "Unavailable", new ParameterSet(), null, null));
+      assertNull(api.getUser(TOKEN));
+      assertNull(api.getUser(TOKEN));
+      assertEquals(2, api.calls);
+   }
+
+   @Test
+   public void testExpiry() throws Exception {
+      TestAPI api = new TestAPI(ok("<user id=\"42\"/>"));
+      api.setUserCacheMaxAge(20L);
+      api.getUser(TOKEN);
+      Thread.sleep(50L);
+      api.getUser(TOKEN);
+      assertEquals(2, api.calls);
+   }
+
+   @Test
+   public void testDisabled() {
+      TestAPI api = new TestAPI(ok("<user id=\"42\"/>"));
+      api.setUserCacheSize(0);
+      api.getUser(TOKEN);
+      api.getUser(TOKEN);
+      assertEquals(2, api.calls);
+   }
+
+   @Test
+   public void testFullCacheStartsOver() {
+      TestAPI api = new TestAPI(ok("<user id=\"42\"/>"));
+      api.setUserCacheSize(2);
+      for (int i = 0; i < 3; i++) {
+         api.getUser(new Token("token" + i, "secret"));
+      }
+      assertEquals(3, api.calls);
+      // the third token is still cached; the first was dropped to make room
+      api.getUser(new Token("token2", "secret"));
+      assertEquals(3, api.calls);
+      api.getUser(new Token("token0", "secret"));
+      assertEquals(4, api.calls);
+   }
+
+   private static Response ok(String xml) {
+      return new Response(200, "OK", new ParameterSet(), xml.getBytes(), "text/xml");
+   }
+
+   /**
+    * Answers every request with the same response, without a Client.
+    */
+   private static class TestAPI
+      extends UserDiscoveryAPI {
+
+      final Response response;
+      int calls;
+
+      TestAPI(Response response) {
+         super(null);
+         this.response = response;
+      }
+
+      @Override
+      protected Response getUserResource(ParameterSet parameters,
+                                         Token accessToken) {
+         calls++;
+         return response;
+      }
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
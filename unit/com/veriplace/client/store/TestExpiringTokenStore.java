@@ -0,0 +1,132 @@
+/* Copyright 2008-2009 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.veriplace.oauth.consumer.Token;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link com.veriplace.client.store.ExpiringTokenStore}.
+ */
+public class TestExpiringTokenStore {
+
+   private File spillFile;
+   private ExpiringTokenStore store;
+
+   @Before
+   public void setUp() throws Exception {
+      spillFile = File.createTempFile("tokens", ".spill");
+      spillFile.delete();
+   }
+
+   @After
+   public void tearDown() throws Exception {
+      if (store != null) {
+         store.close();
+      }
+      spillFile.delete();
+      new File(spillFile.getPath() + ".tmp").delete();
+   }
+
+   @Test
+   public void testGetAndRemove() {
+      store = new ExpiringTokenStore(60000L, 10, 0, null);
+      store.add(new Token("foo", "bar"));
+      assertEquals("bar", store.get("foo").getTokenSecret());
+      store.remove(new Token("foo", "bar"));
+      assertNull(store.get("foo"));
+      assertEquals(1, store.getHitCount());
+      assertEquals(1, store.getMissCount());
+   }
+
+   @Test
+   public void testExpiry() throws Exception {
+      store = new ExpiringTokenStore(50L, 10, 0, null);
+      store.add(new Token("foo", "bar"));
+      store.add(new Token("baz", "bar"));
+      Thread.sleep(100L);
+      assertNull(store.get("foo"));
+      assertEquals(1, store.getExpiredCount());
+      assertEquals(1, store.sweep());
+      assertEquals(0, store.size());
+      assertEquals(2, store.getExpiredCount());
+   }
+
+   @Test
+   public void testEvictsClosestToExpiry() {
+      store = new ExpiringTokenStore(60000L, 3, 0, null);
+      for (int i = 0; i < 5; i++) {
+         store.add(new Token("token" + i, "secret"));
+      }
+      assertEquals(3, store.size());
+      assertEquals(2, store.getEvictedCount());
+      assertNull(store.get("token0"));
+      assertNull(store.get("token1"));
+      assertNotNull(store.get("token2"));
+      assertNotNull(store.get("token4"));
+
+      // a token added again is queued again
+      store.add(new Token("token2", "secret"));
+      store.add(new Token("token5", "secret"));
+      assertNull(store.get("token3"));
+      assertNotNull(store.get("token2"));
+   }
+
+   @Test
+   public void testExpiredTokensMakeRoomFirst() throws Exception {
+      store = new ExpiringTokenStore(50L, 2, 0, null);
+      store.add(new Token("foo", "bar"));
+      store.add(new Token("baz", "bar"));
+      Thread.sleep(100L);
+      store.add(new Token("new", "bar"));
+      assertEquals(1, store.size());
+      assertEquals(0, store.getEvictedCount());
+      assertEquals(2, store.getExpiredCount());
+   }
+
+   @Test
+   public void testSpillFileSurvivesRestart() throws Exception {
+      store = new ExpiringTokenStore(60000L, 3, 0, spillFile);
+      for (int i = 0; i < 4; i++) {
+         // apart, so that the reloaded tokens have distinct expiry times
+         Thread.sleep(5L);
+         store.add(new Token("token" + i, "secret" + i));
+      }
+      store.remove(new Token("token2", "secret2"));
+      store.close();
+
+      store = new ExpiringTokenStore(60000L, 3, 0, spillFile);
+      assertEquals(2, store.size());
+      assertNull(store.get("token0"));
+      assertEquals("secret1", store.get("token1").getTokenSecret());
+      assertNull(store.get("token2"));
+      assertEquals("secret3", store.get("token3").getTokenSecret());
+
+      // reloaded tokens are evicted in order of expiry too
+      store.add(new Token("token4", "secret4"));
+      store.add(new Token("token5", "secret5"));
+      assertNull(store.get("token1"));
+      assertNotNull(store.get("token3"));
+   }
+}
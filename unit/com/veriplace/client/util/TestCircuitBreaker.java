@@ -0,0 +1,132 @@
+/* Copyright 2008-2009 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link com.veriplace.client.util.CircuitBreaker}.
+ */
+public class TestCircuitBreaker {
+
+   private static final long WINDOW = 1000L;
+   private static final int MINIMUM_CALLS = 4;
+   private static final long OPEN_TIME = 5000L;
+
+   @Test
+   public void testStaysClosedBelowMinimumCalls() {
+      TestBreaker breaker = new TestBreaker();
+      for (int i = 0; i < MINIMUM_CALLS - 1; i++) {
+         assertTrue(breaker.allowRequest());
+         breaker.recordFailure();
+      }
+      assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+      assertEquals(0, breaker.getRetryDelay());
+   }
+
+   @Test
+   public void testOpensAtFailureRate() {
+      TestBreaker breaker = new TestBreaker();
+      breaker.recordSuccess();
+      breaker.recordSuccess();
+      breaker.recordFailure();
+      assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+      breaker.recordFailure();
+      assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+      assertFalse(breaker.allowRequest());
+      assertEquals(OPEN_TIME, breaker.getRetryDelay());
+
+      breaker.time += OPEN_TIME - 1;
+      assertFalse(breaker.allowRequest());
+      assertEquals(1, breaker.getRetryDelay());
+   }
+
+   @Test
+   public void testOldFailuresLeaveWindow() {
+      TestBreaker breaker = new TestBreaker();
+      breaker.recordFailure();
+      breaker.recordFailure();
+      breaker.recordFailure();
+      breaker.time += 2 * WINDOW;
+      breaker.recordFailure();
+      assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+   }
+
+   @Test
+   public void testHalfOpenProbeCloses() {
+      TestBreaker breaker = openBreaker();
+      breaker.time += OPEN_TIME;
+      assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+      // one probe at a time
+      assertTrue(breaker.allowRequest());
+      assertFalse(breaker.allowRequest());
+      assertEquals(OPEN_TIME, breaker.getRetryDelay());
+
+      breaker.recordSuccess();
+      assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+      assertTrue(breaker.allowRequest());
+      assertTrue(breaker.allowRequest());
+
+      // the failures before opening no longer count
+      breaker.recordFailure();
+      assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+   }
+
+   @Test
+   public void testHalfOpenProbeFailureReopens() {
+      TestBreaker breaker = openBreaker();
+      breaker.time += OPEN_TIME;
+      assertTrue(breaker.allowRequest());
+      breaker.recordFailure();
+      assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+      assertFalse(breaker.allowRequest());
+      assertEquals(OPEN_TIME, breaker.getRetryDelay());
+
+      breaker.time += OPEN_TIME;
+      assertTrue(breaker.allowRequest());
+   }
+
+   private TestBreaker openBreaker() {
+      TestBreaker breaker = new TestBreaker();
+      for (int i = 0; i < MINIMUM_CALLS; i++) {
+         breaker.recordFailure();
+      }
+      assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+      return breaker;
+   }
+
+   /**
+    * A breaker whose clock only moves when told to.
+    */
+   private static class TestBreaker
+         extends CircuitBreaker {
+
+      long time = 100000L;
+
+      TestBreaker() {
+         super("test", WINDOW, MINIMUM_CALLS, 0.5, OPEN_TIME);
+      }
+
+      @Override
+      protected long now() {
+         return time;
+      }
+   }
+}
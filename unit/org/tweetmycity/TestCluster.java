@@ -0,0 +1,122 @@
+/* Copyright 2008 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tweetmycity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link org.tweetmycity.Cluster}.
+ */
+public class TestCluster {
+
+   private File directory;
+   private List<Cluster> clusters = new ArrayList<Cluster>();
+
+   @Before
+   public void setUp() throws Exception {
+      directory = File.createTempFile("cluster", "");
+      directory.delete();
+      directory.mkdir();
+   }
+
+   @After
+   public void tearDown() throws Exception {
+      for (Cluster cluster : clusters) {
+         cluster.close();
+      }
+      for (File file : directory.listFiles()) {
+         file.delete();
+      }
+      directory.delete();
+   }
+
+   @Test
+   public void testSlicesPartitionSubscribers() {
+      List<String> nodes = Arrays.asList("a", "b", "c");
+      List<TmcUser> users = createUsers(300);
+      Set<Long> seen = new HashSet<Long>();
+      for (String node : nodes) {
+         for (TmcUser user : new Cluster(node, nodes).getSlice(users)) {
+            assertTrue("updated twice: " + user.getUserId(), seen.add(user.getUserId()));
+         }
+      }
+      assertEquals(users.size(), seen.size());
+   }
+
+   @Test
+   public void testSingleNodeUpdatesAll() {
+      List<TmcUser> users = createUsers(10);
+      assertEquals(users, new Cluster("a", Arrays.asList("a")).getSlice(users));
+   }
+
+   @Test
+   public void testNonMemberUpdatesNone() {
+      List<TmcUser> users = createUsers(10);
+      assertTrue(new Cluster("z", Arrays.asList("a", "b")).getSlice(users).isEmpty());
+   }
+
+   @Test
+   public void testDirectoryMembership() {
+      Cluster a = join("a");
+      assertEquals(Arrays.asList("a"), a.getMembers());
+      Cluster b = join("b");
+      assertEquals(Arrays.asList("a", "b"), a.getMembers());
+      assertEquals(Arrays.asList("a", "b"), b.getMembers());
+
+      b.close();
+      assertEquals(Arrays.asList("a"), a.getMembers());
+   }
+
+   @Test
+   public void testStaleMemberLeaves() {
+      Cluster a = join("a");
+      join("b");
+      // b stops its heartbeat without removing its file
+      new File(directory, "b" + Cluster.MEMBER_SUFFIX).setLastModified(
+         System.currentTimeMillis() - (Cluster.EXPIRY_HEARTBEATS + 1) * 60000L);
+      assertEquals(Arrays.asList("a"), a.getMembers());
+   }
+
+   @Test(expected=IllegalArgumentException.class)
+   public void testInvalidNodeName() {
+      new Cluster("../a", Arrays.asList("a"));
+   }
+
+   private Cluster join(String node) {
+      Cluster cluster = new Cluster(node, directory, 60000L);
+      clusters.add(cluster);
+      return cluster;
+   }
+
+   private static List<TmcUser> createUsers(int count) {
+      List<TmcUser> users = new ArrayList<TmcUser>();
+      for (int i = 0; i < count; i++) {
+         users.add(new TmcUser(1000L + i, "token", "secret", "phone", null));
+      }
+      return users;
+   }
+}
@@ -0,0 +1,92 @@
+/* Copyright 2008 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tweetmycity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link org.tweetmycity.HashRing}.
+ */
+public class TestHashRing {
+
+   private static final int KEYS = 10000;
+
+   @Test
+   public void testNoNodes() {
+      HashRing ring = new HashRing(Arrays.<String>asList());
+      assertNull(ring.getNode(1L));
+   }
+
+   @Test
+   public void testOrderOfNodesIgnored() {
+      HashRing ring1 = new HashRing(Arrays.asList("a", "b", "c"));
+      HashRing ring2 = new HashRing(Arrays.asList("c", "a", "b", "a"));
+      assertEquals(Arrays.asList("a", "b", "c"), ring2.getNodes());
+      for (long key = 0; key < KEYS; key++) {
+         assertEquals(ring1.getNode(key), ring2.getNode(key));
+      }
+   }
+
+   @Test
+   public void testBalance() {
+      HashRing ring = new HashRing(Arrays.asList("a", "b", "c", "d"));
+      Map<String,Integer> counts = new HashMap<String,Integer>();
+      for (long key = 0; key < KEYS; key++) {
+         String node = ring.getNode(key);
+         counts.put(node, (counts.containsKey(node) ? counts.get(node) : 0) + 1);
+      }
+      assertEquals(4, counts.size());
+      for (int count : counts.values()) {
+         assertTrue("unbalanced: " + counts, count > KEYS / 8 && count < KEYS * 3 / 8);
+      }
+   }
+
+   @Test
+   public void testStableWhenNodeAdded() {
+      HashRing before = new HashRing(Arrays.asList("a", "b", "c"));
+      HashRing after = new HashRing(Arrays.asList("a", "b", "c", "d"));
+      int moved = 0;
+      for (long key = 0; key < KEYS; key++) {
+         String node = after.getNode(key);
+         if (! node.equals(before.getNode(key))) {
+            // only keys taken by the new node move
+            assertEquals("d", node);
+            moved++;
+         }
+      }
+      // about a quarter of the keys move to the new node
+      assertTrue("moved " + moved, moved > KEYS / 8 && moved < KEYS * 3 / 8);
+   }
+
+   @Test
+   public void testStableWhenNodeRemoved() {
+      HashRing before = new HashRing(Arrays.asList("a", "b", "c", "d"));
+      HashRing after = new HashRing(Arrays.asList("a", "b", "c"));
+      for (long key = 0; key < KEYS; key++) {
+         String node = before.getNode(key);
+         if (! node.equals("d")) {
+            assertEquals(node, after.getNode(key));
+         }
+      }
+   }
+}
@@ -0,0 +1,231 @@
+/* Copyright 2008 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tweetmycity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link org.tweetmycity.LeaseManager} and {@link org.tweetmycity.Lease}.
+ */
+public class TestLeaseManager {
+
+   private static final String JOB = "update.a";
+   private static final long DURATION = 300L;
+
+   private File directory;
+   private List<LeaseManager> managers = new ArrayList<LeaseManager>();
+
+   @Before
+   public void setUp() throws Exception {
+      directory = File.createTempFile("leases", "");
+      directory.delete();
+      directory.mkdir();
+   }
+
+   @After
+   public void tearDown() throws Exception {
+      for (LeaseManager manager : managers) {
+         manager.close();
+      }
+      for (File file : directory.listFiles()) {
+         file.delete();
+      }
+      directory.delete();
+   }
+
+   @Test
+   public void testExclusion() {
+      LeaseManager a = createManager("a");
+      LeaseManager b = createManager("b");
+      Lease lease = a.tryAcquire(JOB);
+      assertNotNull(lease);
+      assertTrue(lease.isValid());
+      assertEquals("a", lease.getOwner());
+
+      // neither another node nor another run on the same node may take it
+      assertNull(b.tryAcquire(JOB));
+      assertNull(a.tryAcquire(JOB));
+
+      // other jobs are independent
+      assertNotNull(b.tryAcquire("update.b"));
+   }
+
+   @Test
+   public void testReleaseHandsOver() {
+      LeaseManager a = createManager("a");
+      LeaseManager b = createManager("b");
+      Lease first = a.tryAcquire(JOB);
+      first.release();
+      assertFalse(first.isValid());
+
+      Lease second = b.tryAcquire(JOB);
+      assertNotNull(second);
+      assertEquals(first.getToken() + 1, second.getToken());
+   }
+
+   @Test
+   public void testHeartbeatRenews() throws Exception {
+      LeaseManager a = createManager("a");
+      LeaseManager b = createManager("b");
+      Lease lease = a.tryAcquire(JOB);
+      Thread.sleep(2 * DURATION);
+      assertTrue(lease.isValid());
+      assertNull(b.tryAcquire(JOB));
+   }
+
+   @Test
+   public void testTakeoverAfterExpiry() throws Exception {
+      // a holder that died without releasing its lease
+      writeLease("dead", 5L, System.currentTimeMillis() + DURATION);
+      LeaseManager b = createManager("b");
+      assertNull(b.tryAcquire(JOB));
+
+      Thread.sleep(DURATION + 100L);
+      Lease lease = b.tryAcquire(JOB);
+      assertNotNull(lease);
+      assertEquals(6L, lease.getToken());
+   }
+
+   @Test
+   public void testHolderNoticesTakeover() throws Exception {
+      LeaseManager a = createManager("a");
+      Lease lease = a.tryAcquire(JOB);
+      // someone else was granted the lease, e.g. after this node stalled
+      writeLease("b", lease.getToken() + 1, System.currentTimeMillis() + 10 * DURATION);
+
+      Thread.sleep(DURATION);
+      assertFalse(lease.isValid());
+      // releasing a lost lease leaves the new holder's alone
+      lease.release();
+      assertNull(createManager("c").tryAcquire(JOB));
+   }
+
+   @Test
+   public void testRunExclusive() {
+      final LeaseManager a = createManager("a");
+      final LeaseManager b = createManager("b");
+      final boolean[] ran = new boolean[2];
+      assertTrue(a.runExclusive(JOB, new LeaseManager.Job() {
+            public void run(Lease lease) {
+               ran[0] = true;
+               assertTrue(lease.isValid());
+               assertFalse(b.runExclusive(JOB, new LeaseManager.Job() {
+                     public void run(Lease lease) {
+                        ran[1] = true;
+                     }
+                  }));
+            }
+         }));
+      assertTrue(ran[0]);
+      assertFalse(ran[1]);
+      assertNotNull(b.tryAcquire(JOB));
+   }
+
+   @Test
+   public void testInMemory() {
+      LeaseManager manager = new LeaseManager("a", null, DURATION);
+      managers.add(manager);
+      Lease first = manager.tryAcquire(JOB);
+      assertNotNull(first);
+      assertNull(manager.tryAcquire(JOB));
+      first.release();
+      Lease second = manager.tryAcquire(JOB);
+      assertNotNull(second);
+      assertEquals(first.getToken() + 1, second.getToken());
+   }
+
+   @Test
+   public void testNodesWithoutClusterShareSweepLease() {
+      // two nodes that share only the lease directory must not sweep at once
+      SubscriberUpdater updaterA = new SubscriberUpdater(null);
+      updaterA.setCluster(new Cluster("a"));
+      SubscriberUpdater updaterB = new SubscriberUpdater(null);
+      updaterB.setCluster(new Cluster("b"));
+      assertEquals(SubscriberUpdater.UPDATE_JOB, updaterA.getLeaseName());
+      assertEquals(updaterA.getLeaseName(), updaterB.getLeaseName());
+
+      LeaseManager a = createManager("a");
+      LeaseManager b = createManager("b");
+      Lease lease = a.tryAcquire(updaterA.getLeaseName());
+      assertNotNull(lease);
+      assertNull(b.tryAcquire(updaterB.getLeaseName()));
+      lease.release();
+      assertNotNull(b.tryAcquire(updaterB.getLeaseName()));
+
+      // members of a configured cluster each sweep their own slice
+      updaterA.setCluster(new Cluster("a", Arrays.asList("a", "b")));
+      assertEquals(SubscriberUpdater.UPDATE_JOB + ".a", updaterA.getLeaseName());
+   }
+
+   @Test
+   public void testStoreRefusesSupersededHolder() {
+      UserStore store = new UserStore("tmcuser", directory.getPath());
+      LeaseManager manager = createManager("a");
+      Lease stale = manager.tryAcquire(JOB);
+      stale.release();
+      Lease current = manager.tryAcquire(JOB);
+      assertTrue(current.getToken() > stale.getToken());
+
+      TmcUser user = new TmcUser(7L, "tok", "sec", "phone", "Oakland, CA");
+      assertTrue(store.update(user, current));
+      assertTrue(store.isSuperseded(7L, stale));
+      assertFalse(store.isSuperseded(7L, current));
+
+      // the superseded holder cannot save over the newer city
+      assertFalse(store.update(new TmcUser(7L, "tok", "sec", "phone", "Fresno, CA"), stale));
+      assertEquals("Oakland, CA", store.get(7L).getLastCityState());
+
+      // other jobs have their own tokens, and updates without a lease are not fenced
+      assertFalse(store.isSuperseded(7L, manager.tryAcquire("update.b")));
+      store.update(new TmcUser(7L, "tok", "sec", "phone", "Fresno, CA"));
+      assertEquals("Fresno, CA", store.get(7L).getLastCityState());
+   }
+
+   private LeaseManager createManager(String owner) {
+      LeaseManager manager = new LeaseManager(owner, directory, DURATION);
+      managers.add(manager);
+      return manager;
+   }
+
+   private void writeLease(String owner, long token, long expires) throws Exception {
+      Properties properties = new Properties();
+      properties.setProperty("owner", owner);
+      properties.setProperty("token", Long.toString(token));
+      properties.setProperty("expires", Long.toString(expires));
+      OutputStream out = new FileOutputStream(new File(directory, JOB + LeaseManager.LEASE_SUFFIX));
+      try {
+         properties.store(out, null);
+      }
+      finally {
+         out.close();
+      }
+   }
+}
@@ -0,0 +1,91 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client;
+
+import com.veriplace.oauth.OAuthException;
+import com.veriplace.oauth.message.ParameterSet;
+import com.veriplace.oauth.message.Request;
+import com.veriplace.oauth.message.RequestMethod;
+import com.veriplace.oauth.message.RequestType;
+import com.veriplace.oauth.signature.SignatureMethod;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the HMAC-SHA1 signing that the {@link Client} applies to
+ * every protected resource request.  Each invocation builds and signs a
+ * Get Location request like the one sent by {@link GetLocationAPI}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SigningBenchmark {
+
+   private static final String CONSUMER_KEY = "testapp";
+   private static final String CONSUMER_SECRET = "secret";
+   private static final String ACCESS_TOKEN_VALUE = "okey";
+   private static final String ACCESS_TOKEN_SECRET = "dokey";
+
+   private URL url;
+
+   @Setup
+   public void setUp()
+      throws MalformedURLException {
+      url = new URL("https://veriplace.com/api/1.0/users/999/locations");
+   }
+
+   @Benchmark
+   public Request signProtectedResourceRequest()
+      throws OAuthException {
+      ParameterSet parameters = new ParameterSet();
+      parameters.put("oauth_consumer_key", CONSUMER_KEY);
+      parameters.put("oauth_token", ACCESS_TOKEN_VALUE);
+      parameters.put("oauth_signature_method", "HMAC-SHA1");
+      parameters.put("oauth_timestamp", "1239000000");
+      parameters.put("oauth_nonce", "4572616e48616d6d65724c61686176");
+      parameters.put("oauth_version", "1.0");
+      parameters.put("mode", "area");
+      Request request = new Request(url, RequestMethod.POST,
+                                    RequestType.ProtectedResource, parameters);
+      request.sign(CONSUMER_SECRET, ACCESS_TOKEN_SECRET, SignatureMethod.HMAC_SHA1);
+      return request;
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
@@ -0,0 +1,96 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.factory;
+
+/**
+ * Response documents shared by the factory benchmarks.  They follow the
+ * documents used by the unit tests, scaled up where the size matters.
+ */
+final class BenchData {
+
+   static final String LOCATION_DOCUMENT = "<location id=\"998\">"
+      + "<created>2009-04-01T13:14:15Z</created>"
+      + "<expires>2009-04-08T13:14:15Z</expires>"
+      + "<position>"
+      + "<longitude>103.0</longitude>"
+      + "<latitude>-34.44</latitude>"
+      + "<accuracy>32.50</accuracy>"
+      + "<street></street>"
+      + "<neighborhood></neighborhood>"
+      + "<city></city>"
+      + "<state></state>"
+      + "<postal></postal>"
+      + "<countryCode></countryCode>"
+      + "</position>"
+      + "</location>";
+
+   static final String LOCATION_ADDRESS_DOCUMENT = "<location id=\"998\">"
+      + "<created>2009-04-01T13:14:15Z</created>"
+      + "<expires>2009-04-08T13:14:15Z</expires>"
+      + "<position>"
+      + "<longitude>103.0</longitude>"
+      + "<latitude>-34.44</latitude>"
+      + "<accuracy>32.50</accuracy>"
+      + "<street>123 Main St</street>"
+      + "<neighborhood>Downtown</neighborhood>"
+      + "<city>Anywhere</city>"
+      + "<state>ST</state>"
+      + "<postal>99999</postal>"
+      + "<countryCode>US</countryCode>"
+      + "</position>"
+      + "</location>";
+
+   private BenchData() {
+   }
+
+   /**
+    * Returns a users document, as returned for a permission list, with the
+    * given number of users.
+    */
+   static byte[] usersDocument(int count) {
+      StringBuilder buf = new StringBuilder(32 + count * 24);
+      buf.append("<users>");
+      for (int i = 0; i < count; i++) {
+         buf.append("<user id=\"").append(100000 + i).append("\"/>");
+      }
+      buf.append("</users>");
+      return buf.toString().getBytes();
+   }
+
+   /**
+    * Returns a bulk user discovery response with the given number of users.
+    */
+   static byte[] usersByPIIDocument(int count) {
+      StringBuilder buf = new StringBuilder(32 + count * 64);
+      buf.append("<users>");
+      for (int i = 0; i < count; i++) {
+         buf.append("<user id=\"").append(100000 + i)
+            .append("\" key=\"").append(4155550000L + i)
+            .append("\" keyType=\"mobile\"/>");
+      }
+      buf.append("</users>");
+      return buf.toString().getBytes();
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
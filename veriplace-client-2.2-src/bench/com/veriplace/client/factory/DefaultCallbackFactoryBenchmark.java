@@ -0,0 +1,92 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.factory;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+/**
+ * Benchmarks for {@link DefaultCallbackFactory}, which runs on every request
+ * that goes through the Veriplace web framework.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DefaultCallbackFactoryBenchmark {
+
+   private DefaultCallbackFactory all;
+   private DefaultCallbackFactory excluding;
+   private MockHttpServletRequest request;
+
+   @Setup
+   public void setUp() {
+      all = new DefaultCallbackFactory();
+      excluding = new DefaultCallbackFactory(null, null, null, null,
+                                             new String[] { "session", "debug" });
+      request = new MockHttpServletRequest("GET", "/app/locate/here");
+      request.setServerName("www.example.com");
+      request.setServerPort(8080);
+      request.setContextPath("/app");
+      request.setServletPath("/locate");
+      request.setPathInfo("/here");
+      request.addParameter("action", "update");
+      request.addParameter("city", "Emeryville");
+      request.addParameter("tags", new String[] { "home", "work", "travel" });
+      request.addParameter("session", "abc123");
+      request.addParameter("debug", "true");
+      request.addParameter("oauth_token", "mytoken");
+      request.addParameter("oauth_verifier", "veryfide");
+   }
+
+   @Benchmark
+   public Map<String, String[]> captureParameters() {
+      return all.captureParameters(request);
+   }
+
+   @Benchmark
+   public Map<String, String[]> captureParametersExcluding() {
+      return excluding.captureParameters(request);
+   }
+
+   @Benchmark
+   public String createCallbackUrl() {
+      return all.createCallbackUrl(request, true);
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
@@ -0,0 +1,83 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.factory;
+
+import com.veriplace.client.Location;
+import com.veriplace.client.MalformedResponseException;
+import com.veriplace.client.PositionFailureException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+/**
+ * Benchmarks for {@link LocationFactory#getLocation(Document)}.  The documents
+ * are parsed once up front, so only the decoding is measured; see
+ * {@link DocumentFactoryBenchmark} for the parsing itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocationFactoryBenchmark {
+
+   private LocationFactory factory;
+   private Document position;
+   private Document address;
+
+   @Setup
+   public void setUp() {
+      factory = new LocationFactory();
+      DocumentFactory documentFactory = new DocumentFactory();
+      position = documentFactory.getDocument(BenchData.LOCATION_DOCUMENT.getBytes());
+      address = documentFactory.getDocument(BenchData.LOCATION_ADDRESS_DOCUMENT.getBytes());
+   }
+
+   @Benchmark
+   public Location getLocation()
+      throws PositionFailureException,
+             MalformedResponseException {
+      return factory.getLocation(position);
+   }
+
+   @Benchmark
+   public Location getLocationWithAddress()
+      throws PositionFailureException,
+             MalformedResponseException {
+      return factory.getLocation(address);
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
@@ -0,0 +1,93 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.factory;
+
+import com.veriplace.client.User;
+import com.veriplace.client.UserDiscoveryParameters;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+/**
+ * Benchmarks for {@link UserFactory} on large user and permission lists.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserFactoryBenchmark {
+
+   @Param({"100", "10000"})
+   public int users;
+
+   private UserFactory factory;
+   private Document document;
+   private byte[] piiBytes;
+   private Document piiDocument;
+
+   @Setup
+   public void setUp() {
+      factory = new UserFactory();
+      DocumentFactory documentFactory = new DocumentFactory();
+      document = documentFactory.getDocument(BenchData.usersDocument(users));
+      piiBytes = BenchData.usersByPIIDocument(users);
+      piiDocument = documentFactory.getDocument(piiBytes);
+   }
+
+   @Benchmark
+   public List<User> getUsers() {
+      return factory.getUsers(document);
+   }
+
+   @Benchmark
+   public Map<UserDiscoveryParameters,User> getUsersByPIIDocument() {
+      return factory.getUsersByPII(piiDocument);
+   }
+
+   /**
+    * The streaming parser works from the raw response, so this includes the
+    * parsing that the DOM variant above leaves out.
+    */
+   @Benchmark
+   public Map<UserDiscoveryParameters,User> getUsersByPIIStreaming() {
+      return factory.getUsersByPII(piiBytes);
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
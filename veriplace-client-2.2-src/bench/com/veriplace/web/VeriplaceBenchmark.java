@@ -0,0 +1,101 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.web;
+
+import com.veriplace.client.Client;
+import com.veriplace.client.ConfigurationException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Benchmarks for {@link Veriplace#getCallbackUrl(VeriplaceState)}, which is
+ * called for every redirect to Veriplace.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VeriplaceBenchmark {
+
+   private Veriplace veriplace;
+   private MockHttpServletRequest request;
+   private MockHttpServletResponse response;
+   private VeriplaceState state;
+
+   @Setup
+   public void setUp()
+      throws ConfigurationException {
+      veriplace = new Veriplace(new Client("testapp", "secret"));
+      request = new MockHttpServletRequest("GET", "/app/locate/here");
+      request.setServerName("www.example.com");
+      request.setContextPath("/app");
+      request.setServletPath("/locate");
+      request.setPathInfo("/here");
+      request.addParameter("action", "update");
+      request.addParameter("city", "Emeryville");
+      request.addParameter("tags", new String[] { "home", "work", "travel" });
+      request.addParameter("note", "a value & some characters that need encoding");
+      response = new MockHttpServletResponse();
+      state = newState();
+      veriplace.getCallbackUrl(state);
+   }
+
+   /**
+    * URL construction alone, with the parameters already captured.
+    */
+   @Benchmark
+   public String getCallbackUrl() {
+      return veriplace.getCallbackUrl(state);
+   }
+
+   /**
+    * A first redirect from a new request, including parameter capture.
+    */
+   @Benchmark
+   public String getCallbackUrlNewState() {
+      return veriplace.getCallbackUrl(newState());
+   }
+
+   private VeriplaceState newState() {
+      VeriplaceState newState = new VeriplaceState(veriplace, request, response);
+      newState.captureCallbackParameters(veriplace.getClient().getCallbackFactory());
+      return newState;
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
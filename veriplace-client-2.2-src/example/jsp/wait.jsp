@@ -9,7 +9,37 @@
 	<meta http-equiv="Cache-Control" content="must-revalidate"/>
 	<meta http-equiv="content-type" content="text/html"/>
 	<link rel="stylesheet" href="css/veriplace-example.css"/>
+  <c:choose>
+    <c:when test="${empty veriplace_status}">
   <meta http-equiv="refresh" content="2;url=${veriplace_callback}" >
+    </c:when>
+    <c:otherwise>
+  <noscript><meta http-equiv="refresh" content="2;url=${veriplace_callback}" ></noscript>
+  <%-- Ask the status servlet whether the location request is finished, rather than
+       reloading the whole page; go to the callback URL once, when it is. --%>
+  <script type="text/javascript">
+  //<![CDATA[
+    function veriplacePoll() {
+      var xhr = new XMLHttpRequest();
+      xhr.open("GET", "${veriplace_status}", true);
+      xhr.onreadystatechange = function() {
+        if (xhr.readyState != 4) {
+          return;
+        }
+        if ((xhr.status == 200) && (xhr.responseText.indexOf('"complete":false') >= 0)) {
+          veriplacePoll();
+        }
+        else {
+          window.location.replace("${veriplace_callback}");
+        }
+      };
+      xhr.send(null);
+    }
+    veriplacePoll();
+  //]]>
+  </script>
+    </c:otherwise>
+  </c:choose>
 </head>
 <body>
 
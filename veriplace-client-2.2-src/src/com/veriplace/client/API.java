@@ -15,6 +15,7 @@
 package com.veriplace.client;
 
 import com.veriplace.client.factory.DocumentFactory;
+import com.veriplace.client.util.RemoteCall;
 
 import com.veriplace.oauth.OAuthException;
 import com.veriplace.oauth.consumer.Token;
@@ -118,8 +119,16 @@ public abstract class API {
       try {
          URL url = new URL(authorizationUrl);
          Request request = new Request(url, RequestMethod.GET, RequestType.UserAuthorization, parameters);
-         Response response = client.getConsumer().getClient().getResponse(request, true);
+         RemoteCall call = RemoteCall.begin(RemoteCall.VERIPLACE, url);
+         Response response;
+         try {
+            response = client.getConsumer().getClient().getResponse(request, true);
+         } catch (IOException e) {
+            call.end(RemoteCall.NO_STATUS, RemoteCall.UNKNOWN_BYTES);
+            throw e;
+         }
          int code = response.getCode();
+         call.end(code, response.getBytes() == null ? RemoteCall.UNKNOWN_BYTES : response.getBytes().length);
          
          switch (code) {
             // 302 redirect
@@ -144,21 +153,28 @@ public abstract class API {
                logger.debug("oauth_verifier not found in callback: " + location);
             }
             
+            RemoteCall tokenCall = RemoteCall.begin(RemoteCall.VERIPLACE, RemoteCall.ACCESS_TOKEN);
+            int status = RemoteCall.NO_STATUS;
             try {
                // Attempt to get an access token
                Token token = client.getConsumer().getAccessToken(requestToken, verifier);
+               status = HttpServletResponse.SC_OK;
                if (token == null) {
                   throw new IllegalStateException("Unexpected null result from getAccessToken");
                }
                return token;
             }
             catch (OAuthException e) {
+               status = RemoteCall.statusOf(e);
                logger.debug("Access token was not available; permission denied.");
                // An exception here means an Access Token wasn't available
                // Try granting permission directly for your application in the Privacy Manager
                // There should now be a permission request visible in the sidebar
                throw new VeriplaceOAuthException(e);
             }
+            finally {
+               tokenCall.end(status, RemoteCall.UNKNOWN_BYTES);
+            }
          default:
             logger.info("Unexpected response status code: " + code + " for authorization url: " + authorizationUrl);
             throw new TransportException("Unexpected response code from server");
@@ -18,6 +18,7 @@ import com.veriplace.client.factory.CallbackFactory;
 import com.veriplace.client.factory.DefaultCallbackFactory;
 import com.veriplace.client.store.FileTokenStore;
 import com.veriplace.client.store.TokenStore;
+import com.veriplace.client.util.RemoteCall;
 import com.veriplace.oauth.OAuthException;
 import com.veriplace.oauth.consumer.Consumer;
 import com.veriplace.oauth.consumer.Token;
@@ -36,6 +37,7 @@ import java.security.NoSuchAlgorithmException;
 import java.util.EnumSet;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -288,8 +290,8 @@ public class Client {
          this.requestTokenStore = config.getTokenStore();
       }
 
-      this.userDiscoveryApi = new UserDiscoveryAPI(this);
-      this.getLocationApi = new GetLocationAPI(this, config.getDefaultLocationMode(), config.getLocationFilter());
+      this.userDiscoveryApi = new UserDiscoveryAPI(this, config);
+      this.getLocationApi = new GetLocationAPI(this, config);
       this.setLocationApi = new SetLocationAPI(this);
       this.permissionApi = new PermissionAPI(this);
    }
@@ -326,6 +328,17 @@ public class Client {
    public CallbackFactory getCallbackFactory() {
       return callbackFactory;
    }
+
+   /**
+    * Stops any background threads started by this client's APIs.  Call this when the
+    * application shuts down; see {@link GetLocationAPI#close()} and
+    * {@link UserDiscoveryAPI#close()}.
+    * @since 2.2
+    */
+   public void close() {
+      getLocationApi.close();
+      userDiscoveryApi.close();
+   }
    
    /**
     * Is this request an OAuth callback.
@@ -382,16 +395,22 @@ public class Client {
       String verifier = request.getParameter(Parameter.Verifier.getKey());
 
       Token ret = null;
+      RemoteCall call = RemoteCall.begin(RemoteCall.VERIPLACE, RemoteCall.ACCESS_TOKEN);
+      int status = RemoteCall.NO_STATUS;
       try {
          // exchange for access token
          ret = consumer.getAccessToken(requestToken,verifier);
+         status = HttpServletResponse.SC_OK;
       } catch (OAuthException e) {
+         status = RemoteCall.statusOf(e);
          logger.info("No access token was available for: " + token);
          logger.debug(e,e);
          throw new VeriplaceOAuthException(e);
       } catch (IOException e) {
          logger.info(e,e);
          throw new TransportException(e);
+      } finally {
+         call.end(status, RemoteCall.UNKNOWN_BYTES);
       }
 
       requestTokenStore.remove(requestToken);
@@ -424,20 +443,26 @@ public class Client {
    protected Token getRequestToken(String callback) 
       throws TransportException,
              VeriplaceOAuthException {
+      RemoteCall call = RemoteCall.begin(RemoteCall.VERIPLACE, RemoteCall.REQUEST_TOKEN);
+      int status = RemoteCall.NO_STATUS;
       try {
          Token requestToken = 
             consumer.getRevision() == Revision.Core1_0 ?
             consumer.getRequestToken() :
             consumer.getRequestToken(callback);
+         status = HttpServletResponse.SC_OK;
 
          requestTokenStore.add(requestToken);
          return requestToken;
       } catch (OAuthException e) {
+         status = RemoteCall.statusOf(e);
          logger.info(e,e);
          throw new VeriplaceOAuthException(e);
       } catch (IOException e) {
          logger.info(e,e);
          throw new TransportException(e);
+      } finally {
+         call.end(status, RemoteCall.UNKNOWN_BYTES);
       }
    }
 
@@ -517,6 +542,9 @@ public class Client {
          throw new TransportException(e);
       }
 
+      RemoteCall call = RemoteCall.begin(RemoteCall.VERIPLACE, url);
+      int status = RemoteCall.NO_STATUS;
+      long bytes = RemoteCall.UNKNOWN_BYTES;
       try {
          Response response = consumer.getProtectedResource(url,
                                                            requestMethod,
@@ -524,12 +552,19 @@ public class Client {
                                                            accessToken,
                                                            timeout,
                                                            SignatureMethod.HMAC_SHA1);
+         status = response.getCode();
+         if (response.getBytes() != null) {
+            bytes = response.getBytes().length;
+         }
          if (! response.isOk()) {
             throw new OAuthException(response.getCode(), response.getReasonPhrase());
          }
          return response;
       }
       catch (OAuthException e) {
+         if (status == RemoteCall.NO_STATUS) {
+            status = RemoteCall.statusOf(e);
+         }
          logger.info("Unable to obtain resource for access token: " + accessToken == null ? null : accessToken.getToken());
          logger.info(e.getMessage());
          logger.debug(e,e);
@@ -539,6 +574,9 @@ public class Client {
          logger.info(e,e);
          throw new TransportException(e);
       }
+      finally {
+         call.end(status, bytes);
+      }
    }
    
    /*** Accessors used by API implementations within this package ***/
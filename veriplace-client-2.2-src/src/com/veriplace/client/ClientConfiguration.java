@@ -20,6 +20,8 @@ import com.veriplace.client.store.TokenStore;
 import com.veriplace.oauth.consumer.Token;
 import com.veriplace.oauth.message.Revision;
 
+import java.util.concurrent.ExecutorService;
+
 /**
  * Encapsulates the various properties that can be configured for a Veriplace
  * {@link Client}.
@@ -41,6 +43,42 @@ public class ClientConfiguration {
     * The default OAuth protocol version.
     */
    public static final Revision DEFAULT_PROTOCOL = Revision.Core1_0RevA;
+
+   /**
+    * The default number of threads used for asynchronous API requests: 8
+    * @since 2.2
+    */
+   public static final int DEFAULT_ASYNC_POOL_SIZE = 8;
+
+   /**
+    * The default number of asynchronous API requests that can wait for a thread: 100
+    * @since 2.2
+    */
+   public static final int DEFAULT_ASYNC_QUEUE_SIZE = 100;
+
+   /**
+    * The default number of discovered users cached by access token: 1000
+    * @since 2.2
+    */
+   public static final int DEFAULT_USER_CACHE_SIZE = 1000;
+
+   /**
+    * The default time in milliseconds to cache a discovered user: 300000 (five minutes)
+    * @since 2.2
+    */
+   public static final long DEFAULT_USER_CACHE_MAX_AGE = 300000L;
+
+   /**
+    * The default number of identifying parameters sent in each bulk user discovery request: 100
+    * @since 2.2
+    */
+   public static final int DEFAULT_USER_DISCOVERY_CHUNK_SIZE = 100;
+
+   /**
+    * The default number of bulk user discovery requests sent in parallel: 4
+    * @since 2.2
+    */
+   public static final int DEFAULT_USER_DISCOVERY_PARALLELISM = 4;
    
    private String consumerKey;
    private String consumerSecret;
@@ -57,6 +95,16 @@ public class ClientConfiguration {
    private String defaultLocationMode;
    private LocationFilter locationFilter;
    private TokenStore tokenStore;
+   private Integer asyncPoolSize;
+   private Integer asyncQueueSize;
+   private ExecutorService asyncExecutor;
+   private Integer locationCacheSize;
+   private Long locationCacheMaxAge;
+   private Integer userCacheSize;
+   private Long userCacheMaxAge;
+   private Integer userDiscoveryChunkSize;
+   private Integer userDiscoveryParallelism;
+   private HedgePolicy hedgePolicy;
    
    /**
     * See {@link #setConsumerKey(String)}.
@@ -248,6 +296,196 @@ public class ClientConfiguration {
       this.tokenStore = tokenStore;
    }
    
+   /**
+    * See {@link #setAsyncPoolSize(Integer)}.
+    * @since 2.2
+    */
+   public Integer getAsyncPoolSize() {
+      return asyncPoolSize;
+   }
+   
+   /**
+    * Specifies the number of threads used to run asynchronous API requests, such as
+    * {@link GetLocationAPI#getLocationAsync}.  Requests beyond this number are queued rather
+    * than given threads of their own (see {@link #setAsyncQueueSize(Integer)}).  If not specified, this defaults to
+    * {@link #DEFAULT_ASYNC_POOL_SIZE}.  Ignored if {@link #setAsyncExecutor(ExecutorService)}
+    * is used.
+    * @since 2.2
+    */
+   public void setAsyncPoolSize(Integer asyncPoolSize) {
+      this.asyncPoolSize = asyncPoolSize;
+   }
+   
+   /**
+    * See {@link #setAsyncQueueSize(Integer)}.
+    * @since 2.2
+    */
+   public Integer getAsyncQueueSize() {
+      return asyncQueueSize;
+   }
+   
+   /**
+    * Specifies the number of asynchronous API requests that can wait for a thread.  Once
+    * all threads are busy and the queue is full, further requests fail immediately with a
+    * {@link ServerBusyException}.  If not specified, this defaults to
+    * {@link #DEFAULT_ASYNC_QUEUE_SIZE}.  Ignored if {@link #setAsyncExecutor(ExecutorService)}
+    * is used.
+    * @since 2.2
+    */
+   public void setAsyncQueueSize(Integer asyncQueueSize) {
+      this.asyncQueueSize = asyncQueueSize;
+   }
+   
+   /**
+    * See {@link #setAsyncExecutor(ExecutorService)}.
+    * @since 2.2
+    */
+   public ExecutorService getAsyncExecutor() {
+      return asyncExecutor;
+   }
+   
+   /**
+    * Specifies an executor to run asynchronous API requests, if you want to share or manage
+    * the threads yourself.  By default, the client creates a bounded pool of daemon threads
+    * on first use.
+    * @since 2.2
+    */
+   public void setAsyncExecutor(ExecutorService asyncExecutor) {
+      this.asyncExecutor = asyncExecutor;
+   }
+   
+   /**
+    * See {@link #setLocationCacheSize(Integer)}.
+    * @since 2.2
+    */
+   public Integer getLocationCacheSize() {
+      return locationCacheSize;
+   }
+   
+   /**
+    * Specifies the maximum number of locations that {@link GetLocationAPI} should cache.
+    * If set, a location obtained for a user, mode and access token is returned again for the
+    * same user, mode and token until its {@link Location#getExpirationDate() expiration date},
+    * without another server request.  If not specified, or zero, locations are not cached.
+    * See {@link com.veriplace.client.store.LocationCache}.
+    * @since 2.2
+    */
+   public void setLocationCacheSize(Integer locationCacheSize) {
+      this.locationCacheSize = locationCacheSize;
+   }
+   
+   /**
+    * See {@link #setLocationCacheMaxAge(Long)}.
+    * @since 2.2
+    */
+   public Long getLocationCacheMaxAge() {
+      return locationCacheMaxAge;
+   }
+   
+   /**
+    * Specifies the maximum time, in milliseconds, that a cached location is served, if it
+    * should be shorter than the location's expiration date.  Only used if
+    * {@link #setLocationCacheSize(Integer)} is set.
+    * @since 2.2
+    */
+   public void setLocationCacheMaxAge(Long locationCacheMaxAge) {
+      this.locationCacheMaxAge = locationCacheMaxAge;
+   }
+   
+   /**
+    * See {@link #setUserCacheSize(Integer)}.
+    * @since 2.2
+    */
+   public Integer getUserCacheSize() {
+      return userCacheSize;
+   }
+   
+   /**
+    * Specifies the maximum number of users that {@link UserDiscoveryAPI#getUser(Token)}
+    * should cache by access token, so that a repeated callback with the same token (such
+    * as a page reload) does not require another server request.  Tokens that did not
+    * identify a user are cached too.  If not specified, this defaults to
+    * {@link #DEFAULT_USER_CACHE_SIZE}; zero disables the cache.
+    * See {@link com.veriplace.client.store.UserCache}.
+    * @since 2.2
+    */
+   public void setUserCacheSize(Integer userCacheSize) {
+      this.userCacheSize = userCacheSize;
+   }
+   
+   /**
+    * See {@link #setUserCacheMaxAge(Long)}.
+    * @since 2.2
+    */
+   public Long getUserCacheMaxAge() {
+      return userCacheMaxAge;
+   }
+   
+   /**
+    * Specifies the time, in milliseconds, that a discovered user is cached.  If not specified,
+    * this defaults to {@link #DEFAULT_USER_CACHE_MAX_AGE}.
+    * @since 2.2
+    */
+   public void setUserCacheMaxAge(Long userCacheMaxAge) {
+      this.userCacheMaxAge = userCacheMaxAge;
+   }
+   
+   /**
+    * See {@link #setUserDiscoveryChunkSize(Integer)}.
+    * @since 2.2
+    */
+   public Integer getUserDiscoveryChunkSize() {
+      return userDiscoveryChunkSize;
+   }
+   
+   /**
+    * Specifies the maximum number of identifying parameters that
+    * {@link UserDiscoveryAPI#getUsersByParameters(java.util.List)} sends in a single request.
+    * Longer lists are split into several requests.  If not specified, this defaults to
+    * {@link #DEFAULT_USER_DISCOVERY_CHUNK_SIZE}.
+    * @since 2.2
+    */
+   public void setUserDiscoveryChunkSize(Integer userDiscoveryChunkSize) {
+      this.userDiscoveryChunkSize = userDiscoveryChunkSize;
+   }
+   
+   /**
+    * See {@link #setUserDiscoveryParallelism(Integer)}.
+    * @since 2.2
+    */
+   public Integer getUserDiscoveryParallelism() {
+      return userDiscoveryParallelism;
+   }
+   
+   /**
+    * Specifies the maximum number of requests that a single call to
+    * {@link UserDiscoveryAPI#getUsersByParameters(java.util.List)} sends at once, including
+    * the one made on the calling thread.  If not specified, this defaults to
+    * {@link #DEFAULT_USER_DISCOVERY_PARALLELISM}.  The other requests run on the executor
+    * given by {@link #setAsyncExecutor(ExecutorService)}, if any, or else on a pool of this size.
+    * @since 2.2
+    */
+   public void setUserDiscoveryParallelism(Integer userDiscoveryParallelism) {
+      this.userDiscoveryParallelism = userDiscoveryParallelism;
+   }
+   
+   /**
+    * See {@link #setHedgePolicy(HedgePolicy)}.
+    * @since 2.2
+    */
+   public HedgePolicy getHedgePolicy() {
+      return hedgePolicy;
+   }
+   
+   /**
+    * Specifies a policy for hedging slow location requests with a second request in a
+    * cheaper mode; see {@link HedgePolicy}.  If not specified, requests are not hedged.
+    * @since 2.2
+    */
+   public void setHedgePolicy(HedgePolicy hedgePolicy) {
+      this.hedgePolicy = hedgePolicy;
+   }
+   
    /**
     * Default constructor that initializes no properties.
     */
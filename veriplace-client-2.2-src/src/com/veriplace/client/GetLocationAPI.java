@@ -16,6 +16,11 @@ package com.veriplace.client;
 
 import com.veriplace.client.factory.LocationFactory;
 import com.veriplace.client.factory.UserFactory;
+import com.veriplace.client.store.LocationCache;
+import com.veriplace.client.util.BoundedExecutor;
+import com.veriplace.client.util.NamedThreadFactory;
+import com.veriplace.client.util.ResultCallback;
+import com.veriplace.client.util.ResultFuture;
 import com.veriplace.oauth.consumer.Token;
 import com.veriplace.oauth.message.ParameterSet;
 import com.veriplace.oauth.message.RequestMethod;
@@ -27,7 +32,16 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.w3c.dom.Document;
 
+import java.net.SocketTimeoutException;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Interface for obtaining a user's location from Veriplace.
@@ -58,6 +72,17 @@ import java.util.List;
  *   }
  * }
  * </pre>
+ * <p>
+ * Location requests can take tens of seconds if a fresh network fix is required.  Callers
+ * that should not block for that long can use {@link #getLocationAsync}, which runs the
+ * request on a small shared pool of threads and returns a {@link ResultFuture}.
+ * <p>
+ * Concurrent requests to locate the same user in the same mode are coalesced into a
+ * single server request, whose result is delivered to every caller.  Results can also be
+ * cached until they expire; see {@link ClientConfiguration#setLocationCacheSize(Integer)}.
+ * <p>
+ * Slow requests for a fresh fix can be hedged with a second request in a cheaper mode,
+ * the first usable answer winning; see {@link ClientConfiguration#setHedgePolicy(HedgePolicy)}.
  */
 public class GetLocationAPI
    extends API {
@@ -71,6 +96,16 @@ public class GetLocationAPI
    protected final UserFactory userFactory = new UserFactory();
    protected final String defaultLocationMode;
    protected final LocationFilter locationFilter;
+   protected final int asyncPoolSize;
+   protected final int asyncQueueSize;
+   protected final LocationCache locationCache;
+   protected final HedgePolicy hedgePolicy;
+   private ExecutorService asyncExecutor;
+   private boolean ownsAsyncExecutor;
+   private ScheduledExecutorService hedgeScheduler;
+   private boolean closed;
+   private final ConcurrentMap<String, ResultFuture<Location>> pendingRequests =
+         new ConcurrentHashMap<String, ResultFuture<Location>>();
    
    public GetLocationAPI(Client client,
                          String defaultLocationMode,
@@ -78,6 +113,33 @@ public class GetLocationAPI
       super(client);
       this.defaultLocationMode = defaultLocationMode;
       this.locationFilter = locationFilter;
+      this.asyncPoolSize = ClientConfiguration.DEFAULT_ASYNC_POOL_SIZE;
+      this.asyncQueueSize = ClientConfiguration.DEFAULT_ASYNC_QUEUE_SIZE;
+      this.locationCache = null;
+      this.hedgePolicy = null;
+   }
+
+   /**
+    * @since 2.2
+    */
+   public GetLocationAPI(Client client,
+                         ClientConfiguration config) {
+      super(client);
+      this.defaultLocationMode = config.getDefaultLocationMode();
+      this.locationFilter = config.getLocationFilter();
+      this.asyncPoolSize = (config.getAsyncPoolSize() == null) ?
+            ClientConfiguration.DEFAULT_ASYNC_POOL_SIZE : config.getAsyncPoolSize();
+      this.asyncQueueSize = (config.getAsyncQueueSize() == null) ?
+            ClientConfiguration.DEFAULT_ASYNC_QUEUE_SIZE : config.getAsyncQueueSize();
+      this.asyncExecutor = config.getAsyncExecutor();
+      if ((config.getLocationCacheSize() != null) && (config.getLocationCacheSize() > 0)) {
+         this.locationCache = new LocationCache(config.getLocationCacheSize(),
+                                                config.getLocationCacheMaxAge());
+      }
+      else {
+         this.locationCache = null;
+      }
+      this.hedgePolicy = config.getHedgePolicy();
    }
 
    /**
@@ -146,6 +208,11 @@ public class GetLocationAPI
 
    /**
     * Get a user's location.
+    * <p>
+    * If a request for the same user, mode and access token is already in progress,
+    * whether synchronous or {@link #getLocationAsync asynchronous}, this call waits for
+    * that request and returns its result instead of sending a second request to the
+    * server.
     * @param accessToken the access token permitting the user to be located
     * @param user the user
     * @param mode the location request mode; see {@link com.veriplace.client.LocationMode}
@@ -159,14 +226,203 @@ public class GetLocationAPI
                                String mode,
                                Integer timeout)
          throws GetLocationException, UnexpectedException {
-      ParameterSet parameters = new ParameterSet();
-      if (mode != null) {
-         parameters.put("mode",mode);
+
+      String key = getRequestKey(accessToken,user,mode);
+      Location cached = getCachedLocation(key,user,mode);
+      if (cached != null) {
+         return cached;
       }
 
-      APIInfo info = APIInfo.post(getURI(user));
+      ResultFuture<Location> future = new ResultFuture<Location>();
+      ResultFuture<Location> pending = pendingRequests.putIfAbsent(key,future);
+      if (pending != null) {
+         logger.debug("Joining location request in progress for user: " + user.getId() + ", mode: " + mode);
+         return joinLocation(pending,timeout);
+      }
+
+      Location location;
+      try {
+         if (isHedged(mode)) {
+            location = getLocationHedged(accessToken,user,mode,timeout);
+         }
+         else {
+            location = requestLocation(accessToken,user,mode,timeout);
+         }
+      }
+      catch (GetLocationException e) {
+         finishRequest(key,future,null,e);
+         throw e;
+      }
+      catch (UnexpectedException e) {
+         finishRequest(key,future,null,e);
+         throw e;
+      }
+      catch (RuntimeException e) {
+         finishRequest(key,future,null,new UnexpectedException(e));
+         throw e;
+      }
+      catch (Error e) {
+         finishRequest(key,future,null,new UnexpectedException(e));
+         throw e;
+      }
+      finishRequest(key,future,location,null);
+      return location;
+   }
 
-      return doGetLocation(info,parameters,accessToken,user,timeout,true);
+   /**
+    * Get the policy for hedging slow location requests, if one was configured with
+    * {@link ClientConfiguration#setHedgePolicy(HedgePolicy)}.
+    * @return the policy, or null if requests are not hedged
+    * @since 2.2
+    */
+   public HedgePolicy getHedgePolicy() {
+      return hedgePolicy;
+   }
+
+   /**
+    * Get the cache of recently obtained locations, if caching was enabled with
+    * {@link ClientConfiguration#setLocationCacheSize(Integer)}.
+    * @return the cache, or null if locations are not cached
+    * @since 2.2
+    */
+   public LocationCache getLocationCache() {
+      return locationCache;
+   }
+
+   /**
+    * Get a user's location without blocking the calling thread.
+    * @param accessToken the access token permitting the user to be located
+    * @param user the user
+    * @return a future that will receive the user's location, or the exception that
+    *   {@link #getLocation(Token, User)} would have thrown
+    * @since 2.2
+    */
+   public ResultFuture<Location> getLocationAsync(Token accessToken,
+                                                  User user) {
+      return getLocationAsync(accessToken,user,defaultLocationMode,NO_TIMEOUT);
+   }
+
+   /**
+    * Get a user's location without blocking the calling thread.
+    * <p>
+    * The request is queued on this API's asynchronous executor (see
+    * {@link ClientConfiguration#setAsyncPoolSize(Integer)}), so the number of threads
+    * does not grow with the number of outstanding requests.  Use
+    * {@link ResultFuture#addCallback} to be notified when the location is available.
+    * <p>
+    * As with {@link #getLocation(Token, User, String, Integer)}, concurrent requests for
+    * the same user, mode and access token share a single server request.  Each caller receives its own
+    * future, so cancelling one does not affect the others.
+    * @param accessToken the access token permitting the user to be located
+    * @param user the user
+    * @param mode the location request mode; see {@link com.veriplace.client.LocationMode}
+    * @param timeout timeout in milliseconds, if any
+    * @return a future that will receive the user's location, or the exception that
+    *   {@link #getLocation(Token, User, String, Integer)} would have thrown
+    * @since 2.2
+    */
+   public ResultFuture<Location> getLocationAsync(final Token accessToken,
+                                                  final User user,
+                                                  final String mode,
+                                                  final Integer timeout) {
+      final String key = getRequestKey(accessToken,user,mode);
+      final ResultFuture<Location> future = new ResultFuture<Location>();
+      Location cached = getCachedLocation(key,user,mode);
+      if (cached != null) {
+         future.setResult(cached);
+         return future;
+      }
+
+      ResultFuture<Location> pending = pendingRequests.putIfAbsent(key,future);
+      if (pending != null) {
+         logger.debug("Joining location request in progress for user: " + user.getId() + ", mode: " + mode);
+         return pending.share();
+      }
+
+      try {
+         if (isHedged(mode)) {
+            requestLocationHedged(accessToken,user,mode,timeout)
+               .addCallback(new ResultCallback<Location>() {
+                  public void onSuccess(Location location) {
+                     finishRequest(key,future,location,null);
+                  }
+                  public void onFailure(VeriplaceException exception) {
+                     finishRequest(key,future,null,exception);
+                  }
+               });
+         }
+         else {
+            getAsyncExecutor().execute(new Runnable() {
+               public void run() {
+                  try {
+                     finishRequest(key,future,requestLocation(accessToken,user,mode,timeout),null);
+                  }
+                  catch (VeriplaceException e) {
+                     finishRequest(key,future,null,e);
+                  }
+                  catch (Throwable t) {
+                     logger.warn(t,t);
+                     finishRequest(key,future,null,new UnexpectedException(t));
+                  }
+               }
+            });
+         }
+      }
+      catch (RejectedExecutionException e) {
+         logger.warn("Asynchronous location request rejected for user: " + user.getId());
+         pendingRequests.remove(key,future);
+         future.setException(new ServerBusyException(e));
+      }
+      return future.share();
+   }
+
+   /**
+    * Get the executor used for {@link #getLocationAsync}, creating the default
+    * {@link BoundedExecutor} on first use.
+    * @throws RejectedExecutionException  if the default executor is needed after {@link #close()}
+    * @since 2.2
+    */
+   public synchronized ExecutorService getAsyncExecutor() {
+      if (asyncExecutor == null) {
+         if (closed) {
+            throw new RejectedExecutionException("GetLocationAPI has been closed");
+         }
+         asyncExecutor = new BoundedExecutor(asyncPoolSize, asyncQueueSize, "veriplace-location");
+         ownsAsyncExecutor = true;
+      }
+      return asyncExecutor;
+   }
+
+   /**
+    * Get the scheduler that starts hedge requests, creating it on first use.
+    */
+   private synchronized ScheduledExecutorService getHedgeScheduler() {
+      if (hedgeScheduler == null) {
+         if (closed) {
+            throw new RejectedExecutionException("GetLocationAPI has been closed");
+         }
+         hedgeScheduler =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("veriplace-hedge"));
+      }
+      return hedgeScheduler;
+   }
+
+   /**
+    * Stops the threads of the default asynchronous executor and of the hedge scheduler,
+    * so that they do not outlive the application.  Requests that are already running
+    * are allowed to finish; later asynchronous requests complete with a
+    * {@link ServerBusyException}.  An executor given by
+    * {@link ClientConfiguration#setAsyncExecutor(ExecutorService)} is left to its owner.
+    * @since 2.2
+    */
+   public synchronized void close() {
+      closed = true;
+      if (ownsAsyncExecutor) {
+         asyncExecutor.shutdown();
+      }
+      if (hedgeScheduler != null) {
+         hedgeScheduler.shutdownNow();
+      }
    }
 
    /**
@@ -349,6 +605,292 @@ public class GetLocationAPI
       }
    }
 
+   /**
+    * Sends a location request to the server, without coalescing.
+    */
+   protected Location requestLocation(Token accessToken,
+                                      User user,
+                                      String mode,
+                                      Integer timeout)
+         throws GetLocationException, UnexpectedException {
+      ParameterSet parameters = new ParameterSet();
+      if (mode != null) {
+         parameters.put("mode",mode);
+      }
+
+      APIInfo info = APIInfo.post(getURI(user));
+
+      Location location = doGetLocation(info,parameters,accessToken,user,timeout,true);
+      if (locationCache != null) {
+         locationCache.put(getRequestKey(accessToken,user,mode),location);
+      }
+      return location;
+   }
+
+   /**
+    * Sends a location request to the server on the asynchronous executor, hedging it
+    * with a request in the {@link HedgePolicy#getHedgeMode() hedge mode} if it is slow.
+    * The returned future receives the first usable location, or if neither request
+    * yields one, the outcome of the original request.
+    * @throws RejectedExecutionException  if the executor cannot accept the request
+    */
+   protected ResultFuture<Location> requestLocationHedged(final Token accessToken,
+                                                          final User user,
+                                                          final String mode,
+                                                          final Integer timeout) {
+      final HedgedRequest hedged = new HedgedRequest();
+      getAsyncExecutor().execute(new Runnable() {
+         public void run() {
+            long start = System.nanoTime();
+            try {
+               Location location = requestLocation(accessToken,user,mode,timeout);
+               hedgePolicy.record((System.nanoTime() - start) / 1000000L);
+               hedged.primaryFinished(location,null);
+            }
+            catch (VeriplaceException e) {
+               hedged.primaryFinished(null,e);
+            }
+            catch (Throwable t) {
+               logger.warn(t,t);
+               hedged.primaryFinished(null,new UnexpectedException(t));
+            }
+         }
+      });
+
+      long delay = hedgePolicy.getDelay();
+      if (delay >= 0) {
+         final ScheduledFuture<?> timer;
+         try {
+            timer = getHedgeScheduler().schedule(new Runnable() {
+               public void run() {
+                  startHedge(hedged,accessToken,user,timeout);
+               }
+            }, delay, TimeUnit.MILLISECONDS);
+         }
+         catch (RejectedExecutionException e) {
+            // closed while the primary request was being queued; it runs unhedged
+            return hedged.result;
+         }
+         hedged.result.addCallback(new ResultCallback<Location>() {
+            public void onSuccess(Location location) {
+               timer.cancel(false);
+            }
+            public void onFailure(VeriplaceException exception) {
+               timer.cancel(false);
+            }
+         });
+      }
+      return hedged.result;
+   }
+
+   private void startHedge(final HedgedRequest hedged,
+                           final Token accessToken,
+                           final User user,
+                           final Integer timeout) {
+      if (! hedged.startHedge()) {
+         return;
+      }
+      logger.debug("Hedging slow location request for user: " + user.getId());
+      hedgePolicy.hedged();
+      try {
+         getAsyncExecutor().execute(new Runnable() {
+            public void run() {
+               Location location = null;
+               try {
+                  location = requestLocation(accessToken,user,hedgePolicy.getHedgeMode(),timeout);
+               }
+               catch (VeriplaceException e) {
+                  logger.debug("Hedge location request failed: " + e);
+               }
+               catch (Throwable t) {
+                  logger.warn(t,t);
+               }
+               hedged.hedgeFinished(location);
+            }
+         });
+      }
+      catch (RejectedExecutionException e) {
+         logger.debug("Hedge location request rejected for user: " + user.getId());
+         hedged.hedgeFinished(null);
+      }
+   }
+
+   /**
+    * Gets a location with a hedged request, waiting on the calling thread.  If the
+    * executor is too busy, the request is sent without hedging instead.
+    */
+   private Location getLocationHedged(Token accessToken,
+                                      User user,
+                                      String mode,
+                                      Integer timeout)
+         throws GetLocationException, UnexpectedException {
+      ResultFuture<Location> hedged;
+      try {
+         hedged = requestLocationHedged(accessToken,user,mode,timeout);
+      }
+      catch (RejectedExecutionException e) {
+         return requestLocation(accessToken,user,mode,timeout);
+      }
+      return joinLocation(hedged,timeout);
+   }
+
+   private boolean isHedged(String mode) {
+      return (hedgePolicy != null) && hedgePolicy.appliesTo(mode);
+   }
+
+   /**
+    * Tracks the original request and the hedge request that make up a hedged request.
+    */
+   private class HedgedRequest {
+
+      final ResultFuture<Location> result = new ResultFuture<Location>();
+
+      private boolean finished;
+      private boolean hedgeStarted;
+      private boolean hedgeFinished;
+      private boolean primaryFinished;
+      private VeriplaceException primaryException;
+
+      /**
+       * @return true if the hedge request should be sent
+       */
+      synchronized boolean startHedge() {
+         if (finished || primaryFinished) {
+            return false;
+         }
+         hedgeStarted = true;
+         return true;
+      }
+
+      void primaryFinished(Location location, VeriplaceException exception) {
+         synchronized (this) {
+            primaryFinished = true;
+            primaryException = exception;
+            if ((exception != null) && hedgeStarted && ! hedgeFinished) {
+               // the hedge may still succeed
+               return;
+            }
+            if (! finish()) {
+               return;
+            }
+         }
+         complete(location,exception);
+      }
+
+      void hedgeFinished(Location location) {
+         boolean usable = hedgePolicy.isUsable(location);
+         VeriplaceException exception;
+         synchronized (this) {
+            hedgeFinished = true;
+            exception = primaryException;
+            if (! (usable || (exception != null)) || ! finish()) {
+               return;
+            }
+         }
+         if (usable) {
+            hedgePolicy.hedgeWon();
+            complete(location,null);
+         }
+         else {
+            complete(null,exception);
+         }
+      }
+
+      /**
+       * Decides the outcome once, so that the hedge is only counted as a win if its
+       * location is the one delivered.
+       */
+      private boolean finish() {
+         if (finished) {
+            return false;
+         }
+         finished = true;
+         return true;
+      }
+
+      private void complete(Location location, VeriplaceException exception) {
+         if (exception != null) {
+            result.setException(exception);
+         }
+         else {
+            result.setResult(location);
+         }
+      }
+   }
+
+   private Location getCachedLocation(String key, User user, String mode) {
+      if (locationCache == null) {
+         return null;
+      }
+      Location location = locationCache.get(key);
+      if (location != null) {
+         logger.debug("Using cached location for user: " + user.getId() + ", mode: " + mode);
+      }
+      return location;
+   }
+
+   /**
+    * Reports the outcome of a location request to everyone sharing it.  The request stops
+    * accepting new callers first, so that a caller reacting to the outcome (for instance, by
+    * retrying with a new access token) starts a new request instead of joining this one.
+    */
+   private void finishRequest(String key,
+                              ResultFuture<Location> future,
+                              Location location,
+                              VeriplaceException exception) {
+      pendingRequests.remove(key,future);
+      if (exception != null) {
+         future.setException(exception);
+      }
+      else {
+         future.setResult(location);
+      }
+   }
+
+   /**
+    * Waits for a location request that was started by another caller.
+    */
+   private Location joinLocation(ResultFuture<Location> pending,
+                                 Integer timeout)
+         throws GetLocationException, UnexpectedException {
+      if (timeout != null) {
+         try {
+            if (! pending.waitForCompletion(timeout)) {
+               throw new TransportException(
+                     new SocketTimeoutException("Timed out waiting for location request"));
+            }
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnexpectedException(e);
+         }
+      }
+      try {
+         return pending.getResult();
+      }
+      catch (GetLocationException e) {
+         throw e;
+      }
+      catch (UnexpectedException e) {
+         throw e;
+      }
+      catch (VeriplaceException e) {
+         throw new UnexpectedException(e);
+      }
+   }
+
+   /**
+    * Identifies equivalent location requests, for coalescing and caching.  Requests are
+    * considered equivalent if they locate the same user in the same mode with the same
+    * access token.  The token is part of the key because the outcome depends on it: a
+    * caller whose token has been revoked must not receive a location obtained with
+    * another token, and a caller with a valid token must not receive another token's
+    * {@link GetLocationNotPermittedException}.
+    */
+   protected String getRequestKey(Token accessToken, User user, String mode) {
+      return user.getId() + ":" + mode + ":" + accessToken.getToken();
+   }
+
    @Override
    protected String getURI(User user) {
       return client.getServerDirectUri() + 
@@ -0,0 +1,192 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when {@link GetLocationAPI} should hedge a slow location request.
+ * <p>
+ * A request for a fresh fix ({@link LocationMode#ZOOM} or {@link LocationMode#AREA}) can
+ * take tens of seconds, and a few take much longer than the rest.  With a hedge policy
+ * configured (see {@link ClientConfiguration#setHedgePolicy(HedgePolicy)}), a request
+ * that has not been answered within the given percentile of recent request times is
+ * joined by a second request in a cheaper mode, {@link LocationMode#FREEDOM} by default,
+ * and the caller receives whichever {@link #isUsable usable} location arrives first.
+ * <p>
+ * The policy remembers the times of the last {@link #SAMPLES} successful requests.  No
+ * requests are hedged until it has seen at least {@link #MIN_SAMPLES}.
+ * @since 2.2
+ */
+public class HedgePolicy {
+
+   /**
+    * The default percentile of recent request times after which a request is hedged: 95
+    */
+   public static final double DEFAULT_PERCENTILE = 95;
+
+   /**
+    * The default shortest time in milliseconds to wait before hedging a request: 1000
+    */
+   public static final long DEFAULT_MIN_DELAY = 1000L;
+
+   /**
+    * The number of recent request times kept: 256
+    */
+   public static final int SAMPLES = 256;
+
+   /**
+    * The number of request times needed before requests are hedged: 20
+    */
+   public static final int MIN_SAMPLES = 20;
+
+   private final double percentile;
+   private final String hedgeMode;
+   private final long minDelay;
+
+   private final long[] samples = new long[SAMPLES];
+   private int sampleCount;
+   private int nextSample;
+
+   private final AtomicLong hedgeCount = new AtomicLong();
+   private final AtomicLong hedgeWinCount = new AtomicLong();
+
+   /**
+    * Create a policy that hedges with {@link LocationMode#FREEDOM} requests after the
+    * {@link #DEFAULT_PERCENTILE default percentile} of recent request times.
+    */
+   public HedgePolicy() {
+      this(DEFAULT_PERCENTILE, LocationMode.FREEDOM, DEFAULT_MIN_DELAY);
+   }
+
+   /**
+    * @param percentile  percentile of recent request times after which a request is
+    *   hedged, greater than 0 and at most 100
+    * @param hedgeMode  the location mode of the hedge request
+    * @param minDelay  the shortest time in milliseconds to wait before hedging
+    */
+   public HedgePolicy(double percentile,
+                      String hedgeMode,
+                      long minDelay) {
+      if (! (percentile > 0 && percentile <= 100) || (hedgeMode == null) || (minDelay < 0)) {
+         throw new IllegalArgumentException("Invalid hedge policy");
+      }
+      this.percentile = percentile;
+      this.hedgeMode = hedgeMode;
+      this.minDelay = minDelay;
+   }
+
+   public double getPercentile() {
+      return percentile;
+   }
+
+   public String getHedgeMode() {
+      return hedgeMode;
+   }
+
+   public long getMinDelay() {
+      return minDelay;
+   }
+
+   /**
+    * Returns true if requests in the given mode should be hedged.  Requests already
+    * in the hedge mode are not.
+    * @param mode  the location mode, or null for the server's default
+    */
+   public boolean appliesTo(String mode) {
+      return ! hedgeMode.equals(mode);
+   }
+
+   /**
+    * Returns true if a location returned by a hedge request may be used in place of
+    * the original request's.  By default, any location that has not expired is usable.
+    */
+   public boolean isUsable(Location location) {
+      if (location == null) {
+         return false;
+      }
+      Date expires = location.getExpirationDate();
+      return (expires == null) || (expires.getTime() > System.currentTimeMillis());
+   }
+
+   /**
+    * Record the time taken by a successful request that was not in the hedge mode.
+    * @param millis  the time in milliseconds
+    */
+   public synchronized void record(long millis) {
+      samples[nextSample] = millis;
+      nextSample = (nextSample + 1) % SAMPLES;
+      if (sampleCount < SAMPLES) {
+         sampleCount++;
+      }
+   }
+
+   /**
+    * Returns the time in milliseconds to wait before hedging a request, or -1 if
+    * requests should not be hedged yet.
+    */
+   public long getDelay() {
+      long[] sorted;
+      synchronized (this) {
+         if (sampleCount < MIN_SAMPLES) {
+            return -1;
+         }
+         sorted = new long[sampleCount];
+         System.arraycopy(samples, 0, sorted, 0, sampleCount);
+      }
+      Arrays.sort(sorted);
+      int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+      return Math.max(minDelay, sorted[Math.max(0, index)]);
+   }
+
+   /**
+    * Returns the number of hedge requests sent.
+    */
+   public long getHedgeCount() {
+      return hedgeCount.get();
+   }
+
+   /**
+    * Returns the number of hedge requests whose location was used.
+    */
+   public long getHedgeWinCount() {
+      return hedgeWinCount.get();
+   }
+
+   void hedged() {
+      hedgeCount.incrementAndGet();
+   }
+
+   void hedgeWon() {
+      hedgeWinCount.incrementAndGet();
+   }
+
+   @Override
+   public String toString() {
+      return "HedgePolicy[p" + percentile + " " + hedgeMode + " min=" + minDelay + "ms]";
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
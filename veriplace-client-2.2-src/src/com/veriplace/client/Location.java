@@ -14,6 +14,7 @@
  */
 package com.veriplace.client;
 
+import java.io.Serializable;
 import java.util.Date;
 
 /**
@@ -33,7 +34,10 @@ import java.util.Date;
  * if the location represents a recent or a cached position; the latter should be
  * used to delete expired data as per the <u>Developer Terms of the Service</u>.
  */
-public class Location {
+public class Location
+      implements Serializable {
+
+   private static final long serialVersionUID = 1L;
 
    private final Long id;
 
@@ -0,0 +1,47 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client;
+
+/**
+ * Thrown, or stored as the result of a background request, when the client has
+ * too many requests outstanding to accept another one.  This is a temporary
+ * condition; the end user should be invited to try again shortly.  Status views
+ * can map it with the key "error.ServerBusy" (see
+ * {@link com.veriplace.web.views.AbstractStatusViewRenderer#setViewMap}).
+ * @since 2.2
+ */
+public class ServerBusyException extends UnexpectedException {
+
+   public ServerBusyException(String message) {
+      this(message, null);
+   }
+
+   public ServerBusyException(Throwable cause) {
+      this(null, cause);
+   }
+
+   public ServerBusyException(String message, Throwable cause) {
+      super(message, cause);
+   }
+}
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
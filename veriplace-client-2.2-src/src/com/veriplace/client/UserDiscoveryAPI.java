@@ -15,6 +15,8 @@
 package com.veriplace.client;
 
 import com.veriplace.client.factory.UserFactory;
+import com.veriplace.client.store.UserCache;
+import com.veriplace.client.util.BoundedExecutor;
 import com.veriplace.oauth.consumer.Token;
 import com.veriplace.oauth.message.ParameterSet;
 import com.veriplace.oauth.message.RequestMethod;
@@ -26,9 +28,17 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.w3c.dom.Document;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Interface for obtaining user identity information from Veriplace.
@@ -74,9 +84,41 @@ public class UserDiscoveryAPI
    public static final String OPENID = "openid";
 
    protected final UserFactory userFactory = new UserFactory();
+   protected final UserCache userCache;
+   protected final int chunkSize;
+   protected final int parallelism;
+   private ExecutorService bulkExecutor;
+   private boolean ownsBulkExecutor;
+   private boolean closed;
    
    public UserDiscoveryAPI(Client client) {
       super(client);
+      this.userCache = null;
+      this.chunkSize = ClientConfiguration.DEFAULT_USER_DISCOVERY_CHUNK_SIZE;
+      this.parallelism = ClientConfiguration.DEFAULT_USER_DISCOVERY_PARALLELISM;
+   }
+
+   /**
+    * @since 2.2
+    */
+   public UserDiscoveryAPI(Client client,
+                           ClientConfiguration config) {
+      super(client);
+      int cacheSize = (config.getUserCacheSize() == null) ?
+            ClientConfiguration.DEFAULT_USER_CACHE_SIZE : config.getUserCacheSize();
+      long cacheMaxAge = (config.getUserCacheMaxAge() == null) ?
+            ClientConfiguration.DEFAULT_USER_CACHE_MAX_AGE : config.getUserCacheMaxAge();
+      if ((cacheSize > 0) && (cacheMaxAge > 0)) {
+         this.userCache = new UserCache(cacheSize, cacheMaxAge);
+      }
+      else {
+         this.userCache = null;
+      }
+      this.chunkSize = Math.max(1, (config.getUserDiscoveryChunkSize() == null) ?
+            ClientConfiguration.DEFAULT_USER_DISCOVERY_CHUNK_SIZE : config.getUserDiscoveryChunkSize());
+      this.parallelism = Math.max(1, (config.getUserDiscoveryParallelism() == null) ?
+            ClientConfiguration.DEFAULT_USER_DISCOVERY_PARALLELISM : config.getUserDiscoveryParallelism());
+      this.bulkExecutor = config.getAsyncExecutor();
    }
 
    /**
@@ -151,6 +193,10 @@ public class UserDiscoveryAPI
 
    /**
     * Find an enrolled user by supplying a one-time Access Token.
+    * <p>
+    * The result, or a {@link UserNotFoundException}, is cached for the same token (see
+    * {@link ClientConfiguration#setUserCacheSize(Integer)}), so repeating a callback does
+    * not repeat the server request.
     * @param accessToken the access token permitting the user to be discovered
     * @return the user or null if none
     * @throws UserDiscoveryException  if the server refused the user discovery request
@@ -160,13 +206,44 @@ public class UserDiscoveryAPI
       throws UserDiscoveryException, 
              UnexpectedException {
       
+      String key = (userCache == null) ? null : accessToken.getToken();
+      if (key != null) {
+         User cached = userCache.get(key);
+         if (cached != null) {
+            logger.debug("Using cached user for access token");
+            return cached;
+         }
+      }
+
       ParameterSet parameters = new ParameterSet();
 
       APIInfo info = APIInfo.get(getURI(null));
 
-      return doGetUser(info,
-                       parameters,
-                       accessToken);
+      User user;
+      try {
+         user = doGetUser(info,
+                          parameters,
+                          accessToken);
+      }
+      catch (UserNotFoundException e) {
+         if (key != null) {
+            userCache.putNotFound(key);
+         }
+         throw e;
+      }
+      if ((key != null) && (user != null)) {
+         userCache.put(key, user);
+      }
+      return user;
+   }
+
+   /**
+    * Get the cache of users discovered by access token.
+    * @return the cache, or null if users are not cached
+    * @since 2.2
+    */
+   public UserCache getUserCache() {
+      return userCache;
    }
 
    /**
@@ -174,6 +251,12 @@ public class UserDiscoveryAPI
     * in {@link UserDiscoveryParameters}.
     * <p>
     * This request uses the application-specific Access Token.
+    * <p>
+    * Long lists are split into requests of at most
+    * {@link ClientConfiguration#setUserDiscoveryChunkSize(Integer) chunk size} parameters each,
+    * several of which are sent in parallel (see
+    * {@link ClientConfiguration#setUserDiscoveryParallelism(Integer)}); the results are merged
+    * in the order of the list.  If any request fails, the whole call fails.
     * @param list a list of {@link UserDiscoveryParameters} object
     * @throws UserDiscoveryException  if the server refused the user discovery request
     * @throws UnexpectedException  if there was an unexpected I/O error or OAuth error
@@ -189,24 +272,27 @@ public class UserDiscoveryAPI
          throw new UnexpectedException("Application token must be configured");
       }
 
-      ParameterSet parameters = new ParameterSet();
-      APIInfo info = APIInfo.get(getURI(null));
-      int count = 0;
+      List<UserDiscoveryParameters> specified = new ArrayList<UserDiscoveryParameters>(list.size());
       for (UserDiscoveryParameters udp: list) {
          if (udp.isSpecified()) {
-            addParameters(udp, parameters);
-            count++;
+            specified.add(udp);
          }
       }
-      if (count == 0) {
+      APIInfo info = APIInfo.get(getURI(null));
+      if (specified.size() == 0) {
          return Collections.emptyMap();
       }
-      if (count == 1) {
-         return Collections.singletonMap(list.get(0),
+      if (specified.size() == 1) {
+         ParameterSet parameters = new ParameterSet();
+         addParameters(specified.get(0), parameters);
+         return Collections.singletonMap(specified.get(0),
                doGetUser(info, parameters, client.getApplicationToken()));
       }
+      if (specified.size() <= chunkSize) {
+         return doGetUsersByPII(info,specified,0,specified.size());
+      }
 
-      return doGetUsersByPII(info,parameters,client.getApplicationToken(),NO_TIMEOUT);
+      return doGetUsersInChunks(info,specified);
    }
    
 
@@ -260,8 +346,7 @@ public class UserDiscoveryAPI
       try {
          Response response = 
             client.getProtectedResource(info,parameters,client.getApplicationToken(),timeout);
-         Document document = documentFactory.getDocument(response.getBytes());
-         return userFactory.getUsersByPII(document);
+         return userFactory.getUsersByPII(response.getBytes());
       }
       catch (VeriplaceOAuthException e) {
          switch (e.getCode()) {
@@ -280,6 +365,130 @@ public class UserDiscoveryAPI
          USER_DISCOVERY_PATH;
    }
    
+   /**
+    * Retrieve the users for part of a list of identifying parameters.
+    */
+   private Map<UserDiscoveryParameters,User> doGetUsersByPII(APIInfo info,
+                                                             List<UserDiscoveryParameters> list,
+                                                             int start,
+                                                             int end)
+      throws UserDiscoveryException, 
+             UnexpectedException {
+      ParameterSet parameters = new ParameterSet();
+      for (int i = start; i < end; i++) {
+         addParameters(list.get(i), parameters);
+      }
+      return doGetUsersByPII(info,parameters,client.getApplicationToken(),NO_TIMEOUT);
+   }
+
+   /**
+    * Retrieve the users for a long list of identifying parameters, one chunk at a time.  Up to
+    * {@link #parallelism} workers take chunks in turn; the calling thread is always one of them,
+    * so the call completes even if no pool threads are available, and no more than that many
+    * responses are held in memory before being merged.
+    */
+   private Map<UserDiscoveryParameters,User> doGetUsersInChunks(final APIInfo info,
+                                                                final List<UserDiscoveryParameters> list)
+      throws UserDiscoveryException, 
+             UnexpectedException {
+
+      final int chunks = (list.size() + chunkSize - 1) / chunkSize;
+      final AtomicReferenceArray<Map<UserDiscoveryParameters,User>> results =
+            new AtomicReferenceArray<Map<UserDiscoveryParameters,User>>(chunks);
+      final AtomicInteger nextChunk = new AtomicInteger();
+      final AtomicReference<VeriplaceException> failure = new AtomicReference<VeriplaceException>();
+      int workers = Math.min(parallelism, chunks);
+      final CountDownLatch finished = new CountDownLatch(workers);
+
+      Runnable worker = new Runnable() {
+         public void run() {
+            try {
+               int chunk;
+               while ((failure.get() == null) && ((chunk = nextChunk.getAndIncrement()) < chunks)) {
+                  int start = chunk * chunkSize;
+                  int end = Math.min(list.size(), start + chunkSize);
+                  results.set(chunk, doGetUsersByPII(info,list,start,end));
+               }
+            }
+            catch (VeriplaceException e) {
+               failure.compareAndSet(null, e);
+            }
+            catch (Throwable t) {
+               logger.warn(t,t);
+               failure.compareAndSet(null, new UnexpectedException(t));
+            }
+            finally {
+               finished.countDown();
+            }
+         }
+      };
+
+      for (int i = 1; i < workers; i++) {
+         try {
+            getBulkExecutor().execute(worker);
+         }
+         catch (RejectedExecutionException e) {
+            // The remaining workers will take this worker's share of the chunks
+            finished.countDown();
+         }
+      }
+      worker.run();
+      try {
+         finished.await();
+      }
+      catch (InterruptedException e) {
+         failure.compareAndSet(null, new UnexpectedException(e));
+         Thread.currentThread().interrupt();
+      }
+
+      VeriplaceException e = failure.get();
+      if (e instanceof UserDiscoveryException) {
+         throw (UserDiscoveryException) e;
+      }
+      if (e instanceof UnexpectedException) {
+         throw (UnexpectedException) e;
+      }
+      if (e != null) {
+         throw new UnexpectedException(e);
+      }
+
+      Map<UserDiscoveryParameters,User> users = new LinkedHashMap<UserDiscoveryParameters,User>();
+      for (int i = 0; i < chunks; i++) {
+         users.putAll(results.get(i));
+      }
+      return users;
+   }
+
+   /**
+    * Get the executor used for parallel bulk user discovery requests.  This is the
+    * {@link ClientConfiguration#setAsyncExecutor(ExecutorService) configured executor}, if any,
+    * or else a small pool that is created on first use.
+    * @throws RejectedExecutionException  if the pool is needed after {@link #close()}
+    * @since 2.2
+    */
+   public synchronized ExecutorService getBulkExecutor() {
+      if (bulkExecutor == null) {
+         if (closed) {
+            throw new RejectedExecutionException("UserDiscoveryAPI has been closed");
+         }
+         bulkExecutor = new BoundedExecutor(parallelism, parallelism, "veriplace-user-discovery");
+         ownsBulkExecutor = true;
+      }
+      return bulkExecutor;
+   }
+
+   /**
+    * Stops the threads of the bulk discovery pool, if this API created it.  Bulk requests
+    * made afterwards run on the calling thread.
+    * @since 2.2
+    */
+   public synchronized void close() {
+      closed = true;
+      if (ownsBulkExecutor) {
+         bulkExecutor.shutdown();
+      }
+   }
+
    private void addParameters(UserDiscoveryParameters udp, ParameterSet p) {
       if (udp.getPhone() != null) {
          p.put(MOBILE, udp.getPhone());
@@ -15,10 +15,12 @@
 package com.veriplace.client.factory;
 
 import java.util.Enumeration;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -49,11 +51,15 @@ import javax.servlet.http.HttpServletRequest;
  */
 public class DefaultCallbackFactory implements CallbackFactory {
 
+   private static final int MAX_CACHED_PREFIXES = 64;
+
    private final String overrideServerName;
    private final Integer overrideServerPort;
    private final String overridePath;
    private final Set<String> includeParameters;
    private final Set<String> excludeParameters;
+   private final ConcurrentMap<PrefixKey, String> prefixes =
+         new ConcurrentHashMap<PrefixKey, String>();
    
    /**
     * Constructs a DefaultCallbackFactory with no overridden properties.
@@ -198,41 +204,28 @@ public class DefaultCallbackFactory implements CallbackFactory {
    }
 
    public String createCallbackUrl(HttpServletRequest request, boolean includePath) {
-      String host = (overrideServerName != null) ? overrideServerName : request.getServerName();
-      int port = (overrideServerPort != null) ? overrideServerPort : request.getServerPort();
-      StringBuilder callback = new StringBuilder();
-      callback.append(request.getScheme());
-      callback.append("://");
-      callback.append(host);
-      if (port != 80 && port != 443) {
-         callback.append(":");
-         callback.append(port);
-      }
-      if (includePath) {
-         if (overridePath != null) {
-            callback.append(overridePath);
-         }
-         else {
-            callback.append(request.getContextPath());
-            callback.append(request.getServletPath());
-            String subpath = request.getPathInfo();
-            if ((subpath != null) && !subpath.equals("")) {
-               if (! subpath.startsWith("/")) {
-                  callback.append('/');
-               }
-               callback.append(subpath);
+      String prefix = getCallbackPrefix(request, includePath);
+      if (includePath && (overridePath == null)) {
+         String subpath = request.getPathInfo();
+         if ((subpath != null) && !subpath.equals("")) {
+            StringBuilder callback = new StringBuilder(prefix.length() + subpath.length() + 1);
+            callback.append(prefix);
+            if (! subpath.startsWith("/")) {
+               callback.append('/');
             }
+            callback.append(subpath);
+            return callback.toString();
          }
       }
-      return callback.toString();
+      return prefix;
    }
 
    public Map<String, String[]> captureParameters(HttpServletRequest request) {
-      Map<String, String[]> ret = new HashMap<String, String[]>();
+      Map<String, String[]> ret = new LinkedHashMap<String, String[]>();
       Enumeration<?> names = request.getParameterNames();
       while (names.hasMoreElements()) {
          String name = (String) names.nextElement();
-         if (name.startsWith("oauth_") || name.startsWith("veriplace_")) {
+         if (isVeriplaceParameter(name)) {
             // don't automatically copy parameters generated by Veriplace
             continue;
          }
@@ -249,4 +242,114 @@ public class DefaultCallbackFactory implements CallbackFactory {
       }
       return ret;
    }
+
+   /**
+    * Returns the scheme, host, port, and (if includePath is true) servlet path portion of
+    * the callback URL.  These are the same for every request to a given servlet mapping, so
+    * they are only built once.  The host name comes from the client, so the cache is
+    * emptied whenever it fills up; lookups take no lock.
+    */
+   private String getCallbackPrefix(HttpServletRequest request, boolean includePath) {
+      String host = (overrideServerName != null) ? overrideServerName : request.getServerName();
+      int port = (overrideServerPort != null) ? overrideServerPort : request.getServerPort();
+      String contextPath = null;
+      String servletPath = null;
+      if (includePath && (overridePath == null)) {
+         contextPath = request.getContextPath();
+         servletPath = request.getServletPath();
+      }
+      PrefixKey key = new PrefixKey(request.getScheme(), host, port, includePath,
+                                    contextPath, servletPath);
+      String prefix = prefixes.get(key);
+      if (prefix != null) {
+         return prefix;
+      }
+
+      StringBuilder callback = new StringBuilder();
+      callback.append(key.scheme);
+      callback.append("://");
+      callback.append(host);
+      if (port != 80 && port != 443) {
+         callback.append(":");
+         callback.append(port);
+      }
+      if (includePath) {
+         if (overridePath != null) {
+            callback.append(overridePath);
+         }
+         else {
+            callback.append(contextPath);
+            callback.append(servletPath);
+         }
+      }
+      prefix = callback.toString();
+      if (prefixes.size() >= MAX_CACHED_PREFIXES) {
+         prefixes.clear();
+      }
+      prefixes.put(key, prefix);
+      return prefix;
+   }
+
+   private static boolean isVeriplaceParameter(String name) {
+      if (name.length() > 0) {
+         switch (name.charAt(0)) {
+         case 'o':
+            return name.startsWith("oauth_");
+         case 'v':
+            return name.startsWith("veriplace_");
+         }
+      }
+      return false;
+   }
+
+   private static final class PrefixKey {
+      final String scheme;
+      final String host;
+      final int port;
+      final boolean includePath;
+      final String contextPath;
+      final String servletPath;
+      final int hash;
+
+      PrefixKey(String scheme, String host, int port, boolean includePath,
+                String contextPath, String servletPath) {
+         this.scheme = scheme;
+         this.host = host;
+         this.port = port;
+         this.includePath = includePath;
+         this.contextPath = contextPath;
+         this.servletPath = servletPath;
+         int h = hashOf(scheme);
+         h = 31 * h + hashOf(host);
+         h = 31 * h + port;
+         h = 31 * h + (includePath ? 1 : 0);
+         h = 31 * h + hashOf(contextPath);
+         h = 31 * h + hashOf(servletPath);
+         this.hash = h;
+      }
+
+      @Override
+      public int hashCode() {
+         return hash;
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         if (! (o instanceof PrefixKey)) {
+            return false;
+         }
+         PrefixKey k = (PrefixKey) o;
+         return (hash == k.hash) && (port == k.port) && (includePath == k.includePath)
+            && equal(scheme, k.scheme) && equal(host, k.host)
+            && equal(contextPath, k.contextPath) && equal(servletPath, k.servletPath);
+      }
+
+      private static int hashOf(String s) {
+         return (s == null) ? 0 : s.hashCode();
+      }
+
+      private static boolean equal(String a, String b) {
+         return (a == null) ? (b == null) : a.equals(b);
+      }
+   }
 }
@@ -18,6 +18,8 @@ import com.veriplace.client.Client;
 import com.veriplace.client.ClientConfiguration;
 import com.veriplace.client.ConfigurationException;
 import com.veriplace.client.DefaultLocationFilter;
+import com.veriplace.client.HedgePolicy;
+import com.veriplace.client.LocationMode;
 import com.veriplace.client.store.TokenStore;
 import com.veriplace.client.store.MemoryTokenStore;
 import com.veriplace.client.store.FileTokenStore;
@@ -258,6 +260,96 @@ public class DefaultClientFactory
    public static final String USE_LAST_KNOWN_LOCATION =
    		"veriplace.application.location.use-last-known";
    
+   /**
+    * The property key for specifying the number of threads used for asynchronous API requests:
+    * "veriplace.client.async.pool-size". If not specified, defaults to
+    * {@link ClientConfiguration#DEFAULT_ASYNC_POOL_SIZE}.
+    * @since 2.2
+    */
+   public static final String ASYNC_POOL_SIZE = "veriplace.client.async.pool-size";
+
+   /**
+    * The property key for specifying the number of asynchronous API requests that can wait
+    * for a thread: "veriplace.client.async.queue-size". If not specified, defaults to
+    * {@link ClientConfiguration#DEFAULT_ASYNC_QUEUE_SIZE}.
+    * @since 2.2
+    */
+   public static final String ASYNC_QUEUE_SIZE = "veriplace.client.async.queue-size";
+
+   /**
+    * The property key for specifying the maximum number of locations to cache:
+    * "veriplace.client.location-cache.size". If not specified, locations are not cached.
+    * See {@link ClientConfiguration#setLocationCacheSize(Integer)}.
+    * @since 2.2
+    */
+   public static final String LOCATION_CACHE_SIZE = "veriplace.client.location-cache.size";
+
+   /**
+    * The property key for specifying the maximum time in milliseconds to serve a cached
+    * location: "veriplace.client.location-cache.max-age".
+    * See {@link ClientConfiguration#setLocationCacheMaxAge(Long)}.
+    * @since 2.2
+    */
+   public static final String LOCATION_CACHE_MAX_AGE = "veriplace.client.location-cache.max-age";
+
+   /**
+    * The property key for specifying the maximum number of discovered users to cache:
+    * "veriplace.client.user-cache.size". If not specified, defaults to
+    * {@link ClientConfiguration#DEFAULT_USER_CACHE_SIZE}.
+    * See {@link ClientConfiguration#setUserCacheSize(Integer)}.
+    * @since 2.2
+    */
+   public static final String USER_CACHE_SIZE = "veriplace.client.user-cache.size";
+
+   /**
+    * The property key for specifying the time in milliseconds to cache a discovered user:
+    * "veriplace.client.user-cache.max-age".
+    * See {@link ClientConfiguration#setUserCacheMaxAge(Long)}.
+    * @since 2.2
+    */
+   public static final String USER_CACHE_MAX_AGE = "veriplace.client.user-cache.max-age";
+
+   /**
+    * The property key for specifying the number of identifying parameters in each bulk user
+    * discovery request: "veriplace.client.user-discovery.chunk-size". If not specified, defaults
+    * to {@link ClientConfiguration#DEFAULT_USER_DISCOVERY_CHUNK_SIZE}.
+    * @since 2.2
+    */
+   public static final String USER_DISCOVERY_CHUNK_SIZE = "veriplace.client.user-discovery.chunk-size";
+
+   /**
+    * The property key for specifying the number of bulk user discovery requests sent in
+    * parallel: "veriplace.client.user-discovery.parallelism". If not specified, defaults to
+    * {@link ClientConfiguration#DEFAULT_USER_DISCOVERY_PARALLELISM}.
+    * @since 2.2
+    */
+   public static final String USER_DISCOVERY_PARALLELISM = "veriplace.client.user-discovery.parallelism";
+
+   /**
+    * The property key for enabling hedged location requests:
+    * "veriplace.client.hedge.percentile".  A location request that takes longer than this
+    * percentile of recent request times is hedged with a second request; see
+    * {@link com.veriplace.client.HedgePolicy}.  If not specified, requests are not hedged.
+    * @since 2.2
+    */
+   public static final String HEDGE_PERCENTILE = "veriplace.client.hedge.percentile";
+
+   /**
+    * The property key for specifying the location mode of hedge requests:
+    * "veriplace.client.hedge.mode".  If not specified, defaults to
+    * {@link com.veriplace.client.LocationMode#FREEDOM}.
+    * @since 2.2
+    */
+   public static final String HEDGE_MODE = "veriplace.client.hedge.mode";
+
+   /**
+    * The property key for specifying the shortest time in milliseconds to wait before
+    * hedging a location request: "veriplace.client.hedge.min-delay".  If not specified,
+    * defaults to {@link com.veriplace.client.HedgePolicy#DEFAULT_MIN_DELAY}.
+    * @since 2.2
+    */
+   public static final String HEDGE_MIN_DELAY = "veriplace.client.hedge.min-delay";
+
    private static final Log logger = LogFactory.getLog(ClientFactory.class);
 
    protected final Properties properties;
@@ -306,6 +398,14 @@ public class DefaultClientFactory
     * <li>{@link #CALLBACK_EXCLUDE_PARAMETERS}</li>
     * <li>{@link #DEFAULT_LOCATION_MODE}</li>
     * <li>{@link #USE_LAST_KNOWN_LOCATION}</li>
+    * <li>{@link #ASYNC_POOL_SIZE}</li>
+    * <li>{@link #ASYNC_QUEUE_SIZE}</li>
+    * <li>{@link #LOCATION_CACHE_SIZE}</li>
+    * <li>{@link #LOCATION_CACHE_MAX_AGE}</li>
+    * <li>{@link #USER_CACHE_SIZE}</li>
+    * <li>{@link #USER_CACHE_MAX_AGE}</li>
+    * <li>{@link #USER_DISCOVERY_CHUNK_SIZE}</li>
+    * <li>{@link #USER_DISCOVERY_PARALLELISM}</li>
     * </ul>
     */
    public DefaultClientFactory(Properties properties)
@@ -458,6 +558,102 @@ public class DefaultClientFactory
          config.setLocationFilter(new DefaultLocationFilter(useLastKnown));
       }
 
+      // Asynchronous request pool size (optional)
+      String asyncPoolSizeStr = getString(ASYNC_POOL_SIZE);
+      if (asyncPoolSizeStr != null) {
+         try {
+            config.setAsyncPoolSize(Integer.parseInt(asyncPoolSizeStr));
+         }
+         catch (NumberFormatException e) {
+            logger.warn("Invalid value found for optional property: " + ASYNC_POOL_SIZE);
+         }
+      }
+      String asyncQueueSizeStr = getString(ASYNC_QUEUE_SIZE);
+      if (asyncQueueSizeStr != null) {
+         try {
+            config.setAsyncQueueSize(Integer.parseInt(asyncQueueSizeStr));
+         }
+         catch (NumberFormatException e) {
+            logger.warn("Invalid value found for optional property: " + ASYNC_QUEUE_SIZE);
+         }
+      }
+
+      // Location cache (optional)
+      String locationCacheSizeStr = getString(LOCATION_CACHE_SIZE);
+      if (locationCacheSizeStr != null) {
+         try {
+            config.setLocationCacheSize(Integer.parseInt(locationCacheSizeStr));
+         }
+         catch (NumberFormatException e) {
+            logger.warn("Invalid value found for optional property: " + LOCATION_CACHE_SIZE);
+         }
+      }
+      String locationCacheMaxAgeStr = getString(LOCATION_CACHE_MAX_AGE);
+      if (locationCacheMaxAgeStr != null) {
+         try {
+            config.setLocationCacheMaxAge(Long.parseLong(locationCacheMaxAgeStr));
+         }
+         catch (NumberFormatException e) {
+            logger.warn("Invalid value found for optional property: " + LOCATION_CACHE_MAX_AGE);
+         }
+      }
+
+      // User cache (optional)
+      String userCacheSizeStr = getString(USER_CACHE_SIZE);
+      if (userCacheSizeStr != null) {
+         try {
+            config.setUserCacheSize(Integer.parseInt(userCacheSizeStr));
+         }
+         catch (NumberFormatException e) {
+            logger.warn("Invalid value found for optional property: " + USER_CACHE_SIZE);
+         }
+      }
+      String userCacheMaxAgeStr = getString(USER_CACHE_MAX_AGE);
+      if (userCacheMaxAgeStr != null) {
+         try {
+            config.setUserCacheMaxAge(Long.parseLong(userCacheMaxAgeStr));
+         }
+         catch (NumberFormatException e) {
+            logger.warn("Invalid value found for optional property: " + USER_CACHE_MAX_AGE);
+         }
+      }
+
+      // Bulk user discovery (optional)
+      String userDiscoveryChunkSizeStr = getString(USER_DISCOVERY_CHUNK_SIZE);
+      if (userDiscoveryChunkSizeStr != null) {
+         try {
+            config.setUserDiscoveryChunkSize(Integer.parseInt(userDiscoveryChunkSizeStr));
+         }
+         catch (NumberFormatException e) {
+            logger.warn("Invalid value found for optional property: " + USER_DISCOVERY_CHUNK_SIZE);
+         }
+      }
+      String userDiscoveryParallelismStr = getString(USER_DISCOVERY_PARALLELISM);
+      if (userDiscoveryParallelismStr != null) {
+         try {
+            config.setUserDiscoveryParallelism(Integer.parseInt(userDiscoveryParallelismStr));
+         }
+         catch (NumberFormatException e) {
+            logger.warn("Invalid value found for optional property: " + USER_DISCOVERY_PARALLELISM);
+         }
+      }
+
+      // Hedged location requests (optional)
+      String hedgePercentileStr = getString(HEDGE_PERCENTILE);
+      if (hedgePercentileStr != null) {
+         String hedgeMode = getString(HEDGE_MODE);
+         String hedgeMinDelayStr = getString(HEDGE_MIN_DELAY);
+         try {
+            config.setHedgePolicy(new HedgePolicy(Double.parseDouble(hedgePercentileStr),
+                  (hedgeMode == null) ? LocationMode.FREEDOM : hedgeMode,
+                  (hedgeMinDelayStr == null) ?
+                        HedgePolicy.DEFAULT_MIN_DELAY : Long.parseLong(hedgeMinDelayStr)));
+         }
+         catch (IllegalArgumentException e) {
+            logger.warn("Invalid value found for optional property: " + HEDGE_PERCENTILE);
+         }
+      }
+
       return config;
    }
 
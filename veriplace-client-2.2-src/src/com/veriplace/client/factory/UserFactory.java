@@ -17,6 +17,8 @@ package com.veriplace.client.factory;
 import com.veriplace.client.User;
 import com.veriplace.client.UserDiscoveryParameters;
 
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
@@ -27,6 +29,12 @@ import org.apache.commons.logging.LogFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
@@ -96,44 +104,109 @@ public class UserFactory {
             Node id = nl.item(i).getAttributes().getNamedItem("id");
             Node key = nl.item(i).getAttributes().getNamedItem("key");
             Node keyType = nl.item(i).getAttributes().getNamedItem("keyType");
+            addUserByPII(users,
+                         (id == null) ? null : id.getTextContent(),
+                         (key == null) ? null : key.getTextContent(),
+                         (keyType == null) ? null : keyType.getTextContent());
+         }
+      } catch (XPathExpressionException e) {
+         logger.warn(e,e);
+      }
 
-            if (id == null) {
-               logger.warn("Attribute 'id' is missing from result");
-               continue;
-            }
-
-            if (key == null) {
-               logger.warn("Attribute 'key' is missing from result");
-               continue;
-            }
+      return users;
+   }
 
-            if (keyType == null) {
-               logger.warn("Attribute 'keyType' is missing from result");
-               continue;
+   /**
+    * Equivalent to {@link #getUsersByPII(Document)}, but parses the response as it is read
+    * instead of building a DOM tree first, so that large responses use much less memory.
+    * @param bytes  the response body
+    * @return  the users found, in the order they appear in the response
+    * @since 2.2
+    */
+   public Map<UserDiscoveryParameters,User> getUsersByPII(byte[] bytes) {
+
+      final Map<UserDiscoveryParameters,User> users = new LinkedHashMap<UserDiscoveryParameters,User>();
+
+      DefaultHandler handler = new DefaultHandler() {
+         private int depth = 0;
+         private boolean inUsers = false;
+
+         @Override
+         public void startElement(String uri, String localName, String qName,
+                                  Attributes attributes) {
+            depth++;
+            if (depth == 1) {
+               inUsers = qName.equals("users");
             }
-
-            User user = new User(Long.parseLong(id.getTextContent()));
-            UserDiscoveryParameters pii = null;
-            if (keyType.getTextContent().equalsIgnoreCase("mobile")) {
-               pii = UserDiscoveryParameters.byPhone(key.getTextContent());
-            } else if (keyType.getTextContent().equalsIgnoreCase("email")) {
-               pii = UserDiscoveryParameters.byEmail(key.getTextContent());
-            } else if (keyType.getTextContent().equalsIgnoreCase("openid")) {
-               pii = UserDiscoveryParameters.byOpenId(key.getTextContent());
-            } else {
-               logger.warn("Unrecognized key type: " + keyType);
-               continue;
+            else if ((depth == 2) && inUsers && qName.equals("user")
+                     && (attributes.getLength() > 0)) {
+               addUserByPII(users,
+                            attributes.getValue("id"),
+                            attributes.getValue("key"),
+                            attributes.getValue("keyType"));
             }
+         }
 
-            users.put(pii,user);
+         @Override
+         public void endElement(String uri, String localName, String qName) {
+            depth--;
          }
-      } catch (XPathExpressionException e) {
+      };
+
+      try {
+         SAXParserFactory.newInstance().newSAXParser().parse(new ByteArrayInputStream(bytes),
+                                                             handler);
+      } catch (ParserConfigurationException e) {
          logger.warn(e,e);
-      } catch (NumberFormatException e) {
+      } catch (SAXException e) {
+         logger.info(e,e);
+      } catch (IOException e) {
+         logger.info(e,e);
       }
 
       return users;
    }
+
+   private void addUserByPII(Map<UserDiscoveryParameters,User> users,
+                             String id,
+                             String key,
+                             String keyType) {
+      if (id == null) {
+         logger.warn("Attribute 'id' is missing from result");
+         return;
+      }
+
+      if (key == null) {
+         logger.warn("Attribute 'key' is missing from result");
+         return;
+      }
+
+      if (keyType == null) {
+         logger.warn("Attribute 'keyType' is missing from result");
+         return;
+      }
+
+      User user;
+      try {
+         user = new User(Long.parseLong(id));
+      } catch (NumberFormatException e) {
+         logger.warn("Invalid user id in result: " + id);
+         return;
+      }
+      UserDiscoveryParameters pii = null;
+      if (keyType.equalsIgnoreCase("mobile")) {
+         pii = UserDiscoveryParameters.byPhone(key);
+      } else if (keyType.equalsIgnoreCase("email")) {
+         pii = UserDiscoveryParameters.byEmail(key);
+      } else if (keyType.equalsIgnoreCase("openid")) {
+         pii = UserDiscoveryParameters.byOpenId(key);
+      } else {
+         logger.warn("Unrecognized key type: " + keyType);
+         return;
+      }
+
+      users.put(pii,user);
+   }
 }
 
 
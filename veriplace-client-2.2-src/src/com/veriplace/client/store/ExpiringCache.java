@@ -0,0 +1,149 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.store;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base class for bounded, in-memory caches whose entries each expire at a given time.
+ * When the cache is full, the least recently used entry is evicted; expired entries are
+ * removed when they are next looked up.  Subclasses decide how long each value is kept.
+ * @param <V> type of the cached values
+ * @since 2.2
+ */
+public abstract class ExpiringCache<V> {
+
+   private final int maxSize;
+   private final Map<String,Entry<V>> entries;
+   private final AtomicLong hits = new AtomicLong();
+   private final AtomicLong misses = new AtomicLong();
+
+   /**
+    * @param maxSize the maximum number of entries to retain
+    */
+   protected ExpiringCache(final int maxSize) {
+      if (maxSize <= 0) {
+         throw new IllegalArgumentException("Cache size must be positive");
+      }
+      this.maxSize = maxSize;
+      this.entries = new LinkedHashMap<String,Entry<V>>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String,Entry<V>> eldest) {
+            return size() > maxSize;
+         }
+      };
+   }
+
+   /**
+    * Retrieve an unexpired value, counting a hit or a miss.
+    * @return the value, or null if there is none or it has expired
+    */
+   protected V lookup(String key) {
+      long now = System.currentTimeMillis();
+      synchronized (entries) {
+         Entry<V> entry = entries.get(key);
+         if (entry != null) {
+            if (entry.expires > now) {
+               hits.incrementAndGet();
+               return entry.value;
+            }
+            entries.remove(key);
+         }
+      }
+      misses.incrementAndGet();
+      return null;
+   }
+
+   /**
+    * Save a value until the given time.  A value that has already expired is not saved.
+    * @param expires the expiration time, in milliseconds since the epoch
+    */
+   protected void store(String key, V value, long expires) {
+      if (expires <= System.currentTimeMillis()) {
+         return;
+      }
+      synchronized (entries) {
+         entries.put(key, new Entry<V>(value, expires));
+      }
+   }
+
+   /**
+    * Remove an entry.
+    */
+   public void remove(String key) {
+      synchronized (entries) {
+         entries.remove(key);
+      }
+   }
+
+   /**
+    * Remove all entries.
+    */
+   public void clear() {
+      synchronized (entries) {
+         entries.clear();
+      }
+   }
+
+   /**
+    * Get the number of entries currently cached, including any that have
+    * expired but not yet been removed.
+    */
+   public int size() {
+      synchronized (entries) {
+         return entries.size();
+      }
+   }
+
+   public int getMaxSize() {
+      return maxSize;
+   }
+
+   /**
+    * Get the number of lookups that found an unexpired entry.
+    */
+   public long getHitCount() {
+      return hits.get();
+   }
+
+   /**
+    * Get the number of lookups that did not find an unexpired entry.
+    */
+   public long getMissCount() {
+      return misses.get();
+   }
+
+   private static class Entry<V> {
+      final V value;
+      final long expires;
+
+      Entry(V value, long expires) {
+         this.value = value;
+         this.expires = expires;
+      }
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
@@ -0,0 +1,76 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.store;
+
+import com.veriplace.client.Location;
+
+/**
+ * A bounded, in-memory cache of recently obtained locations.
+ * <p>
+ * Entries are served until the location's {@link Location#getExpirationDate() expiration date},
+ * or until an optional maximum age has passed since the location was cached, whichever comes
+ * first.  When the cache is full, the least recently used entry is evicted.
+ * @since 2.2
+ */
+public class LocationCache
+      extends ExpiringCache<Location> {
+
+   private final Long maxAge;
+
+   /**
+    * Create a new cache.
+    * @param maxSize the maximum number of locations to retain
+    * @param maxAge the maximum time in milliseconds to serve a location, or null to rely
+    *   only on its expiration date
+    */
+   public LocationCache(int maxSize,
+                        Long maxAge) {
+      super(maxSize);
+      this.maxAge = maxAge;
+   }
+
+   /**
+    * Retrieve an unexpired location.
+    * @return the location, or null if there is none or it has expired
+    */
+   public Location get(String key) {
+      return lookup(key);
+   }
+
+   /**
+    * Save a location.  Locations without an expiration date, or that have already
+    * expired, are not cached.
+    */
+   public void put(String key, Location location) {
+      if (location.getExpirationDate() == null) {
+         return;
+      }
+      long expires = location.getExpirationDate().getTime();
+      if (maxAge != null) {
+         expires = Math.min(expires, System.currentTimeMillis() + maxAge);
+      }
+      store(key, location, expires);
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
@@ -0,0 +1,94 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.store;
+
+import com.veriplace.client.User;
+import com.veriplace.client.UserNotFoundException;
+
+/**
+ * A bounded, in-memory cache of the users discovered with one-time access tokens, so
+ * that repeating a user discovery callback (for instance, when the end user reloads the
+ * page or goes back) does not require another request to Veriplace.
+ * <p>
+ * Failed lookups are cached as well, so a token that identified no user keeps producing a
+ * {@link UserNotFoundException} until its entry expires.  When the cache is full, the least
+ * recently used entry is evicted.
+ * @since 2.2
+ */
+public class UserCache
+      extends ExpiringCache<User> {
+
+   /**
+    * Stands in for the user of a token that identified none; compared by identity.
+    */
+   private static final User NOT_FOUND = new User(0L);
+
+   private final long maxAge;
+
+   /**
+    * Create a new cache.
+    * @param maxSize the maximum number of entries to retain
+    * @param maxAge the time in milliseconds to retain each entry
+    */
+   public UserCache(int maxSize,
+                    long maxAge) {
+      super(maxSize);
+      this.maxAge = maxAge;
+   }
+
+   /**
+    * Retrieve the user discovered with an access token.  Hits include failed lookups.
+    * @return the user, or null if there is no unexpired entry for this token
+    * @throws UserNotFoundException if the token is known not to identify a user
+    */
+   public User get(String token)
+         throws UserNotFoundException {
+      User user = lookup(token);
+      if (user == NOT_FOUND) {
+         throw new UserNotFoundException();
+      }
+      return user;
+   }
+
+   /**
+    * Save the user discovered with an access token.
+    */
+   public void put(String token, User user) {
+      if (user == null) {
+         throw new IllegalArgumentException();
+      }
+      store(token, user, System.currentTimeMillis() + maxAge);
+   }
+
+   /**
+    * Record that an access token did not identify a user.
+    */
+   public void putNotFound(String token) {
+      store(token, NOT_FOUND, System.currentTimeMillis() + maxAge);
+   }
+
+   public long getMaxAge() {
+      return maxAge;
+   }
+}
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
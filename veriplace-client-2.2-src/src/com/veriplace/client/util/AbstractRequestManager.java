@@ -16,13 +16,14 @@ package com.veriplace.client.util;
 
 import com.veriplace.client.BadParameterException;
 import com.veriplace.client.Client;
+import com.veriplace.client.ServerBusyException;
 import com.veriplace.client.UnexpectedException;
 import com.veriplace.client.User;
 import com.veriplace.client.VeriplaceException;
 import com.veriplace.oauth.consumer.Token;
 
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -35,33 +36,115 @@ import org.apache.commons.logging.LogFactory;
  * on background threads.  The caller can then block for the result at any time;
  * typically the blocking wait will happen after we've displayed an automatically-refreshing
  * "please wait" page.
+ * <p>
+ * By default, requests run on a {@link BoundedExecutor} of {@link #DEFAULT_POOL_SIZE} threads
+ * with room for {@link #DEFAULT_QUEUE_SIZE} waiting requests.  If both are full, the request
+ * completes immediately with a {@link com.veriplace.client.ServerBusyException}, which a
+ * status view can present as a "try again" page.
  */
 public class AbstractRequestManager<ResultType> {
 
    private static final Log logger = LogFactory.getLog(AbstractRequestManager.class);
 
+   /**
+    * The default maximum number of requests processed at once: 20
+    * @since 2.2
+    */
+   public static final int DEFAULT_POOL_SIZE = 20;
+
+   /**
+    * The default maximum number of requests waiting to be processed: 100
+    * @since 2.2
+    */
+   public static final int DEFAULT_QUEUE_SIZE = 100;
+
    protected RequestStore<ResultWrapper<ResultType>> requestStore =
          new MemoryRequestStore<ResultWrapper<ResultType>>();
-   private ExecutorService executor = Executors.newCachedThreadPool();
+   private ExecutorService executor;
+   private boolean ownsExecutor;
+   private boolean closed;
+   private int poolSize = DEFAULT_POOL_SIZE;
+   private int queueSize = DEFAULT_QUEUE_SIZE;
 
    public void setRequestStore(RequestStore<ResultWrapper<ResultType>> requestStore) {
       this.requestStore = requestStore;
    }
 
-   public void setExecutorService(ExecutorService executor) {
+   /**
+    * Specifies an executor to run requests, replacing the default {@link BoundedExecutor}.
+    */
+   public synchronized void setExecutorService(ExecutorService executor) {
       this.executor = executor;
+      this.ownsExecutor = false;
+   }
+
+   /**
+    * Returns the executor used to run requests, creating the default {@link BoundedExecutor}
+    * on first use.  The default executor's statistics can be used to monitor load.
+    * @throws RejectedExecutionException  if the default executor is needed after {@link #close()}
+    * @since 2.2
+    */
+   public synchronized ExecutorService getExecutorService() {
+      if (executor == null) {
+         if (closed) {
+            throw new RejectedExecutionException("request manager has been closed");
+         }
+         executor = new BoundedExecutor(poolSize, queueSize, "veriplace-request");
+         ownsExecutor = true;
+      }
+      return executor;
+   }
+
+   /**
+    * Stops the threads of the default executor, so that they do not outlive the application.
+    * Requests that are already running are allowed to finish; later requests complete with a
+    * {@link com.veriplace.client.ServerBusyException}.  An executor given by
+    * {@link #setExecutorService(ExecutorService)} is left to its owner.
+    * @since 2.2
+    */
+   public synchronized void close() {
+      closed = true;
+      if (ownsExecutor) {
+         executor.shutdown();
+      }
+   }
+
+   /**
+    * Specifies the maximum number of requests processed at once by the default executor.
+    * Has no effect once the executor has been created.
+    * @since 2.2
+    */
+   public void setPoolSize(int poolSize) {
+      this.poolSize = poolSize;
+   }
+
+   /**
+    * Specifies the maximum number of requests that may wait for the default executor.
+    * Has no effect once the executor has been created.
+    * @since 2.2
+    */
+   public void setQueueSize(int queueSize) {
+      this.queueSize = queueSize;
    }
    
    /**
     * Submit a request object (which was created by some method of the specific
-    * AbstractRequestManager sucblass) for asynchronous processing.
+    * AbstractRequestManager sucblass) for asynchronous processing.  If there are too many
+    * requests outstanding, the request completes immediately with a
+    * {@link com.veriplace.client.ServerBusyException}.
     * @return  the new request ID.
     */
    public long submitRequest(AbstractRequest<ResultType> request) {
       request.setRequestStore(requestStore);
       long id = requestStore.add();
       request.setId(id);
-      executor.submit(request);
+      try {
+         request.start(getExecutorService());
+      }
+      catch (RejectedExecutionException e) {
+         logger.warn("Too many requests outstanding; rejected request ID: " + id);
+         request.storeException(new ServerBusyException(e));
+      }
       return id;
    }
    
@@ -81,6 +164,19 @@ public class AbstractRequestManager<ResultType> {
       return requestStore.waitForCompletion(id, timeout);
    }
 
+   /**
+    * Check whether the result of a request is available, without waiting for it.  If the
+    * request store is not a {@link PollableRequestStore}, this waits for one millisecond.
+    * @return true if the result is available or the request ID does not exist
+    * @since 2.2
+    */
+   public boolean isCompleted(long id) {
+      if (requestStore instanceof PollableRequestStore) {
+         return ((PollableRequestStore<ResultWrapper<ResultType>>) requestStore).isCompleted(id);
+      }
+      return requestStore.waitForCompletion(id, 1L);
+   }
+
    /**
     * Get (and remove) the result returned for the given request id,
     * assuming that the request has completed.
@@ -152,6 +248,15 @@ public class AbstractRequestManager<ResultType> {
       
       protected abstract ResultType call()
             throws VeriplaceException;
+
+      /**
+       * Begin processing this request.  By default the request is run on the manager's
+       * executor; subclasses that can issue the request without occupying a thread
+       * may override this.
+       */
+      protected void start(ExecutorService executor) {
+         executor.submit(this);
+      }
       
       protected void setId(long id) {
          this.id = id;
@@ -0,0 +1,159 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread pool with a fixed maximum number of threads and a bounded queue of
+ * waiting tasks, which keeps statistics about its load.
+ * <p>
+ * Once all threads are busy and the queue is full, further tasks are rejected with
+ * a {@link RejectedExecutionException} rather than consuming more memory; callers
+ * should report this as a temporary condition (see
+ * {@link com.veriplace.client.ServerBusyException}).  Idle threads exit after one
+ * minute.
+ * @since 2.2
+ */
+public class BoundedExecutor
+      extends ThreadPoolExecutor {
+
+   private static final long KEEP_ALIVE_SECONDS = 60L;
+
+   private final int queueSize;
+   private final AtomicLong rejectedCount = new AtomicLong();
+   private final AtomicLong queueWaitCount = new AtomicLong();
+   private final AtomicLong queueWaitTotal = new AtomicLong();
+   private final AtomicLong queueWaitMax = new AtomicLong();
+
+   /**
+    * @param poolSize  maximum number of threads
+    * @param queueSize  maximum number of tasks waiting for a thread
+    * @param threadName  prefix for the names of the pool's threads
+    */
+   public BoundedExecutor(int poolSize,
+                          int queueSize,
+                          String threadName) {
+      super(poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(Math.max(queueSize, 1)),
+            new NamedThreadFactory(threadName));
+      this.queueSize = queueSize;
+      allowCoreThreadTimeOut(true);
+   }
+
+   @Override
+   public void execute(Runnable command) {
+      try {
+         super.execute(new QueuedTask(command));
+      }
+      catch (RejectedExecutionException e) {
+         rejectedCount.incrementAndGet();
+         throw e;
+      }
+   }
+
+   /**
+    * Returns the maximum number of tasks that can wait for a thread.
+    */
+   public int getQueueSize() {
+      return queueSize;
+   }
+
+   /**
+    * Returns the number of tasks currently waiting for a thread.
+    */
+   public int getQueuedCount() {
+      return getQueue().size();
+   }
+
+   /**
+    * Returns the number of tasks that have been rejected because the pool was full.
+    */
+   public long getRejectedCount() {
+      return rejectedCount.get();
+   }
+
+   /**
+    * Returns the number of tasks that have started running.
+    */
+   public long getStartedCount() {
+      return queueWaitCount.get();
+   }
+
+   /**
+    * Returns the average time in milliseconds that tasks have waited for a thread.
+    */
+   public double getAverageQueueWait() {
+      long count = queueWaitCount.get();
+      return (count == 0) ? 0.0 : (queueWaitTotal.get() / 1000000.0) / count;
+   }
+
+   /**
+    * Returns the longest time in milliseconds that any task has waited for a thread.
+    */
+   public double getMaxQueueWait() {
+      return queueWaitMax.get() / 1000000.0;
+   }
+
+   @Override
+   public String toString() {
+      return "active=" + getActiveCount() + ", queued=" + getQueuedCount() +
+            ", rejected=" + getRejectedCount() + ", avgQueueWait=" + getAverageQueueWait() +
+            "ms, maxQueueWait=" + getMaxQueueWait() + "ms";
+   }
+
+   private void recordQueueWait(long nanos) {
+      queueWaitCount.incrementAndGet();
+      queueWaitTotal.addAndGet(nanos);
+      long max;
+      while (nanos > (max = queueWaitMax.get())) {
+         if (queueWaitMax.compareAndSet(max, nanos)) {
+            break;
+         }
+      }
+   }
+
+   /**
+    * Wraps each task to measure how long it spent in the queue.
+    */
+   private class QueuedTask
+         implements Runnable {
+
+      private final Runnable task;
+      private final long queuedTime = System.nanoTime();
+
+      QueuedTask(Runnable task) {
+         this.task = task;
+      }
+
+      public void run() {
+         recordQueueWait(System.nanoTime() - queuedTime);
+         task.run();
+      }
+   }
+}
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
@@ -17,63 +17,85 @@ package com.veriplace.client.util;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.HashMap;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * In-memory implementation of {@link RequestStore}.
+ * <p>
+ * Requests are kept in a concurrent map, and expire a fixed time after they were
+ * added (five minutes by default).  Expiration is tracked with a hashed timing wheel:
+ * each request is placed in the slot for the tick at which it expires, and as time
+ * advances, the slots that have come due are swept by whichever thread happens to be
+ * adding a request.  No operation takes a lock shared by all requests.
  */
 public class MemoryRequestStore<ResultType> 
-      implements RequestStore<ResultType> {
+      implements PollableRequestStore<ResultType> {
 
    private static Log logger = LogFactory.getLog(MemoryRequestStore.class);
 
+   /**
+    * Default lifetime of a request, in seconds.
+    */
    protected static final long FIVE_MINUTES = 300L;
 
-   protected long allocator = 0L;
+   /**
+    * Number of slots in the timing wheel.
+    */
+   protected static final int WHEEL_SIZE = 64;
+
+   protected final AtomicLong allocator = new AtomicLong();
 
    /**
     * Map from identifier to result
     */
-   protected Map<Long, RequestStatus<ResultType>> requests =
-         new HashMap<Long, RequestStatus<ResultType>>();
+   protected final ConcurrentMap<Long, RequestStatus<ResultType>> requests =
+         new ConcurrentHashMap<Long, RequestStatus<ResultType>>();
+
+   private final long lifetime;
+   private final long tickLength;
+   private final Queue<Expiration>[] wheel;
+   private final AtomicLong lastTick;
+
+   public MemoryRequestStore() {
+      this(FIVE_MINUTES * 1000L);
+   }
 
    /**
-    * Map from expiration time (in seconds) to identifier(s).
+    * @param lifetime  time in milliseconds for which each request is retained
+    * @since 2.2
     */
-   protected SortedMap<Long,LinkedList<Long>> expiration = new TreeMap<Long,LinkedList<Long>>();
+   @SuppressWarnings("unchecked")
+   public MemoryRequestStore(long lifetime) {
+      if (lifetime <= 0) {
+         throw new IllegalArgumentException("Lifetime must be positive");
+      }
+      this.lifetime = lifetime;
+      // a request expires at most one full turn of the wheel after it is added
+      this.tickLength = Math.max(1L, (lifetime + WHEEL_SIZE - 2) / (WHEEL_SIZE - 1));
+      this.wheel = new Queue[WHEEL_SIZE];
+      for (int i = 0; i < WHEEL_SIZE; i++) {
+         wheel[i] = new ConcurrentLinkedQueue<Expiration>();
+      }
+      this.lastTick = new AtomicLong(System.currentTimeMillis() / tickLength);
+   }
 
-   public synchronized long add() {
+   public long add() {
+      long now = System.currentTimeMillis();
 
       // lazy cleanup
-      long time = System.currentTimeMillis() / 1000L;
-
-      // for all entries with keys less than current time
-      SortedMap<Long,LinkedList<Long>> expired = expiration.headMap(time);
-      for (LinkedList<Long> identifiers: expired.values()) {
-         // for each identifier
-         for (long identifier: identifiers) {
-            // remove location result
-            logger.debug("Removing result for: " + identifier);
-            requests.remove(identifier);
-         }
-      }
-      logger.debug("Clearing: " + expired.size() + " entries");
-      expired.clear();
+      expire(now);
 
       // insert new value
-      long id = ++allocator;
+      long id = allocator.incrementAndGet();
       requests.put(id, new RequestStatus<ResultType>());
 
-      LinkedList<Long> expiring = expiration.get(id);
-      if (expiring == null) {
-         expiring = new LinkedList<Long>();
-         expiration.put(time + FIVE_MINUTES,expiring);
-      }
-      expiring.add(id);
+      long expires = now + lifetime;
+      wheel[slot(expires / tickLength)].add(new Expiration(id, expires));
 
       logger.debug("Added id: " + id);
       return id;
@@ -83,6 +105,16 @@ public class MemoryRequestStore<ResultType>
       return waitForCompletion(id,0L);
    }
    
+   public boolean isCompleted(long id) {
+      RequestStatus<ResultType> status = requests.get(id);
+      if (status == null) {
+         return true;
+      }
+      synchronized (status) {
+         return status.complete;
+      }
+   }
+
    public boolean waitForCompletion(long id, long timeout) {
 
       if (timeout < 0) {
@@ -91,19 +123,21 @@ public class MemoryRequestStore<ResultType>
 
       logger.debug("Waiting for location for id: " + id);
 
-      RequestStatus<ResultType> status = null;
-      synchronized (this) {
-         status = requests.get(id);
-      }
+      RequestStatus<ResultType> status = requests.get(id);
 
       if (status != null) {
-         final long now = System.currentTimeMillis();
+         final long deadline = System.currentTimeMillis() + timeout;
          synchronized (status) {
-            while (!status.complete && 
-                   (timeout == 0 || 
-                    System.currentTimeMillis() <= now + timeout)) {
+            while (!status.complete) {
+               long remaining = 0;
+               if (timeout != 0) {
+                  remaining = deadline - System.currentTimeMillis();
+                  if (remaining <= 0) {
+                     break;
+                  }
+               }
                try {
-                  status.wait(timeout);
+                  status.wait(remaining);
                } catch (InterruptedException e) {
                   // just loop again
                }
@@ -117,10 +151,7 @@ public class MemoryRequestStore<ResultType>
    public void put(long id, ResultType result) {
       logger.debug("Updating result for id: " + id);
 
-      RequestStatus<ResultType> status = null;
-      synchronized (this) {
-         status = requests.get(id);
-      }
+      RequestStatus<ResultType> status = requests.get(id);
 
       if (status != null) {
          synchronized (status) {
@@ -131,19 +162,75 @@ public class MemoryRequestStore<ResultType>
       }
    }
 
-   public synchronized ResultType get(long id) {
-      logger.debug("Removing result for id: " + id);
+   public ResultType get(long id) {
+      logger.debug("Getting result for id: " + id);
       
       RequestStatus<ResultType> status = requests.get(id);
-      return status == null ? null : status.result;
+      if (status == null) {
+         return null;
+      }
+      synchronized (status) {
+         return status.result;
+      }
+   }
+
+   /**
+    * Returns the number of requests currently retained.
+    * @since 2.2
+    */
+   public int size() {
+      return requests.size();
+   }
+
+   /**
+    * Remove any requests whose lifetime has passed.  Only one thread sweeps a given
+    * tick; others proceed immediately.
+    */
+   protected void expire(long now) {
+      long currentTick = now / tickLength;
+      long previousTick = lastTick.get();
+      if ((currentTick <= previousTick) || ! lastTick.compareAndSet(previousTick, currentTick)) {
+         return;
+      }
+      // revisit the previous tick, whose later entries may not have been due yet;
+      // a full turn of the wheel covers every slot, however long we have been idle
+      long firstTick = Math.max(previousTick, currentTick - WHEEL_SIZE + 1);
+      int removed = 0;
+      for (long tick = firstTick; tick <= currentTick; tick++) {
+         Iterator<Expiration> it = wheel[slot(tick)].iterator();
+         while (it.hasNext()) {
+            Expiration expiration = it.next();
+            if (expiration.expires <= now) {
+               it.remove();
+               requests.remove(expiration.id);
+               removed++;
+            }
+         }
+      }
+      if (removed > 0) {
+         logger.debug("Cleared: " + removed + " entries");
+      }
+   }
+
+   private int slot(long tick) {
+      return (int) (tick % WHEEL_SIZE);
    }
 
    protected static class RequestStatus<ResultType> {
       public ResultType result = null;
       public boolean complete = false;
    }
-}
 
+   private static class Expiration {
+      final long id;
+      final long expires;
+
+      Expiration(long id, long expires) {
+         this.id = id;
+         this.expires = expires;
+      }
+   }
+}
 /*
 ** Local Variables:
 **   c-basic-offset: 3
@@ -0,0 +1,44 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.util;
+
+/**
+ * A {@link RequestStore} that can report whether a request has completed without
+ * waiting for it.  Waiting pages that poll for a result use this if the store
+ * supports it; with a plain {@link RequestStore}, they wait for the shortest time
+ * the store allows instead.
+ * @since 2.2
+ */
+public interface PollableRequestStore<ResultType>
+      extends RequestStore<ResultType> {
+
+   /**
+    * Check whether the result is available for a previously submitted request,
+    * without waiting.
+    * @return true if the result is available or the request ID does not exist
+    */
+   public boolean isCompleted(long id);
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
+
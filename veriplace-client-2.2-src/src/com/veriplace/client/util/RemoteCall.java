@@ -0,0 +1,231 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.util;
+
+import com.veriplace.oauth.OAuthException;
+
+import java.net.URL;
+import java.util.Random;
+
+import jdk.jfr.EventType;
+
+/**
+ * Times a call to a remote service and reports it to Java Flight Recorder as
+ * a {@link RemoteCallEvent}.
+ * <p>
+ * Typical use:
+ * <pre>
+ * RemoteCall call = RemoteCall.begin(RemoteCall.VERIPLACE, url);
+ * int status = RemoteCall.NO_STATUS;
+ * try {
+ *    Response response = ...;
+ *    status = response.getCode();
+ * } finally {
+ *    call.end(status, RemoteCall.UNKNOWN_BYTES);
+ * }
+ * </pre>
+ * When no recording has the event enabled, or the JVM has no Flight Recorder,
+ * {@link #begin} returns {@link #NONE} without allocating, and the cost is a
+ * single check.
+ * @since 2.2
+ */
+public class RemoteCall {
+
+   public static final String VERIPLACE = "veriplace";
+   public static final String TWITTER = "twitter";
+
+   /**
+    * Endpoint for exchanging consumer credentials for an OAuth request token.
+    */
+   public static final String REQUEST_TOKEN = "oauth/request-token";
+
+   /**
+    * Endpoint for exchanging an authorized request token for an access token.
+    */
+   public static final String ACCESS_TOKEN = "oauth/access-token";
+
+   /**
+    * Status for a call that failed without an HTTP response.
+    */
+   public static final int NO_STATUS = -1;
+
+   /**
+    * Size for a response whose body size is not known.
+    */
+   public static final long UNKNOWN_BYTES = -1;
+
+   /**
+    * A call that is not recorded.
+    */
+   public static final RemoteCall NONE = new RemoteCall();
+
+   private static final boolean AVAILABLE = isAvailable();
+
+   // Salt for user ID hashes, so that recordings do not reveal user IDs
+   private static final long SALT = new Random().nextLong();
+
+   protected RemoteCall() {
+   }
+
+   /**
+    * Start timing a call that is not made on behalf of a user.
+    * @param service  the service called, e.g. {@link #VERIPLACE}
+    * @param endpoint  the operation called
+    */
+   public static RemoteCall begin(String service, String endpoint) {
+      return begin(service, endpoint, null);
+   }
+
+   /**
+    * Start timing a call.
+    * @param service  the service called, e.g. {@link #VERIPLACE}
+    * @param endpoint  the operation called
+    * @param userId  the user the call is made for, or null
+    */
+   public static RemoteCall begin(String service, String endpoint, Long userId) {
+      if (AVAILABLE && Recorded.isEnabled()) {
+         return new Recorded(service, endpoint, userHash(userId));
+      }
+      return NONE;
+   }
+
+   /**
+    * Start timing a call to a URL.  The endpoint is the URL's path, with
+    * numeric IDs replaced by "{id}", and the user is taken from a
+    * ".../users/ID" path.
+    */
+   public static RemoteCall begin(String service, URL url) {
+      if (AVAILABLE && Recorded.isEnabled()) {
+         StringBuilder endpoint = new StringBuilder();
+         Long userId = null;
+         String previous = null;
+         for (String part : url.getPath().split("/")) {
+            if (part.length() == 0) {
+               continue;
+            }
+            endpoint.append('/');
+            if (isNumber(part)) {
+               endpoint.append("{id}");
+               if ("users".equals(previous)) {
+                  userId = Long.valueOf(part);
+               }
+            }
+            else {
+               endpoint.append(part);
+            }
+            previous = part;
+         }
+         return new Recorded(service, endpoint.toString(), userHash(userId));
+      }
+      return NONE;
+   }
+
+   /**
+    * Finish timing the call.
+    * @param status  the HTTP status code, or {@link #NO_STATUS}
+    * @param bytes  the size of the response body, or {@link #UNKNOWN_BYTES}
+    */
+   public void end(int status, long bytes) {
+   }
+
+   /**
+    * Returns the HTTP status carried by an OAuth error, or {@link #NO_STATUS}.
+    */
+   public static int statusOf(OAuthException e) {
+      Integer code = e.getCode();
+      return (code == null) ? NO_STATUS : code.intValue();
+   }
+
+   static long userHash(Long userId) {
+      if (userId == null) {
+         return 0;
+      }
+      // MurmurHash3 finalizer
+      long h = userId.longValue() ^ SALT;
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      h *= 0xc4ceb9fe1a85ec53L;
+      h ^= h >>> 33;
+      return (h == 0) ? 1 : h;
+   }
+
+   private static boolean isNumber(String s) {
+      if (s.length() > 18) {
+         return false;
+      }
+      for (int i = 0; i < s.length(); i++) {
+         if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private static boolean isAvailable() {
+      try {
+         Class.forName("jdk.jfr.Event");
+         Recorded.isEnabled();
+         return true;
+      }
+      catch (Throwable t) {
+         // No Flight Recorder in this JVM
+         return false;
+      }
+   }
+
+   /**
+    * A call that will be committed as an event.  Only loaded when Flight
+    * Recorder is available.
+    */
+   private static final class Recorded
+      extends RemoteCall {
+
+      private static final EventType TYPE = EventType.getEventType(RemoteCallEvent.class);
+
+      private final RemoteCallEvent event = new RemoteCallEvent();
+
+      Recorded(String service, String endpoint, long userHash) {
+         event.service = service;
+         event.endpoint = endpoint;
+         event.userHash = userHash;
+         event.begin();
+      }
+
+      static boolean isEnabled() {
+         return TYPE.isEnabled();
+      }
+
+      @Override
+      public void end(int status, long bytes) {
+         event.end();
+         if (event.shouldCommit()) {
+            event.status = status;
+            event.bytes = bytes;
+            event.commit();
+         }
+      }
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
@@ -0,0 +1,48 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.util;
+
+import com.veriplace.client.VeriplaceException;
+
+/**
+ * Receives the outcome of an asynchronous request.  See {@link ResultFuture#addCallback}.
+ * <p>
+ * Callbacks are invoked on whichever thread completes the request, or on the calling
+ * thread if the request had already completed when the callback was added; they should
+ * return quickly and must not block.
+ * @since 2.2
+ */
+public interface ResultCallback<T> {
+
+   /**
+    * Called when the request completed successfully.
+    */
+   public void onSuccess(T result);
+
+   /**
+    * Called when the request failed or was cancelled.
+    */
+   public void onFailure(VeriplaceException exception);
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
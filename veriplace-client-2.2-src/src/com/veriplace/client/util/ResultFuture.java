@@ -0,0 +1,230 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.util;
+
+import com.veriplace.client.UnexpectedException;
+import com.veriplace.client.VeriplaceException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The pending result of an asynchronous request, such as
+ * {@link com.veriplace.client.GetLocationAPI#getLocationAsync}.
+ * <p>
+ * In addition to the standard {@link Future} methods, callers can register a
+ * {@link ResultCallback} to be notified when the request completes, rather than
+ * blocking a thread while waiting for it.
+ * @since 2.2
+ */
+public class ResultFuture<T>
+      implements Future<T> {
+
+   private static final Log logger = LogFactory.getLog(ResultFuture.class);
+
+   private T result;
+   private VeriplaceException exception;
+   private boolean done = false;
+   private boolean cancelled = false;
+   private List<ResultCallback<? super T>> callbacks =
+         new ArrayList<ResultCallback<? super T>>(2);
+
+   /**
+    * Register a callback to be notified when the request completes.  If the request
+    * has already completed, the callback is invoked immediately on the calling thread.
+    */
+   public void addCallback(ResultCallback<? super T> callback) {
+      synchronized (this) {
+         if (! done) {
+            callbacks.add(callback);
+            return;
+         }
+      }
+      notifyCallback(callback);
+   }
+
+   /**
+    * Returns a new future that completes with the same outcome as this one, but that
+    * can be cancelled without affecting this future or any other callers sharing it.
+    */
+   public ResultFuture<T> share() {
+      final ResultFuture<T> shared = new ResultFuture<T>();
+      addCallback(new ResultCallback<T>() {
+         public void onSuccess(T result) {
+            shared.setResult(result);
+         }
+         public void onFailure(VeriplaceException exception) {
+            shared.setException(exception);
+         }
+      });
+      return shared;
+   }
+
+   /**
+    * Complete the request successfully.
+    * @return true if this call completed the request, false if it was already complete
+    */
+   public boolean setResult(T result) {
+      return complete(result, null, false);
+   }
+
+   /**
+    * Complete the request with an error.
+    * @return true if this call completed the request, false if it was already complete
+    */
+   public boolean setException(VeriplaceException exception) {
+      if (exception == null) {
+         throw new IllegalArgumentException();
+      }
+      return complete(null, exception, false);
+   }
+
+   /**
+    * Cancel the request.  A request that is already running on a background thread is not
+    * interrupted, but its result will be discarded.
+    */
+   public boolean cancel(boolean mayInterruptIfRunning) {
+      return complete(null, new UnexpectedException(new CancellationException()), true);
+   }
+
+   public synchronized boolean isCancelled() {
+      return cancelled;
+   }
+
+   public synchronized boolean isDone() {
+      return done;
+   }
+
+   /**
+    * Wait for the request to complete.
+    * @return true if the request completed, false if the timeout elapsed first
+    */
+   public synchronized boolean waitForCompletion(long timeout)
+         throws InterruptedException {
+      long deadline = System.currentTimeMillis() + timeout;
+      while (! done) {
+         long remaining = deadline - System.currentTimeMillis();
+         if (remaining <= 0) {
+            return false;
+         }
+         wait(remaining);
+      }
+      return true;
+   }
+
+   public synchronized T get()
+         throws InterruptedException, ExecutionException {
+      while (! done) {
+         wait();
+      }
+      return report();
+   }
+
+   public synchronized T get(long timeout, TimeUnit unit)
+         throws InterruptedException, ExecutionException, TimeoutException {
+      if (! waitForCompletion(unit.toMillis(timeout))) {
+         throw new TimeoutException();
+      }
+      return report();
+   }
+
+   /**
+    * Wait for the request to complete and return its result, rethrowing any
+    * Veriplace exception directly rather than wrapping it.
+    * @throws VeriplaceException  if the request failed or was cancelled
+    */
+   public synchronized T getResult()
+         throws VeriplaceException {
+      boolean interrupted = false;
+      while (! done) {
+         try {
+            wait();
+         }
+         catch (InterruptedException e) {
+            interrupted = true;
+         }
+      }
+      if (interrupted) {
+         Thread.currentThread().interrupt();
+      }
+      if (exception != null) {
+         throw exception;
+      }
+      return result;
+   }
+
+   private T report()
+         throws ExecutionException {
+      if (cancelled) {
+         throw new CancellationException();
+      }
+      if (exception != null) {
+         throw new ExecutionException(exception);
+      }
+      return result;
+   }
+
+   private boolean complete(T result, VeriplaceException exception, boolean cancelled) {
+      List<ResultCallback<? super T>> toNotify;
+      synchronized (this) {
+         if (done) {
+            return false;
+         }
+         this.result = result;
+         this.exception = exception;
+         this.cancelled = cancelled;
+         this.done = true;
+         toNotify = callbacks;
+         callbacks = null;
+         notifyAll();
+      }
+      for (ResultCallback<? super T> callback: toNotify) {
+         notifyCallback(callback);
+      }
+      return true;
+   }
+
+   private void notifyCallback(ResultCallback<? super T> callback) {
+      try {
+         if (exception != null) {
+            callback.onFailure(exception);
+         }
+         else {
+            callback.onSuccess(result);
+         }
+      }
+      catch (RuntimeException e) {
+         logger.warn("Unexpected exception from result callback", e);
+      }
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
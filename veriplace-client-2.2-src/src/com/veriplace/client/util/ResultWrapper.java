@@ -17,11 +17,20 @@ package com.veriplace.client.util;
 import com.veriplace.client.VeriplaceException;
 import com.veriplace.oauth.consumer.Token;
 
+import java.io.Serializable;
+
 /**
  * Stores a result object if the request succeeded, or an exception if it failed.
+ * <p>
+ * A wrapper can be serialized, for instance by {@link SharedDirectoryRequestStore},
+ * if its result object is serializable.  The serialized form includes the access token's
+ * secret, so it must be stored only where no one else can read it.
  * @param <T> type of the result object
  */
-public class ResultWrapper<T> {
+public class ResultWrapper<T>
+      implements Serializable {
+
+   private static final long serialVersionUID = 1L;
 
    private final T result;
    private final VeriplaceException exception;
@@ -55,4 +64,37 @@ public class ResultWrapper<T> {
    public Token getToken() {
       return token;
    }
+
+   /**
+    * Token is not serializable, so the wrapper is written in this form instead.
+    */
+   private Object writeReplace() {
+      return new SerializedForm(result, exception,
+            (token == null) ? null : token.getToken(),
+            (token == null) ? null : token.getTokenSecret());
+   }
+
+   private static class SerializedForm
+         implements Serializable {
+
+      private static final long serialVersionUID = 1L;
+
+      private final Object result;
+      private final VeriplaceException exception;
+      private final String tokenValue;
+      private final String tokenSecret;
+
+      SerializedForm(Object result, VeriplaceException exception,
+                     String tokenValue, String tokenSecret) {
+         this.result = result;
+         this.exception = exception;
+         this.tokenValue = tokenValue;
+         this.tokenSecret = tokenSecret;
+      }
+
+      private Object readResolve() {
+         Token token = (tokenValue == null) ? null : new Token(tokenValue, tokenSecret);
+         return new ResultWrapper<Object>(result, token, exception);
+      }
+   }
 }
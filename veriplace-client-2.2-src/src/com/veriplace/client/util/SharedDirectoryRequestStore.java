@@ -0,0 +1,397 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.util;
+
+import com.veriplace.client.Location;
+import com.veriplace.client.User;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Implementation of {@link RequestStore} that shares requests and their results between
+ * servers through a common directory, such as a network file system mount.  This allows
+ * the callback from a "please wait" page to reach any server behind a load balancer,
+ * rather than requiring sticky sessions.
+ * <p>
+ * Each request is represented by a marker file while it is pending; when it completes, its
+ * result is serialized to a second file, which is written under a temporary name and then
+ * renamed so that other servers never see a partial result.  Results are also kept in a
+ * node-local cache, and threads waiting on the node that completed a request are notified
+ * immediately; threads on other nodes notice the result file at the next poll.
+ * <p>
+ * Request IDs combine a random node prefix with a local counter, and are reserved by
+ * creating the marker file, so two servers never issue the same ID.  Files older than the
+ * request lifetime are removed lazily, by at most one thread per sweep interval.
+ * <p>
+ * Anyone who can write to the directory can plant a result file, so results are read
+ * through a filter that accepts only the classes a {@link ResultWrapper} of a
+ * {@link Location} or {@link User} is made of; see {@link #isAllowed(Class)}.
+ * <p>
+ * A result file holds the access token used for the request, <b>including its secret</b>,
+ * because the server that handles the callback needs the whole token in order to reuse it.
+ * Result files are therefore created readable and writable only by their owner (or, on
+ * file systems without POSIX permissions, as nearly so as {@link File} allows), and the
+ * directory itself should be accessible only to the account the application runs as.
+ * Do not point this store at a directory that other users or applications can read.
+ * @since 2.2
+ */
+public class SharedDirectoryRequestStore<ResultType extends Serializable>
+      implements PollableRequestStore<ResultType> {
+
+   private static final Log logger = LogFactory.getLog(SharedDirectoryRequestStore.class);
+
+   /**
+    * Default lifetime of a request, in milliseconds. (five minutes)
+    */
+   public static final long DEFAULT_LIFETIME = 300000L;
+
+   /**
+    * Default interval at which waiting threads check for results completed by other
+    * servers, in milliseconds. (250)
+    */
+   public static final long DEFAULT_POLL_INTERVAL = 250L;
+
+   private static final String PENDING_SUFFIX = ".pending";
+   private static final String RESULT_SUFFIX = ".result";
+   private static final String TEMP_SUFFIX = ".tmp";
+
+   private static final Set<PosixFilePermission> OWNER_ONLY =
+         PosixFilePermissions.fromString("rw-------");
+
+   /**
+    * Greatest depth of object graph accepted in a result file.
+    */
+   private static final long MAX_DEPTH = 20;
+
+   /**
+    * Greatest array length accepted in a result file.
+    */
+   private static final long MAX_ARRAY_LENGTH = 10000;
+
+   private static final Set<Class<?>> ALLOWED_CLASSES = new HashSet<Class<?>>(Arrays.asList(
+         ResultWrapper.class, Location.class, User.class,
+         String.class, Number.class, Boolean.class, Character.class, Byte.class,
+         Short.class, Integer.class, Long.class, Float.class, Double.class,
+         Date.class, StackTraceElement.class, java.util.ArrayList.class,
+         java.util.LinkedList.class, Collections.emptyList().getClass(),
+         Collections.unmodifiableList(new java.util.ArrayList<Object>()).getClass(),
+         Collections.unmodifiableList(new java.util.LinkedList<Object>()).getClass(),
+         Collections.unmodifiableCollection(new java.util.ArrayList<Object>()).getClass()));
+
+   protected final File directory;
+   protected final String fileBase;
+   protected final long lifetime;
+   protected final long pollInterval;
+
+   private final long nodePrefix;
+   private final AtomicLong allocator = new AtomicLong();
+   private final AtomicLong lastSweep = new AtomicLong(System.currentTimeMillis());
+   private final ConcurrentMap<Long, CachedResult<ResultType>> cache =
+         new ConcurrentHashMap<Long, CachedResult<ResultType>>();
+   private final Object completion = new Object();
+   private final ObjectInputFilter filter = new ObjectInputFilter() {
+         public Status checkInput(FilterInfo info) {
+            if ((info.depth() > MAX_DEPTH) || (info.arrayLength() > MAX_ARRAY_LENGTH)) {
+               return Status.REJECTED;
+            }
+            Class<?> type = info.serialClass();
+            while ((type != null) && type.isArray()) {
+               type = type.getComponentType();
+            }
+            if ((type == null) || type.isPrimitive()) {
+               return Status.UNDECIDED;
+            }
+            return isAllowed(type) ? Status.ALLOWED : Status.REJECTED;
+         }
+      };
+
+   /**
+    * Create a store using default lifetime and polling interval.
+    * @param directory the shared directory
+    * @param fileBase prefix for this store's file names, so that several stores can share
+    *   one directory
+    */
+   public SharedDirectoryRequestStore(File directory,
+                                      String fileBase) {
+      this(directory, fileBase, DEFAULT_LIFETIME, DEFAULT_POLL_INTERVAL);
+   }
+
+   /**
+    * @param directory the shared directory
+    * @param fileBase prefix for this store's file names
+    * @param lifetime time in milliseconds for which each request is retained
+    * @param pollInterval time in milliseconds between checks for results completed
+    *   by other servers
+    */
+   public SharedDirectoryRequestStore(File directory,
+                                      String fileBase,
+                                      long lifetime,
+                                      long pollInterval) {
+      if (! directory.isDirectory() && ! directory.mkdirs()) {
+         throw new IllegalArgumentException("Cannot create request directory: " + directory);
+      }
+      this.directory = directory;
+      this.fileBase = fileBase;
+      this.lifetime = lifetime;
+      this.pollInterval = Math.max(1L, pollInterval);
+      // 23 bits of node prefix leaves 40 bits of counter in a positive long
+      this.nodePrefix = ((long) new SecureRandom().nextInt(1 << 23)) << 40;
+   }
+
+   public long add() {
+      sweep(System.currentTimeMillis());
+      while (true) {
+         long id = nodePrefix | (allocator.incrementAndGet() & 0xFFFFFFFFFFL);
+         try {
+            if (getFile(id, PENDING_SUFFIX).createNewFile()) {
+               logger.debug("Added id: " + id);
+               return id;
+            }
+            logger.debug("Request ID already in use: " + id);
+         }
+         catch (IOException e) {
+            throw new IllegalStateException("Cannot create request file in: " + directory, e);
+         }
+      }
+   }
+
+   public boolean waitForCompletion(long id) {
+      return waitForCompletion(id, 0L);
+   }
+
+   public boolean isCompleted(long id) {
+      if (cache.containsKey(id) || getFile(id, RESULT_SUFFIX).exists()) {
+         return true;
+      }
+      // a request that is neither pending nor complete does not exist; either way,
+      // there is nothing to wait for
+      return ! getFile(id, PENDING_SUFFIX).exists();
+   }
+
+   public boolean waitForCompletion(long id, long timeout) {
+      final long deadline = System.currentTimeMillis() + Math.max(timeout, 0L);
+      while (true) {
+         if (isCompleted(id)) {
+            return true;
+         }
+         long wait = pollInterval;
+         if (timeout > 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+               return false;
+            }
+            wait = Math.min(wait, remaining);
+         }
+         synchronized (completion) {
+            if (cache.containsKey(id)) {
+               return true;
+            }
+            try {
+               completion.wait(wait);
+            }
+            catch (InterruptedException e) {
+               // just loop again
+            }
+         }
+      }
+   }
+
+   public void put(long id, ResultType result) {
+      logger.debug("Updating result for id: " + id);
+
+      cache.put(id, new CachedResult<ResultType>(result, System.currentTimeMillis()));
+      synchronized (completion) {
+         completion.notifyAll();
+      }
+
+      File temp = getFile(id, TEMP_SUFFIX);
+      try {
+         ObjectOutputStream out = new ObjectOutputStream(
+               new BufferedOutputStream(createPrivateFile(temp)));
+         try {
+            out.writeObject(result);
+         }
+         finally {
+            out.close();
+         }
+         if (! temp.renameTo(getFile(id, RESULT_SUFFIX))) {
+            throw new IOException("Cannot rename " + temp);
+         }
+      }
+      catch (IOException e) {
+         // the result is still available on this node
+         logger.warn("Cannot share result for id " + id + ": " + e);
+         temp.delete();
+      }
+      getFile(id, PENDING_SUFFIX).delete();
+   }
+
+   @SuppressWarnings("unchecked")
+   public ResultType get(long id) {
+      CachedResult<ResultType> cached = cache.get(id);
+      if (cached != null) {
+         return cached.result;
+      }
+      File file = getFile(id, RESULT_SUFFIX);
+      try {
+         ObjectInputStream in = new ObjectInputStream(
+               new BufferedInputStream(new FileInputStream(file)));
+         try {
+            in.setObjectInputFilter(filter);
+            ResultType result = (ResultType) in.readObject();
+            cache.putIfAbsent(id, new CachedResult<ResultType>(result, file.lastModified()));
+            return result;
+         }
+         finally {
+            in.close();
+         }
+      }
+      catch (FileNotFoundException e) {
+         return null;
+      }
+      catch (IOException e) {
+         logger.warn("Cannot read result for id " + id + ": " + e);
+         return null;
+      }
+      catch (ClassNotFoundException e) {
+         logger.warn("Cannot read result for id " + id + ": " + e);
+         return null;
+      }
+   }
+
+   /**
+    * Remove requests and cached results older than the request lifetime.  Runs at most
+    * once per tenth of the lifetime, on whichever thread gets there first.
+    */
+   protected void sweep(long now) {
+      long previous = lastSweep.get();
+      if ((now - previous < lifetime / 10) || ! lastSweep.compareAndSet(previous, now)) {
+         return;
+      }
+      long cutoff = now - lifetime;
+      for (Iterator<CachedResult<ResultType>> it = cache.values().iterator(); it.hasNext();) {
+         if (it.next().time < cutoff) {
+            it.remove();
+         }
+      }
+      File[] files = directory.listFiles();
+      if (files == null) {
+         return;
+      }
+      int removed = 0;
+      String prefix = fileBase + ".";
+      for (File file : files) {
+         if (file.getName().startsWith(prefix) && (file.lastModified() < cutoff)) {
+            if (file.delete()) {
+               removed++;
+            }
+         }
+      }
+      if (removed > 0) {
+         logger.debug("Cleared: " + removed + " files");
+      }
+   }
+
+   /**
+    * Returns true if an object of the given class may be read from a result file.  This
+    * allows {@link ResultWrapper}, {@link Location}, {@link User}, exceptions from the
+    * <code>java</code> and <code>com.veriplace</code> packages (including every
+    * {@link com.veriplace.client.VeriplaceException}), and the value and collection types
+    * they contain.  Subclasses that store other result types should allow those as well.
+    * @param type a class found in a result file; never an array or primitive type
+    */
+   protected boolean isAllowed(Class<?> type) {
+      if (ALLOWED_CLASSES.contains(type) || (type.getEnclosingClass() == ResultWrapper.class)) {
+         return true;
+      }
+      if (Throwable.class.isAssignableFrom(type)) {
+         String name = type.getName();
+         return name.startsWith("java.") || name.startsWith("com.veriplace.");
+      }
+      return false;
+   }
+
+   /**
+    * Create a new, empty file that only its owner can read or write, replacing any stale
+    * file of the same name, and open it for writing.
+    */
+   protected OutputStream createPrivateFile(File file)
+      throws IOException {
+      Path path = file.toPath();
+      Files.deleteIfExists(path);
+      try {
+         Files.createFile(path, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+      }
+      catch (UnsupportedOperationException e) {
+         // not a POSIX file system
+         Files.createFile(path);
+         file.setReadable(false, false);
+         file.setWritable(false, false);
+         file.setReadable(true, true);
+         file.setWritable(true, true);
+      }
+      return Files.newOutputStream(path);
+   }
+
+   protected File getFile(long id, String suffix) {
+      return new File(directory, fileBase + "." + id + suffix);
+   }
+
+   private static class CachedResult<ResultType> {
+      final ResultType result;
+      final long time;
+
+      CachedResult(ResultType result, long time) {
+         this.result = result;
+         this.time = time;
+      }
+   }
+}
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
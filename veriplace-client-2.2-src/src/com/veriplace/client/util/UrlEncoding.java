@@ -0,0 +1,148 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.util;
+
+/**
+ * Encodes values for use in a URL query string, producing the same output as
+ * {@link java.net.URLEncoder#encode(String, String)} with the UTF-8 charset.
+ * <p>
+ * Unlike URLEncoder, this does not allocate anything for values that are already safe
+ * (which includes most IDs and tokens), and it can append directly to an existing buffer.
+ * @since 2.2
+ */
+public final class UrlEncoding {
+
+   private static final boolean[] SAFE = new boolean[128];
+   private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+   static {
+      for (char c = 'a'; c <= 'z'; c++) {
+         SAFE[c] = true;
+      }
+      for (char c = 'A'; c <= 'Z'; c++) {
+         SAFE[c] = true;
+      }
+      for (char c = '0'; c <= '9'; c++) {
+         SAFE[c] = true;
+      }
+      SAFE['.'] = true;
+      SAFE['-'] = true;
+      SAFE['*'] = true;
+      SAFE['_'] = true;
+   }
+
+   private UrlEncoding() {
+   }
+
+   /**
+    * Returns true if the value can be used in a URL without encoding.
+    */
+   public static boolean isSafe(String value) {
+      return firstUnsafe(value) < 0;
+   }
+
+   /**
+    * Encodes a value.
+    * @return the encoded value, which is the same instance if no encoding was needed
+    */
+   public static String encode(String value) {
+      int start = firstUnsafe(value);
+      if (start < 0) {
+         return value;
+      }
+      StringBuilder buf = new StringBuilder(value.length() + 16);
+      buf.append(value, 0, start);
+      appendFrom(buf, value, start);
+      return buf.toString();
+   }
+
+   /**
+    * Encodes a value and appends it to a buffer.
+    */
+   public static void append(StringBuilder buf, String value) {
+      int start = firstUnsafe(value);
+      if (start < 0) {
+         buf.append(value);
+         return;
+      }
+      buf.append(value, 0, start);
+      appendFrom(buf, value, start);
+   }
+
+   private static int firstUnsafe(String value) {
+      int length = value.length();
+      for (int i = 0; i < length; i++) {
+         char c = value.charAt(i);
+         if ((c >= 128) || ! SAFE[c]) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   private static void appendFrom(StringBuilder buf, String value, int start) {
+      int length = value.length();
+      for (int i = start; i < length; i++) {
+         char c = value.charAt(i);
+         if (c < 128) {
+            if (SAFE[c]) {
+               buf.append(c);
+            }
+            else if (c == ' ') {
+               buf.append('+');
+            }
+            else {
+               appendByte(buf, c);
+            }
+         }
+         else if (c < 0x800) {
+            appendByte(buf, 0xC0 | (c >> 6));
+            appendByte(buf, 0x80 | (c & 0x3F));
+         }
+         else if (Character.isHighSurrogate(c) && (i + 1 < length)
+                  && Character.isLowSurrogate(value.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(++i));
+            appendByte(buf, 0xF0 | (codePoint >> 18));
+            appendByte(buf, 0x80 | ((codePoint >> 12) & 0x3F));
+            appendByte(buf, 0x80 | ((codePoint >> 6) & 0x3F));
+            appendByte(buf, 0x80 | (codePoint & 0x3F));
+         }
+         else if ((c >= Character.MIN_SURROGATE) && (c <= Character.MAX_SURROGATE)) {
+            // An unpaired surrogate can't be encoded; URLEncoder substitutes '?' for it
+            appendByte(buf, '?');
+         }
+         else {
+            appendByte(buf, 0xE0 | (c >> 12));
+            appendByte(buf, 0x80 | ((c >> 6) & 0x3F));
+            appendByte(buf, 0x80 | (c & 0x3F));
+         }
+      }
+   }
+
+   private static void appendByte(StringBuilder buf, int b) {
+      buf.append('%');
+      buf.append(HEX[(b >> 4) & 0x0F]);
+      buf.append(HEX[b & 0x0F]);
+   }
+}
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
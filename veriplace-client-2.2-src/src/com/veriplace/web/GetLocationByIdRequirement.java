@@ -36,9 +36,8 @@ class GetLocationByIdRequirement extends Requirement {
       this.locationId = locationId;
    }
    
-   public void complete(VeriplaceState state) 
+   public RequirementResult complete(VeriplaceState state) 
          throws GetLocationException,
-                ShouldRestartException,
                 UserDiscoveryException,
                 UnexpectedException {
       
@@ -46,7 +45,7 @@ class GetLocationByIdRequirement extends Requirement {
          throw new IllegalStateException();
       }
       if ((state.getLocation() != null) && (state.getLocation().getId() == locationId)) {
-         return;
+         return RequirementResult.CONTINUE;
       }
       User user = state.getUser();
       Token token = state.getGetLocationPermissionToken();
@@ -66,9 +65,10 @@ class GetLocationByIdRequirement extends Requirement {
          if (veriplace.getGetLocationTokenStore().get(user) != null) {
             veriplace.getGetLocationTokenStore().remove(user);
             state.setGetLocationPermissionToken(null);
-            throw new ShouldRestartException();
+            return RequirementResult.RESTART;
          }
          throw e;
       }
+      return RequirementResult.CONTINUE;
    }
 }
@@ -40,11 +40,8 @@ class GetLocationPermissionRequirement extends Requirement {
       this.canUseCache = canUseCache;
    }
    
-   public void complete(VeriplaceState state) 
-         throws ShouldRedirectException,
-                ShouldRestartException,
-                WaitingException,
-                GetLocationException,
+   public RequirementResult complete(VeriplaceState state) 
+         throws GetLocationException,
                 UserDiscoveryException,
                 UnexpectedException {
       
@@ -53,13 +50,13 @@ class GetLocationPermissionRequirement extends Requirement {
       }
 
       if (state.hasGetLocationPermission()) {
-         return;
+         return RequirementResult.CONTINUE;
       }
       
       if (state.getRequestId() != null) {
          // A request is already in progress.  This requirement still got called just because
          // it's always part of the flow, but we shouldn't try to get a new token.
-         return;
+         return RequirementResult.CONTINUE;
       }
       
       User user = state.getUser();
@@ -73,14 +70,14 @@ class GetLocationPermissionRequirement extends Requirement {
       if (newAccessToken != null) { 
          state.setGetLocationPermissionToken(newAccessToken);
          veriplace.getGetLocationTokenStore().put(user, newAccessToken);
-         return;
+         return RequirementResult.CONTINUE;
       }
 
       if (canUseCache) {
          Token cachedToken = veriplace.getGetLocationTokenStore().get(user);
          if (cachedToken != null) {
             state.setGetLocationPermissionToken(cachedToken);
-            return;
+            return RequirementResult.CONTINUE;
          }
       }
 
@@ -98,12 +95,13 @@ class GetLocationPermissionRequirement extends Requirement {
             String callback = veriplace.getCallbackUrl(state);
             String url = veriplace.getClient().getGetLocationAPI().getRedirectURL(callback, user);
             // Force a redirect; when we get a callback, it'll give us a token.
-            throw new ShouldRedirectException(url);
+            return RequirementResult.redirect(url);
          }
          else {
             // User interaction isn't allowed, so there's nothing we can do.
             throw e;
          }
       }
+      return RequirementResult.CONTINUE;
    }
 }
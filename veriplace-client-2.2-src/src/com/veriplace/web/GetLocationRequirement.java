@@ -41,6 +41,7 @@ class GetLocationRequirement extends Requirement {
     * content, the same is not true of the gateways between mobile browsers
     * and the rest of the web. Verizon gateways, in particular, appear to
     * give up after around 40 seconds, so we set our timeout a bit lower.
+    * This is the default for {@link Veriplace#setWaitTimeout(long)}.
     */
    public static final long WAIT_TIMEOUT = 30000L;
 
@@ -48,30 +49,26 @@ class GetLocationRequirement extends Requirement {
       super(veriplace);
    }
    
-   public void complete(VeriplaceState state) 
-      throws ShouldRedirectException,
-             ShouldRestartException,
-             WaitingException,
-             GetLocationException,
+   public RequirementResult complete(VeriplaceState state) 
+      throws GetLocationException,
              UnexpectedException {
       
       if (state.getUser() == null) {
          throw new IllegalStateException();
       }
       if (state.getLocation() != null) {
-         return;
+         return RequirementResult.CONTINUE;
       }
       if (state.isAsynchronousRequestAllowed()) {
-         completeAsynchronous(state);
+         return completeAsynchronous(state);
       }
       else {
-         completeSynchronous(state);
+         return completeSynchronous(state);
       }
    }
 
-   protected void completeSynchronous(VeriplaceState state)
-      throws ShouldRestartException,
-             GetLocationException,
+   protected RequirementResult completeSynchronous(VeriplaceState state)
+      throws GetLocationException,
              UnexpectedException {
       
       User user = state.getUser();
@@ -88,7 +85,7 @@ class GetLocationRequirement extends Requirement {
          if (veriplace.getGetLocationTokenStore().get(user) != null) {
             veriplace.getGetLocationTokenStore().remove(user);
             state.setGetLocationPermissionToken(null);
-            throw new ShouldRestartException();
+            return RequirementResult.RESTART;
          }
          throw e;
       }
@@ -99,13 +96,11 @@ class GetLocationRequirement extends Requirement {
       veriplace.getGetLocationTokenStore().put(user, token);
       logger.info("Obtained location");
       state.setLocation(location);
+      return RequirementResult.CONTINUE;
    }
    
-   protected void completeAsynchronous(VeriplaceState state) 
-      throws ShouldRedirectException,
-             ShouldRestartException,
-             WaitingException,
-             GetLocationException,
+   protected RequirementResult completeAsynchronous(VeriplaceState state) 
+      throws GetLocationException,
              UnexpectedException {
       
       User user = state.getUser();
@@ -125,18 +120,27 @@ class GetLocationRequirement extends Requirement {
          
          logger.info("Sent location request; showing wait page");
          String callback = veriplace.getCallbackUrl(state);
-         throw new WaitingException(callback);
+         return RequirementResult.waiting(callback);
       }
       
       // If the request ID is present, then we've already issued a request and now we've been
       // called back from the wait page.  We should block until the request is finished, or
-      // until it's time to refresh the wait page.
-      logger.debug("Have request ID; blocking for completion");
-      if (! veriplace.getGetLocationRequestManager().waitForCompletion(requestId, WAIT_TIMEOUT)) {
+      // until it's time to refresh the wait page.  If blocking is disabled, just check it.
+      long waitTimeout = veriplace.getWaitTimeout();
+      boolean completed;
+      if (waitTimeout > 0) {
+         logger.debug("Have request ID; blocking for completion");
+         completed = veriplace.getGetLocationRequestManager().waitForCompletion(requestId, waitTimeout);
+      }
+      else {
+         logger.debug("Have request ID; checking for completion");
+         completed = veriplace.getGetLocationRequestManager().isCompleted(requestId);
+      }
+      if (! completed) {
          logger.info("Timed out waiting for location; showing wait page again");
          pushRequestId(state, requestId);
          String callback = veriplace.getCallbackUrl(state);
-         throw new WaitingException(callback);
+         return RequirementResult.waiting(callback);
       }
       
       // The request is finished; get the result.
@@ -156,7 +160,7 @@ class GetLocationRequirement extends Requirement {
          if (veriplace.getGetLocationTokenStore().get(user) != null) {
             veriplace.getGetLocationTokenStore().remove(user);
             state.setGetLocationPermissionToken(null);
-            throw new ShouldRestartException();
+            return RequirementResult.RESTART;
          }
          throw e;
       }
@@ -180,6 +184,7 @@ class GetLocationRequirement extends Requirement {
       }
       logger.info("Obtained location");
       state.setLocation(location);
+      return RequirementResult.CONTINUE;
    }
 }
 
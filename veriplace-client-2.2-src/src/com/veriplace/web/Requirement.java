@@ -33,20 +33,17 @@ abstract class Requirement {
    }
    
    /**
-    * Attempts to complete the requirement, and throws an exception if not successful.
-    * Whether successful or not, it will update the HttpServletRequest's attributes to
-    * reflect the state of the requirement.
-    * @throws ShouldRedirectException  if the flow must be interrupted to redirect the end user
-    * @throws ShouldRestartException  if the requirement flow should be restarted from the top
-    * @throws WaitingException  if the flow should be diverted to a "please wait" page
+    * Attempts to complete the requirement.  Whether successful or not, it will update the
+    * HttpServletRequest's attributes to reflect the state of the requirement.
+    * @return  {@link RequirementResult#CONTINUE} if the requirement has been met,
+    *   {@link RequirementResult#RESTART} if the requirement flow should be restarted from the top,
+    *   or a redirect or waiting result if the flow must be interrupted to redirect the end user
+    *   or to show a "please wait" page
     * @throws RequestDeniedException  if a Veriplace request was denied for a well-defined reason
     * @throws UnexpectedException  if there was an unexpected I/O error or OAuth error
     */
-   public abstract void complete(VeriplaceState state)
-         throws ShouldRedirectException,
-                ShouldRestartException,
-                WaitingException,
-                RequestDeniedException,
+   public abstract RequirementResult complete(VeriplaceState state)
+         throws RequestDeniedException,
                 UnexpectedException;
    
    /**
@@ -90,6 +87,7 @@ abstract class Requirement {
       if (requestId != null) {
          // Clear the stored value.
          state.setRequestId(null);
+         state.setSetLocationRequest(false);
       }
       return requestId;
    }
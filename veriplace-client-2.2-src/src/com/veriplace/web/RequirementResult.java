@@ -0,0 +1,77 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.web;
+
+/**
+ * The outcome of a single {@link Requirement#complete} call, used internally by
+ * {@link Veriplace} to decide what to do next.  Redirects and "please wait" pages are
+ * normal steps in a Veriplace flow, so they are reported as values rather than thrown;
+ * the public {@link RespondedException} and {@link WaitingException} are only created once,
+ * when the outcome is handed back to the application.
+ */
+// package-private
+final class RequirementResult {
+
+   enum Type {
+      /** The requirement has been met; go on to the next one. */
+      CONTINUE,
+      /** The requirement changed the state; start again from the first requirement. */
+      RESTART,
+      /** The end user must be redirected to {@link RequirementResult#getUrl()}. */
+      REDIRECT,
+      /** A background request is in progress; come back to {@link RequirementResult#getUrl()}. */
+      WAIT
+   }
+
+   public static final RequirementResult CONTINUE = new RequirementResult(Type.CONTINUE, null);
+   public static final RequirementResult RESTART = new RequirementResult(Type.RESTART, null);
+
+   private final Type type;
+   private final String url;
+
+   private RequirementResult(Type type, String url) {
+      this.type = type;
+      this.url = url;
+   }
+
+   public static RequirementResult redirect(String redirectToUrl) {
+      return new RequirementResult(Type.REDIRECT, redirectToUrl);
+   }
+
+   public static RequirementResult waiting(String callbackUrl) {
+      return new RequirementResult(Type.WAIT, callbackUrl);
+   }
+
+   public Type getType() {
+      return type;
+   }
+
+   /**
+    * The redirect URL for {@link Type#REDIRECT}, or the callback URL for {@link Type#WAIT};
+    * otherwise null.
+    */
+   public String getUrl() {
+      return url;
+   }
+}
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
@@ -36,4 +36,14 @@ public class RespondedException extends VeriplaceException {
    protected RespondedException(Throwable cause) {
       super(cause);
    }
+
+   /**
+    * Skips capturing a stack trace, since this is thrown on the normal request path
+    * and does not represent an error.
+    * @since 2.2
+    */
+   @Override
+   public synchronized Throwable fillInStackTrace() {
+      return this;
+   }
 }
@@ -35,9 +35,8 @@ class SetLocationPermissionRequirement extends Requirement {
       this.canUseCache = canUseCache;
    }
    
-   public void complete(VeriplaceState state)
-         throws ShouldRedirectException,
-                SetLocationException,
+   public RequirementResult complete(VeriplaceState state)
+         throws SetLocationException,
                 UserDiscoveryException,
                 UnexpectedException {
       
@@ -46,13 +45,13 @@ class SetLocationPermissionRequirement extends Requirement {
       }
       
       if (state.hasSetLocationPermission()) {
-         return;
+         return RequirementResult.CONTINUE;
       }
       
       if (state.getRequestId() != null) {
          // A request is already in progress.  This requirement still got called just because
          // it's always part of the flow, but we shouldn't try to get a new token.
-         return;
+         return RequirementResult.CONTINUE;
       }
       
       User user = state.getUser();
@@ -65,14 +64,14 @@ class SetLocationPermissionRequirement extends Requirement {
       }
       if (newAccessToken != null) {
          state.setSetLocationPermissionToken(newAccessToken);
-         return;
+         return RequirementResult.CONTINUE;
       }
       
       if (canUseCache) {
          Token cachedToken = veriplace.getSetLocationTokenStore().get(user);
          if (cachedToken != null) {
             state.setSetLocationPermissionToken(cachedToken);
-            return;
+            return RequirementResult.CONTINUE;
          }
       }
       
@@ -89,13 +88,14 @@ class SetLocationPermissionRequirement extends Requirement {
             String callback = veriplace.getCallbackUrl(state);
             String url = veriplace.getClient().getSetLocationAPI().getRedirectURL(callback, user);
             // Force a redirect; when we get a callback, it'll give us a token.
-            throw new ShouldRedirectException(url);
+            return RequirementResult.redirect(url);
          }
          else {
             // User interaction isn't allowed, so there's nothing we can do.
             throw e;
          }
       }
+      return RequirementResult.CONTINUE;
    }
 }
 
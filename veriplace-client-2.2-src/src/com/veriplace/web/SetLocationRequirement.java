@@ -43,26 +43,23 @@ class SetLocationRequirement extends Requirement {
       this.parameters = parameters;
    }
    
-   public void complete(VeriplaceState state)
+   public RequirementResult complete(VeriplaceState state)
          throws SetLocationException,
-                WaitingException,
-                ShouldRestartException,
                 UnexpectedException {
 
       if (state.getUser() == null) {
          throw new IllegalStateException();
       }
       if (state.isAsynchronousRequestAllowed()) {
-         completeAsynchronous(state);
+         return completeAsynchronous(state);
       }
       else {
-         completeSynchronous(state);
+         return completeSynchronous(state);
       }
    }
 
-   protected void completeSynchronous(VeriplaceState state)
+   protected RequirementResult completeSynchronous(VeriplaceState state)
          throws SetLocationException,
-                ShouldRestartException,
                 UnexpectedException {
 
       User user = state.getUser();
@@ -78,19 +75,18 @@ class SetLocationRequirement extends Requirement {
          if (veriplace.getSetLocationTokenStore().get(user) != null) {
             veriplace.getSetLocationTokenStore().remove(user);
             state.setSetLocationPermissionToken(null);
-            throw new ShouldRestartException();
+            return RequirementResult.RESTART;
          }
          throw e;
       }
       veriplace.getSetLocationTokenStore().put(user, token);
       logger.debug("new location: " + updatedLocation);
       state.setLocation(updatedLocation);
+      return RequirementResult.CONTINUE;
    }
    
-   protected void completeAsynchronous(VeriplaceState state)
+   protected RequirementResult completeAsynchronous(VeriplaceState state)
          throws SetLocationException,
-                WaitingException,
-                ShouldRestartException,
                 UnexpectedException {
       
       User user = state.getUser();
@@ -108,6 +104,7 @@ class SetLocationRequirement extends Requirement {
          requestId = lrm.submitRequest(lrm.newRequest(veriplace.getClient(), 
                                                       user, token, parameters));
          pushRequestId(state, requestId);
+         state.setSetLocationRequest(true);
 
          logger.info("Sent set-location request; showing wait page");
          String callback = veriplace.getCallbackUrl(state);
@@ -115,7 +112,7 @@ class SetLocationRequirement extends Requirement {
          callbackUrl = veriplace.getClient().getSetLocationAPI().getRedirectURL(callbackUrl,
                state.getUser());
          */
-         throw new WaitingException(callback);
+         return RequirementResult.waiting(callback);
       }
       
       // If the request ID is present, then we've already issued a request and now we've been
@@ -140,7 +137,7 @@ class SetLocationRequirement extends Requirement {
          if (veriplace.getSetLocationTokenStore().get(user) != null) {
             veriplace.getSetLocationTokenStore().remove(user);
             state.setSetLocationPermissionToken(null);
-            throw new ShouldRestartException();
+            return RequirementResult.RESTART;
          }
          throw e;
       }
@@ -155,6 +152,7 @@ class SetLocationRequirement extends Requirement {
       }
       logger.debug("new location: " + updatedLocation);
       state.setLocation(updatedLocation);
+      return RequirementResult.CONTINUE;
    }
 }
 
@@ -39,13 +39,12 @@ class UserDiscoveryRequirement extends UserRequirement {
       this.immediate = immediate;
    }
    
-   public void complete(VeriplaceState state)
-         throws ShouldRedirectException,
-                UserDiscoveryException,
+   public RequirementResult complete(VeriplaceState state)
+         throws UserDiscoveryException,
                 UnexpectedException {
 
       if (alreadyHaveUser(state)) {
-         return;
+         return RequirementResult.CONTINUE;
       }
 
       Token newAccessToken;
@@ -68,7 +67,7 @@ class UserDiscoveryRequirement extends UserRequirement {
             throw new UserDiscoveryException();
          }
          else {
-            throw new ShouldRedirectException(url);
+            return RequirementResult.redirect(url);
          }
       }
       else {
@@ -83,5 +82,6 @@ class UserDiscoveryRequirement extends UserRequirement {
 
          storeUser(state, user);
       }
+      return RequirementResult.CONTINUE;
    }
 }
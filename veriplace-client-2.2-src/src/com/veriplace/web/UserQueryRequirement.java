@@ -38,13 +38,12 @@ class UserQueryRequirement extends UserRequirement {
       this.parameters = parameters;
    }
    
-   public void complete(VeriplaceState state)
-         throws ShouldRedirectException,
-                UserDiscoveryException,
+   public RequirementResult complete(VeriplaceState state)
+         throws UserDiscoveryException,
                 UnexpectedException {
 
       if (alreadyHaveUser(state)) {
-         return;
+         return RequirementResult.CONTINUE;
       }
 
       Client client = veriplace.getClient();
@@ -54,5 +53,6 @@ class UserQueryRequirement extends UserRequirement {
       }
       logger.info("User search succeeded");
       storeUser(state, user);
+      return RequirementResult.CONTINUE;
    }
 }
@@ -30,6 +30,7 @@ import com.veriplace.client.store.MemoryUserTokenStore;
 import com.veriplace.client.store.UserTokenStore;
 import com.veriplace.client.util.GetLocationRequestManager;
 import com.veriplace.client.util.SetLocationRequestManager;
+import com.veriplace.client.util.UrlEncoding;
 import com.veriplace.oauth.consumer.Token;
 import com.veriplace.oauth.message.Parameter;
 import com.veriplace.web.views.RespondedWithStatusViewException;
@@ -37,8 +38,6 @@ import com.veriplace.web.views.StatusViewRenderer;
 
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
 import java.util.Map;
 import java.util.Properties;
 
@@ -90,7 +89,6 @@ public class Veriplace {
    private static final Log logger = LogFactory.getLog(Veriplace.class);
    
    private static final String DUMMY_PARAM = "veriplace_temp";
-   private static final String UTF8 = "utf-8";
 
    private Client client;
    private ClientFactory clientFactory;
@@ -101,6 +99,29 @@ public class Veriplace {
    private SetLocationRequestManager setLocationRequestManager;
    private UserTokenStore locationTokenStore;
    private UserTokenStore setLocationTokenStore;
+   private long waitTimeout = GetLocationRequirement.WAIT_TIMEOUT;
+
+   // Requirement chains that take no per-request parameters.  Requirements keep no
+   // per-request state, so each chain is built once and shared by all requests.
+   private final Requirement[] userRequirements = {
+      new UserDiscoveryRequirement(this, false)
+   };
+   private final Requirement[] userImmediateRequirements = {
+      new UserDiscoveryRequirement(this, true)
+   };
+   private final Requirement[] getLocationPermissionRequirements = {
+      new UserDiscoveryRequirement(this, false),
+      new GetLocationPermissionRequirement(this, false)
+   };
+   private final Requirement[] locationRequirements = {
+      new UserDiscoveryRequirement(this, false),
+      new GetLocationPermissionRequirement(this, true),
+      new GetLocationRequirement(this)
+   };
+   private final Requirement[] setLocationPermissionRequirements = {
+      new UserDiscoveryRequirement(this, false),
+      new SetLocationPermissionRequirement(this, false)
+   };
 
    protected Veriplace() {
       locationTokenStore = new MemoryUserTokenStore();
@@ -170,6 +191,7 @@ public class Veriplace {
       setLocationRequestManager = fromInstance.setLocationRequestManager;
       redirector = fromInstance.redirector;
       statusViewRenderer = fromInstance.statusViewRenderer;
+      waitTimeout = fromInstance.waitTimeout;
       setClient(newClient);
    }
    
@@ -192,6 +214,19 @@ public class Veriplace {
       return client;
    }
 
+   /**
+    * Stops the background threads of the request managers and of the
+    * {@link com.veriplace.client.Client}, when the application shuts down.  Instances
+    * created with {@link #Veriplace(Veriplace, Client)} share the request managers but
+    * have their own client, which must be closed separately.
+    * @since 2.2
+    */
+   public void close() {
+      getLocationRequestManager.close();
+      setLocationRequestManager.close();
+      client.close();
+   }
+
    /**
     * Returns the currently configured {@link ClientFactory}, if any.
     */
@@ -274,6 +309,29 @@ public class Veriplace {
       setLocationRequestManager = lrm;
    }
 
+   /**
+    * See {@link #setWaitTimeout(long)}.
+    * @since 2.2
+    */
+   public long getWaitTimeout() {
+      return waitTimeout;
+   }
+
+   /**
+    * Specifies how long, in milliseconds, a callback from the "please wait" page may block
+    * while waiting for an asynchronous location request to finish before the page is shown
+    * again.  The default is 30 seconds.
+    * <p>
+    * Each blocked callback occupies a servlet container thread, so with many users waiting
+    * at once the container can run out of threads.  A value of zero means never block: the
+    * request is only checked for completion, and the browser's automatic refresh does the
+    * waiting instead.
+    * @since 2.2
+    */
+   public void setWaitTimeout(long waitTimeout) {
+      this.waitTimeout = waitTimeout;
+   }
+
    /**
     * See {@link #setGetLocationTokenStore(UserTokenStore)}.
     */
@@ -324,7 +382,7 @@ public class Veriplace {
       state = new VeriplaceState(this, request, response);
       state.attachToRequest(request);
       
-      state.addCallbackParameters(callbackFactory.captureParameters(state.getRequest()));
+      state.captureCallbackParameters(callbackFactory);
 
       state.setRequestId(state.getRequestParamLong(VeriplaceState.REQUEST_ID_CALLBACK_PARAM));
       
@@ -370,7 +428,7 @@ public class Veriplace {
              UnexpectedException,
              ServletException {
       try {
-         completeRequirements(state, false, new Requirement[] { new UserDiscoveryRequirement(this, false) });
+         completeRequirements(state, false, userRequirements);
       }
       catch (WaitingException e) {
          // There's no opportunity for a "please wait" page in this transaction
@@ -427,7 +485,7 @@ public class Veriplace {
           UnexpectedException,
              ServletException {
       try {
-         completeRequirementsImmediate(state, new Requirement[] { new UserDiscoveryRequirement(this, true) });
+         completeRequirementsImmediate(state, userImmediateRequirements);
       }
       catch (UserDiscoveryNotPermittedException e) {
          throw e;
@@ -453,10 +511,7 @@ public class Veriplace {
              RequestDeniedException,
              UnexpectedException,
              ServletException {
-      completeRequirementsNoWaiting(state, new Requirement[] {
-         new UserDiscoveryRequirement(this, false),
-         new GetLocationPermissionRequirement(this, false)
-      });
+      completeRequirementsNoWaiting(state, getLocationPermissionRequirements);
    }
 
    /**
@@ -499,11 +554,7 @@ public class Veriplace {
              RequestDeniedException,
              UnexpectedException,
              ServletException {
-      completeRequirements(state, false, new Requirement[] {
-         new UserDiscoveryRequirement(this, false),
-         new GetLocationPermissionRequirement(this, true),
-         new GetLocationRequirement(this)
-      });
+      completeRequirements(state, false, locationRequirements);
    }
 
    /**
@@ -543,10 +594,7 @@ public class Veriplace {
              RequestDeniedException,
              UnexpectedException,
              ServletException {
-      completeRequirementsNoWaiting(state, new Requirement[] {
-         new UserDiscoveryRequirement(this, false),
-         new SetLocationPermissionRequirement(this, false)
-      });
+      completeRequirementsNoWaiting(state, setLocationPermissionRequirements);
    }
 
    /**
@@ -579,14 +627,15 @@ public class Veriplace {
     * normally not need to call this method yourself.
     */
    public String getCallbackUrl(VeriplaceState state) {
-      StringBuilder buf = new StringBuilder();
-      buf.append(callbackFactory.createCallbackUrl(state.getRequest(), true));
+      String url = callbackFactory.createCallbackUrl(state.getRequest(), true);
+      StringBuilder buf = new StringBuilder(url.length() + 64);
+      buf.append(url);
       buf.append('?');
 
       // The following extra parameter is a workaround for some mobile browsers that can
       // mangle the first query string parameter during redirects or refreshes.  The dummy
       // parameter value should be the same as the last path component.
-      String dummyValue = buf.substring(buf.lastIndexOf("/") + 1, buf.length() - 1);
+      String dummyValue = url.substring(url.lastIndexOf('/') + 1);
       addParameter(buf, DUMMY_PARAM, dummyValue);
 
       for (Map.Entry<String, String[]> entry: state.getCallbackParameters().entrySet()) {
@@ -607,52 +656,74 @@ public class Veriplace {
              RequestDeniedException,
              UnexpectedException,
              ServletException {
+      RequirementResult result;
       try {
-         boolean done = false;
-         while (! done) {
-            try {
-               for (Requirement r : requirements) {
-                  r.complete(state);
-               }
-               done = true;
-            }
-            catch (ShouldRestartException e) {
-               continue;
-            }
+         result = runRequirements(state, requirements);
+      }
+      catch (RequestDeniedException e) {
+         state.setLastErrorException(e);
+         if (! immediate) {
+            tryStatusView(state, e, null);
+         }
+         throw e;
+      }
+      catch (UnexpectedException e) {
+         state.setLastErrorException(e);
+         if (! immediate) {
+            tryStatusView(state, e, null);
          }
+         throw e;
       }
-      catch (ShouldRedirectException e) {
+      
+      switch (result.getType()) {
+      case REDIRECT:
          if (immediate) {
-            throw new UnexpectedException(e);
+            throw new UnexpectedException(
+                  new IllegalStateException("Redirect required: " + result.getUrl()));
          }
          try {
-            redirector.sendRedirect(state.getRequest(), state.getResponse(), e.getRedirectToUrl());
+            redirector.sendRedirect(state.getRequest(), state.getResponse(), result.getUrl());
          }
          catch (IOException x) {
             throw new UnexpectedException(x);
          }
-         throw new RedirectedToVeriplaceException(e.getRedirectToUrl());
-      }
-      catch (WaitingException e) {
+         throw new RedirectedToVeriplaceException(result.getUrl());
+      case WAIT:
+         WaitingException e = new WaitingException(result.getUrl());
          if (! immediate) {
             tryStatusView(state, e, e.getCallbackUrl());
          }
          throw e;
+      default:
+         return;
       }
-      catch (RequestDeniedException e) {
-         state.setLastErrorException(e);
-         if (! immediate) {
-            tryStatusView(state, e, null);
-         }
-         throw e;
-      }
-      catch (UnexpectedException e) {
-         state.setLastErrorException(e);
-         if (! immediate) {
-            tryStatusView(state, e, null);
+   }
+
+   /**
+    * Runs each requirement in turn, starting over whenever one asks for a restart, until they
+    * have all been met or one of them needs to interrupt the flow.
+    * @return  {@link RequirementResult#CONTINUE} if all requirements were met, or else the
+    *   redirect or waiting result that interrupted the flow
+    */
+   private RequirementResult runRequirements(VeriplaceState state,
+                                             Requirement[] requirements)
+      throws RequestDeniedException,
+             UnexpectedException {
+      int i = 0;
+      while (i < requirements.length) {
+         RequirementResult result = requirements[i].complete(state);
+         switch (result.getType()) {
+         case CONTINUE:
+            i++;
+            break;
+         case RESTART:
+            i = 0;
+            break;
+         default:
+            return result;
          }
-         throw e;
       }
+      return RequirementResult.CONTINUE;
    }
 
    protected void tryStatusView(VeriplaceState state, Exception e, String callbackUrl)
@@ -708,13 +779,8 @@ public class Veriplace {
    private void addParameter(StringBuilder buf, String name, String value) {
       buf.append(name);
       buf.append('=');
-      if ((value != null) && !value.equals("")) {
-         try {
-            buf.append(URLEncoder.encode(value, UTF8));
-         }
-         catch (UnsupportedEncodingException e) {
-            buf.append(value);
-         }
+      if (value != null) {
+         UrlEncoding.append(buf, value);
       }
    }
 }
@@ -24,9 +24,10 @@ import com.veriplace.client.UserDiscoveryException;
 import com.veriplace.client.UserDiscoveryNotPermittedException;
 import com.veriplace.client.UserDiscoveryParameters;
 import com.veriplace.client.VeriplaceException;
+import com.veriplace.client.factory.CallbackFactory;
 import com.veriplace.oauth.consumer.Token;
 
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import javax.servlet.ServletException;
@@ -44,8 +45,11 @@ import javax.servlet.http.HttpServletResponse;
  */
 public class VeriplaceState {
 
-   // package-private
-   final static String REQUEST_ID_CALLBACK_PARAM = "veriplace_request_id";
+   /**
+    * Name of the callback parameter that carries the ID of a pending background request.
+    * @since 2.2
+    */
+   public final static String REQUEST_ID_CALLBACK_PARAM = "veriplace_request_id";
    
    // package-private
    final static String USER_ID_CALLBACK_PARAM = "veriplace_user_id";
@@ -66,8 +70,10 @@ public class VeriplaceState {
    private Token accessToken = null;
    private boolean userInteractionAllowed = true;
    private boolean asynchronousRequestAllowed = true;
-   private Map<String, String[]> callbackParameters = new HashMap<String, String[]>();
+   private CallbackFactory parameterSource = null;
+   private Map<String, String[]> callbackParameters = null;
    private Long requestId = null;
+   private boolean setLocationRequest = false;
    
    public VeriplaceState(Veriplace veriplace,
                          HttpServletRequest request,
@@ -280,7 +286,7 @@ public class VeriplaceState {
     * preserved across a redirect and callback.
     */
    public Map<String, String[]> getCallbackParameters() {
-      return callbackParameters;
+      return callbackParameters();
    }
 
    /**
@@ -288,10 +294,10 @@ public class VeriplaceState {
     */
    public void setCallbackParameter(String name, String value) {
       if (value == null) {
-         callbackParameters.remove(name);
+         callbackParameters().remove(name);
       }
       else {
-         callbackParameters.put(name, new String[] { value });
+         callbackParameters().put(name, new String[] { value });
       }
    }
    
@@ -307,16 +313,31 @@ public class VeriplaceState {
     */
    public void setCallbackParameter(String name, String[] values) {
       if (values == null) {
-         callbackParameters.remove(name);
+         callbackParameters().remove(name);
       }
       else {
-         callbackParameters.put(name, values);
+         callbackParameters().put(name, values);
       }
    }
    
+   /**
+    * Specifies where to find the HTTP parameters of the current request that should be
+    * preserved.  They are not copied until something actually needs the callback parameters,
+    * since most requests complete without a redirect or a "please wait" page.
+    */
    // package-private
-   void addCallbackParameters(Map<String, String[]> map) {
-      callbackParameters.putAll(map);
+   void captureCallbackParameters(CallbackFactory callbackFactory) {
+      this.parameterSource = callbackFactory;
+   }
+   
+   private Map<String, String[]> callbackParameters() {
+      if (callbackParameters == null) {
+         callbackParameters = new LinkedHashMap<String, String[]>();
+         if (parameterSource != null) {
+            callbackParameters.putAll(parameterSource.captureParameters(request));
+         }
+      }
+      return callbackParameters;
    }
    
    /**
@@ -351,8 +372,12 @@ public class VeriplaceState {
       this.setLocationPermissionToken = token;
    }
    
-   // package-private
-   Long getRequestId() {
+   /**
+    * Returns the ID of the background request that a "please wait" page is waiting for,
+    * if any.  See {@link com.veriplace.web.servlet.RequestStatusServlet}.
+    * @since 2.2
+    */
+   public Long getRequestId() {
       return requestId;
    }
    
@@ -360,6 +385,20 @@ public class VeriplaceState {
    void setRequestId(Long requestId) {
       this.requestId = requestId;
    }
+
+   /**
+    * Returns true if the background request returned by {@link #getRequestId()} is a
+    * set-location request, rather than a location request.
+    * @since 2.2
+    */
+   public boolean isSetLocationRequest() {
+      return setLocationRequest;
+   }
+
+   // package-private
+   void setSetLocationRequest(boolean setLocationRequest) {
+      this.setLocationRequest = setLocationRequest;
+   }
  
    /**
     * Creates HTML hidden form fields for the current user identity.  Using JSP expression
@@ -382,7 +421,7 @@ public class VeriplaceState {
     */         
    public String getAllFields() {
       StringBuilder buf = new StringBuilder();
-      for (Map.Entry<String, String[]> entry: callbackParameters.entrySet()) {
+      for (Map.Entry<String, String[]> entry: callbackParameters().entrySet()) {
          String name = entry.getKey();
          for (String value: entry.getValue()) {
             addHiddenField(buf, name, value);
@@ -43,4 +43,14 @@ public class WaitingException extends VeriplaceException {
    public String getCallbackUrl() {
       return callbackUrl;
    }
+
+   /**
+    * Skips capturing a stack trace, since this is thrown on the normal request path
+    * and does not represent an error.
+    * @since 2.2
+    */
+   @Override
+   public synchronized Throwable fillInStackTrace() {
+      return this;
+   }
 }
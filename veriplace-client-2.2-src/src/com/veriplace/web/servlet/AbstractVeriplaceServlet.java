@@ -25,6 +25,8 @@ import com.veriplace.web.views.StatusViewException;
 
 import java.io.IOException;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -74,6 +76,7 @@ public abstract class AbstractVeriplaceServlet
    protected String defaultViewName;
    private String propertiesFilePath;
    private Properties properties = null;
+   private RequirementPlan requirementPlan;
    
    /**
     * Initialize the client.
@@ -92,13 +95,9 @@ public abstract class AbstractVeriplaceServlet
          throw new ServletException(t);
       }
 
-      boolean useStatusViews = true;
-      UsesVeriplace anno = this.getClass().getAnnotation(UsesVeriplace.class);
-      if (anno != null) {
-         useStatusViews = anno.useStatusViews();
-      }
+      requirementPlan = RequirementPlan.forClass(this.getClass());
       
-      if (useStatusViews) {
+      if (requirementPlan.useStatusViews) {
          ServletStatusViewRenderer viewRenderer;
          String viewParamsName = config.getInitParameter(VIEW_PARAMS_INIT_PARAM);
          if (viewParamsName != null) {
@@ -274,26 +273,80 @@ public abstract class AbstractVeriplaceServlet
          throws VeriplaceException,
                 ServletException {
       
-      Veriplace instance = state.getVeriplace();
-      UsesVeriplace anno = this.getClass().getAnnotation(UsesVeriplace.class);
-      if (anno != null) {
-         if (! anno.allowUserInteraction()) {
+      RequirementPlan plan = requirementPlan;
+      if (plan == null) {
+         // init() was not called, or was overridden without calling super
+         plan = RequirementPlan.forClass(this.getClass());
+      }
+      plan.apply(state);
+   }
+
+   /**
+    * The requirements specified by a servlet class's {@link UsesVeriplace} annotation, read
+    * once per class so that requests do not need to inspect the annotation.
+    */
+   private static final class RequirementPlan {
+
+      private static final ConcurrentMap<Class<?>, RequirementPlan> plans =
+            new ConcurrentHashMap<Class<?>, RequirementPlan>();
+      
+      private final boolean useStatusViews;
+      private final boolean allowUserInteraction;
+      private final boolean requireUser;
+      private final boolean requireGetLocationPermission;
+      private final boolean requireLocation;
+      private final String mode;
+      private final boolean requireSetLocationPermission;
+
+      static RequirementPlan forClass(Class<?> servletClass) {
+         RequirementPlan plan = plans.get(servletClass);
+         if (plan == null) {
+            plan = new RequirementPlan(servletClass.getAnnotation(UsesVeriplace.class));
+            plans.putIfAbsent(servletClass, plan);
+         }
+         return plan;
+      }
+      
+      private RequirementPlan(UsesVeriplace anno) {
+         if (anno == null) {
+            useStatusViews = true;
+            allowUserInteraction = true;
+            requireUser = false;
+            requireGetLocationPermission = false;
+            requireLocation = false;
+            mode = null;
+            requireSetLocationPermission = false;
+         }
+         else {
+            useStatusViews = anno.useStatusViews();
+            allowUserInteraction = anno.allowUserInteraction();
+            requireUser = anno.requireUser();
+            requireGetLocationPermission = anno.requireGetLocationPermission();
+            requireLocation = anno.requireLocation();
+            mode = anno.mode().equals("") ? null : anno.mode();
+            requireSetLocationPermission = anno.requireSetLocationPermission();
+         }
+      }
+
+      void apply(VeriplaceState state)
+            throws VeriplaceException,
+                   ServletException {
+         if (! allowUserInteraction) {
             state.setUserInteractionAllowed(false);
          }
-         if (anno.requireUser()) {
+         if (requireUser) {
             state.requireUser();
          }
-         if (anno.requireGetLocationPermission()) {
+         if (requireGetLocationPermission) {
             state.requireGetLocationPermission();
          }
-         if (anno.requireLocation()) {
-            String mode = anno.mode();
-            if (! mode.equals("")) {
+         if (requireLocation) {
+            if (mode != null) {
                state.setLocationMode(mode);
             }
             state.requireLocation();
          }
-         if (anno.requireSetLocationPermission()) {
+         if (requireSetLocationPermission) {
             state.requireSetLocationPermission();
          }
       }
@@ -0,0 +1,162 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.web.servlet;
+
+import com.veriplace.client.util.AbstractRequestManager;
+import com.veriplace.web.Veriplace;
+import com.veriplace.web.VeriplaceState;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Lightweight status endpoint for background location requests, for use by script
+ * on a "please wait" page.
+ * <p>
+ * Rather than reloading the callback URL over and over, which runs the whole
+ * {@link com.veriplace.web.Veriplace#open} and requirement chain each time, the waiting page
+ * can repeatedly request this servlet with the <tt>veriplace_request_id</tt> parameter taken
+ * from its callback URL.  Each request waits until the background request has finished or
+ * until a timeout passes, then returns a JSON object such as
+ * <tt>{"requestId":12,"complete":true}</tt>.  Once <tt>complete</tt> is true, the page
+ * navigates to the callback URL once to pick up the result.  The waiting page should keep
+ * its ordinary automatic refresh as a fallback for browsers without script.
+ * <p>
+ * To use it, map the servlet in web.xml and give its path to the view renderer, either with
+ * the <tt>veriplaceStatusPath</tt> context parameter or the <tt>status</tt> view parameter
+ * (see {@link VeriplaceServletHelper}), or with
+ * {@link com.veriplace.web.views.AbstractStatusViewRenderer#setStatusPath(String)}.  The
+ * "please wait" view then receives the complete status URL in the <tt>veriplace_status</tt>
+ * attribute; see the example <tt>wait.jsp</tt>.
+ * <p>
+ * The servlet uses the shared Veriplace instance from
+ * {@link VeriplaceServletHelper#getSharedVeriplaceInstance(javax.servlet.ServletContext)}.
+ * The following optional parameters are accepted:
+ * <ul>
+ * <li> <tt>wait</tt> (request parameter): maximum time in milliseconds to wait; zero means
+ * return immediately.  Limited to the <tt>maxWait</tt> setting. </li>
+ * <li> <tt>type</tt> (request parameter): "setlocation" to check a set-location request
+ * rather than a location request. </li>
+ * <li> <tt>maxWait</tt> (servlet <tt>init-param</tt>): upper limit for <tt>wait</tt>, and the
+ * default if it is not given.  (Default is 30000) </li>
+ * </ul>
+ * @since 2.2
+ */
+public class RequestStatusServlet
+   extends HttpServlet {
+
+   private static final Log logger = LogFactory.getLog(RequestStatusServlet.class);
+   private static final String MAX_WAIT_INIT_PARAM = "maxWait";
+   private static final String WAIT_PARAM = "wait";
+
+   /**
+    * Request parameter that selects the kind of background request to check.
+    */
+   public static final String TYPE_PARAM = "type";
+
+   /**
+    * Value of {@link #TYPE_PARAM} for a set-location request.
+    */
+   public static final String SET_LOCATION_TYPE = "setlocation";
+
+   /**
+    * Default upper limit for how long a status request may wait.  This is kept below
+    * the point at which mobile gateways tend to give up on a response.
+    */
+   public static final long DEFAULT_MAX_WAIT = 30000L;
+   
+   protected Veriplace veriplace;
+   protected long maxWait = DEFAULT_MAX_WAIT;
+
+   @Override
+   public void init(ServletConfig config)
+      throws ServletException {
+
+      super.init(config);
+      try {
+         veriplace = VeriplaceServletHelper.getSharedVeriplaceInstance(config.getServletContext());
+      } catch (Throwable t) {
+         logger.warn(t);
+         logger.debug(t,t);
+         throw new ServletException(t);
+      }
+      String maxWaitStr = config.getInitParameter(MAX_WAIT_INIT_PARAM);
+      if (maxWaitStr != null) {
+         try {
+            maxWait = Long.parseLong(maxWaitStr.trim());
+         }
+         catch (NumberFormatException e) {
+            logger.warn("Invalid value found for init parameter: " + MAX_WAIT_INIT_PARAM);
+         }
+      }
+   }
+
+   @Override
+   protected void doGet(HttpServletRequest request,
+                        HttpServletResponse response)
+      throws ServletException,
+             IOException {
+
+      long requestId;
+      long wait = maxWait;
+      try {
+         requestId = Long.parseLong(request.getParameter(VeriplaceState.REQUEST_ID_CALLBACK_PARAM));
+         String waitStr = request.getParameter(WAIT_PARAM);
+         if (waitStr != null) {
+            wait = Math.min(Math.max(Long.parseLong(waitStr), 0L), maxWait);
+         }
+      }
+      catch (NumberFormatException e) {
+         response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+         return;
+      }
+
+      AbstractRequestManager<?> manager;
+      if (SET_LOCATION_TYPE.equals(request.getParameter(TYPE_PARAM))) {
+         manager = veriplace.getSetLocationRequestManager();
+      }
+      else {
+         manager = veriplace.getGetLocationRequestManager();
+      }
+      
+      boolean complete = (wait > 0) ? manager.waitForCompletion(requestId, wait) :
+            manager.isCompleted(requestId);
+      logger.debug("Status of request ID " + requestId + ": " + (complete ? "complete" : "pending"));
+
+      response.setContentType("application/json");
+      response.setHeader("Cache-Control", "no-cache");
+      PrintWriter out = response.getWriter();
+      out.print("{\"requestId\":" + requestId + ",\"complete\":" + complete + "}");
+      out.flush();
+   }
+}
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
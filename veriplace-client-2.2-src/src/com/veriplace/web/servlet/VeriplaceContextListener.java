@@ -0,0 +1,50 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.web.servlet;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Closes the application's shared {@link com.veriplace.web.Veriplace} instance when the
+ * application is stopped, so that its background threads do not survive an undeploy or
+ * redeploy.  Add it to web.xml:
+ * <pre>
+ *   &lt;listener&gt;
+ *     &lt;listener-class&gt;com.veriplace.web.servlet.VeriplaceContextListener&lt;/listener-class&gt;
+ *   &lt;/listener&gt;
+ * </pre>
+ * @since 2.2
+ */
+public class VeriplaceContextListener
+      implements ServletContextListener {
+
+   public void contextInitialized(ServletContextEvent event) {
+   }
+
+   public void contextDestroyed(ServletContextEvent event) {
+      VeriplaceServletHelper.releaseSharedVeriplaceInstance(event.getServletContext());
+   }
+}
+
+/*
+** Local Variables:
+**   c-basic-offset: 3
+**   tab-width: 3
+**   indent-tabs-mode: nil
+** End:
+**
+** ex: set softtabstop=3 tabstop=3 expandtab cindent shiftwidth=3
+*/
@@ -15,8 +15,12 @@
 package com.veriplace.web.servlet;
 
 import com.veriplace.client.ConfigurationException;
+import com.veriplace.client.Location;
+import com.veriplace.client.util.ResultWrapper;
+import com.veriplace.client.util.SharedDirectoryRequestStore;
 import com.veriplace.web.Veriplace;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Enumeration;
@@ -43,7 +47,20 @@ import org.apache.commons.logging.LogFactory;
  * (Optional; default is ".jsp") </li>
  * <li> <tt>veriplaceStateAttributeName</tt>: Attribute name for storing a reference to the VeriplaceState
  * object in the HttpServletRequest. (Optional; default is none) </li>
+ * <li> <tt>veriplaceWaitTimeout</tt>: Maximum time in milliseconds to hold a request while waiting for
+ * a location; zero means never block. See {@link com.veriplace.web.Veriplace#setWaitTimeout(long)}.
+ * (Optional; default is 30000) </li>
+ * <li> <tt>veriplaceRequestDirectory</tt>: Path to a directory shared by all servers running the
+ * application, in which to keep background requests and their results, so that a callback can be
+ * handled by any server.  See {@link com.veriplace.client.util.SharedDirectoryRequestStore}.
+ * (Optional; default is to keep requests in memory) </li>
+ * <li> <tt>veriplaceStatusPath</tt>: Path at which {@link RequestStatusServlet} is mapped, so that
+ * the "please wait" page can poll it.  See
+ * {@link com.veriplace.web.views.AbstractStatusViewRenderer#setStatusPath(String)}.
+ * (Optional; default is none) </li>
  * </ul>
+ * To stop the shared instance's background threads when the application is stopped, register
+ * {@link VeriplaceContextListener} in web.xml, or call {@link #releaseSharedVeriplaceInstance}.
  */
 public class VeriplaceServletHelper {
    
@@ -54,6 +71,9 @@ public class VeriplaceServletHelper {
    public static final String VIEW_PREFIX_CONTEXT_PARAM = "veriplaceViewPrefix";
    public static final String VIEW_SUFFIX_CONTEXT_PARAM = "veriplaceViewSuffix";
    public static final String STATE_ATTRIBUTE_CONTEXT_PARAM = "veriplaceStateAttributeName";
+   public static final String WAIT_TIMEOUT_CONTEXT_PARAM = "veriplaceWaitTimeout";
+   public static final String REQUEST_DIRECTORY_CONTEXT_PARAM = "veriplaceRequestDirectory";
+   public static final String STATUS_PATH_CONTEXT_PARAM = "veriplaceStatusPath";
 
    /**
     * Creates or returns a {@link com.veriplace.web.Veriplace} instance for the given ServletContext,
@@ -170,6 +190,25 @@ public class VeriplaceServletHelper {
       return getSharedVeriplaceInstance(servlet.getServletConfig().getServletContext());
    }
    
+   /**
+    * Closes and forgets the {@link com.veriplace.web.Veriplace} instance shared by the given
+    * ServletContext, if there is one.  Call this when the application is stopped; see
+    * {@link VeriplaceContextListener}.
+    * @since 2.2
+    */
+   public static void releaseSharedVeriplaceInstance(ServletContext servletContext) {
+      Veriplace v;
+      synchronized (servletContext) {
+         v = (Veriplace) servletContext.getAttribute(SERVLET_CONTEXT_ATTRIBUTE);
+         servletContext.removeAttribute(SERVLET_CONTEXT_ATTRIBUTE);
+         servletContext.removeAttribute(SERVLET_PROPERTIES_ATTRIBUTE);
+      }
+      if (v != null) {
+         logger.debug("Closing shared Veriplace instance");
+         v.close();
+      }
+   }
+   
    /**
     * Returns the properties that were used to configure the Veriplace instance for the current servlet.
     * @throws ConfigurationException  if the properties file was not specified or could not be read
@@ -193,6 +232,7 @@ public class VeriplaceServletHelper {
     * <li> veriplace.views.NAME.waiting: name of "please wait" view (default is "wait") </li>
     * <li> veriplace.views.NAME.error: name of general error view (default is "error") </li>
     * <li> veriplace.views.NAME.error.Something: name of view to use for the exception class "SomethingException" </li>
+    * <li> veriplace.views.NAME.status: path at which {@link RequestStatusServlet} is mapped (e.g. "/status") </li>
     * </ul>
     */
    public static ServletStatusViewRenderer getViewRendererFromViewParams(ServletContext sc, 
@@ -211,6 +251,9 @@ public class VeriplaceServletHelper {
             else if (name.equals("suffix")) {
                vr.setViewSuffix(value);
             }
+            else if (name.equals("status")) {
+               vr.setStatusPath(value);
+            }
             else {
                viewMap.put(name, value);
             }
@@ -236,7 +279,28 @@ public class VeriplaceServletHelper {
       if (stateAttr != null) {
          vr.setStateAttributeName(stateAttr);
       }
+      String statusPath = sc.getInitParameter(STATUS_PATH_CONTEXT_PARAM);
+      if (statusPath != null) {
+         vr.setStatusPath(statusPath);
+      }
       v.setStatusViewRenderer(vr);
+      String waitTimeout = sc.getInitParameter(WAIT_TIMEOUT_CONTEXT_PARAM);
+      if (waitTimeout != null) {
+         try {
+            v.setWaitTimeout(Long.parseLong(waitTimeout.trim()));
+         }
+         catch (NumberFormatException e) {
+            logger.warn("Invalid value found for context parameter: " + WAIT_TIMEOUT_CONTEXT_PARAM);
+         }
+      }
+      String requestDirectory = sc.getInitParameter(REQUEST_DIRECTORY_CONTEXT_PARAM);
+      if (requestDirectory != null) {
+         File dir = new File(requestDirectory);
+         v.getGetLocationRequestManager().setRequestStore(
+               new SharedDirectoryRequestStore<ResultWrapper<Location>>(dir, "location"));
+         v.getSetLocationRequestManager().setRequestStore(
+               new SharedDirectoryRequestStore<ResultWrapper<Location>>(dir, "setlocation"));
+      }
       sc.setAttribute(SERVLET_CONTEXT_ATTRIBUTE, v);
       sc.setAttribute(SERVLET_PROPERTIES_ATTRIBUTE, properties);
    }
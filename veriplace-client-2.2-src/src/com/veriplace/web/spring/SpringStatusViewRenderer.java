@@ -66,6 +66,9 @@ public class SpringStatusViewRenderer extends AbstractStatusViewRenderer {
       if (stateAttributeName != null) {
          attributes.put(stateAttributeName, request.getAttribute(stateAttributeName));
       }
+      if ((statusAttributeName != null) && (request.getAttribute(statusAttributeName) != null)) {
+         attributes.put(statusAttributeName, request.getAttribute(statusAttributeName));
+      }
       
       try {
          View view = viewResolver.resolveViewName(viewName, rc.getLocale());
@@ -15,6 +15,7 @@
 package com.veriplace.web.views;
 
 import com.veriplace.web.VeriplaceState;
+import com.veriplace.web.servlet.RequestStatusServlet;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -52,6 +53,8 @@ public abstract class AbstractStatusViewRenderer implements StatusViewRenderer {
 
    protected String callbackAttributeName = "veriplace_callback";
    protected String stateAttributeName = "veriplace";
+   protected String statusAttributeName = "veriplace_status";
+   protected String statusPath = null;
 
    public AbstractStatusViewRenderer() {
       errorViewMap = new HashMap<Class<?>, String>();
@@ -230,6 +233,43 @@ public abstract class AbstractStatusViewRenderer implements StatusViewRenderer {
       this.stateAttributeName = stateAttributeName;
    }
 
+   /**
+    * See {@link #setStatusPath(String)}.
+    * @since 2.2
+    */
+   public String getStatusPath() {
+      return statusPath;
+   }
+
+   /**
+    * Specifies the path, within the application, at which
+    * {@link com.veriplace.web.servlet.RequestStatusServlet} is mapped (e.g. "/veriplace-status").
+    * If set, the "please wait" view is given the URL for checking on its background request,
+    * in the attribute named by {@link #setStatusAttributeName(String)}, so that script on the
+    * page can poll it and navigate to the callback URL once, when the request is complete.
+    * @since 2.2
+    */
+   public void setStatusPath(String statusPath) {
+      this.statusPath = statusPath;
+   }
+
+   /**
+    * See {@link #setStatusAttributeName(String)}.
+    * @since 2.2
+    */
+   public String getStatusAttributeName() {
+      return statusAttributeName;
+   }
+
+   /**
+    * Specifies the name of the request attribute (or model object, if you are using Spring)
+    * in which to store the status URL described in {@link #setStatusPath(String)}.
+    * @since 2.2
+    */
+   public void setStatusAttributeName(String statusAttributeName) {
+      this.statusAttributeName = statusAttributeName;
+   }
+
    public boolean canRenderWaitingView() {
       return (waitingViewName != null);
    }
@@ -251,6 +291,15 @@ public abstract class AbstractStatusViewRenderer implements StatusViewRenderer {
       if (callbackAttributeName != null) {
          request.setAttribute(callbackAttributeName, callbackUrl);
       }
+      if ((statusAttributeName != null) && (statusPath != null) && (state.getRequestId() != null)) {
+         String statusUrl = request.getContextPath() + statusPath + "?" +
+               VeriplaceState.REQUEST_ID_CALLBACK_PARAM + "=" + state.getRequestId();
+         if (state.isSetLocationRequest()) {
+            statusUrl += "&" + RequestStatusServlet.TYPE_PARAM + "=" +
+                  RequestStatusServlet.SET_LOCATION_TYPE;
+         }
+         request.setAttribute(statusAttributeName, statusUrl);
+      }
       return renderViewInternal(request, response, state, waitingViewName);
    }
    
@@ -16,12 +16,26 @@ package com.veriplace.client;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.veriplace.client.util.BoundedExecutor;
+import com.veriplace.client.util.GetLocationRequestManager;
+import com.veriplace.client.util.ResultCallback;
+import com.veriplace.client.util.ResultFuture;
 import com.veriplace.oauth.consumer.Token;
+import com.veriplace.oauth.message.Request;
 import com.veriplace.oauth.message.RequestMethod;
+import com.veriplace.oauth.message.Response;
+
+import java.io.IOException;
 
 import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
@@ -256,6 +270,355 @@ public class TestGetLocationAPI extends TestBase {
       }
    }
    
+   @Test
+   public void testGetLocationAsyncSuccess() throws Exception {
+      String locationMode = "area";
+      
+      prepareLocationRequest(ACCESS_TOKEN, locationMode, 200, LOCATION_DOCUMENT);
+      
+      ResultFuture<Location> future =
+         client.getGetLocationAPI().getLocationAsync(ACCESS_TOKEN, USER, locationMode, null);
+      TestCallback callback = new TestCallback();
+      future.addCallback(callback);
+
+      assertTrue(future.waitForCompletion(5000L));
+      Location location = future.getResult();
+      assertNotNull(location);
+      assertEquals(LOCATION_ID, location.getId());
+      // callbacks run on the completing thread, after waiters are released
+      assertTrue(callback.called.await(5, TimeUnit.SECONDS));
+      assertSame(location, callback.location);
+      assertNull(callback.exception);
+   }
+
+   @Test
+   public void testGetLocationAsyncFailure() throws Exception {
+      String locationMode = "area";
+      
+      prepareLocationRequest(ACCESS_TOKEN, locationMode, 401, null);
+      
+      ResultFuture<Location> future =
+         client.getGetLocationAPI().getLocationAsync(ACCESS_TOKEN, USER, locationMode, null);
+      assertTrue(future.waitForCompletion(5000L));
+
+      // a callback added after completion is invoked immediately
+      TestCallback callback = new TestCallback();
+      future.addCallback(callback);
+      assertTrue(callback.exception instanceof GetLocationNotPermittedException);
+      assertNull(callback.location);
+
+      try {
+         future.getResult();
+         fail("Expected GetLocationNotPermittedException");
+      }
+      catch (GetLocationNotPermittedException e) {
+      }
+   }
+
+   @Test
+   public void testGetLocationAsyncAfterClose() throws Exception {
+      String locationMode = "area";
+      
+      prepareLocationRequest(ACCESS_TOKEN, locationMode, 200, LOCATION_DOCUMENT);
+      
+      assertTrue(client.getGetLocationAPI().getLocationAsync(ACCESS_TOKEN, USER, locationMode, null)
+                 .waitForCompletion(5000L));
+      ExecutorService executor = client.getGetLocationAPI().getAsyncExecutor();
+      client.close();
+      assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+      // no request reaches the server once the API is closed
+      ResultFuture<Location> future =
+         client.getGetLocationAPI().getLocationAsync(ACCESS_TOKEN, USER, locationMode, null);
+      assertTrue(future.waitForCompletion(5000L));
+      try {
+         future.getResult();
+         fail("Expected ServerBusyException");
+      }
+      catch (ServerBusyException e) {
+      }
+   }
+
+   @Test
+   public void testGetLocationRequestManager() throws Exception {
+      // background requests run on the manager's own executor
+      String locationMode = "area";
+      
+      prepareLocationRequest(ACCESS_TOKEN, locationMode, 200, LOCATION_DOCUMENT);
+      
+      GetLocationRequestManager manager = new GetLocationRequestManager();
+      long requestId = manager.submitRequest(
+            manager.newRequest(client, USER, ACCESS_TOKEN, locationMode));
+      assertTrue(manager.waitForCompletion(requestId, 5000L));
+      assertEquals(LOCATION_ID, manager.getResult(requestId).getId());
+      assertEquals(1, ((BoundedExecutor) manager.getExecutorService()).getStartedCount());
+      manager.close();
+   }
+
+   @Test
+   public void testGetLocationAsyncCoalescesConcurrentRequests() throws Exception {
+      // a second request for the same user and mode joins the first;
+      // the mock server only expects one location request
+      String locationMode = "area";
+      
+      final CountDownLatch requestStarted = new CountDownLatch(1);
+      final CountDownLatch releaseResponse = new CountDownLatch(1);
+      new MockServerOAuthStep(mockServer, "blocking location request") {
+         @Override
+         public Response getResponse(Request request, boolean storeHeaders)
+               throws IOException {
+            requestStarted.countDown();
+            try {
+               releaseResponse.await(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+            }
+            return super.getResponse(request, storeHeaders);
+         }
+      }.setExpectedMethod(RequestMethod.POST)
+            .setExpectedRelativeUrl(LOCATION_REQUEST_URI)
+            .setExpectedToken(ACCESS_TOKEN)
+            .setExpectedParameter("mode", locationMode)
+            .setResponseBody(LOCATION_DOCUMENT);
+
+      ResultFuture<Location> first =
+         client.getGetLocationAPI().getLocationAsync(ACCESS_TOKEN, USER, locationMode, null);
+      assertTrue(requestStarted.await(5, TimeUnit.SECONDS));
+      ResultFuture<Location> second =
+         client.getGetLocationAPI().getLocationAsync(ACCESS_TOKEN, USER, locationMode, null);
+      releaseResponse.countDown();
+
+      assertTrue(first.waitForCompletion(5000L));
+      assertTrue(second.waitForCompletion(5000L));
+      assertSame(first.getResult(), second.getResult());
+   }
+
+   @Test
+   public void testGetLocationAsyncDoesNotShareAcrossTokens() throws Exception {
+      // a request with another access token is sent separately, and its
+      // failure does not reach the caller whose token is valid
+      String locationMode = "area";
+      Token revokedToken = new Token("revoked", "secret");
+      
+      final CountDownLatch requestStarted = new CountDownLatch(1);
+      final CountDownLatch releaseResponse = new CountDownLatch(1);
+      new MockServerOAuthStep(mockServer, "blocking location request") {
+         @Override
+         public Response getResponse(Request request, boolean storeHeaders)
+               throws IOException {
+            requestStarted.countDown();
+            try {
+               releaseResponse.await(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+            }
+            return super.getResponse(request, storeHeaders);
+         }
+      }.setExpectedMethod(RequestMethod.POST)
+            .setExpectedRelativeUrl(LOCATION_REQUEST_URI)
+            .setExpectedToken(ACCESS_TOKEN)
+            .setExpectedParameter("mode", locationMode)
+            .setResponseBody(LOCATION_DOCUMENT);
+      prepareLocationRequest(revokedToken, locationMode, 401, null);
+
+      ResultFuture<Location> valid =
+         client.getGetLocationAPI().getLocationAsync(ACCESS_TOKEN, USER, locationMode, null);
+      assertTrue(requestStarted.await(5, TimeUnit.SECONDS));
+      ResultFuture<Location> revoked =
+         client.getGetLocationAPI().getLocationAsync(revokedToken, USER, locationMode, null);
+      assertTrue(revoked.waitForCompletion(5000L));
+      releaseResponse.countDown();
+
+      try {
+         revoked.getResult();
+         fail("Expected GetLocationNotPermittedException");
+      }
+      catch (GetLocationNotPermittedException e) {
+      }
+      assertTrue(valid.waitForCompletion(5000L));
+      assertEquals(LOCATION_ID, valid.getResult().getId());
+   }
+
+   @Test
+   public void testGetLocationCached() throws Exception {
+      // with caching enabled, an unexpired location is reused without a second request
+      String locationMode = "area";
+      useLocationCache(10);
+
+      prepareLocationRequest(ACCESS_TOKEN, locationMode, 200,
+            LOCATION_DOCUMENT.replace("2009-04-08", "2099-04-08"));
+
+      Location location = client.getGetLocationAPI().getLocation(ACCESS_TOKEN, USER, locationMode);
+      Location location2 = client.getGetLocationAPI().getLocation(ACCESS_TOKEN, USER, locationMode);
+      assertSame(location, location2);
+      assertEquals(1, client.getGetLocationAPI().getLocationCache().getHitCount());
+      assertEquals(1, client.getGetLocationAPI().getLocationCache().getMissCount());
+
+      // a different mode is a different cache entry
+      prepareLocationRequest(ACCESS_TOKEN, "zoom", 200, LOCATION_DOCUMENT);
+      client.getGetLocationAPI().getLocation(ACCESS_TOKEN, USER, "zoom");
+   }
+
+   @Test
+   public void testGetLocationExpiredNotCached() throws Exception {
+      String locationMode = "area";
+      useLocationCache(10);
+
+      mockServer.addStep("first location request")
+            .setExpectedMethod(RequestMethod.POST)
+            .setExpectedRelativeUrl(LOCATION_REQUEST_URI)
+            .setResponseBody(LOCATION_DOCUMENT);
+      mockServer.addStep("second location request")
+            .setExpectedMethod(RequestMethod.POST)
+            .setExpectedRelativeUrl(LOCATION_REQUEST_URI)
+            .setResponseBody(LOCATION_DOCUMENT);
+
+      client.getGetLocationAPI().getLocation(ACCESS_TOKEN, USER, locationMode);
+      client.getGetLocationAPI().getLocation(ACCESS_TOKEN, USER, locationMode);
+      assertEquals(0, client.getGetLocationAPI().getLocationCache().getHitCount());
+      assertEquals(0, client.getGetLocationAPI().getLocationCache().size());
+   }
+
+   @Test
+   public void testGetLocationHedged() throws Exception {
+      // a slow request is hedged with a FREEDOM request, whose location wins
+      String locationMode = "zoom";
+      HedgePolicy hedgePolicy = useHedgePolicy(100L);
+
+      CountDownLatch releasePrimary = prepareSlowLocationRequest(locationMode);
+      prepareHedgeLocationRequest(LOCATION_DOCUMENT
+            .replace("998", "999").replace("2009-04-08", "2099-04-08"), new CountDownLatch(1));
+
+      ResultFuture<Location> future =
+         client.getGetLocationAPI().getLocationAsync(ACCESS_TOKEN, USER, locationMode, null);
+      assertTrue(future.waitForCompletion(5000L));
+      releasePrimary.countDown();
+      assertEquals(Long.valueOf(999L), future.getResult().getId());
+      assertEquals(1, hedgePolicy.getHedgeCount());
+      assertEquals(1, hedgePolicy.getHedgeWinCount());
+   }
+
+   @Test
+   public void testGetLocationHedgeUnusable() throws Exception {
+      // an expired location from the hedge request is ignored
+      String locationMode = "zoom";
+      HedgePolicy hedgePolicy = useHedgePolicy(100L);
+
+      CountDownLatch hedgeAnswered = prepareSlowLocationRequest(locationMode);
+      prepareHedgeLocationRequest(LOCATION_DOCUMENT.replace("998", "999"), hedgeAnswered);
+
+      Location location = client.getGetLocationAPI().getLocation(ACCESS_TOKEN, USER, locationMode);
+      assertEquals(LOCATION_ID, location.getId());
+      assertEquals(1, hedgePolicy.getHedgeCount());
+      assertEquals(0, hedgePolicy.getHedgeWinCount());
+   }
+
+   @Test
+   public void testGetLocationNotHedged() throws Exception {
+      // requests are not hedged until there are enough samples, nor in the hedge mode
+      HedgePolicy hedgePolicy = new HedgePolicy(50, LocationMode.FREEDOM, 0L);
+      useHedgePolicy(hedgePolicy);
+
+      prepareLocationRequest(ACCESS_TOKEN, "zoom", 200, LOCATION_DOCUMENT);
+      client.getGetLocationAPI().getLocation(ACCESS_TOKEN, USER, "zoom");
+      assertEquals(-1L, hedgePolicy.getDelay());
+
+      for (int i = 0; i < HedgePolicy.MIN_SAMPLES; i++) {
+         hedgePolicy.record(0L);
+      }
+      prepareLocationRequest(ACCESS_TOKEN, LocationMode.FREEDOM, 200, LOCATION_DOCUMENT);
+      client.getGetLocationAPI().getLocation(ACCESS_TOKEN, USER, LocationMode.FREEDOM);
+      assertEquals(0, hedgePolicy.getHedgeCount());
+   }
+
+   @Test
+   public void testHedgePolicyDelay() throws Exception {
+      HedgePolicy hedgePolicy = new HedgePolicy(90, LocationMode.FREEDOM, 5L);
+      for (int i = 1; i <= 100; i++) {
+         hedgePolicy.record(i);
+      }
+      assertEquals(90L, hedgePolicy.getDelay());
+      // only the most recent samples count
+      for (int i = 0; i < HedgePolicy.SAMPLES; i++) {
+         hedgePolicy.record(1L);
+      }
+      assertEquals(5L, hedgePolicy.getDelay());
+   }
+
+   /**
+    * Creates a hedge policy whose delay is the given time, and a client that uses it.
+    */
+   protected HedgePolicy useHedgePolicy(long delay) throws Exception {
+      HedgePolicy hedgePolicy = new HedgePolicy(50, LocationMode.FREEDOM, 0L);
+      for (int i = 0; i < HedgePolicy.MIN_SAMPLES; i++) {
+         hedgePolicy.record(delay);
+      }
+      useHedgePolicy(hedgePolicy);
+      return hedgePolicy;
+   }
+
+   protected void useHedgePolicy(HedgePolicy hedgePolicy) throws Exception {
+      ClientConfiguration config = new ClientConfiguration(CONSUMER_KEY, CONSUMER_SECRET);
+      config.setTokenStore(tokenStore);
+      config.setHedgePolicy(hedgePolicy);
+      client = new Client(config);
+      client.getConsumer().setClient(mockServer);
+   }
+
+   /**
+    * Expects a location request that is not answered until the returned latch is released.
+    */
+   protected CountDownLatch prepareSlowLocationRequest(String locationMode) {
+      final CountDownLatch release = new CountDownLatch(1);
+      new MockServerOAuthStep(mockServer, "slow location request") {
+         @Override
+         public Response getResponse(Request request, boolean storeHeaders)
+               throws IOException {
+            try {
+               release.await(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+            }
+            return super.getResponse(request, storeHeaders);
+         }
+      }.setExpectedMethod(RequestMethod.POST)
+            .setExpectedRelativeUrl(LOCATION_REQUEST_URI)
+            .setExpectedToken(ACCESS_TOKEN)
+            .setExpectedParameter("mode", locationMode)
+            .setResponseBody(LOCATION_DOCUMENT);
+      return release;
+   }
+
+   /**
+    * Expects a FREEDOM location request, and releases the given latch once it is answered.
+    */
+   protected void prepareHedgeLocationRequest(String responseBody, final CountDownLatch answered) {
+      new MockServerOAuthStep(mockServer, "hedge location request") {
+         @Override
+         public Response getResponse(Request request, boolean storeHeaders)
+               throws IOException {
+            try {
+               return super.getResponse(request, storeHeaders);
+            }
+            finally {
+               answered.countDown();
+            }
+         }
+      }.setExpectedMethod(RequestMethod.POST)
+            .setExpectedRelativeUrl(LOCATION_REQUEST_URI)
+            .setExpectedToken(ACCESS_TOKEN)
+            .setExpectedParameter("mode", LocationMode.FREEDOM)
+            .setResponseBody(responseBody);
+   }
+
+   protected void useLocationCache(int size) throws Exception {
+      ClientConfiguration config = new ClientConfiguration(CONSUMER_KEY, CONSUMER_SECRET);
+      config.setTokenStore(tokenStore);
+      config.setLocationCacheSize(size);
+      client = new Client(config);
+      client.getConsumer().setClient(mockServer);
+   }
+
    protected void useLocationFilter(LocationFilter locationFilter) throws Exception {
       ClientConfiguration config = new ClientConfiguration(CONSUMER_KEY, CONSUMER_SECRET);
       config.setTokenStore(tokenStore);
@@ -270,6 +633,23 @@ public class TestGetLocationAPI extends TestBase {
             STREET, NEIGHBORHOOD, CITY, STATE, POSTAL, COUNTRY_CODE); 
    }
    
+   class TestCallback implements ResultCallback<Location> {
+
+      final CountDownLatch called = new CountDownLatch(1);
+      Location location;
+      VeriplaceException exception;
+
+      public void onSuccess(Location location) {
+         this.location = location;
+         called.countDown();
+      }
+
+      public void onFailure(VeriplaceException exception) {
+         this.exception = exception;
+         called.countDown();
+      }
+   }
+
    class TestLocationFilterReturnsSuccess implements LocationFilter {
 
       private Location myLocation;
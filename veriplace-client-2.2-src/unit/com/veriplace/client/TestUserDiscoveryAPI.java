@@ -16,6 +16,7 @@ package com.veriplace.client;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 import com.veriplace.oauth.consumer.Token;
@@ -23,6 +24,10 @@ import com.veriplace.oauth.message.Revision;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Unit tests for {@link com.veriplace.client.UserDiscoveryAPI}.  These tests verify that the
  * API sends the correct parameters to the server (although we do not check OAuth signatures
@@ -96,6 +101,54 @@ public class TestUserDiscoveryAPI extends TestBase {
       }
    }
    
+   @Test
+   public void testGetUserCached() throws Exception {
+      // Repeating the lookup with the same access token should not contact the server again
+      
+      prepareUserDiscoveryRequest(ACCESS_TOKEN, 200, USER_DOCUMENT);
+      
+      User user = client.getUserDiscoveryAPI().getUser(ACCESS_TOKEN);
+      User again = client.getUserDiscoveryAPI().getUser(ACCESS_TOKEN);
+      
+      assertEquals(USER_ID, again.getId());
+      assertSame(user, again);
+      assertEquals(1, client.getUserDiscoveryAPI().getUserCache().getHitCount());
+   }
+   
+   @Test
+   public void testGetUserNotFoundCached() throws Exception {
+      // A token that identified no user keeps failing without contacting the server again
+      
+      prepareUserDiscoveryRequest(ACCESS_TOKEN, 404, null);
+      
+      for (int i = 0; i < 2; i++) {
+         try {
+            client.getUserDiscoveryAPI().getUser(ACCESS_TOKEN);
+            fail("Expected UserNotFoundException");
+         }
+         catch (UserNotFoundException e) {
+         }
+      }
+      assertEquals(1, client.getUserDiscoveryAPI().getUserCache().getHitCount());
+   }
+   
+   @Test
+   public void testGetUserNotPermittedNotCached() throws Exception {
+      // Other failures are not cached
+      
+      prepareUserDiscoveryRequest(ACCESS_TOKEN, 401, null);
+      prepareUserDiscoveryRequest(ACCESS_TOKEN, 200, USER_DOCUMENT);
+      
+      try {
+         client.getUserDiscoveryAPI().getUser(ACCESS_TOKEN);
+         fail("Expected UserDiscoveryNotPermittedException");
+      }
+      catch (UserDiscoveryNotPermittedException e) {
+      }
+      User user = client.getUserDiscoveryAPI().getUser(ACCESS_TOKEN);
+      assertEquals(USER_ID, user.getId());
+   }
+   
    @Test
    public void testGetUserOtherError() throws Exception {
       // For HTTP errors other than 400, 401, and 404, throw VeriplaceOAuthException
@@ -206,6 +259,79 @@ public class TestUserDiscoveryAPI extends TestBase {
       }
    }
    
+   @Test
+   public void testGetUsersByParametersInChunks() throws Exception {
+      // A long list is split into several requests, and the results are merged
+      
+      createBulkClient(2, 2);
+      List<UserDiscoveryParameters> list = new ArrayList<UserDiscoveryParameters>();
+      for (int i = 0; i < 5; i++) {
+         list.add(UserDiscoveryParameters.byPhone("111555121" + i));
+      }
+      // The chunks may be sent in any order, so each response is valid for any of them
+      for (int i = 0; i < 3; i++) {
+         prepareUserDiscoveryRequest(APP_TOKEN, 200, "<users><user id=\"" + (900 + i)
+               + "\" key=\"111555121" + i + "\" keyType=\"mobile\"/></users>");
+      }
+      
+      Map<UserDiscoveryParameters,User> users = client.getUserDiscoveryAPI().getUsersByParameters(list);
+      
+      assertEquals(3, users.size());
+      for (int i = 0; i < 3; i++) {
+         assertEquals(900L + i, users.get(list.get(i)).getId());
+      }
+   }
+   
+   @Test
+   public void testGetUsersByParametersChunkFails() throws Exception {
+      // If any of the requests fails, the whole call fails
+      
+      createBulkClient(2, 1);
+      List<UserDiscoveryParameters> list = new ArrayList<UserDiscoveryParameters>();
+      for (int i = 0; i < 4; i++) {
+         list.add(UserDiscoveryParameters.byPhone("111555121" + i));
+      }
+      prepareUserDiscoveryRequest(APP_TOKEN, 200, USERS_BY_PII_DOCUMENT);
+      prepareUserDiscoveryRequest(APP_TOKEN, 401, null);
+      
+      try {
+         client.getUserDiscoveryAPI().getUsersByParameters(list);
+         fail("Expected UserDiscoveryNotPermittedException");
+      }
+      catch (UserDiscoveryNotPermittedException e) {
+      }
+   }
+   
+   @Test
+   public void testGetUsersByParametersAfterClose() throws Exception {
+      // Once closed, the chunks are sent from the calling thread
+      
+      createBulkClient(2, 2);
+      client.close();
+      List<UserDiscoveryParameters> list = new ArrayList<UserDiscoveryParameters>();
+      for (int i = 0; i < 3; i++) {
+         list.add(UserDiscoveryParameters.byPhone("111555121" + i));
+      }
+      for (int i = 0; i < 2; i++) {
+         prepareUserDiscoveryRequest(APP_TOKEN, 200, "<users><user id=\"" + (900 + i)
+               + "\" key=\"111555121" + i + "\" keyType=\"mobile\"/></users>");
+      }
+      
+      Map<UserDiscoveryParameters,User> users = client.getUserDiscoveryAPI().getUsersByParameters(list);
+      
+      assertEquals(2, users.size());
+   }
+   
+   protected void createBulkClient(int chunkSize, int parallelism) throws Exception {
+      ClientConfiguration config = new ClientConfiguration(CONSUMER_KEY, CONSUMER_SECRET);
+      config.setProtocol(Revision.Core1_0);
+      config.setApplicationToken(APP_TOKEN);
+      config.setUserDiscoveryChunkSize(chunkSize);
+      config.setUserDiscoveryParallelism(parallelism);
+      client = new Client(config);
+      client.getConsumer().setClient(mockServer);
+   }
+   
    protected void createClientWithAppToken(Token appToken) throws Exception {
       ClientConfiguration config = new ClientConfiguration(CONSUMER_KEY, CONSUMER_SECRET);
       config.setProtocol(Revision.Core1_0);
@@ -161,4 +161,55 @@ public class TestDefaultCallbackFactory {
       assertEquals(1, params.size());
       assertArrayEquals(new String[] { "bar", "baz" }, params.get("foo"));
    }
+   
+   @Test
+   public void testPathInfoVariesWithinServlet() {
+      // The scheme/host/path prefix is reused, but each request's own path info is appended
+      CallbackFactory cf = new DefaultCallbackFactory();
+      MockHttpServletRequest request = new MockHttpServletRequest();
+      request.setServerName("globex.com");
+      request.setContextPath("/resources");
+      request.setServletPath("/teams");
+
+      request.setPathInfo("/broncos");
+      assertEquals("http://globex.com/resources/teams/broncos", cf.createCallbackUrl(request, true));
+      request.setPathInfo("raiders");
+      assertEquals("http://globex.com/resources/teams/raiders", cf.createCallbackUrl(request, true));
+      request.setPathInfo(null);
+      assertEquals("http://globex.com/resources/teams", cf.createCallbackUrl(request, true));
+      request.setServletPath("/players");
+      assertEquals("http://globex.com/resources/players", cf.createCallbackUrl(request, true));
+   }
+   
+   @Test
+   public void testManyHostNames() {
+      // Host names come from the client; once the cache is full it starts over,
+      // and every URL is still built correctly
+      CallbackFactory cf = new DefaultCallbackFactory();
+      MockHttpServletRequest request = new MockHttpServletRequest();
+      request.setContextPath("/resources");
+      request.setServletPath("/teams");
+      for (int i = 0; i < 200; i++) {
+         request.setServerName("host" + i + ".globex.com");
+         assertEquals("http://host" + i + ".globex.com/resources/teams",
+                      cf.createCallbackUrl(request, true));
+         request.setServerName("globex.com");
+         assertEquals("http://globex.com/resources/teams", cf.createCallbackUrl(request, true));
+      }
+   }
+   
+   @Test
+   public void testCapturedParamsKeepRequestOrder() {
+      CallbackFactory cf = new DefaultCallbackFactory();
+      
+      MockHttpServletRequest request = new MockHttpServletRequest();
+      request.addParameter("zebra", "1");
+      request.addParameter("veriplace_user_id", "2");
+      request.addParameter("apple", "3");
+      request.addParameter("mango", "4");
+      
+      Map<String, String[]> params = cf.captureParameters(request);
+      assertArrayEquals(new String[] { "zebra", "apple", "mango" },
+                        params.keySet().toArray(new String[0]));
+   }
 }
@@ -158,6 +158,85 @@ public class TestDefaultClientFactory implements TestData {
       assertFalse(((DefaultLocationFilter) lf).isUseCachedLocation());
    }
    
+   @Test
+   public void testLocationCache() throws Exception {
+      Properties p = new Properties();
+      p.put("veriplace.application.consumer.key", CONSUMER_KEY);
+      p.put("veriplace.application.consumer.secret", CONSUMER_SECRET);
+      
+      ClientConfiguration cc =
+            new DefaultClientFactory(p).getClientConfiguration();
+      assertNull(cc.getLocationCacheSize());
+
+      p.put("veriplace.client.location-cache.size", "100");
+      p.put("veriplace.client.location-cache.max-age", "60000");
+
+      cc = new DefaultClientFactory(p).getClientConfiguration();
+      assertEquals(Integer.valueOf(100), cc.getLocationCacheSize());
+      assertEquals(Long.valueOf(60000L), cc.getLocationCacheMaxAge());
+   }
+   
+   @Test
+   public void testUserCache() throws Exception {
+      Properties p = new Properties();
+      p.put("veriplace.application.consumer.key", CONSUMER_KEY);
+      p.put("veriplace.application.consumer.secret", CONSUMER_SECRET);
+      
+      ClientConfiguration cc =
+            new DefaultClientFactory(p).getClientConfiguration();
+      assertNull(cc.getUserCacheSize());
+
+      p.put("veriplace.client.user-cache.size", "0");
+      p.put("veriplace.client.user-cache.max-age", "60000");
+
+      cc = new DefaultClientFactory(p).getClientConfiguration();
+      assertEquals(Integer.valueOf(0), cc.getUserCacheSize());
+      assertEquals(Long.valueOf(60000L), cc.getUserCacheMaxAge());
+      assertNull(new DefaultClientFactory(p).getClient().getUserDiscoveryAPI().getUserCache());
+   }
+   
+   @Test
+   public void testUserDiscoveryChunking() throws Exception {
+      Properties p = new Properties();
+      p.put("veriplace.application.consumer.key", CONSUMER_KEY);
+      p.put("veriplace.application.consumer.secret", CONSUMER_SECRET);
+      
+      ClientConfiguration cc =
+            new DefaultClientFactory(p).getClientConfiguration();
+      assertNull(cc.getUserDiscoveryChunkSize());
+      assertNull(cc.getUserDiscoveryParallelism());
+
+      p.put("veriplace.client.user-discovery.chunk-size", "50");
+      p.put("veriplace.client.user-discovery.parallelism", "8");
+
+      cc = new DefaultClientFactory(p).getClientConfiguration();
+      assertEquals(Integer.valueOf(50), cc.getUserDiscoveryChunkSize());
+      assertEquals(Integer.valueOf(8), cc.getUserDiscoveryParallelism());
+   }
+   
+   @Test
+   public void testHedgePolicy() throws Exception {
+      Properties p = new Properties();
+      p.put("veriplace.application.consumer.key", CONSUMER_KEY);
+      p.put("veriplace.application.consumer.secret", CONSUMER_SECRET);
+      
+      ClientConfiguration cc =
+            new DefaultClientFactory(p).getClientConfiguration();
+      assertNull(cc.getHedgePolicy());
+
+      p.put("veriplace.client.hedge.percentile", "90");
+      p.put("veriplace.client.hedge.min-delay", "2000");
+
+      cc = new DefaultClientFactory(p).getClientConfiguration();
+      assertEquals(90.0, cc.getHedgePolicy().getPercentile(), 0.0);
+      assertEquals("freedom", cc.getHedgePolicy().getHedgeMode());
+      assertEquals(2000L, cc.getHedgePolicy().getMinDelay());
+
+      p.put("veriplace.client.hedge.percentile", "150");
+      cc = new DefaultClientFactory(p).getClientConfiguration();
+      assertNull(cc.getHedgePolicy());
+   }
+   
    @Test
    public void testObsoletePropertyNames() throws Exception {
       // Can use deprecated property names interchangeably with new ones
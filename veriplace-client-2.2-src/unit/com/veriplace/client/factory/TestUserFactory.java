@@ -84,6 +84,38 @@ public class TestUserFactory
       assertEquals((long)users.get(key1).getId(),999L);
       assertEquals((long)users.get(key2).getId(),997L);
    }
+
+   @Test
+   public void testGetUsersByPIIStreaming() throws Exception {
+
+      Map<UserDiscoveryParameters,User> users =
+         factory.getUsersByPII(USERS_BY_PII_DOCUMENT.getBytes());
+      assertNotNull(users);
+      assertEquals(users.size(),2);
+
+      UserDiscoveryParameters key1 = UserDiscoveryParameters.byPhone("1115551212");
+      UserDiscoveryParameters key2 = UserDiscoveryParameters.byPhone("1115551213");
+
+      assertEquals((long)users.get(key1).getId(),999L);
+      assertEquals((long)users.get(key2).getId(),997L);
+   }
+
+   @Test
+   public void testGetUsersByPIIStreamingSkipsInvalid() throws Exception {
+
+      String document = "<users>"
+         + "<user id=\"999\" key=\"foo@bar.com\" keyType=\"email\"/>"
+         + "<user key=\"1115551212\" keyType=\"mobile\"/>"
+         + "<user id=\"x\" key=\"1115551213\" keyType=\"mobile\"/>"
+         + "<user id=\"997\" key=\"1115551214\" keyType=\"fax\"/>"
+         + "<other><user id=\"996\" key=\"1115551215\" keyType=\"mobile\"/></other>"
+         + "</users>";
+      Map<UserDiscoveryParameters,User> users = factory.getUsersByPII(document.getBytes());
+      assertEquals(1, users.size());
+      assertEquals(999L, (long)users.get(UserDiscoveryParameters.byEmail("foo@bar.com")).getId());
+
+      assertTrue(factory.getUsersByPII("not xml".getBytes()).isEmpty());
+   }
 }
 
 /*
@@ -0,0 +1,102 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.veriplace.client.Location;
+import com.veriplace.client.User;
+import com.veriplace.client.UserNotFoundException;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link com.veriplace.client.store.ExpiringCache} and its subclasses.
+ */
+public class TestExpiringCache {
+
+   @Test
+   public void testLeastRecentlyUsedEvicted() throws Exception {
+      UserCache cache = new UserCache(2, 60000L);
+      User a = new User(1L);
+      User b = new User(2L);
+      cache.put("a", a);
+      cache.put("b", b);
+      assertSame(a, cache.get("a"));
+      cache.put("c", new User(3L));
+      assertEquals(2, cache.size());
+      assertSame(a, cache.get("a"));
+      assertNull(cache.get("b"));
+      assertEquals(2, cache.getHitCount());
+      assertEquals(1, cache.getMissCount());
+   }
+
+   @Test
+   public void testUserNotFoundCached() {
+      UserCache cache = new UserCache(10, 60000L);
+      cache.putNotFound("a");
+      cache.put("b", new User(0L));
+      try {
+         cache.get("a");
+         fail("expected UserNotFoundException");
+      }
+      catch (UserNotFoundException e) {
+      }
+      try {
+         assertEquals(new User(0L), cache.get("b"));
+      }
+      catch (UserNotFoundException e) {
+         fail("a user with ID 0 is not a failed lookup");
+      }
+   }
+
+   @Test
+   public void testUserExpires() throws Exception {
+      UserCache cache = new UserCache(10, 50L);
+      cache.put("a", new User(1L));
+      Thread.sleep(100L);
+      assertNull(cache.get("a"));
+      assertEquals(0, cache.size());
+   }
+
+   @Test
+   public void testLocationExpires() throws Exception {
+      LocationCache cache = new LocationCache(10, null);
+      Location expired = createLocation(-1000L);
+      Location fresh = createLocation(60000L);
+      cache.put("expired", expired);
+      cache.put("fresh", fresh);
+      assertEquals(1, cache.size());
+      assertSame(fresh, cache.get("fresh"));
+
+      // the maximum age applies when it is sooner than the location's own expiration
+      cache = new LocationCache(10, 50L);
+      cache.put("fresh", fresh);
+      assertSame(fresh, cache.get("fresh"));
+      Thread.sleep(100L);
+      assertNull(cache.get("fresh"));
+   }
+
+   private Location createLocation(long expiresIn) {
+      Date now = new Date();
+      return new Location(1L, now, new Date(now.getTime() + expiresIn), 1.0, 2.0, 3.0,
+            null, null, "Emeryville", "CA", null, "US");
+   }
+}
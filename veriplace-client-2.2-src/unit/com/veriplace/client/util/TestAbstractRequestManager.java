@@ -23,6 +23,7 @@ import static org.junit.Assert.fail;
 
 import com.veriplace.client.Client;
 import com.veriplace.client.GetLocationException;
+import com.veriplace.client.ServerBusyException;
 import com.veriplace.client.TestData;
 import com.veriplace.client.VeriplaceException;
 import com.veriplace.client.util.AbstractRequestManager.AbstractRequest;
@@ -128,6 +129,90 @@ public class TestAbstractRequestManager
       }
    }
    
+   @Test
+   public void testIsCompletedWithPlainStore() throws Exception {
+      // a store that cannot be polled is given the shortest possible wait
+      final TestRequestStore pollable = new TestRequestStore();
+      manager.setRequestStore(new RequestStore<ResultWrapper<String>>() {
+         public long add() {
+            return pollable.add();
+         }
+         public boolean waitForCompletion(long id) {
+            return pollable.waitForCompletion(id);
+         }
+         public boolean waitForCompletion(long id, long timeout) {
+            return pollable.waitForCompletion(id, timeout);
+         }
+         public void put(long id, ResultWrapper<String> result) {
+            pollable.put(id, result);
+         }
+         public ResultWrapper<String> get(long id) {
+            return pollable.get(id);
+         }
+      });
+      
+      TestRequest request = new TestRequest(client, "foo");
+      long requestId = manager.submitRequest(request);
+      assertFalse(manager.isCompleted(requestId));
+      request.complete();
+      assertTrue(manager.waitForCompletion(requestId, 1000L));
+      assertTrue(manager.isCompleted(requestId));
+   }
+   
+   @Test
+   public void testRejectedWhenFull() throws Exception {
+      manager.setPoolSize(1);
+      manager.setQueueSize(1);
+      
+      TestRequest running = new TestRequest(client, "foo");
+      TestRequest queued = new TestRequest(client, "bar");
+      TestRequest rejected = new TestRequest(client, "baz");
+      long runningId = manager.submitRequest(running);
+      long queuedId = manager.submitRequest(queued);
+      long rejectedId = manager.submitRequest(rejected);
+
+      // the rejected request completes immediately with an error
+      assertTrue(manager.waitForCompletion(rejectedId, 50L));
+      try {
+         manager.getResult(rejectedId);
+         fail("Expected exception");
+      }
+      catch (ServerBusyException e) {
+      }
+
+      BoundedExecutor executor = (BoundedExecutor) manager.getExecutorService();
+      assertEquals(1, executor.getRejectedCount());
+      assertEquals(1, executor.getQueuedCount());
+      
+      running.complete();
+      queued.complete();
+      assertTrue(manager.waitForCompletion(runningId, 1000L));
+      assertTrue(manager.waitForCompletion(queuedId, 1000L));
+      assertEquals("bar", manager.getResult(queuedId));
+      assertEquals(2, executor.getStartedCount());
+   }
+   
+   @Test
+   public void testRejectedAfterClose() throws Exception {
+      TestRequest request = new TestRequest(client, "foo");
+      request.complete();
+      long requestId = manager.submitRequest(request);
+      assertTrue(manager.waitForCompletion(requestId, 1000L));
+      
+      BoundedExecutor executor = (BoundedExecutor) manager.getExecutorService();
+      manager.close();
+      assertTrue(executor.isShutdown());
+
+      long rejectedId = manager.submitRequest(new TestRequest(client, "bar"));
+      assertTrue(manager.waitForCompletion(rejectedId, 50L));
+      try {
+         manager.getResult(rejectedId);
+         fail("Expected exception");
+      }
+      catch (ServerBusyException e) {
+      }
+   }
+   
    public static class TestRequestManager
          extends AbstractRequestManager<String> {
       
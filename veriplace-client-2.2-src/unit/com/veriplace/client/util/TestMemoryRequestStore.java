@@ -0,0 +1,67 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link com.veriplace.client.util.MemoryRequestStore}.
+ */
+public class TestMemoryRequestStore {
+
+   @Test
+   public void testPutAndGet() {
+      MemoryRequestStore<String> store = new MemoryRequestStore<String>();
+      long id = store.add();
+      assertFalse(store.waitForCompletion(id, 10L));
+      assertFalse(store.isCompleted(id));
+      assertNull(store.get(id));
+      
+      store.put(id, "foo");
+      assertTrue(store.isCompleted(id));
+      assertTrue(store.waitForCompletion(id, 10L));
+      assertEquals("foo", store.get(id));
+   }
+
+   @Test
+   public void testUniqueIds() {
+      MemoryRequestStore<String> store = new MemoryRequestStore<String>();
+      long id1 = store.add();
+      long id2 = store.add();
+      assertFalse(id1 == id2);
+      assertEquals(2, store.size());
+   }
+
+   @Test
+   public void testExpiration() throws Exception {
+      MemoryRequestStore<String> store = new MemoryRequestStore<String>(100L);
+      long id = store.add();
+      store.put(id, "foo");
+      
+      Thread.sleep(250L);
+      
+      // expiration happens lazily, on the next add
+      long id2 = store.add();
+      assertEquals(1, store.size());
+      assertNull(store.get(id));
+      assertTrue(store.waitForCompletion(id));
+      assertFalse(store.waitForCompletion(id2, 10L));
+   }
+}
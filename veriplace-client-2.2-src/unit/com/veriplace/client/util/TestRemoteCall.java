@@ -0,0 +1,148 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.veriplace.client.Location;
+import com.veriplace.client.TestBase;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link RemoteCall}.  These start a Flight Recorder recording and
+ * check the events that the client commits to it.
+ */
+public class TestRemoteCall extends TestBase {
+
+   private static final String EVENT_NAME = "com.veriplace.RemoteCall";
+
+   private Recording recording;
+
+   @After
+   public void tearDown() {
+      if (recording != null) {
+         recording.close();
+      }
+   }
+
+   @Test
+   public void testNotRecordedWithoutRecording() {
+      assertSame(RemoteCall.NONE, RemoteCall.begin(RemoteCall.VERIPLACE, RemoteCall.ACCESS_TOKEN));
+   }
+
+   @Test
+   public void testRecordsCall() throws Exception {
+      startRecording();
+      RemoteCall call = RemoteCall.begin(RemoteCall.VERIPLACE,
+                                         new URL("http://example.com/api/1.0/users/999/locations"));
+      call.end(200, 123L);
+
+      List<RecordedEvent> events = stopRecording();
+      assertEquals(1, events.size());
+      RecordedEvent event = events.get(0);
+      assertEquals(RemoteCall.VERIPLACE, event.getString("service"));
+      assertEquals("/api/1.0/users/{id}/locations", event.getString("endpoint"));
+      assertEquals(RemoteCall.userHash(999L), event.getLong("userHash"));
+      assertEquals(200, event.getInt("status"));
+      assertEquals(123L, event.getLong("bytes"));
+   }
+
+   @Test
+   public void testUserHash() {
+      assertEquals(0L, RemoteCall.userHash(null));
+      assertTrue(RemoteCall.userHash(999L) != 0L);
+      assertTrue(RemoteCall.userHash(999L) != 999L);
+      assertEquals(RemoteCall.userHash(999L), RemoteCall.userHash(999L));
+      assertFalse(RemoteCall.userHash(999L) == RemoteCall.userHash(998L));
+   }
+
+   @Test
+   public void testGetLocationRecordsEachCall() throws Exception {
+      startRecording();
+      prepareLocationAccessTokenRequestSuccess(ACCESS_TOKEN);
+      prepareLocationRequest(ACCESS_TOKEN, null, 200, LOCATION_DOCUMENT);
+
+      client.getGetLocationAPI().getLocationAccessToken(USER);
+      Location location = client.getGetLocationAPI().getLocation(ACCESS_TOKEN, USER, null);
+      assertNotNull(location);
+
+      List<RecordedEvent> events = stopRecording();
+      assertEquals(4, events.size());
+      assertEquals(RemoteCall.REQUEST_TOKEN, events.get(0).getString("endpoint"));
+      assertEquals(RemoteCall.ACCESS_TOKEN, events.get(2).getString("endpoint"));
+      assertEquals(200, events.get(2).getInt("status"));
+
+      RecordedEvent locate = events.get(3);
+      assertEquals("/api/1.0/users/{id}/locations", locate.getString("endpoint"));
+      assertEquals(RemoteCall.userHash(USER_ID), locate.getLong("userHash"));
+      assertEquals(200, locate.getInt("status"));
+      assertEquals(LOCATION_DOCUMENT.getBytes().length, locate.getLong("bytes"));
+   }
+
+   @Test
+   public void testRefusedAccessTokenRecordsStatus() throws Exception {
+      startRecording();
+      prepareLocationAccessTokenRequestFailure();
+
+      try {
+         client.getGetLocationAPI().getLocationAccessToken(USER);
+      } catch (Exception e) {
+         // expected
+      }
+
+      List<RecordedEvent> events = stopRecording();
+      RecordedEvent last = events.get(events.size() - 1);
+      assertEquals(RemoteCall.ACCESS_TOKEN, last.getString("endpoint"));
+      assertTrue(last.getInt("status") != 200);
+   }
+
+   private void startRecording() {
+      recording = new Recording();
+      recording.enable(EVENT_NAME).withThreshold(java.time.Duration.ZERO);
+      recording.start();
+   }
+
+   private List<RecordedEvent> stopRecording() throws Exception {
+      recording.stop();
+      File file = File.createTempFile("remote-call", ".jfr");
+      try {
+         recording.dump(file.toPath());
+         List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+         for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+            if (event.getEventType().getName().equals(EVENT_NAME)) {
+               events.add(event);
+            }
+         }
+         return events;
+      } finally {
+         file.delete();
+      }
+   }
+}
@@ -0,0 +1,175 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.veriplace.client.GetLocationException;
+import com.veriplace.client.Location;
+import com.veriplace.client.TestData;
+
+import java.io.File;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link com.veriplace.client.util.SharedDirectoryRequestStore}.
+ */
+public class TestSharedDirectoryRequestStore
+      implements TestData {
+
+   private File directory;
+   
+   @Before
+   public void setUp() throws Exception {
+      directory = File.createTempFile("requests", "");
+      directory.delete();
+      directory.mkdir();
+   }
+   
+   @After
+   public void tearDown() throws Exception {
+      for (File file : directory.listFiles()) {
+         file.delete();
+      }
+      directory.delete();
+   }
+
+   @Test
+   public void testResultVisibleOnOtherNode() throws Exception {
+      // two stores on the same directory stand in for two servers
+      SharedDirectoryRequestStore<ResultWrapper<Location>> node1 =
+         new SharedDirectoryRequestStore<ResultWrapper<Location>>(directory, "location", 60000L, 10L);
+      SharedDirectoryRequestStore<ResultWrapper<Location>> node2 =
+         new SharedDirectoryRequestStore<ResultWrapper<Location>>(directory, "location", 60000L, 10L);
+      
+      long id = node1.add();
+      assertFalse(node2.waitForCompletion(id, 30L));
+      assertNull(node2.get(id));
+      
+      Location location = new Location(LOCATION_ID, new Date(), null, 1.0, 2.0, 3.0,
+            null, null, "Emeryville", "CA", null, "US");
+      node1.put(id, new ResultWrapper<Location>(location, ACCESS_TOKEN));
+      
+      assertTrue(node2.waitForCompletion(id, 1000L));
+      ResultWrapper<Location> result = node2.get(id);
+      assertNotNull(result);
+      assertEquals(LOCATION_ID, result.getResult().getId());
+      assertEquals("Emeryville", result.getResult().getCity());
+      assertEquals(ACCESS_TOKEN.getToken(), result.getToken().getToken());
+      assertEquals(ACCESS_TOKEN.getTokenSecret(), result.getToken().getTokenSecret());
+   }
+
+   @Test
+   public void testResultFileIsPrivate() throws Exception {
+      // the result file holds the token secret, so no one but its owner may read it
+      SharedDirectoryRequestStore<ResultWrapper<Location>> store =
+         new SharedDirectoryRequestStore<ResultWrapper<Location>>(directory, "location");
+      long id = store.add();
+      Location location = new Location(LOCATION_ID, new Date(), null, 1.0, 2.0, 3.0,
+            null, null, "Emeryville", "CA", null, "US");
+      store.put(id, new ResultWrapper<Location>(location, ACCESS_TOKEN));
+
+      File file = store.getFile(id, ".result");
+      assertTrue(file.exists());
+      if (Files.getFileStore(file.toPath()).supportsFileAttributeView("posix")) {
+         assertEquals(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE),
+               Files.getPosixFilePermissions(file.toPath()));
+      }
+   }
+
+   @Test
+   public void testExceptionResult() throws Exception {
+      SharedDirectoryRequestStore<ResultWrapper<Location>> node1 =
+         new SharedDirectoryRequestStore<ResultWrapper<Location>>(directory, "location");
+      SharedDirectoryRequestStore<ResultWrapper<Location>> node2 =
+         new SharedDirectoryRequestStore<ResultWrapper<Location>>(directory, "location");
+      
+      long id = node1.add();
+      node1.put(id, new ResultWrapper<Location>(new GetLocationException()));
+      
+      ResultWrapper<Location> result = node2.get(id);
+      assertNotNull(result);
+      assertTrue(result.getException() instanceof GetLocationException);
+   }
+   
+   @Test
+   public void testLocalWaiterNotified() throws Exception {
+      // a long poll interval: only the local notification can wake the waiter in time
+      final SharedDirectoryRequestStore<ResultWrapper<Location>> store =
+         new SharedDirectoryRequestStore<ResultWrapper<Location>>(directory, "location", 60000L, 60000L);
+      final long id = store.add();
+      
+      new Thread() {
+         public void run() {
+            try {
+               Thread.sleep(50L);
+            }
+            catch (InterruptedException e) {
+            }
+            store.put(id, new ResultWrapper<Location>(new GetLocationException()));
+         }
+      }.start();
+      
+      long started = System.currentTimeMillis();
+      assertTrue(store.waitForCompletion(id, 5000L));
+      assertTrue(System.currentTimeMillis() - started < 1000L);
+   }
+   
+   @Test
+   public void testForeignObjectRefused() throws Exception {
+      SharedDirectoryRequestStore<Serializable> node1 =
+         new SharedDirectoryRequestStore<Serializable>(directory, "location");
+      SharedDirectoryRequestStore<Serializable> node2 =
+         new SharedDirectoryRequestStore<Serializable>(directory, "location");
+      
+      // a class outside the allowed set, whether at the top or nested inside a result
+      long id1 = node1.add();
+      node1.put(id1, new HashMap<String, String>());
+      long id2 = node1.add();
+      node1.put(id2, new ResultWrapper<Foreign>(new Foreign(), ACCESS_TOKEN));
+      
+      assertTrue(node2.waitForCompletion(id1, 10L));
+      assertNull(node2.get(id1));
+      assertTrue(node2.waitForCompletion(id2, 10L));
+      assertNull(node2.get(id2));
+   }
+   
+   @Test
+   public void testUnknownRequest() throws Exception {
+      SharedDirectoryRequestStore<ResultWrapper<Location>> store =
+         new SharedDirectoryRequestStore<ResultWrapper<Location>>(directory, "location");
+      assertTrue(store.waitForCompletion(12345L, 10L));
+      assertTrue(store.isCompleted(12345L));
+      assertNull(store.get(12345L));
+   }
+   
+   private static class Foreign
+         implements Serializable {
+      private static final long serialVersionUID = 1L;
+   }
+}
@@ -0,0 +1,69 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.client.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URLEncoder;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link com.veriplace.client.util.UrlEncoding}.
+ */
+public class TestUrlEncoding {
+
+   private static final String[] VALUES = {
+      "",
+      "abcXYZ019",
+      ".-*_",
+      "a b+c",
+      "foo=bar&baz",
+      "/path?query#fragment",
+      "caf\u00e9",
+      "\u20ac100",
+      "\ud83d\ude00",
+      "bad\ud83dsurrogate",
+      "~!@$%^()[]{}|\\;:'\",<>"
+   };
+
+   @Test
+   public void testSameAsURLEncoder() throws Exception {
+      for (String value: VALUES) {
+         String expected = URLEncoder.encode(value, "UTF-8");
+         assertEquals(value, expected, UrlEncoding.encode(value));
+
+         StringBuilder buf = new StringBuilder("x=");
+         UrlEncoding.append(buf, value);
+         assertEquals(value, "x=" + expected, buf.toString());
+      }
+   }
+
+   @Test
+   public void testSafeValueNotCopied() {
+      String value = "abc-123_XYZ.*";
+      assertTrue(UrlEncoding.isSafe(value));
+      assertSame(value, UrlEncoding.encode(value));
+   }
+
+   @Test
+   public void testUnsafeValue() {
+      assertFalse(UrlEncoding.isSafe("a b"));
+      assertEquals("a+b", UrlEncoding.encode("a b"));
+   }
+}
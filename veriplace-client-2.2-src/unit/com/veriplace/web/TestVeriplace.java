@@ -18,13 +18,21 @@ import static org.junit.Assert.*;
 
 import com.veriplace.client.GetLocationNotPermittedException;
 import com.veriplace.client.Location;
+import com.veriplace.client.MockServerOAuthStep;
 import com.veriplace.client.TestBase;
 import com.veriplace.client.User;
 import com.veriplace.client.UserDiscoveryNotPermittedException;
 import com.veriplace.client.VeriplaceOAuthException;
 import com.veriplace.oauth.consumer.Token;
+import com.veriplace.oauth.message.Request;
+import com.veriplace.oauth.message.RequestMethod;
+import com.veriplace.oauth.message.Response;
 import com.veriplace.web.views.MockViewRenderer;
 
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.mock.web.MockHttpServletRequest;
@@ -459,6 +467,74 @@ public class TestVeriplace extends TestBase {
       assertEquals(ACCESS_TOKEN.getToken(), token.getToken());
    }
 
+   @Test
+   public void testLocationRequirementWithoutBlocking() throws Exception {
+      // With a wait timeout of zero, a callback from the waiting page does not block
+      // for an unfinished request; it shows the waiting page again immediately.
+      
+      request.addParameter("foo", "bar");
+      
+      veriplace.setStatusViewRenderer(null);  // so it won't try to display its own wait page
+      veriplace.setWaitTimeout(0);
+      
+      VeriplaceState state = veriplace.open(request, response);
+      state.setUser(USER);
+      veriplace.getGetLocationTokenStore().put(USER, ACCESS_TOKEN);
+
+      final CountDownLatch releaseResponse = new CountDownLatch(1);
+      new MockServerOAuthStep(mockServer, "blocking location request") {
+         @Override
+         public Response getResponse(Request request, boolean storeHeaders)
+               throws IOException {
+            try {
+               releaseResponse.await(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+            }
+            return super.getResponse(request, storeHeaders);
+         }
+      }.setExpectedMethod(RequestMethod.POST)
+            .setExpectedRelativeUrl(LOCATION_REQUEST_URI)
+            .setExpectedToken(ACCESS_TOKEN)
+            .setResponseBody(LOCATION_DOCUMENT);
+      
+      try {
+         state.requireLocation();
+         fail("Expected WaitingException");
+      }
+      catch (WaitingException e) {
+         validateAsyncRequestCallbackParameters(e);
+      }
+
+      // refresh while the request is still outstanding
+      request = new MockHttpServletRequest();
+      addAsyncRequestCallbackParameters();
+      state = veriplace.open(request, response);
+
+      long started = System.currentTimeMillis();
+      try {
+         state.requireLocation();
+         fail("Expected WaitingException");
+      }
+      catch (WaitingException e) {
+         assertTrue(e.getCallbackUrl().contains("veriplace_request_id=" + currentAsyncRequestId));
+      }
+      assertTrue(System.currentTimeMillis() - started < 1000L);
+
+      releaseResponse.countDown();
+      assertTrue(veriplace.getGetLocationRequestManager().waitForCompletion(currentAsyncRequestId, 5000L));
+      
+      // refresh after the request has finished
+      request = new MockHttpServletRequest();
+      addAsyncRequestCallbackParameters();
+      state = veriplace.open(request, response);
+
+      state.requireLocation();
+      Location location = state.getLocation();
+      assertNotNull(location);
+      assertEquals(LOCATION_ID, location.getId());
+   }
+
    @Test
    public void testLocationRequirementRestartsIfCachedTokenFails() throws Exception {
       // If the Veriplace instance has previously cached a permission token for the same
@@ -0,0 +1,102 @@
+/* Copyright 2008-2010 WaveMarket, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.veriplace.web.servlet;
+
+import static org.junit.Assert.*;
+
+import com.veriplace.client.GetLocationException;
+import com.veriplace.client.Location;
+import com.veriplace.client.util.GetLocationRequestManager;
+import com.veriplace.client.util.MemoryRequestStore;
+import com.veriplace.client.util.ResultWrapper;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletConfig;
+import org.springframework.mock.web.MockServletContext;
+
+/**
+ * Unit tests for {@link com.veriplace.web.servlet.RequestStatusServlet}.
+ */
+public class TestRequestStatusServlet {
+
+   private static final String PROPERTIES_FILE_NAME = "etc/servlet-test.properties";
+   
+   private RequestStatusServlet servlet;
+   private MemoryRequestStore<ResultWrapper<Location>> store;
+   
+   @Before
+   public void setUp() throws Exception {
+      MockServletContext context = new MockServletContext();
+      context.addInitParameter("veriplace.properties-file", PROPERTIES_FILE_NAME);
+      MockServletConfig config = new MockServletConfig(context, "servlet");
+      config.addInitParameter("maxWait", "100");
+      servlet = new RequestStatusServlet();
+      servlet.init(config);
+
+      store = new MemoryRequestStore<ResultWrapper<Location>>();
+      GetLocationRequestManager lrm = new GetLocationRequestManager();
+      lrm.setRequestStore(store);
+      servlet.veriplace.setGetLocationRequestManager(lrm);
+   }
+
+   @Test
+   public void testPendingAndComplete() throws Exception {
+      long id = store.add();
+      
+      MockHttpServletResponse response = get(id, "0");
+      assertEquals("application/json", response.getContentType());
+      assertEquals("{\"requestId\":" + id + ",\"complete\":false}", response.getContentAsString());
+      
+      store.put(id, new ResultWrapper<Location>(new GetLocationException()));
+      
+      response = get(id, null);
+      assertEquals("{\"requestId\":" + id + ",\"complete\":true}", response.getContentAsString());
+   }
+   
+   @Test
+   public void testWaitIsLimited() throws Exception {
+      long id = store.add();
+      
+      long started = System.currentTimeMillis();
+      MockHttpServletResponse response = get(id, "60000");
+      assertTrue(System.currentTimeMillis() - started < 5000L);
+      assertEquals("{\"requestId\":" + id + ",\"complete\":false}", response.getContentAsString());
+   }
+   
+   @Test
+   public void testBadRequestId() throws Exception {
+      MockHttpServletRequest request = new MockHttpServletRequest();
+      request.setParameter("veriplace_request_id", "foo");
+      MockHttpServletResponse response = new MockHttpServletResponse();
+      servlet.doGet(request, response);
+      assertEquals(HttpServletResponse.SC_BAD_REQUEST, response.getStatus());
+   }
+   
+   private MockHttpServletResponse get(long id, String wait) throws Exception {
+      MockHttpServletRequest request = new MockHttpServletRequest();
+      request.setParameter("veriplace_request_id", String.valueOf(id));
+      if (wait != null) {
+         request.setParameter("wait", wait);
+      }
+      MockHttpServletResponse response = new MockHttpServletResponse();
+      servlet.doGet(request, response);
+      return response;
+   }
+}
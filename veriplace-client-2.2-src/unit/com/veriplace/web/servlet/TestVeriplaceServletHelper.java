@@ -24,6 +24,7 @@ import com.veriplace.web.Veriplace;
 
 import java.util.Properties;
 
+import javax.servlet.ServletContextEvent;
 import javax.servlet.http.HttpServlet;
 
 import org.junit.Before;
@@ -55,6 +56,16 @@ public class TestVeriplaceServletHelper implements TestData {
       validateInstance(veriplace);
    }
    
+   @Test
+   public void testWaitTimeoutInContextParam() throws Exception {
+      context.addInitParameter("veriplace.properties-file", PROPERTIES_FILE_NAME);
+      context.addInitParameter("veriplaceWaitTimeout", "0");
+      
+      Veriplace veriplace = VeriplaceServletHelper.getSharedVeriplaceInstance(context);
+      validateInstance(veriplace);
+      assertEquals(0L, veriplace.getWaitTimeout());
+   }
+   
    @Test
    public void testCreateFromPropertiesFilenameSpecified() throws Exception {
       Veriplace veriplace = VeriplaceServletHelper.getSharedVeriplaceInstance(context,
@@ -110,6 +121,28 @@ public class TestVeriplaceServletHelper implements TestData {
       assertSame(veriplace, veriplace2);
    }
 
+   @Test
+   public void testReleaseSharedInstance() throws Exception {
+      Properties p = new Properties();
+      p.setProperty(DefaultClientFactory.CONSUMER_KEY, CONSUMER_KEY);
+      p.setProperty(DefaultClientFactory.CONSUMER_SECRET, CONSUMER_SECRET);
+      p.setProperty(DefaultClientFactory.SERVER_URI, "http://veriplace.com");
+
+      Veriplace veriplace = VeriplaceServletHelper.getSharedVeriplaceInstance(context, p);
+      validateInstance(veriplace);
+
+      new VeriplaceContextListener().contextDestroyed(new ServletContextEvent(context));
+      try {
+         VeriplaceServletHelper.getSharedVeriplaceProperties(context);
+         fail("expected ConfigurationException");
+      }
+      catch (ConfigurationException e) {
+      }
+
+      Veriplace veriplace2 = VeriplaceServletHelper.getSharedVeriplaceInstance(context, p);
+      assertNotSame(veriplace, veriplace2);
+   }
+
    @Test
    public void testCreateForJSP() throws Exception {
       Veriplace veriplace = VeriplaceServletHelper.getSharedVeriplaceInstance(servlet,
@@ -112,6 +112,28 @@ public class TestAbstractViewRenderer {
       reset();
    }
    
+   @Test
+   public void testRenderWaitingViewWithStatusPath() throws Exception {
+      renderer.setWaitingViewName("wait");
+      renderer.setStatusPath("/status");
+      request.setContextPath("/app");
+      VeriplaceState state = createState();
+
+      // no status URL unless there is a background request
+      renderer.renderWaitingView(request, response, state, "pleasewait");
+      assertNull(request.getAttribute("veriplace_status"));
+
+      reset();
+      renderer.setWaitingViewName("wait");
+      renderer.setStatusPath("/status");
+      request.setContextPath("/app");
+      request.setParameter("veriplace_request_id", "12");
+      state = createState();
+      renderer.renderWaitingView(request, response, state, "pleasewait");
+      assertEquals("/app/status?veriplace_request_id=12", request.getAttribute("veriplace_status"));
+      reset();
+   }
+   
    @Test
    public void testRenderErrorView() throws Exception {
       renderer.setDefaultErrorViewName("error");